@@ -1,8 +1,18 @@
 package com.cdr;
 
 import com.cdr.model.SystemConfig;
+import com.cdr.processor.FileLeaderElectionBackend;
+import com.cdr.processor.FileWatcherService;
+import com.cdr.processor.HeartbeatService;
+import com.cdr.processor.JdbcLeaderElectionBackend;
+import com.cdr.processor.LeaderElectionBackend;
 import com.cdr.processor.MasterController;
+import com.cdr.processor.ShardCoordinator;
 import com.cdr.util.ConfigUtils;
+import com.cdr.util.DatabaseUtils;
+import com.cdr.util.BandwidthGovernor;
+import com.cdr.util.DelimiterScanners;
+import com.cdr.util.MetricsRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -14,6 +24,10 @@ public class CDRProcessorMain {
     
     private static final Logger log = LoggerFactory.getLogger(CDRProcessorMain.class);
     private MasterController masterController;
+    private FileWatcherService fileWatcherService;
+    private ShardCoordinator shardCoordinator;
+    private HeartbeatService heartbeatService;
+    private Thread processingThread;
     private SystemConfig systemConfig;
     private volatile boolean running = true;
     
@@ -50,22 +64,97 @@ public class CDRProcessorMain {
         systemConfig = ConfigUtils.loadSystemConfig(configFile);
         log.info("Configuration loaded successfully from: {}", configFile);
         
+        MetricsRegistry.startReporting(systemConfig.getMetricsLogInterval());
+        BandwidthGovernor.configure(systemConfig);
+        DelimiterScanners.configure(systemConfig.getScanKernel());
+        
+        if ("standby".equalsIgnoreCase(systemConfig.getHaMode())) {
+            // Processing starts once this server holds the active lease
+            heartbeatService = new HeartbeatService(systemConfig, createLeaderElectionBackend());
+            heartbeatService.setLeadershipListener(new HeartbeatService.LeadershipListener() {
+                @Override
+                public void onBecomeLeader(long fencingToken) {
+                    startActive(fencingToken);
+                }
+
+                @Override
+                public void onLoseLeadership(long fencingToken) {
+                    stopActive();
+                }
+            });
+            heartbeatService.startHeartbeat();
+            log.info("CDR Processor Application started as standby server: {}", systemConfig.getServerName());
+            return;
+        }
+        
         // Initialize master controller
         masterController = new MasterController(systemConfig);
         log.info("Master controller initialized");
         
+        if ("sharded".equalsIgnoreCase(systemConfig.getHaMode())) {
+            shardCoordinator = new ShardCoordinator(systemConfig,
+                    DatabaseUtils.createDataSource(systemConfig), masterController::getLoad);
+            masterController.setShardCoordinator(shardCoordinator);
+            shardCoordinator.start();
+            log.info("Active/active sharding enabled for server: {}", systemConfig.getServerName());
+        }
+        
         // Start processing
         startProcessing();
         
         log.info("CDR Processor Application started successfully");
     }
     
+    private LeaderElectionBackend createLeaderElectionBackend() {
+        if ("file".equalsIgnoreCase(systemConfig.getHaBackend())) {
+            return new FileLeaderElectionBackend(systemConfig.getHaLeaseFile(), systemConfig.getServerName());
+        }
+        return new JdbcLeaderElectionBackend(DatabaseUtils.createDataSource(systemConfig), systemConfig.getServerName());
+    }
+    
+    /**
+     * Take over processing after winning the active lease; output is fenced by its token
+     */
+    private synchronized void startActive(long fencingToken) {
+        if (!running) {
+            return;
+        }
+        masterController = new MasterController(systemConfig, heartbeatService.fencingGuard(fencingToken));
+        startProcessing();
+        log.info("CDR processing started as active server with fencing token {}", fencingToken);
+    }
+    
+    /**
+     * Stop processing after the active lease was lost
+     */
+    private synchronized void stopActive() {
+        stopProcessing();
+        log.info("CDR processing stopped, server is standby");
+    }
+    
     private void startProcessing() {
-        new Thread(() -> {
-            while (running) {
+        long scanInterval = systemConfig.getProcessingInterval();
+
+        if ("watch".equalsIgnoreCase(systemConfig.getIngestionMode())) {
+            try {
+                fileWatcherService = new FileWatcherService(systemConfig, masterController);
+                fileWatcherService.start();
+                // Periodic scan is kept only as a safety net for missed or overflowed events
+                scanInterval = systemConfig.getWatchRescanInterval();
+            } catch (Exception e) {
+                log.error("Failed to start file watcher, falling back to polling", e);
+                fileWatcherService.shutdown();
+                fileWatcherService = null;
+            }
+        }
+
+        final long interval = scanInterval;
+        final MasterController controller = masterController;
+        processingThread = new Thread(() -> {
+            while (running && !Thread.currentThread().isInterrupted()) {
                 try {
-                    masterController.processFiles();
-                    Thread.sleep(systemConfig.getProcessingInterval());
+                    controller.processFiles();
+                    Thread.sleep(interval);
                 } catch (InterruptedException e) {
                     Thread.currentThread().interrupt();
                     break;
@@ -73,17 +162,45 @@ public class CDRProcessorMain {
                     log.error("Error during processing", e);
                 }
             }
-        }).start();
+        });
+        processingThread.start();
+    }
+    
+    private void stopProcessing() {
+        if (processingThread != null) {
+            processingThread.interrupt();
+            processingThread = null;
+        }
+        
+        if (fileWatcherService != null) {
+            fileWatcherService.shutdown();
+            fileWatcherService = null;
+        }
+        
+        if (masterController != null) {
+            masterController.shutdown();
+            masterController = null;
+        }
     }
     
     public void shutdown() {
         log.info("Shutting down CDR Processor Application...");
         running = false;
         
-        if (masterController != null) {
-            masterController.shutdown();
+        synchronized (this) {
+            stopProcessing();
         }
         
+        if (shardCoordinator != null) {
+            shardCoordinator.shutdown();
+        }
+        
+        if (heartbeatService != null) {
+            heartbeatService.shutdown();
+        }
+        
+        MetricsRegistry.stopReporting();
+        
         log.info("CDR Processor Application shutdown completed");
     }
     
@@ -0,0 +1,131 @@
+package com.cdr.debug;
+
+import com.cdr.util.DelimiterScanner;
+import com.cdr.util.DelimiterScanners;
+import com.cdr.util.PipeTokenizer;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reports bytes/sec of every scan kernel available in this build and runtime on the voice, data and pcrf line
+ * shapes of the sample files, e.g. Documents/CDR: finding the delimiters of each line, finding the line breaks
+ * of a whole file in a direct buffer as a mapped file, and tokenizing String lines as the parsers do. Start with
+ * --add-modules jdk.incubator.vector to include the vector kernel of a vector profile build. That the kernels
+ * agree is covered by DelimiterScannerTest.
+ */
+public class DelimiterScannerBenchmark {
+
+    private static volatile long sink;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: java ...DelimiterScannerBenchmark <cdr-folder> [seconds-per-run]");
+            return;
+        }
+        File cdrFolder = new File(args[0]);
+        long runMillis = (args.length > 1 ? Long.parseLong(args[1]) : 2) * 1000;
+
+        List<DelimiterScanner> kernels = DelimiterScanners.available();
+        for (String type : new String[]{"voice", "data", "pcrf"}) {
+            File[] files = new File(cdrFolder, type).listFiles((dir, name) -> name.endsWith(".unl"));
+            if (files == null || files.length == 0) {
+                System.out.println(type + ": no .unl files in " + new File(cdrFolder, type).getAbsolutePath());
+                continue;
+            }
+            Arrays.sort(files);
+            run(type, files, kernels, runMillis);
+        }
+    }
+
+    private static void run(String type, File[] files, List<DelimiterScanner> kernels, long runMillis) throws Exception {
+        List<String> lines = new ArrayList<>();
+        long fileBytes = 0;
+        for (File file : files) {
+            lines.addAll(Files.readAllLines(file.toPath()));
+            fileBytes += file.length();
+        }
+        byte[][] raw = new byte[lines.size()][];
+        long lineBytes = 0;
+        int maxLength = 0;
+        for (int i = 0; i < raw.length; i++) {
+            raw[i] = lines.get(i).getBytes();
+            lineBytes += raw[i].length;
+            maxLength = Math.max(maxLength, raw[i].length);
+        }
+        // The whole sample as one direct buffer, as a memory-mapped file presents it
+        ByteBuffer mapped = ByteBuffer.allocateDirect((int) fileBytes).order(ByteOrder.LITTLE_ENDIAN);
+        for (File file : files) {
+            mapped.put(Files.readAllBytes(file.toPath()));
+        }
+        int mappedLength = mapped.position();
+
+        long fields = 0;
+        PipeTokenizer counter = new PipeTokenizer();
+        for (String line : lines) {
+            fields += counter.tokenize(line);
+        }
+        System.out.printf("%s: %d lines, %.0f bytes and %.0f fields per line%n", type, lines.size(),
+                (double) lineBytes / lines.size(), (double) fields / lines.size());
+
+        int[] positions = new int[maxLength];
+        for (DelimiterScanner kernel : kernels) {
+            PipeTokenizer tokenizer = new PipeTokenizer(Charset.defaultCharset(), kernel);
+            double delimiterRate = measure(lineBytes, runMillis, () -> {
+                long checksum = 0;
+                for (byte[] line : raw) {
+                    checksum += kernel.findAll(line, 0, line.length, (byte) '|', positions);
+                }
+                return checksum;
+            });
+            double lineBreakRate = measure(mappedLength, runMillis, () -> {
+                long checksum = 0;
+                int position = 0;
+                while (position < mappedLength) {
+                    position = kernel.indexOfLineBreak(mapped, position, mappedLength) + 1;
+                    checksum++;
+                }
+                return checksum;
+            });
+            double tokenizerRate = measure(lineBytes, runMillis, () -> {
+                long checksum = 0;
+                for (String line : lines) {
+                    checksum += tokenizer.tokenize(line);
+                }
+                return checksum;
+            });
+            System.out.printf("  %-8s delimiters %8.0f MB/s   line breaks %8.0f MB/s   tokenizer (String) %8.0f MB/s%n",
+                    kernel.name(), delimiterRate / 1e6, lineBreakRate / 1e6, tokenizerRate / 1e6);
+        }
+    }
+
+    /**
+     * Warm up for a third of the run, then measure
+     *
+     * @return bytes/sec
+     */
+    private static double measure(long bytesPerPass, long runMillis, Variant variant) {
+        long warmupEnd = System.currentTimeMillis() + runMillis / 3;
+        while (System.currentTimeMillis() < warmupEnd) {
+            sink += variant.run();
+        }
+        long start = System.nanoTime();
+        long passes = 0;
+        long end = start + runMillis * 1000000L;
+        while (System.nanoTime() < end) {
+            sink += variant.run();
+            passes++;
+        }
+        return passes * bytesPerPass * 1e9 / (System.nanoTime() - start);
+    }
+
+    private interface Variant {
+        long run();
+    }
+}
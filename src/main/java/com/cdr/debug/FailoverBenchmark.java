@@ -0,0 +1,162 @@
+package com.cdr.debug;
+
+import com.cdr.model.SystemConfig;
+import com.cdr.processor.FileLeaderElectionBackend;
+import com.cdr.processor.HeartbeatService;
+import com.cdr.processor.JdbcLeaderElectionBackend;
+import com.cdr.processor.LeaderElectionBackend;
+import com.cdr.processor.MasterController;
+import com.cdr.util.ConfigUtils;
+import com.cdr.util.DatabaseUtils;
+import com.cdr.util.MetricsRegistry;
+
+import javax.sql.DataSource;
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Measures standby failover: an active server is simulated by taking the lease and never renewing it
+ * (a crash right after its last heartbeat), then the time until a standby HeartbeatService takes over
+ * and until its MasterController has processed a voice file dropped in the input folder is reported.
+ * Uses the configured lease backend: with cdr.ha.backend=file no database is needed, otherwise it works
+ * against the configured database, e.g. H2 in MySQL mode
+ * (cdr.database.url=jdbc:h2:mem:cdr;MODE=MySQL;DB_CLOSE_DELAY=-1 and cdr.database.driver=org.h2.Driver;
+ * build with mvn package -Ph2, which puts the H2 driver into target/cdr-processor-1.0.0.jar).
+ */
+public class FailoverBenchmark {
+
+    private static final String COMPLETED_COUNTER = "scheduler.lane.voice.root.completed";
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("Usage: java ...FailoverBenchmark <config-file> <voice-cdr-file> [iterations]");
+            return;
+        }
+        SystemConfig config = ConfigUtils.loadSystemConfig(args[0]);
+        File sample = new File(args[1]);
+        int iterations = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        config.setServerName("failover-bench-standby");
+
+        LeaderElectionBackend crashedLeader;
+        LeaderElectionBackend standbyBackend;
+        if ("file".equalsIgnoreCase(config.getHaBackend())) {
+            crashedLeader = new FileLeaderElectionBackend(config.getHaLeaseFile(), "failover-bench-crashed");
+            standbyBackend = new FileLeaderElectionBackend(config.getHaLeaseFile(), config.getServerName());
+        } else {
+            DataSource dataSource = DatabaseUtils.createDataSource(config);
+            createSchemaIfMissing(dataSource);
+            crashedLeader = new JdbcLeaderElectionBackend(dataSource, "failover-bench-crashed");
+            standbyBackend = new JdbcLeaderElectionBackend(dataSource, config.getServerName());
+        }
+        System.out.println("Lease backend: " + standbyBackend.describe());
+
+        List<Long> detection = new ArrayList<>();
+        List<Long> firstFile = new ArrayList<>();
+        for (int i = 1; i <= iterations; i++) {
+            File input = new File(config.getVoiceInputFolder(), "failover_" + i + "_" + sample.getName());
+            input.getParentFile().mkdirs();
+            Files.copy(sample.toPath(), input.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+            long completedBefore = MetricsRegistry.counter(COMPLETED_COUNTER).get();
+            long crashedAt = simulateCrashedLeader(crashedLeader, config.getHeartbeatTimeout());
+
+            AtomicLong leaderAt = new AtomicLong();
+            AtomicReference<MasterController> controller = new AtomicReference<>();
+            HeartbeatService standby = new HeartbeatService(config, standbyBackend);
+            standby.setLeadershipListener(new HeartbeatService.LeadershipListener() {
+                @Override
+                public void onBecomeLeader(long fencingToken) {
+                    leaderAt.set(System.currentTimeMillis());
+                    MasterController masterController = new MasterController(config, standby.fencingGuard(fencingToken));
+                    controller.set(masterController);
+                    masterController.processFiles();
+                }
+
+                @Override
+                public void onLoseLeadership(long fencingToken) {
+                }
+            });
+            standby.startHeartbeat();
+
+            long deadline = crashedAt + config.getHeartbeatTimeout() + 60000;
+            while (MetricsRegistry.counter(COMPLETED_COUNTER).get() == completedBefore
+                    && System.currentTimeMillis() < deadline) {
+                Thread.sleep(1);
+            }
+            long processedAt = System.currentTimeMillis();
+
+            if (controller.get() != null) {
+                controller.get().shutdown();
+            }
+            standby.shutdown();
+            if (processedAt >= deadline) {
+                System.out.println("Iteration " + i + ": no file processed within 60 s after lease expiry");
+                continue;
+            }
+
+            long expiredAt = crashedAt + config.getHeartbeatTimeout();
+            detection.add(leaderAt.get() - expiredAt);
+            firstFile.add(processedAt - leaderAt.get());
+            System.out.printf("Iteration %d: takeover %d ms after lease expiry, first file processed %d ms later (%d ms after crash)%n",
+                    i, leaderAt.get() - expiredAt, processedAt - leaderAt.get(), processedAt - crashedAt);
+        }
+
+        System.out.println();
+        System.out.println("Lease TTL " + config.getHeartbeatTimeout() + " ms, check interval "
+                + config.getHeartbeatCheckInterval() + " ms");
+        printSummary("Lease expiry -> takeover", detection);
+        printSummary("Takeover -> first processed file", firstFile);
+        System.exit(0);
+    }
+
+    /**
+     * Lease taken by a server that stops renewing right away; waits for a lease left by an earlier run to expire
+     */
+    private static long simulateCrashedLeader(LeaderElectionBackend backend, long leaseTtl) throws Exception {
+        while (true) {
+            long now = System.currentTimeMillis();
+            if (backend.tryAcquire(now, now + leaseTtl) >= 0) {
+                return now;
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    private static void createSchemaIfMissing(DataSource dataSource) throws SQLException {
+        try (Connection conn = dataSource.getConnection(); Statement stmt = conn.createStatement()) {
+            try {
+                stmt.executeQuery("SELECT fencing_token FROM system_heartbeat WHERE id = 1").close();
+                return;
+            } catch (SQLException e) {
+                System.out.println("Creating system_heartbeat table");
+            }
+            stmt.executeUpdate("CREATE TABLE system_heartbeat (id INT PRIMARY KEY, server_name VARCHAR(50) NOT NULL, " +
+                    "last_heartbeat TIMESTAMP DEFAULT CURRENT_TIMESTAMP, status VARCHAR(10) DEFAULT 'STANDBY', " +
+                    "lease_until BIGINT NOT NULL DEFAULT 0, fencing_token BIGINT NOT NULL DEFAULT 0)");
+            stmt.executeUpdate("INSERT INTO system_heartbeat (id, server_name, status) VALUES (1, 'none', 'STANDBY')");
+        }
+    }
+
+    private static void printSummary(String label, List<Long> values) {
+        if (values.isEmpty()) {
+            return;
+        }
+        List<Long> sorted = new ArrayList<>(values);
+        Collections.sort(sorted);
+        long sum = 0;
+        for (long value : sorted) {
+            sum += value;
+        }
+        System.out.printf("%-34s min %5d ms  median %5d ms  max %5d ms  avg %7.1f ms%n", label,
+                sorted.get(0), sorted.get(sorted.size() / 2), sorted.get(sorted.size() - 1), (double) sum / sorted.size());
+    }
+}
@@ -0,0 +1,169 @@
+package com.cdr.debug;
+
+import com.cdr.util.ChannelLineReader;
+import com.cdr.util.InputLineReader;
+import com.cdr.util.PipeTokenizer;
+import com.cdr.util.PositionedLineReader;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+/**
+ * Compares the input readers on large CDR files: BufferedReader over FileReader, the FileInputStream reader
+ * (cdr.input.reader=stream), FileChannel reads (channel) and memory-mapping (mmap), each returning lines as
+ * Strings, and the mmap reader handing byte ranges straight to the tokenizer. Every variant tokenizes its lines,
+ * as the parsers do. For each CDR type the sample
+ * .unl files, e.g. Documents/CDR/voice and data, are concatenated into a temporary file of the requested size.
+ * The file is in the page cache for every run, so this measures the cost of decoding and copying, not the disk.
+ */
+public class InputReaderBenchmark {
+
+    private static final int WINDOW_SIZE = 256 * 1024 * 1024;
+
+    private static volatile long sink;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: java ...InputReaderBenchmark <cdr-folder> [file-mb] [runs-per-reader]");
+            return;
+        }
+        File cdrFolder = new File(args[0]);
+        long fileBytes = (args.length > 1 ? Long.parseLong(args[1]) : 512) * 1024 * 1024;
+        int runs = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+
+        for (String type : new String[]{"voice", "data", "pcrf"}) {
+            File[] samples = new File(cdrFolder, type).listFiles((dir, name) -> name.endsWith(".unl"));
+            if (samples == null || samples.length == 0) {
+                System.out.println(type + ": no .unl files in " + new File(cdrFolder, type).getAbsolutePath());
+                continue;
+            }
+            Arrays.sort(samples);
+            File file = File.createTempFile("cdr-" + type + "-", ".unl");
+            try {
+                build(file, samples, fileBytes);
+                run(type, file, runs);
+            } finally {
+                Files.deleteIfExists(file.toPath());
+            }
+        }
+    }
+
+    private static void run(String type, File file, int runs) throws IOException {
+        // Lines and their bytes without terminators, which every reader must return
+        long lines = 0;
+        long lineBytes = 0;
+        try (ChannelLineReader reader = new ChannelLineReader(file, 0, false, WINDOW_SIZE)) {
+            while (reader.nextLine()) {
+                lines++;
+                lineBytes += reader.lineEnd() - reader.lineStart();
+            }
+        }
+        System.out.printf("%s: %d MB, %d lines%n", type, file.length() / (1024 * 1024), lines);
+
+        measure(lineBytes, "BufferedReader(FileReader)", file, lines, runs, () -> {
+            long checksum = 0;
+            PipeTokenizer tokenizer = new PipeTokenizer();
+            try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    checksum += line.length();
+                    tokenizer.tokenize(line);
+                }
+            }
+            return checksum;
+        });
+        measure(lineBytes, "stream readLine", file, lines, runs, () -> readLines(new PositionedLineReader(file)));
+        measure(lineBytes, "channel readLine", file, lines, runs,
+                () -> readLines(InputLineReader.open(file, 0, InputLineReader.CHANNEL, WINDOW_SIZE)));
+        measure(lineBytes, "mmap readLine", file, lines, runs,
+                () -> readLines(InputLineReader.open(file, 0, InputLineReader.MMAP, WINDOW_SIZE)));
+        measure(lineBytes, "mmap bytes + tokenize", file, lines, runs, () -> {
+            long checksum = 0;
+            PipeTokenizer tokenizer = new PipeTokenizer();
+            try (ChannelLineReader reader = new ChannelLineReader(file, 0, true, WINDOW_SIZE)) {
+                while (reader.nextLine()) {
+                    checksum += reader.lineEnd() - reader.lineStart();
+                    tokenizer.tokenize(reader.buffer(), reader.lineStart(), reader.lineEnd());
+                }
+            }
+            return checksum;
+        });
+    }
+
+    private static long readLines(InputLineReader reader) throws IOException {
+        long checksum = 0;
+        PipeTokenizer tokenizer = new PipeTokenizer();
+        try (InputLineReader lines = reader) {
+            String line;
+            while ((line = lines.readLine()) != null) {
+                checksum += line.length();
+                tokenizer.tokenize(line);
+            }
+        }
+        return checksum;
+    }
+
+    /**
+     * Run a reader over the file, the first run as warm-up, and report the best of the others
+     */
+    private static void measure(long expected, String name, File file, long lines, int runs, Variant variant)
+            throws IOException {
+        sink += variant.run();
+        long best = Long.MAX_VALUE;
+        long allocated = 0;
+        for (int i = 0; i < Math.max(1, runs); i++) {
+            long allocatedBefore = allocatedBytes();
+            long start = System.nanoTime();
+            long checksum = variant.run();
+            long elapsed = System.nanoTime() - start;
+            allocated = allocatedBytes() - allocatedBefore;
+            if (checksum != expected) {
+                throw new IllegalStateException(name + " read " + checksum + " bytes of lines, expected " + expected);
+            }
+            sink += checksum;
+            best = Math.min(best, elapsed);
+        }
+        System.out.printf("  %-28s %8.0f MB/s %12.0f lines/s %10s bytes allocated/line%n", name,
+                file.length() / (1024.0 * 1024.0) * 1e9 / best, lines * 1e9 / best,
+                allocated < 0 ? "n/a" : String.format("%.1f", (double) allocated / lines));
+    }
+
+    /**
+     * Concatenate the sample files into the target until it reaches the requested size
+     */
+    private static void build(File target, File[] samples, long bytes) throws IOException {
+        byte[][] contents = new byte[samples.length][];
+        for (int i = 0; i < samples.length; i++) {
+            contents[i] = Files.readAllBytes(samples[i].toPath());
+        }
+        long written = 0;
+        try (OutputStream out = new FileOutputStream(target)) {
+            for (int i = 0; written < bytes; i = (i + 1) % contents.length) {
+                out.write(contents[i]);
+                written += contents[i].length;
+            }
+        }
+    }
+
+    /**
+     * Bytes allocated by the current thread so far, -1 when the JVM does not report it
+     */
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    private interface Variant {
+        long run() throws IOException;
+    }
+}
@@ -0,0 +1,217 @@
+package com.cdr.debug;
+
+import com.cdr.model.BaseConfig;
+import com.cdr.model.DataConfig;
+import com.cdr.model.RecordSchema;
+import com.cdr.model.SystemConfig;
+import com.cdr.model.VoiceConfig;
+import com.cdr.util.ConfigUtils;
+import com.cdr.util.FixedPoint;
+import com.cdr.util.PipeTokenizer;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compares parsing .unl records with String.split, as the processors did, against PipeTokenizer on the
+ * decoded line and on its raw bytes. Every variant reads the fields the processing rules use (positions from
+ * the configuration) and converts the numeric ones. Reports lines/sec and bytes allocated per line for the
+ * sample files of each CDR type, e.g. Documents/CDR/voice, data and pcrf.
+ */
+public class TokenizerBenchmark {
+
+    private static volatile long sink;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("Usage: java ...TokenizerBenchmark <config-file> <cdr-folder> [seconds-per-run]");
+            return;
+        }
+        SystemConfig config = ConfigUtils.loadSystemConfig(args[0]);
+        File cdrFolder = new File(args[1]);
+        long runMillis = (args.length > 2 ? Long.parseLong(args[2]) : 3) * 1000;
+
+        VoiceConfig voiceConfig = ConfigUtils.loadVoiceConfig(config);
+        List<Integer> voiceNumbers = numberPositions(voiceConfig);
+        voiceNumbers.add(voiceConfig.getSchema().getCallDuration());
+        run("voice", new File(cdrFolder, "voice"), textPositions(voiceConfig), voiceNumbers, runMillis);
+        run("data", new File(cdrFolder, "data"), textPositions(ConfigUtils.loadDataConfig(config)),
+                dataNumbers(ConfigUtils.loadDataConfig(config)), runMillis);
+        run("pcrf", new File(cdrFolder, "pcrf"), textPositions(ConfigUtils.loadPcrfConfig(config)),
+                dataNumbers(ConfigUtils.loadPcrfConfig(config)), runMillis);
+    }
+
+    private static void run(String type, File folder, List<Integer> texts, List<Integer> numbers, long runMillis)
+            throws Exception {
+        File[] files = folder.listFiles((dir, name) -> name.endsWith(".unl"));
+        if (files == null || files.length == 0) {
+            System.out.println(type + ": no .unl files in " + folder.getAbsolutePath());
+            return;
+        }
+        Arrays.sort(files);
+        List<String> lines = new ArrayList<>();
+        for (File file : files) {
+            for (String line : Files.readAllLines(file.toPath())) {
+                if (!line.trim().isEmpty()) {
+                    lines.add(line);
+                }
+            }
+        }
+        // The same lines as raw bytes, as a byte-level reader would hand them over
+        byte[][] raw = new byte[lines.size()][];
+        long bytes = 0;
+        for (int i = 0; i < raw.length; i++) {
+            raw[i] = lines.get(i).getBytes();
+            bytes += raw[i].length + 1;
+        }
+        int[] textFields = toArray(texts);
+        int[] numberFields = toArray(numbers);
+        System.out.printf("%s: %d lines, %d bytes, %d text and %d numeric fields read per line%n",
+                type, lines.size(), bytes, textFields.length, numberFields.length);
+
+        PipeTokenizer tokenizer = new PipeTokenizer();
+        Variant split = () -> {
+            long checksum = 0;
+            for (String line : lines) {
+                String[] fields = line.split("\\|");
+                String[] copy = fields.clone();
+                for (int position : textFields) {
+                    checksum += copy[position].length();
+                }
+                for (int position : numberFields) {
+                    checksum += (long) Double.parseDouble(copy[position]);
+                }
+            }
+            return checksum;
+        };
+        Variant tokenizedText = () -> {
+            long checksum = 0;
+            for (String line : lines) {
+                tokenizer.tokenize(line);
+                for (int position : textFields) {
+                    checksum += tokenizer.field(position).length();
+                }
+                for (int position : numberFields) {
+                    checksum += FixedPoint.units(tokenizer.parseFixed(position, 0));
+                }
+            }
+            return checksum;
+        };
+        Variant tokenizedBytes = () -> {
+            long checksum = 0;
+            for (byte[] line : raw) {
+                tokenizer.tokenize(line, 0, line.length);
+                for (int position : textFields) {
+                    checksum += tokenizer.field(position).length();
+                }
+                for (int position : numberFields) {
+                    checksum += FixedPoint.units(tokenizer.parseFixed(position, 0));
+                }
+            }
+            return checksum;
+        };
+        // Tokenizing only, as when a record is skipped without decoding its fields
+        Variant tokenizeOnly = () -> {
+            long checksum = 0;
+            for (byte[] line : raw) {
+                checksum += tokenizer.tokenize(line, 0, line.length);
+            }
+            return checksum;
+        };
+
+        long expected = split.run();
+        if (tokenizedText.run() != expected || tokenizedBytes.run() != expected) {
+            throw new IllegalStateException(type + ": tokenizer and split read different values");
+        }
+        measure("split + clone", split, lines.size(), runMillis);
+        measure("tokenizer (String)", tokenizedText, lines.size(), runMillis);
+        measure("tokenizer (bytes)", tokenizedBytes, lines.size(), runMillis);
+        measure("tokenize only (bytes)", tokenizeOnly, lines.size(), runMillis);
+    }
+
+    private static void measure(String name, Variant variant, int lines, long runMillis) {
+        // Warm up for a third of the run, then measure
+        long warmupEnd = System.currentTimeMillis() + runMillis / 3;
+        while (System.currentTimeMillis() < warmupEnd) {
+            sink += variant.run();
+        }
+        long allocatedBefore = allocatedBytes();
+        long start = System.nanoTime();
+        long passes = 0;
+        long end = start + runMillis * 1000000L;
+        while (System.nanoTime() < end) {
+            sink += variant.run();
+            passes++;
+        }
+        long elapsed = System.nanoTime() - start;
+        long allocated = allocatedBytes() - allocatedBefore;
+        double linesPerSecond = passes * lines * 1e9 / elapsed;
+        System.out.printf("  %-22s %12.0f lines/s %10s bytes allocated/line%n", name, linesPerSecond,
+                allocated < 0 ? "n/a" : String.format("%.1f", (double) allocated / (passes * lines)));
+    }
+
+    /**
+     * Bytes allocated by the current thread so far, -1 when the JVM does not report it
+     */
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    private static List<Integer> textPositions(BaseConfig config) {
+        RecordSchema schema = config.getSchema();
+        List<Integer> positions = new ArrayList<>();
+        positions.add(schema.getStartTime());
+        positions.add(schema.getCallingNumber());
+        for (int slot = 1; slot <= RecordSchema.ACCOUNT_SLOTS; slot++) {
+            addPosition(positions, schema.getAccountType(slot));
+            addPosition(positions, schema.getFeeType(slot));
+        }
+        return positions;
+    }
+
+    private static List<Integer> numberPositions(BaseConfig config) {
+        RecordSchema schema = config.getSchema();
+        List<Integer> positions = new ArrayList<>();
+        for (int slot = 1; slot <= RecordSchema.ACCOUNT_SLOTS; slot++) {
+            addPosition(positions, schema.getChargeAmount(slot));
+            addPosition(positions, schema.getCurrentAcctAmount(slot));
+        }
+        return positions;
+    }
+
+    private static List<Integer> dataNumbers(DataConfig config) {
+        RecordSchema schema = config.getSchema();
+        List<Integer> positions = numberPositions(config);
+        positions.add(schema.getTotalFlux());
+        positions.add(schema.getUpFlux());
+        positions.add(schema.getDownFlux());
+        positions.add(schema.getTotalChargeFlux());
+        return positions;
+    }
+
+    private static void addPosition(List<Integer> positions, int position) {
+        if (position != RecordSchema.NONE) {
+            positions.add(position);
+        }
+    }
+
+    private static int[] toArray(List<Integer> positions) {
+        int[] array = new int[positions.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = positions.get(i);
+        }
+        return array;
+    }
+
+    private interface Variant {
+        long run();
+    }
+}
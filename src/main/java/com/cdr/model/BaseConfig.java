@@ -18,6 +18,12 @@ public abstract class BaseConfig {
     protected Map<String, Integer> chargeAmountPositions = new HashMap<>();
     protected Map<String, Integer> currentAcctAmountPositions = new HashMap<>();
     
+    // Checksum of the properties this configuration was loaded from
+    protected String configVersion = "";
+    
+    // Positions above compiled for processing
+    protected RecordSchema schema;
+    
     public BaseConfig() {
         // Default constructor
     }
@@ -71,4 +77,23 @@ public abstract class BaseConfig {
     public void setCurrentAcctAmountPositions(Map<String, Integer> currentAcctAmountPositions) {
         this.currentAcctAmountPositions = currentAcctAmountPositions;
     }
+    
+    public String getConfigVersion() {
+        return configVersion;
+    }
+    
+    public void setConfigVersion(String configVersion) {
+        this.configVersion = configVersion;
+    }
+    
+    /**
+     * Field positions for the parser, rules and formatter, compiled when the configuration was loaded
+     */
+    public RecordSchema getSchema() {
+        return schema;
+    }
+    
+    public void setSchema(RecordSchema schema) {
+        this.schema = schema;
+    }
 }
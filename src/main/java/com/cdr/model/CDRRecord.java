@@ -5,10 +5,18 @@ package com.cdr.model;
  */
 public abstract class CDRRecord {
 
+    // Marks a field changed to a number, compared by identity
+    private static final String NUMBER = new String("number");
+
     // Common basic fields
     protected String callingNumber;
     protected String startTime;
-    protected String[] originalFields;
+    // Input line the record was parsed from, with the fields changed by processing
+    protected String originalLine;
+    protected int fieldCount;
+    protected String[] modifiedFields;
+    // Values of the fields changed to a number, marked by NUMBER in modifiedFields
+    protected long[] modifiedNumbers;
 
     protected String accountType1;
     protected String accountType2;
@@ -32,27 +40,28 @@ public abstract class CDRRecord {
     protected String feeType9;
     protected String feeType10;
 
-    protected double chargeAmount1;
-    protected double chargeAmount2;
-    protected double chargeAmount3;
-    protected double chargeAmount4;
-    protected double chargeAmount5;
-    protected double chargeAmount6;
-    protected double chargeAmount7;
-    protected double chargeAmount8;
-    protected double chargeAmount9;
-    protected double chargeAmount10;
-
-    protected double currentAcctAmount1;
-    protected double currentAcctAmount2;
-    protected double currentAcctAmount3;
-    protected double currentAcctAmount4;
-    protected double currentAcctAmount5;
-    protected double currentAcctAmount6;
-    protected double currentAcctAmount7;
-    protected double currentAcctAmount8;
-    protected double currentAcctAmount9;
-    protected double currentAcctAmount10;
+    // Amounts as FixedPoint values
+    protected long chargeAmount1;
+    protected long chargeAmount2;
+    protected long chargeAmount3;
+    protected long chargeAmount4;
+    protected long chargeAmount5;
+    protected long chargeAmount6;
+    protected long chargeAmount7;
+    protected long chargeAmount8;
+    protected long chargeAmount9;
+    protected long chargeAmount10;
+
+    protected long currentAcctAmount1;
+    protected long currentAcctAmount2;
+    protected long currentAcctAmount3;
+    protected long currentAcctAmount4;
+    protected long currentAcctAmount5;
+    protected long currentAcctAmount6;
+    protected long currentAcctAmount7;
+    protected long currentAcctAmount8;
+    protected long currentAcctAmount9;
+    protected long currentAcctAmount10;
 
     public CDRRecord() {
     }
@@ -74,18 +83,89 @@ public abstract class CDRRecord {
         this.startTime = startTime;
     }
 
-    public String[] getOriginalFields() {
-        return originalFields;
+    /**
+     * Keep the input line, written back by formatOriginalFields with the fields changed by setOriginalField
+     *
+     * @param fieldCount number of pipe-delimited fields, counted as String.split does
+     */
+    public void setOriginalLine(String originalLine, int fieldCount) {
+        this.originalLine = originalLine;
+        this.fieldCount = fieldCount;
+        this.modifiedFields = null;
+        this.modifiedNumbers = null;
     }
 
-    public void setOriginalFields(String[] originalFields) {
-        this.originalFields = originalFields;
+    public int getFieldCount() {
+        return fieldCount;
     }
 
     public void setOriginalField(int index, String value) {
-        if (originalFields != null && index >= 0 && index < originalFields.length) {
-            originalFields[index] = value;
+        if (originalLine != null && index >= 0 && index < fieldCount) {
+            if (modifiedFields == null) {
+                modifiedFields = new String[fieldCount];
+            }
+            modifiedFields[index] = value;
+        }
+    }
+
+    /**
+     * Change a field to a whole number, written out without creating a String for it
+     */
+    public void setOriginalField(int index, long value) {
+        if (originalLine != null && index >= 0 && index < fieldCount) {
+            if (modifiedFields == null) {
+                modifiedFields = new String[fieldCount];
+            }
+            if (modifiedNumbers == null) {
+                modifiedNumbers = new long[fieldCount];
+            }
+            modifiedFields[index] = NUMBER;
+            modifiedNumbers[index] = value;
+        }
+    }
+
+    /**
+     * The input fields joined by pipes, with the changed ones replaced
+     */
+    public String formatOriginalFields() {
+        int joinedLength = joinedLength(originalLine);
+        if (modifiedFields == null) {
+            return joinedLength == originalLine.length() ? originalLine : originalLine.substring(0, joinedLength);
+        }
+        StringBuilder line = new StringBuilder(joinedLength + 32);
+        int start = 0;
+        for (int field = 0; field < fieldCount; field++) {
+            int end = originalLine.indexOf('|', start);
+            if (end < 0) {
+                end = originalLine.length();
+            }
+            if (field > 0) {
+                line.append('|');
+            }
+            if (modifiedFields[field] == NUMBER) {
+                line.append(modifiedNumbers[field]);
+            } else if (modifiedFields[field] != null) {
+                line.append(modifiedFields[field]);
+            } else {
+                line.append(originalLine, start, end);
+            }
+            start = end + 1;
+        }
+        return line.toString();
+    }
+
+    /**
+     * Length of a line without the trailing empty fields String.split drops
+     */
+    private static int joinedLength(String line) {
+        int end = line.length();
+        if (line.indexOf('|') < 0) {
+            return end;
+        }
+        while (end > 0 && line.charAt(end - 1) == '|') {
+            end--;
         }
+        return end;
     }
 
     public String getAccountType(int index) {
@@ -233,7 +313,7 @@ public abstract class CDRRecord {
     }
 
     // Charge Amount methods
-    public double getChargeAmount(int index) {
+    public long getChargeAmount(int index) {
         switch (index) {
             case 1: return chargeAmount1;
             case 2: return chargeAmount2;
@@ -245,11 +325,11 @@ public abstract class CDRRecord {
             case 8: return chargeAmount8;
             case 9: return chargeAmount9;
             case 10: return chargeAmount10;
-            default: return 0.0;
+            default: return 0;
         }
     }
 
-    public void setChargeAmount(int index, double value) {
+    public void setChargeAmount(int index, long value) {
         switch (index) {
             case 1: this.chargeAmount1 = value; break;
             case 2: this.chargeAmount2 = value; break;
@@ -265,7 +345,7 @@ public abstract class CDRRecord {
     }
 
     // Current Account Amount methods
-    public double getCurrentAcctAmount(int index) {
+    public long getCurrentAcctAmount(int index) {
         switch (index) {
             case 1: return currentAcctAmount1;
             case 2: return currentAcctAmount2;
@@ -277,11 +357,11 @@ public abstract class CDRRecord {
             case 8: return currentAcctAmount8;
             case 9: return currentAcctAmount9;
             case 10: return currentAcctAmount10;
-            default: return 0.0;
+            default: return 0;
         }
     }
 
-    public void setCurrentAcctAmount(int index, double value) {
+    public void setCurrentAcctAmount(int index, long value) {
         switch (index) {
             case 1: this.currentAcctAmount1 = value; break;
             case 2: this.currentAcctAmount2 = value; break;
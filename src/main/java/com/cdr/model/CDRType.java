@@ -0,0 +1,74 @@
+package com.cdr.model;
+
+/**
+ * CDR stream types handled by the processing system
+ */
+public enum CDRType {
+    VOICE("voice"),
+    DATA("data"),
+    PCRF("pcrf");
+
+    private final String name;
+
+    CDRType(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public static CDRType fromName(String name) {
+        for (CDRType type : values()) {
+            if (type.name.equalsIgnoreCase(name)) {
+                return type;
+            }
+        }
+        throw new IllegalArgumentException("Invalid CDR type: " + name);
+    }
+
+    public String getInputFolder(SystemConfig config) {
+        switch (this) {
+            case VOICE: return config.getVoiceInputFolder();
+            case DATA: return config.getDataInputFolder();
+            case PCRF: return config.getPcrfInputFolder();
+            default: throw new IllegalStateException("Unknown CDR type: " + this);
+        }
+    }
+
+    public String getOutputFolder(SystemConfig config) {
+        switch (this) {
+            case VOICE: return config.getVoiceOutputFolder();
+            case DATA: return config.getDataOutputFolder();
+            case PCRF: return config.getPcrfOutputFolder();
+            default: throw new IllegalStateException("Unknown CDR type: " + this);
+        }
+    }
+
+    public String getBackupFolder(SystemConfig config) {
+        switch (this) {
+            case VOICE: return config.getVoiceBackupFolder();
+            case DATA: return config.getDataBackupFolder();
+            case PCRF: return config.getPcrfBackupFolder();
+            default: throw new IllegalStateException("Unknown CDR type: " + this);
+        }
+    }
+
+    public String getErrorFolder(SystemConfig config) {
+        switch (this) {
+            case VOICE: return config.getVoiceErrorFolder();
+            case DATA: return config.getDataErrorFolder();
+            case PCRF: return config.getPcrfErrorFolder();
+            default: throw new IllegalStateException("Unknown CDR type: " + this);
+        }
+    }
+
+    public int getSlaves(SystemConfig config) {
+        switch (this) {
+            case VOICE: return config.getVoiceSlaves();
+            case DATA: return config.getDataSlaves();
+            case PCRF: return config.getPcrfSlaves();
+            default: throw new IllegalStateException("Unknown CDR type: " + this);
+        }
+    }
+}
@@ -5,10 +5,11 @@ package com.cdr.model;
  */
 public class DataCDR extends CDRRecord {
     
-    private double totalFlux;
-    private double upFlux;
-    private double downFlux;
-    private double totalChargeFlux;
+    // Fluxes as FixedPoint values
+    private long totalFlux;
+    private long upFlux;
+    private long downFlux;
+    private long totalChargeFlux;
     
     // callingNumber, startTime, originalFields are inherited from CDRRecord
     
@@ -17,35 +18,35 @@ public class DataCDR extends CDRRecord {
     }
 
 
-    public double getTotalFlux() {
+    public long getTotalFlux() {
         return totalFlux;
     }
     
-    public void setTotalFlux(double totalFlux) {
+    public void setTotalFlux(long totalFlux) {
         this.totalFlux = totalFlux;
     }
     
-    public double getUpFlux() {
+    public long getUpFlux() {
         return upFlux;
     }
     
-    public void setUpFlux(double upFlux) {
+    public void setUpFlux(long upFlux) {
         this.upFlux = upFlux;
     }
     
-    public double getDownFlux() {
+    public long getDownFlux() {
         return downFlux;
     }
     
-    public void setDownFlux(double downFlux) {
+    public void setDownFlux(long downFlux) {
         this.downFlux = downFlux;
     }
     
-    public double getTotalChargeFlux() {
+    public long getTotalChargeFlux() {
         return totalChargeFlux;
     }
     
-    public void setTotalChargeFlux(double totalChargeFlux) {
+    public void setTotalChargeFlux(long totalChargeFlux) {
         this.totalChargeFlux = totalChargeFlux;
     }
     
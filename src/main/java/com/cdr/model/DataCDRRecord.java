@@ -9,24 +9,25 @@ public class DataCDRRecord {
     
     private String callingNumber;
     private String startTime;
-    private double oldTotalFlux;
-    private double newTotalFlux;
-    private double fluxReduction;
-    private double oldUpFlux;
-    private double newUpFlux;
-    private double oldDownFlux;
-    private double newDownFlux;
-    private double oldTotalChargeFlux;
-    private double newTotalChargeFlux;
+    // Fluxes and amounts as FixedPoint values
+    private long oldTotalFlux;
+    private long newTotalFlux;
+    private long fluxReduction;
+    private long oldUpFlux;
+    private long newUpFlux;
+    private long oldDownFlux;
+    private long newDownFlux;
+    private long oldTotalChargeFlux;
+    private long newTotalChargeFlux;
     private Date processedAt;
 
     // Account details for all 10 accounts
     private String[] accountTypes = new String[11]; // Index 1-10
     private String[] feeTypes = new String[11]; // Index 1-10
-    private double[] oldChargeAmounts = new double[11]; // Index 1-10
-    private double[] newChargeAmounts = new double[11]; // Index 1-10
-    private double[] oldCurrentAcctAmounts = new double[11]; // Index 1-10
-    private double[] newCurrentAcctAmounts = new double[11]; // Index 1-10
+    private long[] oldChargeAmounts = new long[11]; // Index 1-10
+    private long[] newChargeAmounts = new long[11]; // Index 1-10
+    private long[] oldCurrentAcctAmounts = new long[11]; // Index 1-10
+    private long[] newCurrentAcctAmounts = new long[11]; // Index 1-10
     
     public DataCDRRecord() {
         this.processedAt = new Date();
@@ -48,75 +49,75 @@ public class DataCDRRecord {
         this.startTime = startTime;
     }
     
-    public double getOldTotalFlux() {
+    public long getOldTotalFlux() {
         return oldTotalFlux;
     }
     
-    public void setOldTotalFlux(double oldTotalFlux) {
+    public void setOldTotalFlux(long oldTotalFlux) {
         this.oldTotalFlux = oldTotalFlux;
     }
     
-    public double getNewTotalFlux() {
+    public long getNewTotalFlux() {
         return newTotalFlux;
     }
     
-    public void setNewTotalFlux(double newTotalFlux) {
+    public void setNewTotalFlux(long newTotalFlux) {
         this.newTotalFlux = newTotalFlux;
     }
     
-    public double getFluxReduction() {
+    public long getFluxReduction() {
         return fluxReduction;
     }
     
-    public void setFluxReduction(double fluxReduction) {
+    public void setFluxReduction(long fluxReduction) {
         this.fluxReduction = fluxReduction;
     }
     
-    public double getOldUpFlux() {
+    public long getOldUpFlux() {
         return oldUpFlux;
     }
     
-    public void setOldUpFlux(double oldUpFlux) {
+    public void setOldUpFlux(long oldUpFlux) {
         this.oldUpFlux = oldUpFlux;
     }
     
-    public double getNewUpFlux() {
+    public long getNewUpFlux() {
         return newUpFlux;
     }
     
-    public void setNewUpFlux(double newUpFlux) {
+    public void setNewUpFlux(long newUpFlux) {
         this.newUpFlux = newUpFlux;
     }
     
-    public double getOldDownFlux() {
+    public long getOldDownFlux() {
         return oldDownFlux;
     }
     
-    public void setOldDownFlux(double oldDownFlux) {
+    public void setOldDownFlux(long oldDownFlux) {
         this.oldDownFlux = oldDownFlux;
     }
     
-    public double getNewDownFlux() {
+    public long getNewDownFlux() {
         return newDownFlux;
     }
     
-    public void setNewDownFlux(double newDownFlux) {
+    public void setNewDownFlux(long newDownFlux) {
         this.newDownFlux = newDownFlux;
     }
     
-    public double getOldTotalChargeFlux() {
+    public long getOldTotalChargeFlux() {
         return oldTotalChargeFlux;
     }
     
-    public void setOldTotalChargeFlux(double oldTotalChargeFlux) {
+    public void setOldTotalChargeFlux(long oldTotalChargeFlux) {
         this.oldTotalChargeFlux = oldTotalChargeFlux;
     }
     
-    public double getNewTotalChargeFlux() {
+    public long getNewTotalChargeFlux() {
         return newTotalChargeFlux;
     }
     
-    public void setNewTotalChargeFlux(double newTotalChargeFlux) {
+    public void setNewTotalChargeFlux(long newTotalChargeFlux) {
         this.newTotalChargeFlux = newTotalChargeFlux;
     }
     
@@ -157,56 +158,56 @@ public class DataCDRRecord {
     }
     
     // Old charge amount methods
-    public double getOldChargeAmount(int index) {
+    public long getOldChargeAmount(int index) {
         if (index >= 1 && index <= 10) {
             return oldChargeAmounts[index];
         }
-        return 0.0;
+        return 0;
     }
     
-    public void setOldChargeAmount(int index, double amount) {
+    public void setOldChargeAmount(int index, long amount) {
         if (index >= 1 && index <= 10) {
             oldChargeAmounts[index] = amount;
         }
     }
     
     // New charge amount methods
-    public double getNewChargeAmount(int index) {
+    public long getNewChargeAmount(int index) {
         if (index >= 1 && index <= 10) {
             return newChargeAmounts[index];
         }
-        return 0.0;
+        return 0;
     }
     
-    public void setNewChargeAmount(int index, double amount) {
+    public void setNewChargeAmount(int index, long amount) {
         if (index >= 1 && index <= 10) {
             newChargeAmounts[index] = amount;
         }
     }
     
     // Old current account amount methods
-    public double getOldCurrentAcctAmount(int index) {
+    public long getOldCurrentAcctAmount(int index) {
         if (index >= 1 && index <= 10) {
             return oldCurrentAcctAmounts[index];
         }
-        return 0.0;
+        return 0;
     }
     
-    public void setOldCurrentAcctAmount(int index, double amount) {
+    public void setOldCurrentAcctAmount(int index, long amount) {
         if (index >= 1 && index <= 10) {
             oldCurrentAcctAmounts[index] = amount;
         }
     }
     
     // New current account amount methods
-    public double getNewCurrentAcctAmount(int index) {
+    public long getNewCurrentAcctAmount(int index) {
         if (index >= 1 && index <= 10) {
             return newCurrentAcctAmounts[index];
         }
-        return 0.0;
+        return 0;
     }
     
-    public void setNewCurrentAcctAmount(int index, double amount) {
+    public void setNewCurrentAcctAmount(int index, long amount) {
         if (index >= 1 && index <= 10) {
             newCurrentAcctAmounts[index] = amount;
         }
@@ -0,0 +1,94 @@
+package com.cdr.model;
+
+/**
+ * Field positions of a CDR type, compiled once from its configuration by ConfigUtils and shared by the
+ * parser, the processing rules and the formatter, so no position is looked up by name per record.
+ * Account positions are indexed by account slot (1 to ACCOUNT_SLOTS); NONE marks a position the type does
+ * not have or that is not configured.
+ */
+public final class RecordSchema {
+
+    public static final int ACCOUNT_SLOTS = 10;
+    public static final int NONE = -1;
+
+    private final int startTime;
+    private final int callingNumber;
+    private final int calledNumber;
+    private final int callDuration;
+    private final int totalFlux;
+    private final int upFlux;
+    private final int downFlux;
+    private final int totalChargeFlux;
+    private final int[] accountType;
+    private final int[] feeType;
+    private final int[] chargeAmount;
+    private final int[] currentAcctAmount;
+
+    /**
+     * @param accountType position per account slot, index 0 unused; the same for the other account arrays
+     */
+    public RecordSchema(int startTime, int callingNumber, int calledNumber, int callDuration,
+                        int totalFlux, int upFlux, int downFlux, int totalChargeFlux,
+                        int[] accountType, int[] feeType, int[] chargeAmount, int[] currentAcctAmount) {
+        this.startTime = startTime;
+        this.callingNumber = callingNumber;
+        this.calledNumber = calledNumber;
+        this.callDuration = callDuration;
+        this.totalFlux = totalFlux;
+        this.upFlux = upFlux;
+        this.downFlux = downFlux;
+        this.totalChargeFlux = totalChargeFlux;
+        this.accountType = accountType.clone();
+        this.feeType = feeType.clone();
+        this.chargeAmount = chargeAmount.clone();
+        this.currentAcctAmount = currentAcctAmount.clone();
+    }
+
+    public int getStartTime() {
+        return startTime;
+    }
+
+    public int getCallingNumber() {
+        return callingNumber;
+    }
+
+    public int getCalledNumber() {
+        return calledNumber;
+    }
+
+    public int getCallDuration() {
+        return callDuration;
+    }
+
+    public int getTotalFlux() {
+        return totalFlux;
+    }
+
+    public int getUpFlux() {
+        return upFlux;
+    }
+
+    public int getDownFlux() {
+        return downFlux;
+    }
+
+    public int getTotalChargeFlux() {
+        return totalChargeFlux;
+    }
+
+    public int getAccountType(int slot) {
+        return accountType[slot];
+    }
+
+    public int getFeeType(int slot) {
+        return feeType[slot];
+    }
+
+    public int getChargeAmount(int slot) {
+        return chargeAmount[slot];
+    }
+
+    public int getCurrentAcctAmount(int slot) {
+        return currentAcctAmount[slot];
+    }
+}
@@ -1,5 +1,7 @@
 package com.cdr.model;
 
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Properties;
 
 /**
@@ -37,10 +39,124 @@ public class SystemConfig {
     private long processingInterval;
     private String reportFolder;
     
+    // Ingestion configurations
+    private String ingestionMode;
+    private long watchSettleTime;
+    private long watchRescanInterval;
+    private int scanFullInterval;
+    private long scanTimestampGranularity;
+    
+    // Admission queue configurations
+    private int admissionQueueCapacity;
+    private long admissionWaitTimeout;
+    private long metricsLogInterval;
+    
+    // Disk space admission configurations
+    private boolean diskAdmissionEnabled;
+    private long diskLowWater;
+    private long diskHighWater;
+    private double diskFootprintFactor;
+    private long diskCheckInterval;
+    
+    // Bandwidth configurations
+    private long bandwidthReadRate;
+    private long bandwidthWriteRate;
+    private long bandwidthBackupRate;
+    private String bandwidthSchedule;
+    
+    // Degraded mode configurations
+    private boolean degradedEnabled;
+    private long degradedEnterFiles;
+    private long degradedEnterAge;
+    private long degradedExitFiles;
+    private long degradedExitAge;
+    private int degradedBatchMultiplier;
+    private boolean degradedBackupCompress;
+    private String degradedLogFile;
+    
+    // Processed file ledger configurations
+    private boolean ledgerEnabled;
+    private String ledgerFile;
+    private boolean ledgerHashEnabled;
+    private boolean ledgerSyncEnabled;
+    private long ledgerRetention;
+    
+    // Mid-file checkpoint configurations
+    private boolean checkpointEnabled;
+    private boolean checkpointSyncEnabled;
+    
+    // Commit journal configurations
+    private boolean journalEnabled;
+    private String journalFile;
+    private boolean journalSyncEnabled;
+    private boolean commitDoneMarker;
+    
+    // Ordered commit configurations
+    private boolean commitOrderEnabled;
+    private String commitOrderPattern;
+    private boolean commitOrderContiguous;
+    private long commitOrderGapTimeout;
+    
+    // Retry configurations
+    private int retryMaxAttempts;
+    private long retryInitialDelay;
+    private long retryMaxDelay;
+    private double retryJitter;
+    private long retryTick;
+    
+    // Watchdog configurations
+    private boolean watchdogEnabled;
+    private long watchdogInterval;
+    private double watchdogMultiplier;
+    private long watchdogMinTime;
+    private long watchdogDefaultRate;
+    private boolean watchdogInterrupt;
+    
+    // Intra-file parallel processing configurations
+    private long parallelFileThreshold;
+    private long parallelChunkSize;
+    private int parallelWorkers;
+    
+    // Pipelined processing configurations
+    private boolean pipelineEnabled;
+    private int pipelineRingSize;
+    
+    // Input reader configurations
+    private String inputReader;
+    private int inputWindowSize;
+    private String scanKernel;
+    
+    // Scheduler configurations
+    private int schedulerParallelism;
+    private int voiceWeight;
+    private int dataWeight;
+    private int pcrfWeight;
+    private Map<String, Integer> schedulerSubfolderWeights;
+    private String executionMode;
+    private int virtualMaxOpenFiles;
+    
+    // Adaptive concurrency configurations
+    private boolean adaptiveEnabled;
+    private long adaptiveInterval;
+    private int adaptiveMinWorkers;
+    private int adaptiveMaxWorkers;
+    private double adaptiveDecreaseFactor;
+    private double adaptiveTolerance;
+    private double adaptiveIoWaitThreshold;
+    
     // High availability configurations
     private String serverName;
     private long heartbeatInterval;
     private long heartbeatTimeout;
+    private long heartbeatCheckInterval;
+    private String haMode;
+    private String haBackend;
+    private String haLeaseFile;
+    private int shardCount;
+    private long shardLeaseTtl;
+    private long shardRenewInterval;
+    private int shardVirtualNodes;
+    private double shardHighLoad;
     
     // Database configurations
     private String databaseUrl;
@@ -62,8 +178,79 @@ public class SystemConfig {
         this.dataSlaves = 2;
         this.batchSize = 1000;
         this.processingInterval = 60000;
-        this.heartbeatInterval = 30000;
-        this.heartbeatTimeout = 300000;
+        this.ingestionMode = "poll";
+        this.watchSettleTime = 2000;
+        this.watchRescanInterval = 300000;
+        this.scanFullInterval = 10;
+        this.scanTimestampGranularity = 2000;
+        this.admissionQueueCapacity = 100;
+        this.admissionWaitTimeout = 30000;
+        this.metricsLogInterval = 60000;
+        this.diskAdmissionEnabled = true;
+        this.diskLowWater = 1073741824L;
+        this.diskHighWater = 2147483648L;
+        this.diskFootprintFactor = 1.0;
+        this.diskCheckInterval = 1000;
+        this.bandwidthSchedule = "";
+        this.degradedEnabled = false;
+        this.degradedEnterFiles = 1000;
+        this.degradedEnterAge = 7200000;
+        this.degradedExitFiles = 100;
+        this.degradedExitAge = 1800000;
+        this.degradedBatchMultiplier = 4;
+        this.degradedBackupCompress = true;
+        this.degradedLogFile = "data/ledger/degraded-files.log";
+        this.ledgerEnabled = true;
+        this.ledgerFile = "data/ledger/processed-files.ledger";
+        this.ledgerSyncEnabled = true;
+        this.ledgerRetention = 604800000;
+        this.checkpointEnabled = true;
+        this.journalEnabled = true;
+        this.journalFile = "data/ledger/commit.journal";
+        this.journalSyncEnabled = true;
+        this.commitOrderEnabled = true;
+        this.commitOrderPattern = "(.*?)(\\d+)\\.[^.]+";
+        this.commitOrderGapTimeout = 300000;
+        this.retryMaxAttempts = 5;
+        this.retryInitialDelay = 1000;
+        this.retryMaxDelay = 60000;
+        this.retryJitter = 0.5;
+        this.retryTick = 100;
+        this.watchdogEnabled = true;
+        this.watchdogInterval = 5000;
+        this.watchdogMultiplier = 5.0;
+        this.watchdogMinTime = 60000;
+        this.watchdogDefaultRate = 1048576;
+        this.parallelFileThreshold = 67108864;
+        this.parallelChunkSize = 8388608;
+        this.parallelWorkers = Runtime.getRuntime().availableProcessors();
+        this.pipelineRingSize = 4;
+        this.inputReader = "mmap";
+        this.inputWindowSize = 268435456;
+        this.scanKernel = "auto";
+        this.voiceWeight = 1;
+        this.dataWeight = 1;
+        this.pcrfWeight = 1;
+        this.schedulerSubfolderWeights = new HashMap<>();
+        this.executionMode = "platform";
+        this.virtualMaxOpenFiles = 1000;
+        this.adaptiveInterval = 10000;
+        this.adaptiveMinWorkers = 1;
+        this.adaptiveMaxWorkers = 8;
+        this.adaptiveDecreaseFactor = 0.75;
+        this.adaptiveTolerance = 0.1;
+        this.adaptiveIoWaitThreshold = 0.3;
+        this.heartbeatInterval = 500;
+        this.heartbeatTimeout = 2000;
+        this.heartbeatCheckInterval = 200;
+        this.haMode = "none";
+        this.haBackend = "jdbc";
+        this.haLeaseFile = "../data/ha/leader.lease";
+        this.shardCount = 64;
+        this.shardLeaseTtl = 30000;
+        this.shardRenewInterval = 10000;
+        this.shardVirtualNodes = 32;
+        this.shardHighLoad = 0.8;
         this.databasePoolSize = 10;
         this.databasePoolMax = 20;
         this.loggingLevel = "INFO";
@@ -143,6 +330,667 @@ public class SystemConfig {
         this.processingInterval = processingInterval;
     }
     
+    public String getIngestionMode() {
+        return ingestionMode;
+    }
+    
+    public void setIngestionMode(String ingestionMode) {
+        this.ingestionMode = ingestionMode;
+    }
+    
+    public long getWatchSettleTime() {
+        return watchSettleTime;
+    }
+    
+    public void setWatchSettleTime(long watchSettleTime) {
+        this.watchSettleTime = watchSettleTime;
+    }
+    
+    public long getWatchRescanInterval() {
+        return watchRescanInterval;
+    }
+    
+    public void setWatchRescanInterval(long watchRescanInterval) {
+        this.watchRescanInterval = watchRescanInterval;
+    }
+    
+    /**
+     * Every how many scans all input directories are listed again, ignoring cached listings (1 disables caching)
+     */
+    public int getScanFullInterval() {
+        return scanFullInterval;
+    }
+    
+    public void setScanFullInterval(int scanFullInterval) {
+        this.scanFullInterval = scanFullInterval;
+    }
+    
+    public long getScanTimestampGranularity() {
+        return scanTimestampGranularity;
+    }
+    
+    public void setScanTimestampGranularity(long scanTimestampGranularity) {
+        this.scanTimestampGranularity = scanTimestampGranularity;
+    }
+    
+    public int getAdmissionQueueCapacity() {
+        return admissionQueueCapacity;
+    }
+    
+    public void setAdmissionQueueCapacity(int admissionQueueCapacity) {
+        this.admissionQueueCapacity = admissionQueueCapacity;
+    }
+    
+    public long getAdmissionWaitTimeout() {
+        return admissionWaitTimeout;
+    }
+    
+    public void setAdmissionWaitTimeout(long admissionWaitTimeout) {
+        this.admissionWaitTimeout = admissionWaitTimeout;
+    }
+    
+    public long getMetricsLogInterval() {
+        return metricsLogInterval;
+    }
+    
+    public void setMetricsLogInterval(long metricsLogInterval) {
+        this.metricsLogInterval = metricsLogInterval;
+    }
+    
+    public boolean isDiskAdmissionEnabled() {
+        return diskAdmissionEnabled;
+    }
+    
+    public void setDiskAdmissionEnabled(boolean diskAdmissionEnabled) {
+        this.diskAdmissionEnabled = diskAdmissionEnabled;
+    }
+    
+    /**
+     * Free bytes a volume must keep after the files admitted so far; intake pauses below it
+     */
+    public long getDiskLowWater() {
+        return diskLowWater;
+    }
+    
+    public void setDiskLowWater(long diskLowWater) {
+        this.diskLowWater = diskLowWater;
+    }
+    
+    /**
+     * Free bytes every volume needs before paused intake resumes
+     */
+    public long getDiskHighWater() {
+        return diskHighWater;
+    }
+    
+    public void setDiskHighWater(long diskHighWater) {
+        this.diskHighWater = diskHighWater;
+    }
+    
+    /**
+     * Bytes written to each of the output, backup and report volumes per input byte
+     */
+    public double getDiskFootprintFactor() {
+        return diskFootprintFactor;
+    }
+    
+    public void setDiskFootprintFactor(double diskFootprintFactor) {
+        this.diskFootprintFactor = diskFootprintFactor;
+    }
+    
+    public long getDiskCheckInterval() {
+        return diskCheckInterval;
+    }
+    
+    public void setDiskCheckInterval(long diskCheckInterval) {
+        this.diskCheckInterval = diskCheckInterval;
+    }
+    
+    /**
+     * Bytes/sec for reading input files, 0 for unlimited
+     */
+    public long getBandwidthReadRate() {
+        return bandwidthReadRate;
+    }
+    
+    public void setBandwidthReadRate(long bandwidthReadRate) {
+        this.bandwidthReadRate = bandwidthReadRate;
+    }
+    
+    /**
+     * Bytes/sec for writing output and report files, 0 for unlimited
+     */
+    public long getBandwidthWriteRate() {
+        return bandwidthWriteRate;
+    }
+    
+    public void setBandwidthWriteRate(long bandwidthWriteRate) {
+        this.bandwidthWriteRate = bandwidthWriteRate;
+    }
+    
+    /**
+     * Bytes/sec for backup copies, 0 for unlimited
+     */
+    public long getBandwidthBackupRate() {
+        return bandwidthBackupRate;
+    }
+    
+    public void setBandwidthBackupRate(long bandwidthBackupRate) {
+        this.bandwidthBackupRate = bandwidthBackupRate;
+    }
+    
+    /**
+     * Comma separated HH:mm-HH:mm windows in which the bandwidth limits apply, empty for always
+     */
+    public String getBandwidthSchedule() {
+        return bandwidthSchedule;
+    }
+    
+    public void setBandwidthSchedule(String bandwidthSchedule) {
+        this.bandwidthSchedule = bandwidthSchedule;
+    }
+    
+    public boolean isDegradedEnabled() {
+        return degradedEnabled;
+    }
+    
+    public void setDegradedEnabled(boolean degradedEnabled) {
+        this.degradedEnabled = degradedEnabled;
+    }
+    
+    /**
+     * Backlog of one CDR type, in files, that switches processing to degraded mode
+     */
+    public long getDegradedEnterFiles() {
+        return degradedEnterFiles;
+    }
+    
+    public void setDegradedEnterFiles(long degradedEnterFiles) {
+        this.degradedEnterFiles = degradedEnterFiles;
+    }
+    
+    /**
+     * Age in ms of the oldest waiting input file that switches processing to degraded mode
+     */
+    public long getDegradedEnterAge() {
+        return degradedEnterAge;
+    }
+    
+    public void setDegradedEnterAge(long degradedEnterAge) {
+        this.degradedEnterAge = degradedEnterAge;
+    }
+    
+    public long getDegradedExitFiles() {
+        return degradedExitFiles;
+    }
+    
+    public void setDegradedExitFiles(long degradedExitFiles) {
+        this.degradedExitFiles = degradedExitFiles;
+    }
+    
+    public long getDegradedExitAge() {
+        return degradedExitAge;
+    }
+    
+    public void setDegradedExitAge(long degradedExitAge) {
+        this.degradedExitAge = degradedExitAge;
+    }
+    
+    /**
+     * Factor applied to the batch size of files processed in degraded mode
+     */
+    public int getDegradedBatchMultiplier() {
+        return degradedBatchMultiplier;
+    }
+    
+    public void setDegradedBatchMultiplier(int degradedBatchMultiplier) {
+        this.degradedBatchMultiplier = degradedBatchMultiplier;
+    }
+    
+    public boolean isDegradedBackupCompress() {
+        return degradedBackupCompress;
+    }
+    
+    public void setDegradedBackupCompress(boolean degradedBackupCompress) {
+        this.degradedBackupCompress = degradedBackupCompress;
+    }
+    
+    /**
+     * List of files processed in degraded mode, whose detail reports can be regenerated
+     */
+    public String getDegradedLogFile() {
+        return degradedLogFile;
+    }
+    
+    public void setDegradedLogFile(String degradedLogFile) {
+        this.degradedLogFile = degradedLogFile;
+    }
+    
+    public boolean isLedgerEnabled() {
+        return ledgerEnabled;
+    }
+    
+    public void setLedgerEnabled(boolean ledgerEnabled) {
+        this.ledgerEnabled = ledgerEnabled;
+    }
+    
+    public String getLedgerFile() {
+        return ledgerFile;
+    }
+    
+    public void setLedgerFile(String ledgerFile) {
+        this.ledgerFile = ledgerFile;
+    }
+    
+    public boolean isLedgerHashEnabled() {
+        return ledgerHashEnabled;
+    }
+    
+    public void setLedgerHashEnabled(boolean ledgerHashEnabled) {
+        this.ledgerHashEnabled = ledgerHashEnabled;
+    }
+    
+    public boolean isLedgerSyncEnabled() {
+        return ledgerSyncEnabled;
+    }
+    
+    public void setLedgerSyncEnabled(boolean ledgerSyncEnabled) {
+        this.ledgerSyncEnabled = ledgerSyncEnabled;
+    }
+    
+    /**
+     * How long (ms) the ledger remembers finished files, so it does not grow forever; 0 keeps them for good
+     */
+    public long getLedgerRetention() {
+        return ledgerRetention;
+    }
+    
+    public void setLedgerRetention(long ledgerRetention) {
+        this.ledgerRetention = ledgerRetention;
+    }
+    
+    /**
+     * Whether the block loop saves a checkpoint after every block, so an interrupted file continues where it stopped
+     */
+    public boolean isCheckpointEnabled() {
+        return checkpointEnabled;
+    }
+    
+    public void setCheckpointEnabled(boolean checkpointEnabled) {
+        this.checkpointEnabled = checkpointEnabled;
+    }
+    
+    public boolean isCheckpointSyncEnabled() {
+        return checkpointSyncEnabled;
+    }
+    
+    public void setCheckpointSyncEnabled(boolean checkpointSyncEnabled) {
+        this.checkpointSyncEnabled = checkpointSyncEnabled;
+    }
+    
+    /**
+     * Whether output, report and backup of a file are staged and committed together through the commit journal
+     */
+    public boolean isJournalEnabled() {
+        return journalEnabled;
+    }
+    
+    public void setJournalEnabled(boolean journalEnabled) {
+        this.journalEnabled = journalEnabled;
+    }
+    
+    public String getJournalFile() {
+        return journalFile;
+    }
+    
+    public void setJournalFile(String journalFile) {
+        this.journalFile = journalFile;
+    }
+    
+    public boolean isJournalSyncEnabled() {
+        return journalSyncEnabled;
+    }
+    
+    public void setJournalSyncEnabled(boolean journalSyncEnabled) {
+        this.journalSyncEnabled = journalSyncEnabled;
+    }
+    
+    /**
+     * Whether an empty &lt;output&gt;.done file is created once a file's artifacts are all in place
+     */
+    public boolean isCommitDoneMarker() {
+        return commitDoneMarker;
+    }
+    
+    public void setCommitDoneMarker(boolean commitDoneMarker) {
+        this.commitDoneMarker = commitDoneMarker;
+    }
+    
+    public boolean isCommitOrderEnabled() {
+        return commitOrderEnabled;
+    }
+    
+    public void setCommitOrderEnabled(boolean commitOrderEnabled) {
+        this.commitOrderEnabled = commitOrderEnabled;
+    }
+    
+    /**
+     * Regular expression matching a whole input file name, with the stream prefix as group 1 and the sequence number as group 2
+     */
+    public String getCommitOrderPattern() {
+        return commitOrderPattern;
+    }
+    
+    public void setCommitOrderPattern(String commitOrderPattern) {
+        this.commitOrderPattern = commitOrderPattern;
+    }
+    
+    /**
+     * Whether a file also waits for the sequence number right before it, even when no such file was seen
+     */
+    public boolean isCommitOrderContiguous() {
+        return commitOrderContiguous;
+    }
+    
+    public void setCommitOrderContiguous(boolean commitOrderContiguous) {
+        this.commitOrderContiguous = commitOrderContiguous;
+    }
+    
+    public long getCommitOrderGapTimeout() {
+        return commitOrderGapTimeout;
+    }
+    
+    public void setCommitOrderGapTimeout(long commitOrderGapTimeout) {
+        this.commitOrderGapTimeout = commitOrderGapTimeout;
+    }
+    
+    /**
+     * Retries of a file failing with a transient or configuration error before it goes to the error folder (0 disables)
+     */
+    public int getRetryMaxAttempts() {
+        return retryMaxAttempts;
+    }
+    
+    public void setRetryMaxAttempts(int retryMaxAttempts) {
+        this.retryMaxAttempts = retryMaxAttempts;
+    }
+    
+    public long getRetryInitialDelay() {
+        return retryInitialDelay;
+    }
+    
+    public void setRetryInitialDelay(long retryInitialDelay) {
+        this.retryInitialDelay = retryInitialDelay;
+    }
+    
+    public long getRetryMaxDelay() {
+        return retryMaxDelay;
+    }
+    
+    public void setRetryMaxDelay(long retryMaxDelay) {
+        this.retryMaxDelay = retryMaxDelay;
+    }
+    
+    public double getRetryJitter() {
+        return retryJitter;
+    }
+    
+    public void setRetryJitter(double retryJitter) {
+        this.retryJitter = retryJitter;
+    }
+    
+    public long getRetryTick() {
+        return retryTick;
+    }
+    
+    public void setRetryTick(long retryTick) {
+        this.retryTick = retryTick;
+    }
+    
+    public boolean isWatchdogEnabled() {
+        return watchdogEnabled;
+    }
+    
+    public void setWatchdogEnabled(boolean watchdogEnabled) {
+        this.watchdogEnabled = watchdogEnabled;
+    }
+    
+    public long getWatchdogInterval() {
+        return watchdogInterval;
+    }
+    
+    public void setWatchdogInterval(long watchdogInterval) {
+        this.watchdogInterval = watchdogInterval;
+    }
+    
+    /**
+     * How many times its expected processing time a file may run before it counts as stuck
+     */
+    public double getWatchdogMultiplier() {
+        return watchdogMultiplier;
+    }
+    
+    public void setWatchdogMultiplier(double watchdogMultiplier) {
+        this.watchdogMultiplier = watchdogMultiplier;
+    }
+    
+    public long getWatchdogMinTime() {
+        return watchdogMinTime;
+    }
+    
+    public void setWatchdogMinTime(long watchdogMinTime) {
+        this.watchdogMinTime = watchdogMinTime;
+    }
+    
+    /**
+     * Bytes/sec assumed for a CDR type until files of that type have been processed
+     */
+    public long getWatchdogDefaultRate() {
+        return watchdogDefaultRate;
+    }
+    
+    public void setWatchdogDefaultRate(long watchdogDefaultRate) {
+        this.watchdogDefaultRate = watchdogDefaultRate;
+    }
+    
+    public boolean isWatchdogInterrupt() {
+        return watchdogInterrupt;
+    }
+    
+    public void setWatchdogInterrupt(boolean watchdogInterrupt) {
+        this.watchdogInterrupt = watchdogInterrupt;
+    }
+    
+    public long getParallelFileThreshold() {
+        return parallelFileThreshold;
+    }
+    
+    public void setParallelFileThreshold(long parallelFileThreshold) {
+        this.parallelFileThreshold = parallelFileThreshold;
+    }
+    
+    public long getParallelChunkSize() {
+        return parallelChunkSize;
+    }
+    
+    public void setParallelChunkSize(long parallelChunkSize) {
+        this.parallelChunkSize = parallelChunkSize;
+    }
+    
+    public int getParallelWorkers() {
+        return parallelWorkers;
+    }
+    
+    public void setParallelWorkers(int parallelWorkers) {
+        this.parallelWorkers = parallelWorkers;
+    }
+    
+    public boolean isPipelineEnabled() {
+        return pipelineEnabled;
+    }
+    
+    public void setPipelineEnabled(boolean pipelineEnabled) {
+        this.pipelineEnabled = pipelineEnabled;
+    }
+    
+    public int getPipelineRingSize() {
+        return pipelineRingSize;
+    }
+    
+    public void setPipelineRingSize(int pipelineRingSize) {
+        this.pipelineRingSize = pipelineRingSize;
+    }
+    
+    public String getInputReader() {
+        return inputReader;
+    }
+    
+    public void setInputReader(String inputReader) {
+        this.inputReader = inputReader;
+    }
+    
+    public int getInputWindowSize() {
+        return inputWindowSize;
+    }
+    
+    public void setInputWindowSize(int inputWindowSize) {
+        this.inputWindowSize = inputWindowSize;
+    }
+    
+    public String getScanKernel() {
+        return scanKernel;
+    }
+    
+    public void setScanKernel(String scanKernel) {
+        this.scanKernel = scanKernel;
+    }
+    
+    public int getSchedulerParallelism() {
+        return schedulerParallelism;
+    }
+    
+    public void setSchedulerParallelism(int schedulerParallelism) {
+        this.schedulerParallelism = schedulerParallelism;
+    }
+    
+    public int getVoiceWeight() {
+        return voiceWeight;
+    }
+    
+    public void setVoiceWeight(int voiceWeight) {
+        this.voiceWeight = voiceWeight;
+    }
+    
+    public int getDataWeight() {
+        return dataWeight;
+    }
+    
+    public void setDataWeight(int dataWeight) {
+        this.dataWeight = dataWeight;
+    }
+    
+    public int getPcrfWeight() {
+        return pcrfWeight;
+    }
+    
+    public void setPcrfWeight(int pcrfWeight) {
+        this.pcrfWeight = pcrfWeight;
+    }
+    
+    public int getSchedulerTypeWeight(CDRType type) {
+        switch (type) {
+            case VOICE: return voiceWeight;
+            case DATA: return dataWeight;
+            default: return pcrfWeight;
+        }
+    }
+    
+    /**
+     * Weights of individual input subfolders, keyed by "type/subfolder" (e.g. "voice/sw1")
+     */
+    public Map<String, Integer> getSchedulerSubfolderWeights() {
+        return schedulerSubfolderWeights;
+    }
+    
+    public void setSchedulerSubfolderWeights(Map<String, Integer> schedulerSubfolderWeights) {
+        this.schedulerSubfolderWeights = schedulerSubfolderWeights;
+    }
+    
+    /**
+     * "platform" for the work-stealing pool, "virtual" for virtual threads (java21 build only)
+     */
+    public String getExecutionMode() {
+        return executionMode;
+    }
+    
+    public void setExecutionMode(String executionMode) {
+        this.executionMode = executionMode;
+    }
+    
+    public int getVirtualMaxOpenFiles() {
+        return virtualMaxOpenFiles;
+    }
+    
+    public void setVirtualMaxOpenFiles(int virtualMaxOpenFiles) {
+        this.virtualMaxOpenFiles = virtualMaxOpenFiles;
+    }
+    
+    public boolean isAdaptiveEnabled() {
+        return adaptiveEnabled;
+    }
+    
+    public void setAdaptiveEnabled(boolean adaptiveEnabled) {
+        this.adaptiveEnabled = adaptiveEnabled;
+    }
+    
+    public long getAdaptiveInterval() {
+        return adaptiveInterval;
+    }
+    
+    public void setAdaptiveInterval(long adaptiveInterval) {
+        this.adaptiveInterval = adaptiveInterval;
+    }
+    
+    public int getAdaptiveMinWorkers() {
+        return adaptiveMinWorkers;
+    }
+    
+    public void setAdaptiveMinWorkers(int adaptiveMinWorkers) {
+        this.adaptiveMinWorkers = adaptiveMinWorkers;
+    }
+    
+    public int getAdaptiveMaxWorkers() {
+        return adaptiveMaxWorkers;
+    }
+    
+    public void setAdaptiveMaxWorkers(int adaptiveMaxWorkers) {
+        this.adaptiveMaxWorkers = adaptiveMaxWorkers;
+    }
+    
+    public double getAdaptiveDecreaseFactor() {
+        return adaptiveDecreaseFactor;
+    }
+    
+    public void setAdaptiveDecreaseFactor(double adaptiveDecreaseFactor) {
+        this.adaptiveDecreaseFactor = adaptiveDecreaseFactor;
+    }
+    
+    public double getAdaptiveTolerance() {
+        return adaptiveTolerance;
+    }
+    
+    public void setAdaptiveTolerance(double adaptiveTolerance) {
+        this.adaptiveTolerance = adaptiveTolerance;
+    }
+    
+    public double getAdaptiveIoWaitThreshold() {
+        return adaptiveIoWaitThreshold;
+    }
+    
+    public void setAdaptiveIoWaitThreshold(double adaptiveIoWaitThreshold) {
+        this.adaptiveIoWaitThreshold = adaptiveIoWaitThreshold;
+    }
+    
     public String getServerName() {
         return serverName;
     }
@@ -159,6 +1007,9 @@ public class SystemConfig {
         this.heartbeatInterval = heartbeatInterval;
     }
     
+    /**
+     * Lease time to live: a standby server takes over this long after the last renewal
+     */
     public long getHeartbeatTimeout() {
         return heartbeatTimeout;
     }
@@ -167,6 +1018,85 @@ public class SystemConfig {
         this.heartbeatTimeout = heartbeatTimeout;
     }
     
+    public long getHeartbeatCheckInterval() {
+        return heartbeatCheckInterval;
+    }
+    
+    public void setHeartbeatCheckInterval(long heartbeatCheckInterval) {
+        this.heartbeatCheckInterval = heartbeatCheckInterval;
+    }
+    
+    /**
+     * "none" to always process, "standby" for a single active server with failover,
+     * "sharded" for active/active nodes splitting the input files
+     */
+    public String getHaMode() {
+        return haMode;
+    }
+    
+    public void setHaMode(String haMode) {
+        this.haMode = haMode;
+    }
+    
+    /**
+     * Where the standby mode lease is kept: "jdbc" (system_heartbeat) or "file" (haLeaseFile on shared storage)
+     */
+    public String getHaBackend() {
+        return haBackend;
+    }
+    
+    public void setHaBackend(String haBackend) {
+        this.haBackend = haBackend;
+    }
+    
+    public String getHaLeaseFile() {
+        return haLeaseFile;
+    }
+    
+    public void setHaLeaseFile(String haLeaseFile) {
+        this.haLeaseFile = haLeaseFile;
+    }
+    
+    public int getShardCount() {
+        return shardCount;
+    }
+    
+    public void setShardCount(int shardCount) {
+        this.shardCount = shardCount;
+    }
+    
+    public long getShardLeaseTtl() {
+        return shardLeaseTtl;
+    }
+    
+    public void setShardLeaseTtl(long shardLeaseTtl) {
+        this.shardLeaseTtl = shardLeaseTtl;
+    }
+    
+    public long getShardRenewInterval() {
+        return shardRenewInterval;
+    }
+    
+    public void setShardRenewInterval(long shardRenewInterval) {
+        this.shardRenewInterval = shardRenewInterval;
+    }
+    
+    public int getShardVirtualNodes() {
+        return shardVirtualNodes;
+    }
+    
+    public void setShardVirtualNodes(int shardVirtualNodes) {
+        this.shardVirtualNodes = shardVirtualNodes;
+    }
+    
+    public double getShardHighLoad() {
+        return shardHighLoad;
+    }
+    
+    public void setShardHighLoad(double shardHighLoad) {
+        this.shardHighLoad = shardHighLoad;
+    }
+    
     public String getDatabaseUrl() {
         return databaseUrl;
     }
@@ -6,7 +6,7 @@ package com.cdr.model;
 public class VoiceCDR extends CDRRecord {
     
     private String calledNumber;
-    private double chargeAmount;
+    private long chargeAmount;
     private long callDuration;
     public VoiceCDR() {
         super();
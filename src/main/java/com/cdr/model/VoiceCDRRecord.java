@@ -15,16 +15,17 @@ public class VoiceCDRRecord {
     private long durationReduction;
     private String accountType;
     private String processingType;
-    private double chargeAmount;
+    // FixedPoint value
+    private long chargeAmount;
     private Date processedAt;
     
-    // Account details for all 10 accounts
+    // Account details for all 10 accounts, amounts as FixedPoint values
     private String[] accountTypes = new String[11]; // Index 1-10
     private String[] feeTypes = new String[11]; // Index 1-10
-    private double[] oldChargeAmounts = new double[11]; // Index 1-10
-    private double[] newChargeAmounts = new double[11]; // Index 1-10
-    private double[] oldCurrentAcctAmounts = new double[11]; // Index 1-10
-    private double[] newCurrentAcctAmounts = new double[11]; // Index 1-10
+    private long[] oldChargeAmounts = new long[11]; // Index 1-10
+    private long[] newChargeAmounts = new long[11]; // Index 1-10
+    private long[] oldCurrentAcctAmounts = new long[11]; // Index 1-10
+    private long[] newCurrentAcctAmounts = new long[11]; // Index 1-10
     
     public VoiceCDRRecord() {
         this.processedAt = new Date();
@@ -94,11 +95,11 @@ public class VoiceCDRRecord {
         this.processingType = processingType;
     }
     
-    public double getChargeAmount() {
+    public long getChargeAmount() {
         return chargeAmount;
     }
     
-    public void setChargeAmount(double chargeAmount) {
+    public void setChargeAmount(long chargeAmount) {
         this.chargeAmount = chargeAmount;
     }
     
@@ -137,53 +138,53 @@ public class VoiceCDRRecord {
         }
     }
     
-    public double getOldChargeAmount(int index) {
+    public long getOldChargeAmount(int index) {
         if (index >= 1 && index <= 10) {
             return oldChargeAmounts[index];
         }
-        return 0.0;
+        return 0;
     }
     
-    public void setOldChargeAmount(int index, double chargeAmount) {
+    public void setOldChargeAmount(int index, long chargeAmount) {
         if (index >= 1 && index <= 10) {
             this.oldChargeAmounts[index] = chargeAmount;
         }
     }
     
-    public double getNewChargeAmount(int index) {
+    public long getNewChargeAmount(int index) {
         if (index >= 1 && index <= 10) {
             return newChargeAmounts[index];
         }
-        return 0.0;
+        return 0;
     }
     
-    public void setNewChargeAmount(int index, double chargeAmount) {
+    public void setNewChargeAmount(int index, long chargeAmount) {
         if (index >= 1 && index <= 10) {
             this.newChargeAmounts[index] = chargeAmount;
         }
     }
     
-    public double getOldCurrentAcctAmount(int index) {
+    public long getOldCurrentAcctAmount(int index) {
         if (index >= 1 && index <= 10) {
             return oldCurrentAcctAmounts[index];
         }
-        return 0.0;
+        return 0;
     }
     
-    public void setOldCurrentAcctAmount(int index, double currentAcctAmount) {
+    public void setOldCurrentAcctAmount(int index, long currentAcctAmount) {
         if (index >= 1 && index <= 10) {
             this.oldCurrentAcctAmounts[index] = currentAcctAmount;
         }
     }
     
-    public double getNewCurrentAcctAmount(int index) {
+    public long getNewCurrentAcctAmount(int index) {
         if (index >= 1 && index <= 10) {
             return newCurrentAcctAmounts[index];
         }
-        return 0.0;
+        return 0;
     }
     
-    public void setNewCurrentAcctAmount(int index, double currentAcctAmount) {
+    public void setNewCurrentAcctAmount(int index, long currentAcctAmount) {
         if (index >= 1 && index <= 10) {
             this.newCurrentAcctAmounts[index] = currentAcctAmount;
         }
@@ -0,0 +1,229 @@
+package com.cdr.processor;
+
+import com.cdr.model.CDRType;
+import com.cdr.model.SystemConfig;
+import com.cdr.util.MetricsRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tunes the number of files of each CDR type processed at once (AIMD).
+ * Every interval the records/sec and per-file latency of each type are measured: a backlogged
+ * type whose throughput held up compared with the previous backlogged interval gets one more
+ * worker, a drop in throughput or system I/O wait above the threshold cuts the limit by the
+ * decrease factor. Limits stay within the configured min/max bounds.
+ */
+public class AdaptiveConcurrencyController {
+
+    private static final Logger log = LoggerFactory.getLogger(AdaptiveConcurrencyController.class);
+    private static final File PROC_STAT = new File("/proc/stat");
+
+    private final SystemConfig systemConfig;
+    private final FairShareScheduler scheduler;
+    private final Map<CDRType, TypeStats> stats = new EnumMap<>(CDRType.class);
+    private final AtomicLong ioWaitPercent = new AtomicLong(-1);
+    private long[] lastCpuTimes;
+    private ScheduledExecutorService timer;
+
+    public AdaptiveConcurrencyController(SystemConfig systemConfig, FairShareScheduler scheduler) {
+        this.systemConfig = systemConfig;
+        this.scheduler = scheduler;
+
+        for (CDRType type : CDRType.values()) {
+            TypeStats typeStats = new TypeStats(type);
+            typeStats.limit = clamp(type.getSlaves(systemConfig));
+            stats.put(type, typeStats);
+            scheduler.setTypeLimit(type, typeStats.limit);
+        }
+        MetricsRegistry.gauge(this, "adaptive.iowait.pct", ioWaitPercent::get);
+    }
+
+    public void start() {
+        lastCpuTimes = readCpuTimes();
+        long interval = systemConfig.getAdaptiveInterval();
+        timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "AdaptiveConcurrency");
+            thread.setDaemon(true);
+            return thread;
+        });
+        timer.scheduleWithFixedDelay(this::adjust, interval, interval, TimeUnit.MILLISECONDS);
+        log.info("Adaptive concurrency started: limits voice={} data={} pcrf={}, bounds [{}, {}], interval {} ms",
+                stats.get(CDRType.VOICE).limit, stats.get(CDRType.DATA).limit, stats.get(CDRType.PCRF).limit,
+                systemConfig.getAdaptiveMinWorkers(), systemConfig.getAdaptiveMaxWorkers(), interval);
+    }
+
+    /**
+     * Record a finished file, called by the worker that processed it
+     */
+    public void recordFile(CDRType type, long records, long latencyMillis) {
+        TypeStats typeStats = stats.get(type);
+        typeStats.records.addAndGet(records);
+        typeStats.files.incrementAndGet();
+        typeStats.latencyMillis.addAndGet(latencyMillis);
+    }
+
+    private void adjust() {
+        try {
+            double ioWait = sampleIoWait();
+            for (TypeStats typeStats : stats.values()) {
+                adjust(typeStats, ioWait);
+            }
+        } catch (Exception e) {
+            log.error("Adaptive concurrency adjustment failed", e);
+        }
+    }
+
+    private void adjust(TypeStats typeStats, double ioWait) {
+        long records = typeStats.records.getAndSet(0);
+        long files = typeStats.files.getAndSet(0);
+        long latency = typeStats.latencyMillis.getAndSet(0);
+        double seconds = systemConfig.getAdaptiveInterval() / 1000.0;
+        double throughput = records / seconds;
+        long avgLatency = files > 0 ? latency / files : 0;
+
+        boolean backlogged = scheduler.getQueued(typeStats.type) > 0;
+        int oldLimit = typeStats.limit;
+        int newLimit = oldLimit;
+        String reason;
+
+        if (files == 0 && !backlogged) {
+            reason = "idle";
+        } else if (files == 0) {
+            // Nothing finished yet, so there is no measurement to act on
+            reason = "backlogged, no file completed";
+        } else if (ioWait >= 0 && ioWait > systemConfig.getAdaptiveIoWaitThreshold()) {
+            newLimit = decrease(oldLimit);
+            reason = String.format("iowait %.1f%% above threshold", ioWait * 100);
+        } else if (backlogged && typeStats.lastThroughput > 0
+                && throughput < typeStats.lastThroughput * (1 - systemConfig.getAdaptiveTolerance())) {
+            newLimit = decrease(oldLimit);
+            reason = String.format("throughput dropped from %.0f rec/s", typeStats.lastThroughput);
+        } else if (backlogged) {
+            newLimit = clamp(oldLimit + 1);
+            reason = "backlogged, throughput held";
+        } else {
+            reason = "no backlog";
+        }
+
+        typeStats.limit = newLimit;
+        // Throughput is only comparable between intervals in which the type had more work than workers
+        if (files > 0) {
+            typeStats.lastThroughput = backlogged ? throughput : 0;
+        }
+        if (newLimit != oldLimit) {
+            scheduler.setTypeLimit(typeStats.type, newLimit);
+            (newLimit > oldLimit ? typeStats.increases : typeStats.decreases).incrementAndGet();
+        }
+        typeStats.throughput = (long) throughput;
+        typeStats.avgLatency = avgLatency;
+
+        String message = "Adaptive {}: limit {} -> {} ({}), {} rec/s, {} files, {} ms/file, iowait {}";
+        Object[] args = {typeStats.type.getName(), oldLimit, newLimit, reason, (long) throughput, files, avgLatency,
+                ioWait >= 0 ? String.format("%.1f%%", ioWait * 100) : "n/a"};
+        if (newLimit != oldLimit) {
+            log.info(message, args);
+        } else {
+            log.debug(message, args);
+        }
+    }
+
+    private int decrease(int limit) {
+        return clamp((int) Math.floor(limit * systemConfig.getAdaptiveDecreaseFactor()));
+    }
+
+    private int clamp(int limit) {
+        return Math.max(systemConfig.getAdaptiveMinWorkers(), Math.min(systemConfig.getAdaptiveMaxWorkers(), limit));
+    }
+
+    /**
+     * Fraction of CPU time spent waiting for I/O since the last sample, or -1 when unavailable
+     */
+    private double sampleIoWait() {
+        long[] cpuTimes = readCpuTimes();
+        double ioWait = -1;
+        if (cpuTimes != null && lastCpuTimes != null) {
+            long total = 0;
+            for (int i = 0; i < cpuTimes.length; i++) {
+                total += cpuTimes[i] - lastCpuTimes[i];
+            }
+            if (total > 0) {
+                ioWait = (double) (cpuTimes[4] - lastCpuTimes[4]) / total;
+            }
+        }
+        lastCpuTimes = cpuTimes;
+        ioWaitPercent.set(ioWait >= 0 ? Math.round(ioWait * 100) : -1);
+        return ioWait;
+    }
+
+    /**
+     * Aggregate CPU times (user, nice, system, idle, iowait, ...) from /proc/stat
+     */
+    private long[] readCpuTimes() {
+        if (!PROC_STAT.canRead()) {
+            return null;
+        }
+        try (BufferedReader reader = new BufferedReader(new FileReader(PROC_STAT))) {
+            String line = reader.readLine();
+            if (line == null || !line.startsWith("cpu ")) {
+                return null;
+            }
+            String[] fields = line.trim().split("\\s+");
+            if (fields.length < 6) {
+                return null;
+            }
+            long[] times = new long[fields.length - 1];
+            for (int i = 1; i < fields.length; i++) {
+                times[i - 1] = Long.parseLong(fields[i]);
+            }
+            return times;
+        } catch (IOException | NumberFormatException e) {
+            log.debug("Failed to read CPU times from /proc/stat", e);
+            return null;
+        }
+    }
+
+    public void shutdown() {
+        if (timer != null) {
+            timer.shutdownNow();
+        }
+        MetricsRegistry.unregister(this);
+        for (TypeStats typeStats : stats.values()) {
+            MetricsRegistry.unregister(typeStats);
+        }
+    }
+
+    private static class TypeStats {
+        private final CDRType type;
+        private final AtomicLong records = new AtomicLong();
+        private final AtomicLong files = new AtomicLong();
+        private final AtomicLong latencyMillis = new AtomicLong();
+        private final AtomicLong increases;
+        private final AtomicLong decreases;
+        private volatile int limit;
+        private volatile long throughput;
+        private volatile long avgLatency;
+        private double lastThroughput;
+
+        TypeStats(CDRType type) {
+            this.type = type;
+
+            String prefix = "adaptive." + type.getName() + ".";
+            this.increases = MetricsRegistry.counter(prefix + "increases");
+            this.decreases = MetricsRegistry.counter(prefix + "decreases");
+            MetricsRegistry.gauge(this, prefix + "limit", () -> limit);
+            MetricsRegistry.gauge(this, prefix + "records.per.sec", () -> throughput);
+            MetricsRegistry.gauge(this, prefix + "latency.ms", () -> avgLatency);
+        }
+    }
+}
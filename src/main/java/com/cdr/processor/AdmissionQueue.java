@@ -0,0 +1,98 @@
+package com.cdr.processor;
+
+import com.cdr.util.MetricsRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded admission queue for one CDR type.
+ * Tracks the files currently queued or running, refuses duplicates and blocks
+ * the caller (the scanner) while the queue is full.
+ */
+public class AdmissionQueue {
+
+    private static final Logger log = LoggerFactory.getLogger(AdmissionQueue.class);
+
+    private final String name;
+    private final int capacity;
+    private final long waitTimeout;
+    private final Semaphore slots;
+    private final Set<String> inFlight = ConcurrentHashMap.newKeySet();
+    private final AtomicLong admitted;
+    private final AtomicLong rejectedDuplicates;
+    private final AtomicLong rejectedFull;
+    private final AtomicLong waitTimeMillis;
+
+    public AdmissionQueue(String name, int capacity, long waitTimeout) {
+        this.name = name;
+        this.capacity = capacity;
+        this.waitTimeout = waitTimeout;
+        this.slots = new Semaphore(capacity, true);
+
+        String prefix = "admission." + name + ".";
+        this.admitted = MetricsRegistry.counter(prefix + "admitted");
+        this.rejectedDuplicates = MetricsRegistry.counter(prefix + "rejected.duplicate");
+        this.rejectedFull = MetricsRegistry.counter(prefix + "rejected.full");
+        this.waitTimeMillis = MetricsRegistry.counter(prefix + "wait.ms");
+        MetricsRegistry.gauge(this, prefix + "depth", this::getDepth);
+    }
+
+    /**
+     * Admit a file identified by key, waiting for a free slot when the queue is full.
+     *
+     * @return false when the file is already in flight or no slot became free within the wait timeout
+     */
+    public boolean acquire(String key) throws InterruptedException {
+        if (!inFlight.add(key)) {
+            rejectedDuplicates.incrementAndGet();
+            log.debug("{} file already in flight, skipping: {}", name, key);
+            return false;
+        }
+
+        long start = System.nanoTime();
+        boolean acquired = false;
+        try {
+            acquired = slots.tryAcquire(waitTimeout, TimeUnit.MILLISECONDS);
+        } finally {
+            waitTimeMillis.addAndGet(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            if (!acquired) {
+                inFlight.remove(key);
+            }
+        }
+
+        if (!acquired) {
+            rejectedFull.incrementAndGet();
+            log.warn("{} admission queue full ({} files), deferring: {}", name, capacity, key);
+            return false;
+        }
+        admitted.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Release the slot held by a finished or abandoned file
+     */
+    public void release(String key) {
+        if (inFlight.remove(key)) {
+            slots.release();
+        }
+    }
+
+    public boolean isInFlight(String key) {
+        return inFlight.contains(key);
+    }
+
+    public long getDepth() {
+        return capacity - slots.availablePermits();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+}
@@ -0,0 +1,260 @@
+package com.cdr.processor;
+
+import com.cdr.util.BandwidthGovernor;
+import com.cdr.util.MetricsRegistry;
+import com.cdr.util.ProcessingCheckpoint;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Processes one large CDR file in parallel.
+ * The file is split into byte ranges aligned on line boundaries; each range is parsed,
+ * rule-processed and formatted by a worker, and results are reported and written back
+ * in the original order, so the output is identical to serial processing. After every chunk written the
+ * handler can save a checkpoint, from which an interrupted file continues with its next chunk.
+ *
+ * @param <T> parsed CDR record type
+ * @param <R> report record type
+ */
+public class ChunkedFileProcessor<T, R> {
+
+    private static final Logger log = LoggerFactory.getLogger(ChunkedFileProcessor.class);
+
+    private final RecordHandler<T, R> handler;
+    private final ExecutorService executor;
+    private final long chunkSize;
+    private final int maxChunksInFlight;
+
+    public ChunkedFileProcessor(RecordHandler<T, R> handler, ExecutorService executor, long chunkSize, int maxChunksInFlight) {
+        this.handler = handler;
+        this.executor = executor;
+        this.chunkSize = chunkSize;
+        this.maxChunksInFlight = Math.max(1, maxChunksInFlight);
+    }
+
+    /**
+     * Process the input file into the output file
+     *
+     * @return number of records written
+     */
+    public long process(File inputFile, File outputFile) throws IOException {
+        return process(inputFile, outputFile, null);
+    }
+
+    /**
+     * Process the input file into the output file, continuing after the chunks of a checkpoint when one is given
+     *
+     * @return number of records written, including those written before the checkpoint
+     */
+    public long process(File inputFile, File outputFile, ProcessingCheckpoint checkpoint) throws IOException {
+        long startOffset = checkpoint != null ? checkpoint.getInputOffset() : 0;
+        List<long[]> ranges = splitOnLines(inputFile, startOffset, chunkSize);
+        log.info("Processing {} in {} chunks of about {} bytes", inputFile.getName(), ranges.size(), chunkSize);
+
+        Deque<Future<ChunkResult<R>>> pending = new ArrayDeque<>();
+        PrintWriter writer = null;
+        long totalRecords = checkpoint != null ? checkpoint.getOutputLines() : 0;
+        int chunks = checkpoint != null ? checkpoint.getBlocks() : 0;
+        int nextRange = 0;
+        int doneRanges = 0;
+
+        try {
+            while (nextRange < ranges.size() || !pending.isEmpty()) {
+                // Keep a bounded window of chunks in flight so memory does not grow with file size
+                while (nextRange < ranges.size() && pending.size() < maxChunksInFlight) {
+                    long[] range = ranges.get(nextRange++);
+                    pending.add(executor.submit(() -> processRange(inputFile, range[0], range[1])));
+                }
+
+                long[] range = ranges.get(doneRanges++);
+                ChunkResult<R> result = awaitChunk(pending.poll());
+                handler.beforeOutput();
+                for (R reportRecord : result.reportRecords) {
+                    handler.report(reportRecord);
+                }
+                if (!result.lines.isEmpty()) {
+                    if (writer == null) {
+                        writer = new PrintWriter(BandwidthGovernor.newWriter(outputFile, checkpoint != null));
+                    }
+                    for (String line : result.lines) {
+                        writer.println(line);
+                    }
+                    if (writer.checkError()) {
+                        throw new IOException("Failed to write output file: " + outputFile.getAbsolutePath());
+                    }
+                }
+                totalRecords += result.lines.size();
+                chunks++;
+                MetricsRegistry.counter("chunked.chunks").incrementAndGet();
+                if (doneRanges < ranges.size()) {
+                    if (writer != null) {
+                        writer.flush();
+                    }
+                    handler.afterOutput(range[1], chunks, totalRecords);
+                }
+            }
+        } finally {
+            for (Future<ChunkResult<R>> future : pending) {
+                future.cancel(true);
+            }
+            if (writer != null) {
+                writer.close();
+            }
+        }
+
+        MetricsRegistry.counter("chunked.files").incrementAndGet();
+        log.info("Written {} processed records from {} chunks to: {}", totalRecords, ranges.size(), outputFile.getAbsolutePath());
+        return totalRecords;
+    }
+
+    private ChunkResult<R> processRange(File inputFile, long start, long end) throws IOException {
+        ChunkResult<R> result = new ChunkResult<>();
+        try (RandomAccessFile file = new RandomAccessFile(inputFile, "r")) {
+            FileChannel channel = file.getChannel();
+            channel.position(start);
+            InputStream in = BandwidthGovernor.throttle(
+                    new BoundedInputStream(Channels.newInputStream(channel), end - start), BandwidthGovernor.Traffic.READ);
+
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(in))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.trim().isEmpty()) {
+                        continue;
+                    }
+                    T record = handler.parse(line);
+                    if (record == null) {
+                        continue;
+                    }
+                    R reportRecord = handler.applyRules(record);
+                    if (reportRecord != null) {
+                        result.reportRecords.add(reportRecord);
+                    }
+                    result.lines.add(handler.format(record));
+                }
+            }
+        }
+        return result;
+    }
+
+    private ChunkResult<R> awaitChunk(Future<ChunkResult<R>> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for chunk", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException("Chunk processing failed", cause);
+        }
+    }
+
+    /**
+     * Split a file from a line start on into [start, end) byte ranges of roughly chunkSize bytes, each ending right
+     * after a newline
+     */
+    static List<long[]> splitOnLines(File file, long from, long chunkSize) throws IOException {
+        List<long[]> ranges = new ArrayList<>();
+        long length = file.length();
+        byte[] buffer = new byte[8192];
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            long start = from;
+            while (start < length) {
+                long end = Math.min(length, start + chunkSize);
+                if (end < length) {
+                    end = findLineEnd(raf, end, length, buffer);
+                }
+                ranges.add(new long[]{start, end});
+                start = end;
+            }
+        }
+        return ranges;
+    }
+
+    private static long findLineEnd(RandomAccessFile raf, long position, long length, byte[] buffer) throws IOException {
+        raf.seek(position);
+        while (position < length) {
+            int read = raf.read(buffer, 0, (int) Math.min(buffer.length, length - position));
+            if (read <= 0) {
+                break;
+            }
+            for (int i = 0; i < read; i++) {
+                if (buffer[i] == '\n') {
+                    return position + i + 1;
+                }
+            }
+            position += read;
+        }
+        return length;
+    }
+
+    private static class ChunkResult<R> {
+        private final List<String> lines = new ArrayList<>();
+        private final List<R> reportRecords = new ArrayList<>();
+    }
+
+    /**
+     * Input stream that stops after a fixed number of bytes
+     */
+    private static class BoundedInputStream extends InputStream {
+        private final InputStream in;
+        private long remaining;
+
+        BoundedInputStream(InputStream in, long limit) {
+            this.in = in;
+            this.remaining = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int b = in.read();
+            if (b >= 0) {
+                remaining--;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int read = in.read(b, off, (int) Math.min(len, remaining));
+            if (read > 0) {
+                remaining -= read;
+            }
+            return read;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
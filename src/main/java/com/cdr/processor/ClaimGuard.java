@@ -0,0 +1,15 @@
+package com.cdr.processor;
+
+import java.io.File;
+
+/**
+ * Checked before the output of a claimed file is committed, so a node whose shard of the file moved to
+ * another node stops before the new owner recovers the file.
+ */
+public interface ClaimGuard {
+
+    /**
+     * @throws FencedException when this node may no longer commit the output of the claimed file
+     */
+    void check(File claimedFile) throws FencedException;
+}
@@ -4,9 +4,15 @@ import com.cdr.model.SystemConfig;
 import com.cdr.model.DataCDR;
 import com.cdr.model.DataCDRRecord;
 import com.cdr.model.DataConfig;
+import com.cdr.model.RecordSchema;
 import com.cdr.reporter.DataCDRReporter;
+import com.cdr.util.BandwidthGovernor;
 import com.cdr.util.ConfigUtils;
 import com.cdr.util.FileUtils;
+import com.cdr.util.FixedPoint;
+import com.cdr.util.InputLineReader;
+import com.cdr.util.PipeTokenizer;
+import com.cdr.util.ProcessingCheckpoint;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -29,26 +35,85 @@ public class DataCDRProcessor implements Runnable {
     private SystemConfig systemConfig;
     private DataCDRReporter reporter;
     DataConfig dataConfig;
+    private final RecordSchema schema;
+    private volatile boolean succeeded;
+    private volatile boolean retryPending;
+    private File backupFile;
+    private long processedRecords;
+    private int batchSize;
+    private final ProcessingContext context;
     private static final Logger log = LoggerFactory.getLogger(DataCDRProcessor.class);
 
     public DataCDRProcessor(File inputFile, SystemConfig systemConfig) {
+        this(inputFile, systemConfig, ProcessingContext.serial(systemConfig));
+    }
+
+    public DataCDRProcessor(File inputFile, SystemConfig systemConfig, ProcessingContext context) {
         this.inputFile = inputFile;
         this.systemConfig = systemConfig;
+        this.context = context;
         dataConfig = ConfigUtils.loadDataConfig(systemConfig);
+        this.schema = dataConfig.getSchema();
         this.reporter = new DataCDRReporter(systemConfig.getReportFolder(), systemConfig.getDataInputFolder(), inputFile);
     }
 
     @Override
     public void run() {
+        File outputFile = resolveOutputFile();
         try {
-            log.info("Processing data CDR file: {} with block size: {}", inputFile.getName(), systemConfig.getBatchSize());
-            processDataCDRInBlocks(inputFile);
-            backupOriginalFile();
+            // Degraded mode is decided once per file, when it starts
+            boolean degraded = context.isDegraded();
+            batchSize = context.getBatchSize(degraded);
+            reporter.setAggregateOnly(degraded);
+            File backupTarget = context.backupFile(resolveBackupFile(), degraded);
+            context.beginFile(inputFile, outputFile, reporter.getReportFile(), backupTarget);
+            reporter.setStagingFile(context.stagingFile(reporter.getReportFile()));
+
+            if (context.isChunked(inputFile)) {
+                log.info("Processing data CDR file: {} in parallel chunks", inputFile.getName());
+                processDataCDRInChunks(inputFile);
+            } else if (context.isPipelined()) {
+                log.info("Processing data CDR file: {} in pipeline", inputFile.getName());
+                processDataCDRInPipeline(inputFile);
+            } else {
+                log.info("Processing data CDR file: {} with block size: {}", inputFile.getName(), batchSize);
+                processDataCDRInBlocks(inputFile);
+            }
+            reporter.writeAggregate();
+            // Output, report and backup are committed together, and still under our lease
+            boolean backedUp = context.stageBackup(inputFile, backupTarget);
+            context.commitFile(inputFile, outputFile, reporter.getReportFile(), backedUp ? backupTarget : null);
+            context.removeCheckpoint(outputFile);
+            if (backedUp) {
+                backupFile = backupTarget;
+                log.info("Backed up file {} to: {}", inputFile.getName(), backupFile.getAbsolutePath());
+            }
+            if (reporter.isAggregateOnly()) {
+                context.recordDegradedFile("data", inputFile, reporter.getReportFile(), backupFile);
+            }
+            succeeded = true;
 
             log.info("Successfully processed data CDR file: {}", inputFile.getName());
 
+        } catch (FencedException e) {
+            // Leave the claimed file, and the output of its checkpointed blocks, untouched for the new leader
+            if (!context.hasCheckpoint(outputFile)) {
+                context.abortFile(inputFile, outputFile);
+            }
+            log.warn("Stopped processing data CDR file {}: {}", inputFile.getName(), e.getMessage());
         } catch (Exception e) {
+            if (context.shouldRetry(inputFile, e)) {
+                // Keep the claimed file, and the output of its checkpointed blocks, for the next attempt
+                if (!context.hasCheckpoint(outputFile)) {
+                    context.abortFile(inputFile, outputFile);
+                }
+                retryPending = true;
+                log.warn("Failed processing data CDR file {}, will retry: {}", inputFile.getName(), e.toString());
+                return;
+            }
             log.error("Error processing data CDR file: " + inputFile.getName(), e);
+            context.removeCheckpoint(outputFile);
+            context.abortFile(inputFile, outputFile);
             moveToErrorFolder(e);
         }
     }
@@ -71,16 +136,16 @@ public class DataCDRProcessor implements Runnable {
         }
 
         // For all account types, reduce ChargeAmount and add reduced ChargeAmount to CurrentAcctAmount
-        double reductionPercentage = dataConfig.getReductionPercentage();
-        double multiplier = (100 - reductionPercentage) / 100.0;
+        long remainingPercent = FixedPoint.HUNDRED_PERCENT - FixedPoint.fromDouble(dataConfig.getReductionPercentage());
         for (int i = 1; i <= 10; i++) {
             String accountType = record.getAccountType(i);
             if (dataConfig.getExceptAccounts().contains(accountType)) {
-                double oldChargeAmount = record.getChargeAmount(i);
-                double oldCurrentAcctAmount = record.getCurrentAcctAmount(i);
-                double reducedCharge = oldChargeAmount * multiplier;
-                double reductionAmount = oldChargeAmount - reducedCharge;
-                double newAcct = oldCurrentAcctAmount + reductionAmount;
+                long oldChargeAmount = record.getChargeAmount(i);
+                long oldCurrentAcctAmount = record.getCurrentAcctAmount(i);
+                long reducedCharge = FixedPoint.percentOf(oldChargeAmount, remainingPercent);
+                // Whatever the reduced charge is truncated by stays on the account, so no amount is lost
+                long reductionAmount = oldChargeAmount - reducedCharge;
+                long newAcct = oldCurrentAcctAmount + reductionAmount;
 
                 reportRecord.setNewChargeAmount(i, reducedCharge);
                 reportRecord.setNewCurrentAcctAmount(i, newAcct);
@@ -91,10 +156,10 @@ public class DataCDRProcessor implements Runnable {
         }
 
         // Apply standard reduction
-        double newTotalFlux = record.getTotalFlux() * multiplier;
-        double newUpFlux = record.getUpFlux() * multiplier;
-        double newDownFlux = record.getDownFlux() * multiplier;
-        double newTotalChargeFlux = record.getTotalChargeFlux() * multiplier;
+        long newTotalFlux = FixedPoint.percentOf(record.getTotalFlux(), remainingPercent);
+        long newUpFlux = FixedPoint.percentOf(record.getUpFlux(), remainingPercent);
+        long newDownFlux = FixedPoint.percentOf(record.getDownFlux(), remainingPercent);
+        long newTotalChargeFlux = FixedPoint.percentOf(record.getTotalChargeFlux(), remainingPercent);
 
         reportRecord.setNewTotalFlux(newTotalFlux);
         reportRecord.setNewUpFlux(newUpFlux);
@@ -116,7 +181,22 @@ public class DataCDRProcessor implements Runnable {
         int totalProcessed = 0;
         boolean isFirstBlock = true;
 
-        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+        // Continue after the last checkpointed block of an interrupted attempt
+        File outputFile = resolveOutputFile();
+        long startOffset = 0;
+        ProcessingCheckpoint checkpoint = context.resumeCheckpoint(file, outputFile, reporter.getReportFile(),
+                dataConfig.getConfigVersion());
+        if (checkpoint != null) {
+            reporter.resume(checkpoint.getReportTotals());
+            blockNumber = checkpoint.getBlocks();
+            totalProcessed = (int) checkpoint.getOutputLines();
+            startOffset = checkpoint.getInputOffset();
+            isFirstBlock = false;
+            log.info("Resuming data CDR file {} after block {} at byte {} of {}", file.getName(), blockNumber,
+                    startOffset, file.length());
+        }
+
+        try (InputLineReader reader = context.openReader(file, startOffset)) {
             List<DataCDR> currentBlock = new ArrayList<>();
             String line;
 
@@ -127,7 +207,7 @@ public class DataCDRProcessor implements Runnable {
                         currentBlock.add(record);
 
                         // Process block when it reaches the configured size
-                        if (currentBlock.size() >= systemConfig.getBatchSize()) {
+                        if (currentBlock.size() >= batchSize) {
                             blockNumber++;
                             log.info("Processing block {} with {} records", blockNumber, currentBlock.size());
 
@@ -135,6 +215,7 @@ public class DataCDRProcessor implements Runnable {
                             writeProcessedBlock(processedBlock, isFirstBlock);
                             totalProcessed += processedBlock.size();
                             isFirstBlock = false;
+                            saveCheckpoint(outputFile, reader.getPosition(), blockNumber, totalProcessed);
 
                             // Clear current block to free memory
                             currentBlock.clear();
@@ -160,14 +241,60 @@ public class DataCDRProcessor implements Runnable {
         // Finalize reporter
         reporter.finalizeReport();
 
+        processedRecords = totalProcessed;
         log.info("Completed processing {} blocks with {} total records", blockNumber, totalProcessed);
     }
 
-    private List<DataCDR> processBlock(List<DataCDR> block) {
+    private void saveCheckpoint(File outputFile, long inputOffset, int blocks, long outputLines) throws IOException {
+        if (!context.isCheckpointEnabled()) {
+            return;
+        }
+        ProcessingCheckpoint checkpoint = new ProcessingCheckpoint();
+        checkpoint.setInputOffset(inputOffset);
+        checkpoint.setConfigVersion(dataConfig.getConfigVersion());
+        checkpoint.setBlocks(blocks);
+        checkpoint.setOutputLines(outputLines);
+        checkpoint.setReportTotals(reporter.getTotals());
+        context.saveCheckpoint(inputFile, outputFile, reporter.getReportFile(), checkpoint);
+    }
+
+    private void processDataCDRInChunks(File file) throws IOException {
+        // Continue after the last checkpointed chunk of an interrupted attempt
+        File outputFile = resolveOutputFile();
+        ProcessingCheckpoint checkpoint = context.resumeCheckpoint(file, outputFile, reporter.getReportFile(),
+                dataConfig.getConfigVersion());
+        if (checkpoint != null) {
+            reporter.resume(checkpoint.getReportTotals());
+            log.info("Resuming data CDR file {} after chunk {} at byte {} of {}", file.getName(),
+                    checkpoint.getBlocks(), checkpoint.getInputOffset(), file.length());
+        }
+        long totalProcessed = context.newChunkedProcessor(new DataRecordHandler())
+                .process(file, context.stagingFile(outputFile), checkpoint);
+
+        // Finalize reporter
+        reporter.finalizeReport();
+
+        processedRecords = totalProcessed;
+        log.info("Completed chunked processing with {} total records", totalProcessed);
+    }
+
+    private void processDataCDRInPipeline(File file) throws IOException {
+        long totalProcessed = context.newPipelinedProcessor(new DataRecordHandler(), batchSize).process(file, context.stagingFile(resolveOutputFile()));
+
+        // Finalize reporter
+        reporter.finalizeReport();
+
+        processedRecords = totalProcessed;
+        log.info("Completed pipelined processing with {} total records", totalProcessed);
+    }
+
+    private List<DataCDR> processBlock(List<DataCDR> block) throws IOException {
         List<DataCDR> processedBlock = new ArrayList<>();
 
         for (DataCDR record : block) {
             DataCDRRecord reportRecord = applyDataProcessingRules(record);
+            // Reports are written record by record, so each write is fenced
+            context.checkFencing();
             reporter.recordProcessedSession(reportRecord);
             processedBlock.add(record);
         }
@@ -177,51 +304,64 @@ public class DataCDRProcessor implements Runnable {
 
     private DataCDR parseDataRecord(String line) {
         try {
-            String[] fields = line.split("\\|");
+            PipeTokenizer fields = PipeTokenizer.local();
+            int fieldCount = fields.tokenize(line);
 
-            if (fields.length < 20) {
+            if (fieldCount < 20) {
                 log.warn("Invalid data CDR record format: {}", line);
                 return null;
             }
 
             DataCDR record = new DataCDR();
 
-            // Store original fields to preserve input structure
-            record.setOriginalFields(fields.clone());
+            // Keep the original line to preserve input structure
+            record.setOriginalLine(line, fieldCount);
 
             // Use field positions from configuration
-            int startTimePos = dataConfig.getStartTimePosition();
-            int callingPartyPos = dataConfig.getCallingPartyNumberPosition();
-            int totalFluxPos = dataConfig.getTotalFluxPosition();
-            int upFluxPos = dataConfig.getUpFluxPosition();
-            int downFluxPos = dataConfig.getDownFluxPosition();
-            int totalChargeFluxPos = dataConfig.getTotalChargeFluxPosition();
-
-            record.setStartTime(fields[startTimePos]);
-            record.setCallingNumber(fields[callingPartyPos]);
-            record.setTotalFlux(Double.parseDouble(fields[totalFluxPos]));
-            record.setUpFlux(Double.parseDouble(fields[upFluxPos]));
-            record.setDownFlux(Double.parseDouble(fields[downFluxPos]));
-            record.setTotalChargeFlux(Double.parseDouble(fields[totalChargeFluxPos]));
+            record.setStartTime(fields.field(schema.getStartTime()));
+            record.setCallingNumber(fields.field(schema.getCallingNumber()));
+            long totalFlux = fields.parseFixed(schema.getTotalFlux(), PipeTokenizer.INVALID_NUMBER);
+            long upFlux = fields.parseFixed(schema.getUpFlux(), PipeTokenizer.INVALID_NUMBER);
+            long downFlux = fields.parseFixed(schema.getDownFlux(), PipeTokenizer.INVALID_NUMBER);
+            long totalChargeFlux = fields.parseFixed(schema.getTotalChargeFlux(), PipeTokenizer.INVALID_NUMBER);
+            if (totalFlux == PipeTokenizer.INVALID_NUMBER || upFlux == PipeTokenizer.INVALID_NUMBER
+                    || downFlux == PipeTokenizer.INVALID_NUMBER || totalChargeFlux == PipeTokenizer.INVALID_NUMBER) {
+                log.warn("Invalid flux in data CDR record: {}", line);
+                return null;
+            }
+            record.setTotalFlux(totalFlux);
+            record.setUpFlux(upFlux);
+            record.setDownFlux(downFlux);
+            record.setTotalChargeFlux(totalChargeFlux);
 
             // Parse account types using configuration positions
-            for (int i = 1; i <= 10; i++) {
-                int accountTypePos = dataConfig.getAccountTypePositions().get("dataAccountType" + i);
-                int feeTypePos = dataConfig.getFeeTypePositions().get("dataFeeType" + i);
-                int chargeAmountPos = dataConfig.getChargeAmountPositions().get("dataChargeAmount" + i);
-                int currentAcctAmountPos = dataConfig.getCurrentAcctAmountPositions().get("dataCurrentAcctAmount" + i);
-
-                if (accountTypePos < fields.length) {
-                    record.setAccountType(i, fields[accountTypePos]);
+            for (int i = 1; i <= RecordSchema.ACCOUNT_SLOTS; i++) {
+                int accountTypePos = schema.getAccountType(i);
+                int feeTypePos = schema.getFeeType(i);
+                int chargeAmountPos = schema.getChargeAmount(i);
+                int currentAcctAmountPos = schema.getCurrentAcctAmount(i);
+
+                if (accountTypePos < fieldCount) {
+                    record.setAccountType(i, fields.field(accountTypePos));
                 }
-                if (feeTypePos < fields.length) {
-                    record.setFeeType(i, fields[feeTypePos]);
+                if (feeTypePos < fieldCount) {
+                    record.setFeeType(i, fields.field(feeTypePos));
                 }
-                if (chargeAmountPos < fields.length) {
-                    record.setChargeAmount(i, Double.parseDouble(fields[chargeAmountPos]));
+                if (chargeAmountPos < fieldCount) {
+                    long chargeAmount = fields.parseFixed(chargeAmountPos, PipeTokenizer.INVALID_NUMBER);
+                    if (chargeAmount == PipeTokenizer.INVALID_NUMBER) {
+                        log.warn("Invalid charge amount in data CDR record: {}", line);
+                        return null;
+                    }
+                    record.setChargeAmount(i, chargeAmount);
                 }
-                if (currentAcctAmountPos < fields.length) {
-                    record.setCurrentAcctAmount(i, Double.parseDouble(fields[currentAcctAmountPos]));
+                if (currentAcctAmountPos < fieldCount) {
+                    long currentAcctAmount = fields.parseFixed(currentAcctAmountPos, PipeTokenizer.INVALID_NUMBER);
+                    if (currentAcctAmount == PipeTokenizer.INVALID_NUMBER) {
+                        log.warn("Invalid current account amount in data CDR record: {}", line);
+                        return null;
+                    }
+                    record.setCurrentAcctAmount(i, currentAcctAmount);
                 }
             }
 
@@ -234,6 +374,19 @@ public class DataCDRProcessor implements Runnable {
     }
 
     private void writeProcessedBlock(List<DataCDR> records, boolean isFirstBlock) throws IOException {
+        context.checkFencing();
+        File outputFile = context.stagingFile(resolveOutputFile());
+
+        try (PrintWriter writer = new PrintWriter(BandwidthGovernor.newWriter(outputFile, !isFirstBlock))) {
+            for (DataCDR record : records) {
+                writer.println(formatDataRecord(record));
+            }
+        }
+
+        log.info("Written {} processed data CDR records to: {}", records.size(), outputFile.getAbsolutePath());
+    }
+
+    private File resolveOutputFile() {
         // Preserve subfolder structure
         String relativePath = FileUtils.getRelativePath(inputFile, systemConfig.getDataInputFolder());
         String subfolderPath = new File(relativePath).getParent();
@@ -246,66 +399,78 @@ public class DataCDRProcessor implements Runnable {
             FileUtils.createDirectoryIfNotExists(outputFolder);
         }
 
-        File outputFile = new File(outputFolder, inputFile.getName());
-
-        try (PrintWriter writer = new PrintWriter(new FileWriter(outputFile, !isFirstBlock))) {
-            for (DataCDR record : records) {
-                writer.println(formatDataRecord(record));
-            }
-        }
-
-        log.info("Written {} processed data CDR records to: {}", records.size(), outputFile.getAbsolutePath());
+        return new File(outputFolder, inputFile.getName());
     }
 
     private String formatDataRecord(DataCDR record) {
-        // Store the original parsed fields to preserve input structure
-        String[] fields = record.getOriginalFields();
-
         // Update only the fields that were modified during processing
-        int totalFluxPos = dataConfig.getTotalFluxPosition();
-        int upFluxPos = dataConfig.getUpFluxPosition();
-        int downFluxPos = dataConfig.getDownFluxPosition();
-        int totalChargeFluxPos = dataConfig.getTotalChargeFluxPosition();
+        int totalFluxPos = schema.getTotalFlux();
+        int upFluxPos = schema.getUpFlux();
+        int downFluxPos = schema.getDownFlux();
+        int totalChargeFluxPos = schema.getTotalChargeFlux();
 
         // Update flux values at their configured positions
-        if (totalFluxPos < fields.length) {
-            fields[totalFluxPos] = String.valueOf((long) record.getTotalFlux());
+        if (totalFluxPos < record.getFieldCount()) {
+            record.setOriginalField(totalFluxPos, FixedPoint.units(record.getTotalFlux()));
         }
-        if (upFluxPos < fields.length) {
-            fields[upFluxPos] = String.valueOf((long) record.getUpFlux());
+        if (upFluxPos < record.getFieldCount()) {
+            record.setOriginalField(upFluxPos, FixedPoint.units(record.getUpFlux()));
         }
-        if (downFluxPos < fields.length) {
-            fields[downFluxPos] = String.valueOf((long) record.getDownFlux());
+        if (downFluxPos < record.getFieldCount()) {
+            record.setOriginalField(downFluxPos, FixedPoint.units(record.getDownFlux()));
         }
-        if (totalChargeFluxPos < fields.length) {
-            fields[totalChargeFluxPos] = String.valueOf((long) record.getTotalChargeFlux());
+        if (totalChargeFluxPos < record.getFieldCount()) {
+            record.setOriginalField(totalChargeFluxPos, FixedPoint.units(record.getTotalChargeFlux()));
         }
 
         // Update account information at configured positions
-        for (int i = 1; i <= 10; i++) {
-            int accountTypePos = dataConfig.getAccountTypePositions().get("dataAccountType" + i);
-            int feeTypePos = dataConfig.getFeeTypePositions().get("dataFeeType" + i);
-            int chargeAmountPos = dataConfig.getChargeAmountPositions().get("dataChargeAmount" + i);
-            int currentAcctAmountPos = dataConfig.getCurrentAcctAmountPositions().get("dataCurrentAcctAmount" + i);
-
-            if (accountTypePos < fields.length) {
-                fields[accountTypePos] = record.getAccountType(i) != null ? record.getAccountType(i) : "0";
+        for (int i = 1; i <= RecordSchema.ACCOUNT_SLOTS; i++) {
+            int accountTypePos = schema.getAccountType(i);
+            int feeTypePos = schema.getFeeType(i);
+            int chargeAmountPos = schema.getChargeAmount(i);
+            int currentAcctAmountPos = schema.getCurrentAcctAmount(i);
+
+            if (accountTypePos < record.getFieldCount()) {
+                record.setOriginalField(accountTypePos, record.getAccountType(i) != null ? record.getAccountType(i) : "0");
             }
-            if (feeTypePos < fields.length) {
-                fields[feeTypePos] = record.getFeeType(i) != null ? record.getFeeType(i) : "0";
+            if (feeTypePos < record.getFieldCount()) {
+                record.setOriginalField(feeTypePos, record.getFeeType(i) != null ? record.getFeeType(i) : "0");
             }
-            if (chargeAmountPos < fields.length) {
-                fields[chargeAmountPos] = String.valueOf((long) record.getChargeAmount(i));
+            if (chargeAmountPos < record.getFieldCount()) {
+                record.setOriginalField(chargeAmountPos, FixedPoint.units(record.getChargeAmount(i)));
             }
-            if (currentAcctAmountPos < fields.length) {
-                fields[currentAcctAmountPos] = String.valueOf((long) record.getCurrentAcctAmount(i));
+            if (currentAcctAmountPos < record.getFieldCount()) {
+                record.setOriginalField(currentAcctAmountPos, FixedPoint.units(record.getCurrentAcctAmount(i)));
             }
         }
 
-        return String.join("|", fields);
+        return record.formatOriginalFields();
     }
 
-    private void backupOriginalFile() {
+    public File getInputFile() {
+        return inputFile;
+    }
+
+    public boolean isSucceeded() {
+        return succeeded;
+    }
+
+    /**
+     * Whether processing failed with an error worth retrying, leaving the file for the next attempt
+     */
+    public boolean isRetryPending() {
+        return retryPending;
+    }
+
+    public File getBackupFile() {
+        return backupFile;
+    }
+
+    public long getProcessedRecords() {
+        return processedRecords;
+    }
+
+    private File resolveBackupFile() {
         // Preserve subfolder structure for backup
         String relativePath = FileUtils.getRelativePath(inputFile, systemConfig.getDataInputFolder());
         String subfolderPath = new File(relativePath).getParent();
@@ -318,7 +483,7 @@ public class DataCDRProcessor implements Runnable {
             FileUtils.createDirectoryIfNotExists(backupFolder);
         }
 
-        FileUtils.backupFile(inputFile, backupFolder);
+        return FileUtils.getBackupFile(inputFile, backupFolder);
     }
 
     private void moveToErrorFolder(Exception e) {
@@ -373,4 +538,40 @@ public class DataCDRProcessor implements Runnable {
             log.error("Failed to log detailed error information", logException);
         }
     }
+
+    /**
+     * Data processing steps for the chunked engine, matching processBlock record by record
+     */
+    private class DataRecordHandler implements RecordHandler<DataCDR, DataCDRRecord> {
+
+        @Override
+        public DataCDR parse(String line) {
+            return parseDataRecord(line);
+        }
+
+        @Override
+        public DataCDRRecord applyRules(DataCDR record) {
+            return applyDataProcessingRules(record);
+        }
+
+        @Override
+        public void report(DataCDRRecord reportRecord) {
+            reporter.recordProcessedSession(reportRecord);
+        }
+
+        @Override
+        public String format(DataCDR record) {
+            return formatDataRecord(record);
+        }
+
+        @Override
+        public void beforeOutput() throws IOException {
+            context.checkFencing();
+        }
+
+        @Override
+        public void afterOutput(long inputOffset, int chunks, long records) throws IOException {
+            saveCheckpoint(resolveOutputFile(), inputOffset, chunks, records);
+        }
+    }
 }
@@ -0,0 +1,267 @@
+package com.cdr.processor;
+
+import com.cdr.model.CDRType;
+import com.cdr.model.SystemConfig;
+import com.cdr.util.MetricsRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pauses intake before the output, backup, report or error volume of a CDR type fills up, so files wait
+ * for space instead of all failing into the error folders at once. Every admitted file reserves what it
+ * is expected to write, its size times cdr.disk.footprint.factor on each of the output, backup and report
+ * volumes, until it is done. Intake of a type pauses when admitting a file would leave one of its volumes
+ * with less than the low-water mark free after reservations, and resumes once all of them are above the
+ * high-water mark again. Folders on the same file system share one volume.
+ */
+public class DiskSpaceAdmission {
+
+    private static final Logger log = LoggerFactory.getLogger(DiskSpaceAdmission.class);
+
+    private final long lowWater;
+    private final long highWater;
+    private final double footprintFactor;
+    private final long checkInterval;
+    private final long waitTimeout;
+    private final List<Volume> volumes = new ArrayList<>();
+    // Volumes of each type, with how many of its artifacts (output, backup, report) are written to each
+    private final Map<CDRType, Map<Volume, Integer>> typeVolumes = new EnumMap<>(CDRType.class);
+    private final Map<String, Map<Volume, Long>> reservations = new HashMap<>();
+    private final Set<CDRType> paused = EnumSet.noneOf(CDRType.class);
+    private final AtomicLong pauses;
+    private final AtomicLong waitTimeMillis;
+    private long lastCheck;
+
+    public DiskSpaceAdmission(SystemConfig systemConfig) {
+        this.lowWater = systemConfig.getDiskLowWater();
+        this.highWater = Math.max(lowWater, systemConfig.getDiskHighWater());
+        this.footprintFactor = Math.max(0, systemConfig.getDiskFootprintFactor());
+        this.checkInterval = Math.max(1, systemConfig.getDiskCheckInterval());
+        this.waitTimeout = systemConfig.getAdmissionWaitTimeout();
+
+        for (CDRType type : CDRType.values()) {
+            Map<Volume, Integer> written = new LinkedHashMap<>();
+            addVolume(written, type.getOutputFolder(systemConfig), 1);
+            addVolume(written, type.getBackupFolder(systemConfig), 1);
+            addVolume(written, systemConfig.getReportFolder(), 1);
+            addVolume(written, type.getErrorFolder(systemConfig), 0);
+            typeVolumes.put(type, written);
+        }
+        refresh(true);
+
+        this.pauses = MetricsRegistry.counter("disk.pauses");
+        this.waitTimeMillis = MetricsRegistry.counter("disk.wait.ms");
+        MetricsRegistry.gauge(this, "disk.paused.types", this::getPausedCount);
+        MetricsRegistry.gauge(this, "disk.reserved.bytes", this::getReservedBytes);
+        MetricsRegistry.gauge(this, "disk.min.available.bytes", this::getMinAvailable);
+        log.info("Disk space admission watching {} volumes: low water {} bytes, high water {} bytes",
+                volumes.size(), lowWater, highWater);
+    }
+
+    /**
+     * Reserve space for a file, waiting while intake of its type is paused.
+     *
+     * @return false when no space became available within the admission wait timeout
+     */
+    public synchronized boolean acquire(CDRType type, String key, long size) throws InterruptedException {
+        long start = System.currentTimeMillis();
+        long deadline = start + waitTimeout;
+        try {
+            while (true) {
+                refresh(false);
+                Map<Volume, Integer> written = typeVolumes.get(type);
+                if (paused.contains(type) && minAvailable(written.keySet()) >= highWater) {
+                    paused.remove(type);
+                    log.info("Disk space recovered, resuming {} intake", type.getName());
+                }
+                if (!paused.contains(type)) {
+                    Volume full = findFull(written, footprint(size));
+                    if (full == null) {
+                        reserve(key, written, footprint(size));
+                        return true;
+                    }
+                    paused.add(type);
+                    pauses.incrementAndGet();
+                    log.warn("Pausing {} intake: {} has {} bytes available after reservations, low water is {}",
+                            type.getName(), full.name, full.getAvailable(), lowWater);
+                }
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    return false;
+                }
+                wait(Math.min(remaining, checkInterval));
+            }
+        } finally {
+            waitTimeMillis.addAndGet(System.currentTimeMillis() - start);
+        }
+    }
+
+    /**
+     * Reserve space for a file that is processed whatever the free space, such as a claim recovered on startup
+     */
+    public synchronized void reserve(CDRType type, String key, long size) {
+        reserve(key, typeVolumes.get(type), footprint(size));
+    }
+
+    /**
+     * Release the space reserved for a finished or abandoned file
+     */
+    public synchronized void release(String key) {
+        Map<Volume, Long> reserved = reservations.remove(key);
+        if (reserved != null) {
+            for (Map.Entry<Volume, Long> entry : reserved.entrySet()) {
+                entry.getKey().reserved -= entry.getValue();
+            }
+            notifyAll();
+        }
+    }
+
+    public synchronized boolean isPaused(CDRType type) {
+        return paused.contains(type);
+    }
+
+    public synchronized long getPausedCount() {
+        return paused.size();
+    }
+
+    public synchronized long getReservedBytes() {
+        long reserved = 0;
+        for (Volume volume : volumes) {
+            reserved += volume.reserved;
+        }
+        return reserved;
+    }
+
+    public synchronized long getMinAvailable() {
+        return minAvailable(volumes);
+    }
+
+    private long footprint(long size) {
+        return (long) (size * footprintFactor);
+    }
+
+    private void reserve(String key, Map<Volume, Integer> written, long footprint) {
+        Map<Volume, Long> reserved = new HashMap<>();
+        for (Map.Entry<Volume, Integer> entry : written.entrySet()) {
+            long bytes = footprint * entry.getValue();
+            entry.getKey().reserved += bytes;
+            reserved.put(entry.getKey(), bytes);
+        }
+        Map<Volume, Long> previous = reservations.put(key, reserved);
+        if (previous != null) {
+            // Reserved twice under the same key, keep only the latest reservation
+            for (Map.Entry<Volume, Long> entry : previous.entrySet()) {
+                entry.getKey().reserved -= entry.getValue();
+            }
+        }
+    }
+
+    /**
+     * First volume that would drop below the low-water mark if a file of this footprint were admitted
+     */
+    private Volume findFull(Map<Volume, Integer> written, long footprint) {
+        for (Map.Entry<Volume, Integer> entry : written.entrySet()) {
+            if (entry.getKey().getAvailable() - footprint * entry.getValue() < lowWater) {
+                return entry.getKey();
+            }
+        }
+        return null;
+    }
+
+    private static long minAvailable(Iterable<Volume> candidates) {
+        long min = Long.MAX_VALUE;
+        for (Volume volume : candidates) {
+            min = Math.min(min, volume.getAvailable());
+        }
+        return min == Long.MAX_VALUE ? 0 : min;
+    }
+
+    /**
+     * Read the usable space of every volume, at most once per check interval unless forced
+     */
+    private void refresh(boolean force) {
+        long now = System.currentTimeMillis();
+        if (!force && now - lastCheck < checkInterval) {
+            return;
+        }
+        lastCheck = now;
+        for (Volume volume : volumes) {
+            try {
+                volume.usable = volume.store.getUsableSpace();
+            } catch (IOException e) {
+                log.warn("Failed to read usable space of {}, keeping last value", volume.name, e);
+            }
+        }
+    }
+
+    private void addVolume(Map<Volume, Integer> written, String folder, int artifacts) {
+        FileStore store = findStore(folder);
+        if (store == null) {
+            return;
+        }
+        Volume volume = null;
+        for (Volume existing : volumes) {
+            if (existing.store.equals(store)) {
+                volume = existing;
+                break;
+            }
+        }
+        if (volume == null) {
+            volume = new Volume(store, new File(folder).getAbsolutePath());
+            volumes.add(volume);
+        }
+        written.merge(volume, artifacts, Integer::sum);
+    }
+
+    /**
+     * File system of a folder, looked up through its closest existing parent when it is not created yet
+     */
+    private static FileStore findStore(String folder) {
+        File existing = new File(folder).getAbsoluteFile();
+        while (existing != null && !existing.exists()) {
+            existing = existing.getParentFile();
+        }
+        if (existing == null) {
+            return null;
+        }
+        try {
+            return Files.getFileStore(existing.toPath());
+        } catch (IOException e) {
+            log.warn("Cannot watch free space of {}", folder, e);
+            return null;
+        }
+    }
+
+    /**
+     * A file system holding one or more of the watched folders
+     */
+    private static class Volume {
+        private final FileStore store;
+        private final String name;
+        private long usable = Long.MAX_VALUE;
+        private long reserved;
+
+        Volume(FileStore store, String name) {
+            this.store = store;
+            this.name = name;
+        }
+
+        private long getAvailable() {
+            return usable - reserved;
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package com.cdr.processor;
+
+import com.cdr.util.ConfigurationException;
+
+import java.io.IOException;
+import java.nio.charset.CharacterCodingException;
+import java.nio.file.AccessDeniedException;
+
+/**
+ * Why processing a file failed, which decides whether it is retried or moved to the error folder
+ */
+public enum FailureType {
+
+    /** I/O errors that may clear up by themselves: NFS hiccups, a full disk, a busy file */
+    TRANSIENT("transient", true),
+    /** The file content cannot be processed; processing it again gives the same result */
+    INVALID_INPUT("invalid_input", false),
+    /** Missing or unreadable configuration or permissions; retried, since configuration is reloaded for every file */
+    CONFIGURATION("configuration", true);
+
+    private final String name;
+    private final boolean retryable;
+
+    FailureType(String name, boolean retryable) {
+        this.name = name;
+        this.retryable = retryable;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public boolean isRetryable() {
+        return retryable;
+    }
+
+    /**
+     * Classify a failure by the first cause that tells: I/O errors are transient except undecodable
+     * input and denied access, and anything else (parse errors, bad field values) is invalid input
+     */
+    public static FailureType classify(Throwable failure) {
+        for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+            if (cause instanceof ConfigurationException || cause instanceof AccessDeniedException) {
+                return CONFIGURATION;
+            }
+            if (cause instanceof CharacterCodingException) {
+                return INVALID_INPUT;
+            }
+            if (cause instanceof IOException) {
+                return TRANSIENT;
+            }
+        }
+        return INVALID_INPUT;
+    }
+}
@@ -0,0 +1,336 @@
+package com.cdr.processor;
+
+import com.cdr.model.CDRType;
+import com.cdr.model.SystemConfig;
+import com.cdr.util.FileUtils;
+import com.cdr.util.MetricsRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Single work-stealing scheduler shared by all CDR types.
+ * Files are queued in lanes, one per CDR type and input subfolder. Every submitted file
+ * adds one task to a ForkJoinPool; whichever worker runs it takes the next file from the
+ * lane with the smallest pass value (stride scheduling), so idle workers serve any lane
+ * and each backlogged lane gets a share of the workers proportional to its weight.
+ * An optional per-type limit caps the number of files of one CDR type running at once;
+ * tasks finding every backlogged lane at its limit are parked until a slot frees up.
+ * In virtual execution mode (java21 build) every task runs on its own virtual thread instead,
+ * and a fair semaphore caps the number of files open at once.
+ */
+public class FairShareScheduler {
+
+    private static final Logger log = LoggerFactory.getLogger(FairShareScheduler.class);
+    private static final String ROOT_LANE = "root";
+
+    private final SystemConfig systemConfig;
+    private final ExecutorService pool;
+    private final Semaphore openFiles;
+    private final Map<String, Lane> lanes = new ConcurrentHashMap<>();
+    private final Object laneLock = new Object();
+    private final Map<CDRType, TypeState> typeStates = new EnumMap<>(CDRType.class);
+    private double globalPass;
+    private int parkedTasks;
+    private volatile boolean shutdown;
+
+    public FairShareScheduler(SystemConfig systemConfig) {
+        this.systemConfig = systemConfig;
+
+        for (CDRType type : CDRType.values()) {
+            typeStates.put(type, new TypeState());
+        }
+
+        ExecutorService virtualExecutor = "virtual".equalsIgnoreCase(systemConfig.getExecutionMode())
+                ? VirtualThreadSupport.newExecutor("CDRVirtualWorker-") : null;
+        if (virtualExecutor != null) {
+            this.pool = virtualExecutor;
+            this.openFiles = new Semaphore(systemConfig.getVirtualMaxOpenFiles(), true);
+            MetricsRegistry.gauge(this, "scheduler.open.files",
+                    () -> systemConfig.getVirtualMaxOpenFiles() - openFiles.availablePermits());
+            log.info("Fair share scheduler started on virtual threads with at most {} open files",
+                    systemConfig.getVirtualMaxOpenFiles());
+            return;
+        }
+        this.openFiles = null;
+
+        int parallelism = systemConfig.getSchedulerParallelism();
+        if (parallelism <= 0 && systemConfig.isAdaptiveEnabled()) {
+            // Leave room for every type to grow to its adaptive maximum
+            parallelism = CDRType.values().length * systemConfig.getAdaptiveMaxWorkers();
+        } else if (parallelism <= 0) {
+            parallelism = Math.max(1, systemConfig.getVoiceSlaves() + systemConfig.getDataSlaves() + systemConfig.getPcrfSlaves());
+        }
+        AtomicInteger threadCount = new AtomicInteger();
+        ForkJoinPool forkJoinPool = new ForkJoinPool(parallelism, fjp -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(fjp);
+            thread.setName("CDRWorker-" + threadCount.incrementAndGet());
+            return thread;
+        }, null, true);
+        this.pool = forkJoinPool;
+
+        MetricsRegistry.gauge(this, "scheduler.active", forkJoinPool::getActiveThreadCount);
+        MetricsRegistry.gauge(this, "scheduler.steals", forkJoinPool::getStealCount);
+        log.info("Fair share scheduler started with parallelism {}", parallelism);
+    }
+
+    /**
+     * Queue a file task in the lane of its CDR type and subfolder
+     *
+     * @throws RejectedExecutionException when the scheduler is shut down
+     */
+    public void submit(CDRType type, File file, Runnable task) {
+        if (shutdown) {
+            throw new RejectedExecutionException("Scheduler is shut down");
+        }
+        String subfolder = getSubfolder(type, file);
+        Lane lane = lanes.computeIfAbsent(type.getName() + "." + subfolder,
+                name -> new Lane(name, type, getWeight(type, subfolder)));
+
+        synchronized (laneLock) {
+            if (lane.tasks.isEmpty()) {
+                // A lane becoming active must not use up credit collected while it was idle
+                lane.pass = Math.max(lane.pass, globalPass);
+            }
+            lane.tasks.add(new LaneTask(task, file.length()));
+        }
+        lane.submitted.incrementAndGet();
+        pool.execute(this::runNext);
+    }
+
+    private void runNext() {
+        if (openFiles == null) {
+            runSelected();
+            return;
+        }
+        try {
+            openFiles.acquire();
+        } catch (InterruptedException e) {
+            // Shutting down; the file stays claimed and is recovered on the next start
+            Thread.currentThread().interrupt();
+            return;
+        }
+        try {
+            runSelected();
+        } finally {
+            openFiles.release();
+        }
+    }
+
+    private void runSelected() {
+        Lane lane;
+        LaneTask next;
+        TypeState typeState;
+        synchronized (laneLock) {
+            lane = selectLane();
+            if (lane == null) {
+                if (hasQueuedTasks()) {
+                    parkedTasks++;
+                }
+                return;
+            }
+            next = lane.tasks.poll();
+            globalPass = lane.pass;
+            lane.pass += 1.0 / lane.weight;
+            typeState = typeStates.get(lane.type);
+            typeState.running++;
+        }
+
+        long start = System.currentTimeMillis();
+        lane.waitMillis.addAndGet(start - next.enqueuedAt);
+        lane.running.incrementAndGet();
+        try {
+            next.task.run();
+        } catch (RuntimeException e) {
+            log.error("Unhandled error in lane {}", lane.name, e);
+        } finally {
+            lane.running.decrementAndGet();
+            lane.completed.incrementAndGet();
+            lane.runMillis.addAndGet(System.currentTimeMillis() - start);
+            lane.bytes.addAndGet(next.bytes);
+            synchronized (laneLock) {
+                typeState.running--;
+            }
+            resumeParkedTasks(1);
+        }
+    }
+
+    private Lane selectLane() {
+        Lane selected = null;
+        for (Lane lane : lanes.values()) {
+            TypeState typeState = typeStates.get(lane.type);
+            if (lane.tasks.isEmpty() || typeState.running >= typeState.limit) {
+                continue;
+            }
+            if (selected == null || lane.pass < selected.pass) {
+                selected = lane;
+            }
+        }
+        return selected;
+    }
+
+    private boolean hasQueuedTasks() {
+        for (Lane lane : lanes.values()) {
+            if (!lane.tasks.isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Give parked tasks another chance to run after slots were freed
+     */
+    private void resumeParkedTasks(int slots) {
+        int resumed;
+        synchronized (laneLock) {
+            resumed = Math.min(slots, parkedTasks);
+            parkedTasks -= resumed;
+        }
+        try {
+            for (int i = 0; i < resumed; i++) {
+                pool.execute(this::runNext);
+            }
+        } catch (RejectedExecutionException e) {
+            // Shutting down; queued files stay claimed and are recovered on the next start
+            log.debug("Scheduler shut down, not resuming parked tasks");
+        }
+    }
+
+    /**
+     * Change the maximum number of files of a CDR type running at once
+     */
+    public void setTypeLimit(CDRType type, int limit) {
+        int added;
+        synchronized (laneLock) {
+            TypeState typeState = typeStates.get(type);
+            added = limit - typeState.limit;
+            typeState.limit = limit;
+        }
+        if (added > 0) {
+            resumeParkedTasks(added);
+        }
+    }
+
+    public int getTypeLimit(CDRType type) {
+        synchronized (laneLock) {
+            return typeStates.get(type).limit;
+        }
+    }
+
+    public int getRunning(CDRType type) {
+        synchronized (laneLock) {
+            return typeStates.get(type).running;
+        }
+    }
+
+    /**
+     * Number of files of a CDR type waiting for a worker
+     */
+    public int getQueued(CDRType type) {
+        int queued = 0;
+        synchronized (laneLock) {
+            for (Lane lane : lanes.values()) {
+                if (lane.type == type) {
+                    queued += lane.tasks.size();
+                }
+            }
+        }
+        return queued;
+    }
+
+    /**
+     * First directory below the input folder, e.g. the switch name, or "root" for files directly in it
+     */
+    private String getSubfolder(CDRType type, File file) {
+        String relativePath = FileUtils.getRelativePath(file, type.getInputFolder(systemConfig));
+        int separator = relativePath.indexOf(File.separatorChar);
+        return separator > 0 ? relativePath.substring(0, separator) : ROOT_LANE;
+    }
+
+    private int getWeight(CDRType type, String subfolder) {
+        int typeWeight = systemConfig.getSchedulerTypeWeight(type);
+        Integer subfolderWeight = systemConfig.getSchedulerSubfolderWeights().get(type.getName() + "/" + subfolder);
+        return Math.max(1, typeWeight * (subfolderWeight != null ? subfolderWeight : 1));
+    }
+
+    public void shutdown() {
+        shutdown = true;
+        pool.shutdown();
+        try {
+            if (!pool.awaitTermination(60, TimeUnit.SECONDS)) {
+                pool.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            pool.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        for (Lane lane : lanes.values()) {
+            log.info("Lane {} (weight {}): {} files completed, {} bytes, {} ms waiting, {} ms running",
+                    lane.name, lane.weight, lane.completed.get(), lane.bytes.get(),
+                    lane.waitMillis.get(), lane.runMillis.get());
+            MetricsRegistry.unregister(lane);
+        }
+        MetricsRegistry.unregister(this);
+    }
+
+    private static class LaneTask {
+        private final Runnable task;
+        private final long bytes;
+        private final long enqueuedAt = System.currentTimeMillis();
+
+        LaneTask(Runnable task, long bytes) {
+            this.task = task;
+            this.bytes = bytes;
+        }
+    }
+
+    private static class TypeState {
+        private int limit = Integer.MAX_VALUE;
+        private int running;
+    }
+
+    private static class Lane {
+        private final String name;
+        private final CDRType type;
+        private final int weight;
+        private final Queue<LaneTask> tasks = new ArrayDeque<>();
+        private double pass;
+        private final AtomicLong submitted;
+        private final AtomicLong completed;
+        private final AtomicLong bytes;
+        private final AtomicLong waitMillis;
+        private final AtomicLong runMillis;
+        private final AtomicInteger running = new AtomicInteger();
+
+        Lane(String name, CDRType type, int weight) {
+            this.name = name;
+            this.type = type;
+            this.weight = weight;
+
+            String prefix = "scheduler.lane." + name + ".";
+            this.submitted = MetricsRegistry.counter(prefix + "submitted");
+            this.completed = MetricsRegistry.counter(prefix + "completed");
+            this.bytes = MetricsRegistry.counter(prefix + "bytes");
+            this.waitMillis = MetricsRegistry.counter(prefix + "wait.ms");
+            this.runMillis = MetricsRegistry.counter(prefix + "run.ms");
+            MetricsRegistry.gauge(this, prefix + "running", running::get);
+            MetricsRegistry.gauge(this, prefix + "queued", tasks::size);
+            log.info("Created scheduler lane {} with weight {}", name, weight);
+        }
+    }
+}
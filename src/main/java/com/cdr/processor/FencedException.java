@@ -0,0 +1,15 @@
+package com.cdr.processor;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a node may no longer write output because its leadership lease is gone
+ */
+public class FencedException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    public FencedException(String message) {
+        super(message);
+    }
+}
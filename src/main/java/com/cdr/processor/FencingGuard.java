@@ -0,0 +1,18 @@
+package com.cdr.processor;
+
+/**
+ * Checked before output is written or committed, so a node that lost leadership
+ * (for example after a long GC pause) stops writing before the new leader starts.
+ */
+public interface FencingGuard {
+
+    /**
+     * @throws FencedException when this node no longer holds the lease it started processing under
+     */
+    void check() throws FencedException;
+
+    /**
+     * Fencing token of the lease output is written under
+     */
+    long getToken();
+}
@@ -0,0 +1,164 @@
+package com.cdr.processor;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Properties;
+
+/**
+ * Lease kept in a file on the storage shared by the servers, so failover does not depend on the database.
+ * Every operation holds an exclusive lock on "&lt;lease file&gt;.lock" (FileChannel.tryLock) while it reads
+ * and rewrites the lease file, which holds the epoch (fencing token), the owner and the expiry time.
+ * The lease file is replaced by an atomic rename, so a crash never leaves a partly written epoch behind.
+ * On NFS this needs working file locking (NFSv4, or NFSv3 with lockd).
+ */
+public class FileLeaderElectionBackend implements LeaderElectionBackend {
+
+    private static final int LOCK_ATTEMPTS = 20;
+    private static final long LOCK_RETRY_MILLIS = 5;
+
+    private final Path leaseFile;
+    private final Path lockFile;
+    private final Path tempFile;
+    private final String serverName;
+
+    public FileLeaderElectionBackend(String leaseFile, String serverName) {
+        this.leaseFile = Paths.get(leaseFile).toAbsolutePath();
+        this.lockFile = Paths.get(leaseFile + ".lock").toAbsolutePath();
+        this.tempFile = Paths.get(leaseFile + "." + serverName + ".tmp").toAbsolutePath();
+        this.serverName = serverName;
+    }
+
+    @Override
+    public long tryAcquire(long now, long leaseUntil) throws IOException {
+        try (FileChannel channel = openLockFile()) {
+            FileLock lock = lock(channel);
+            try {
+                Lease lease = readLease();
+                if (!lease.owner.isEmpty() && lease.leaseUntil >= now) {
+                    return -1;
+                }
+                lease.epoch++;
+                lease.owner = serverName;
+                lease.leaseUntil = leaseUntil;
+                writeLease(lease);
+                return lease.epoch;
+            } finally {
+                lock.release();
+            }
+        }
+    }
+
+    @Override
+    public boolean renew(long fencingToken, long leaseUntil) throws IOException {
+        try (FileChannel channel = openLockFile()) {
+            FileLock lock = lock(channel);
+            try {
+                Lease lease = readLease();
+                if (!serverName.equals(lease.owner) || lease.epoch != fencingToken) {
+                    return false;
+                }
+                lease.leaseUntil = leaseUntil;
+                writeLease(lease);
+                return true;
+            } finally {
+                lock.release();
+            }
+        }
+    }
+
+    @Override
+    public void release(long fencingToken) throws IOException {
+        try (FileChannel channel = openLockFile()) {
+            FileLock lock = lock(channel);
+            try {
+                Lease lease = readLease();
+                if (serverName.equals(lease.owner) && lease.epoch == fencingToken) {
+                    lease.owner = "";
+                    lease.leaseUntil = 0;
+                    writeLease(lease);
+                }
+            } finally {
+                lock.release();
+            }
+        }
+    }
+
+    @Override
+    public String describe() {
+        return "lease file " + leaseFile;
+    }
+
+    private FileChannel openLockFile() throws IOException {
+        Files.createDirectories(lockFile.getParent());
+        return FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    /**
+     * Exclusive lock, retried briefly since other servers only hold it for a read and a rename
+     */
+    private FileLock lock(FileChannel channel) throws IOException {
+        for (int attempt = 0; attempt < LOCK_ATTEMPTS; attempt++) {
+            try {
+                FileLock lock = channel.tryLock();
+                if (lock != null) {
+                    return lock;
+                }
+            } catch (OverlappingFileLockException e) {
+                // Held by another backend instance in this JVM
+            }
+            try {
+                Thread.sleep(LOCK_RETRY_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while locking " + lockFile, e);
+            }
+        }
+        throw new IOException("Lease lock " + lockFile + " is busy");
+    }
+
+    private Lease readLease() throws IOException {
+        Lease lease = new Lease();
+        if (!Files.exists(leaseFile)) {
+            return lease;
+        }
+        Properties properties = new Properties();
+        properties.load(new StringReader(new String(Files.readAllBytes(leaseFile), StandardCharsets.UTF_8)));
+        try {
+            lease.epoch = Long.parseLong(properties.getProperty("epoch"));
+            lease.owner = properties.getProperty("owner", "");
+            lease.leaseUntil = Long.parseLong(properties.getProperty("leaseUntil"));
+        } catch (NumberFormatException | NullPointerException e) {
+            // Never guess the epoch, a lower one would break fencing
+            throw new IOException("Invalid lease file " + leaseFile, e);
+        }
+        return lease;
+    }
+
+    private void writeLease(Lease lease) throws IOException {
+        String content = "epoch=" + lease.epoch + "\n"
+                + "owner=" + lease.owner + "\n"
+                + "leaseUntil=" + lease.leaseUntil + "\n";
+        try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            channel.write(ByteBuffer.wrap(content.getBytes(StandardCharsets.UTF_8)));
+            channel.force(true);
+        }
+        Files.move(tempFile, leaseFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static class Lease {
+        private long epoch;
+        private String owner = "";
+        private long leaseUntil;
+    }
+}
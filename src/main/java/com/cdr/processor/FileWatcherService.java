@@ -0,0 +1,246 @@
+package com.cdr.processor;
+
+import com.cdr.model.CDRType;
+import com.cdr.model.SystemConfig;
+import com.cdr.util.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Event-driven file ingestion based on NIO WatchService.
+ * Input trees are registered recursively; a file is dispatched to the master controller
+ * once its size and modification time have been stable for the configured settle time.
+ */
+public class FileWatcherService {
+
+    private static final Logger log = LoggerFactory.getLogger(FileWatcherService.class);
+    private static final long SETTLE_CHECK_INTERVAL = 500;
+
+    private final SystemConfig systemConfig;
+    private final MasterController masterController;
+    private final Map<WatchKey, WatchedDirectory> watchedDirectories = new ConcurrentHashMap<>();
+    private final Map<Path, PendingFile> pendingFiles = new ConcurrentHashMap<>();
+    private WatchService watchService;
+    private ScheduledExecutorService settleScheduler;
+    private Thread watchThread;
+    private volatile boolean running;
+
+    public FileWatcherService(SystemConfig systemConfig, MasterController masterController) {
+        this.systemConfig = systemConfig;
+        this.masterController = masterController;
+    }
+
+    public void start() throws IOException {
+        watchService = FileSystems.getDefault().newWatchService();
+        running = true;
+
+        for (CDRType type : CDRType.values()) {
+            if (type.getSlaves(systemConfig) <= 0) {
+                continue;
+            }
+            Path root = Paths.get(type.getInputFolder(systemConfig));
+            if (!Files.isDirectory(root)) {
+                FileUtils.createDirectoryIfNotExists(root.toString());
+            }
+            registerTree(root, type, false);
+        }
+
+        settleScheduler = Executors.newSingleThreadScheduledExecutor(r -> new Thread(r, "FileWatcherSettle"));
+        settleScheduler.scheduleWithFixedDelay(this::dispatchSettledFiles,
+                SETTLE_CHECK_INTERVAL, SETTLE_CHECK_INTERVAL, TimeUnit.MILLISECONDS);
+
+        watchThread = new Thread(this::watchLoop, "FileWatcher");
+        watchThread.setDaemon(true);
+        watchThread.start();
+
+        log.info("File watcher started for {} directories with settle time {} ms",
+                watchedDirectories.size(), systemConfig.getWatchSettleTime());
+    }
+
+    /**
+     * Register a directory and all of its subdirectories. When trackExistingFiles is set,
+     * files already present are queued as pending, which covers files created before
+     * a new subfolder could be registered.
+     */
+    private void registerTree(Path root, CDRType type, boolean trackExistingFiles) throws IOException {
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                // Claimed files are moved into the in-progress area and must not be dispatched again
+                if (FileUtils.IN_PROGRESS_FOLDER.equals(String.valueOf(dir.getFileName()))) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                WatchKey key = dir.register(watchService,
+                        StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_MODIFY);
+                watchedDirectories.put(key, new WatchedDirectory(dir, type));
+                log.debug("Watching directory: {}", dir);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (trackExistingFiles && attrs.isRegularFile()) {
+                    trackFile(file, type);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private void watchLoop() {
+        while (running) {
+            WatchKey key;
+            try {
+                key = watchService.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (ClosedWatchServiceException e) {
+                break;
+            }
+
+            WatchedDirectory directory = watchedDirectories.get(key);
+            if (directory == null) {
+                key.cancel();
+                continue;
+            }
+
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                    log.warn("Watch event overflow in {}, triggering full rescan", directory.path);
+                    masterController.processFiles();
+                    continue;
+                }
+
+                Path child = directory.path.resolve((Path) event.context());
+                try {
+                    if (Files.isDirectory(child)) {
+                        if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE) {
+                            registerTree(child, directory.type, true);
+                        }
+                    } else if (Files.isRegularFile(child)) {
+                        trackFile(child, directory.type);
+                    }
+                } catch (IOException e) {
+                    log.error("Failed to handle watch event for: {}", child, e);
+                }
+            }
+
+            if (!key.reset()) {
+                watchedDirectories.remove(key);
+                log.info("Stopped watching directory: {}", directory.path);
+            }
+        }
+    }
+
+    private void trackFile(Path file, CDRType type) {
+        pendingFiles.compute(file, (path, pending) -> {
+            if (pending == null) {
+                pending = new PendingFile(type);
+            }
+            pending.lastEventTime = System.currentTimeMillis();
+            return pending;
+        });
+    }
+
+    /**
+     * Dispatch pending files whose size and modification time did not change
+     * during the settle time, meaning the writer has finished with them.
+     */
+    private void dispatchSettledFiles() {
+        long now = System.currentTimeMillis();
+        long settleTime = systemConfig.getWatchSettleTime();
+
+        Iterator<Map.Entry<Path, PendingFile>> iterator = pendingFiles.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Path, PendingFile> entry = iterator.next();
+            File file = entry.getKey().toFile();
+            PendingFile pending = entry.getValue();
+
+            if (!file.isFile()) {
+                iterator.remove();
+                continue;
+            }
+
+            long size = file.length();
+            long lastModified = file.lastModified();
+            if (size != pending.size || lastModified != pending.lastModified) {
+                pending.size = size;
+                pending.lastModified = lastModified;
+                pending.lastEventTime = now;
+                continue;
+            }
+
+            if (now - pending.lastEventTime >= settleTime) {
+                iterator.remove();
+                log.debug("Dispatching settled {} file: {}", pending.type.getName(), file.getName());
+                try {
+                    masterController.submitFile(pending.type, file);
+                } catch (Exception e) {
+                    log.error("Failed to dispatch file: {}", file.getName(), e);
+                }
+            }
+        }
+    }
+
+    public void shutdown() {
+        log.info("Shutting down file watcher...");
+        running = false;
+        if (settleScheduler != null) {
+            settleScheduler.shutdownNow();
+        }
+        try {
+            if (watchService != null) {
+                watchService.close();
+            }
+        } catch (IOException e) {
+            log.warn("Failed to close watch service", e);
+        }
+        if (watchThread != null) {
+            watchThread.interrupt();
+        }
+    }
+
+    private static class WatchedDirectory {
+        private final Path path;
+        private final CDRType type;
+
+        WatchedDirectory(Path path, CDRType type) {
+            this.path = path;
+            this.type = type;
+        }
+    }
+
+    private static class PendingFile {
+        private final CDRType type;
+        private long size = -1;
+        private long lastModified = -1;
+        private long lastEventTime;
+
+        PendingFile(CDRType type) {
+            this.type = type;
+        }
+    }
+}
@@ -1,121 +1,187 @@
 package com.cdr.processor;
 
 import com.cdr.model.SystemConfig;
+import com.cdr.util.MetricsRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.sql.DataSource;
-import java.sql.Connection;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
-import java.sql.Timestamp;
-import java.util.List;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
 /**
- * Heartbeat Service for High Availability monitoring
+ * Heartbeat Service for High Availability monitoring.
+ * The active server holds a lease, kept by a {@link LeaderElectionBackend}, that it renews every
+ * heartbeat interval and that expires heartbeat timeout ms after the last renewal. Standby servers try
+ * to take an expired lease every check interval. Every takeover increments the fencing token, and
+ * output is only written while the lease of that token is valid.
  */
 public class HeartbeatService {
-    
+
+    /**
+     * Notified, on a dedicated thread, when this server gains or loses the active role
+     */
+    public interface LeadershipListener {
+        void onBecomeLeader(long fencingToken);
+
+        void onLoseLeadership(long fencingToken);
+    }
+
     private String serverName;
     private long heartbeatInterval;
     private long heartbeatTimeout;
-    private DataSource dataSource;
+    private long checkInterval;
+    private final LeaderElectionBackend backend;
     private ScheduledExecutorService scheduler;
+    private final ExecutorService listenerExecutor;
+    private LeadershipListener listener;
+
+    private volatile long fencingToken;
+    private volatile long leaseExpiry;
+    private volatile boolean leader;
+    private long lastRenewal;
     private static final Logger log = LoggerFactory.getLogger(HeartbeatService.class);
-    
+
     public HeartbeatService(SystemConfig config, DataSource dataSource) {
+        this(config, new JdbcLeaderElectionBackend(dataSource, config.getServerName()));
+    }
+
+    public HeartbeatService(SystemConfig config, LeaderElectionBackend backend) {
         this.serverName = config.getServerName();
         this.heartbeatInterval = config.getHeartbeatInterval();
         this.heartbeatTimeout = config.getHeartbeatTimeout();
-        this.dataSource = dataSource;
-        this.scheduler = Executors.newScheduledThreadPool(2);
+        this.checkInterval = config.getHeartbeatCheckInterval();
+        this.backend = backend;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> new Thread(r, "Heartbeat"));
+        this.listenerExecutor = Executors.newSingleThreadExecutor(r -> new Thread(r, "LeadershipEvents"));
+        MetricsRegistry.gauge("ha.leader", () -> isLeader() ? 1 : 0);
+        MetricsRegistry.gauge("ha.fencing.token", () -> fencingToken);
+    }
+
+    public void setLeadershipListener(LeadershipListener listener) {
+        this.listener = listener;
     }
-    
+
     public void startHeartbeat() {
-        // Send heartbeat every 30 seconds
-        scheduler.scheduleWithFixedDelay(this::sendHeartbeat, 0, heartbeatInterval, TimeUnit.MILLISECONDS);
-        
-        // Check active server every 600 seconds
-        scheduler.scheduleWithFixedDelay(this::checkActiveServer, 600_000, 600_000, TimeUnit.MILLISECONDS);
-        
-        log.info("Heartbeat service started for server: {}", serverName);
-    }
-    
+        // Renew while active, try to take over an expired lease while standby
+        scheduler.scheduleWithFixedDelay(this::tick, 0, checkInterval, TimeUnit.MILLISECONDS);
+
+        log.info("Heartbeat service started for server: {} on {} (lease {} ms, renew every {} ms, check every {} ms)",
+                serverName, backend.describe(), heartbeatTimeout, heartbeatInterval, checkInterval);
+    }
+
+    private void tick() {
+        if (!leader) {
+            checkActiveServer();
+        } else if (System.currentTimeMillis() - lastRenewal >= heartbeatInterval) {
+            sendHeartbeat();
+        }
+    }
+
+    /**
+     * Renew the lease; losing the compare-and-set means another server took over
+     */
     public void sendHeartbeat() {
-        try (Connection conn = dataSource.getConnection()) {
-            String sql = "UPDATE system_heartbeat SET last_heartbeat = NOW() " +
-                        "WHERE server_name = ? AND status = 'ACTIVE'";
-            
-            try (PreparedStatement stmt = conn.prepareStatement(sql)) {
-                stmt.setString(1, serverName);
-                int updated = stmt.executeUpdate();
-                
-                if (updated == 0) {
-                    log.warn("No active heartbeat record found for server: {}", serverName);
-                }
+        long now = System.currentTimeMillis();
+        try {
+            if (!backend.renew(fencingToken, now + heartbeatTimeout)) {
+                log.warn("Lease with fencing token {} was taken over, server {} is no longer active", fencingToken, serverName);
+                stepDown();
+                return;
             }
-            
+            renewed(now);
         } catch (Exception e) {
             log.error("Failed to send heartbeat", e);
+            if (System.currentTimeMillis() >= leaseExpiry) {
+                log.warn("Lease of server {} expired without renewal", serverName);
+                stepDown();
+            }
         }
     }
-    
+
+    /**
+     * Take the active role when no server holds a valid lease
+     */
     public void checkActiveServer() {
-        try (Connection conn = dataSource.getConnection()) {
-            String sql = "SELECT last_heartbeat FROM system_heartbeat " +
-                        "WHERE status = 'ACTIVE' AND server_name != ?";
-            
-            try (PreparedStatement stmt = conn.prepareStatement(sql)) {
-                stmt.setString(1, serverName);
-                try (ResultSet rs = stmt.executeQuery()) {
-                    if (rs.next()) {
-                        Timestamp lastHeartbeat = rs.getTimestamp("last_heartbeat");
-                        long timeDiff = System.currentTimeMillis() - lastHeartbeat.getTime();
-                        
-                        if (timeDiff > heartbeatTimeout) {
-                            log.warn("Active server heartbeat timeout detected. Taking over...");
-                            takeOverActiveRole();
-                        }
-                    }
-                }
-            }
-            
+        try {
+            takeOverActiveRole(System.currentTimeMillis());
         } catch (Exception e) {
             log.error("Failed to check active server heartbeat", e);
         }
     }
-    
-    private void takeOverActiveRole() {
-        try (Connection conn = dataSource.getConnection()) {
-            String updateSql = "UPDATE system_heartbeat SET " +
-                              "server_name = ?, status = 'ACTIVE', last_heartbeat = NOW() " +
-                              "WHERE server_name != ?";
-            
-            try (PreparedStatement stmt = conn.prepareStatement(updateSql)) {
-                stmt.setString(1, serverName);
-                stmt.setString(2, serverName);
-                stmt.executeUpdate();
-            }
-            
-            // Start CDR processing
-            startCDRProcessing();
-            
-            log.info("Successfully took over active role for server: {}", serverName);
-            
-        } catch (Exception e) {
-            log.error("Failed to take over active role", e);
+
+    private void takeOverActiveRole(long now) throws Exception {
+        long token = backend.tryAcquire(now, now + heartbeatTimeout);
+        if (token < 0) {
+            return;
         }
+        fencingToken = token;
+        renewed(now);
+        leader = true;
+        log.info("Successfully took over active role for server: {} with fencing token {}", serverName, fencingToken);
+
+        // Start CDR processing
+        startCDRProcessing(fencingToken);
+    }
+
+    private void renewed(long renewalStart) {
+        lastRenewal = renewalStart;
+        // Stop writing one renew interval before other servers may take over, leaving room for clock skew
+        leaseExpiry = renewalStart + heartbeatTimeout - heartbeatInterval;
     }
-    
-    private void startCDRProcessing() {
-        // This method would be implemented to start CDR processing
-        // when this server takes over the active role
+
+    private void startCDRProcessing(long token) {
         log.info("Starting CDR processing as active server");
+        if (listener != null) {
+            listenerExecutor.execute(() -> listener.onBecomeLeader(token));
+        }
+    }
+
+    private void stepDown() {
+        if (!leader) {
+            return;
+        }
+        leader = false;
+        leaseExpiry = 0;
+        long token = fencingToken;
+        log.info("Stopping CDR processing, server {} is standby", serverName);
+        if (listener != null) {
+            listenerExecutor.execute(() -> listener.onLoseLeadership(token));
+        }
+    }
+
+    /**
+     * Whether this server holds a valid lease right now
+     */
+    public boolean isLeader() {
+        return leader && System.currentTimeMillis() < leaseExpiry;
+    }
+
+    public long getFencingToken() {
+        return fencingToken;
     }
-    
+
+    /**
+     * Guard for output written under the given fencing token; fails once that lease is lost or expired
+     */
+    public FencingGuard fencingGuard(long token) {
+        return new FencingGuard() {
+            @Override
+            public void check() throws FencedException {
+                if (!isLeader() || fencingToken != token) {
+                    throw new FencedException("lease with fencing token " + token + " is no longer held by " + serverName);
+                }
+            }
+
+            @Override
+            public long getToken() {
+                return token;
+            }
+        };
+    }
+
     public void shutdown() {
         log.info("Shutting down heartbeat service...");
         scheduler.shutdown();
@@ -126,5 +192,22 @@ public class HeartbeatService {
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
         }
+        if (leader) {
+            releaseLease();
+        }
+        listenerExecutor.shutdown();
+    }
+
+    /**
+     * Hand the lease back so a standby server takes over without waiting for it to expire
+     */
+    private void releaseLease() {
+        leader = false;
+        leaseExpiry = 0;
+        try {
+            backend.release(fencingToken);
+        } catch (Exception e) {
+            log.error("Failed to release active lease", e);
+        }
     }
 }
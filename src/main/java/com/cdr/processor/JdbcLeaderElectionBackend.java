@@ -0,0 +1,87 @@
+package com.cdr.processor;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Lease on the leader row (id 1) of system_heartbeat, changed with compare-and-set UPDATEs
+ */
+public class JdbcLeaderElectionBackend implements LeaderElectionBackend {
+
+    private static final int LEADER_ROW = 1;
+
+    private final DataSource dataSource;
+    private final String serverName;
+
+    public JdbcLeaderElectionBackend(DataSource dataSource, String serverName) {
+        this.dataSource = dataSource;
+        this.serverName = serverName;
+    }
+
+    @Override
+    public long tryAcquire(long now, long leaseUntil) throws SQLException {
+        try (Connection conn = dataSource.getConnection()) {
+            String updateSql = "UPDATE system_heartbeat SET " +
+                              "server_name = ?, status = 'ACTIVE', last_heartbeat = CURRENT_TIMESTAMP, " +
+                              "lease_until = ?, fencing_token = fencing_token + 1 " +
+                              "WHERE id = ? AND (status <> 'ACTIVE' OR lease_until < ?)";
+
+            try (PreparedStatement stmt = conn.prepareStatement(updateSql)) {
+                stmt.setString(1, serverName);
+                stmt.setLong(2, leaseUntil);
+                stmt.setInt(3, LEADER_ROW);
+                stmt.setLong(4, now);
+                if (stmt.executeUpdate() == 0) {
+                    return -1;
+                }
+            }
+
+            String selectSql = "SELECT fencing_token FROM system_heartbeat WHERE id = ? AND server_name = ?";
+            try (PreparedStatement stmt = conn.prepareStatement(selectSql)) {
+                stmt.setInt(1, LEADER_ROW);
+                stmt.setString(2, serverName);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    return rs.next() ? rs.getLong(1) : -1;
+                }
+            }
+        }
+    }
+
+    @Override
+    public boolean renew(long fencingToken, long leaseUntil) throws SQLException {
+        try (Connection conn = dataSource.getConnection()) {
+            String sql = "UPDATE system_heartbeat SET last_heartbeat = CURRENT_TIMESTAMP, lease_until = ? " +
+                        "WHERE id = ? AND server_name = ? AND fencing_token = ? AND status = 'ACTIVE'";
+
+            try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+                stmt.setLong(1, leaseUntil);
+                stmt.setInt(2, LEADER_ROW);
+                stmt.setString(3, serverName);
+                stmt.setLong(4, fencingToken);
+                return stmt.executeUpdate() > 0;
+            }
+        }
+    }
+
+    @Override
+    public void release(long fencingToken) throws SQLException {
+        try (Connection conn = dataSource.getConnection()) {
+            String sql = "UPDATE system_heartbeat SET status = 'STANDBY', lease_until = 0 " +
+                        "WHERE id = ? AND server_name = ? AND fencing_token = ?";
+            try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+                stmt.setInt(1, LEADER_ROW);
+                stmt.setString(2, serverName);
+                stmt.setLong(3, fencingToken);
+                stmt.executeUpdate();
+            }
+        }
+    }
+
+    @Override
+    public String describe() {
+        return "database table system_heartbeat";
+    }
+}
@@ -0,0 +1,32 @@
+package com.cdr.processor;
+
+/**
+ * Storage of the active server lease used by {@link HeartbeatService}.
+ * Implementations make each operation atomic against other servers using the same storage.
+ */
+public interface LeaderElectionBackend {
+
+    /**
+     * Take the lease if no server holds an unexpired one
+     *
+     * @return the new fencing token, or -1 when another server holds a valid lease
+     */
+    long tryAcquire(long now, long leaseUntil) throws Exception;
+
+    /**
+     * Extend the lease held under the given fencing token
+     *
+     * @return false when the lease was taken over by another server
+     */
+    boolean renew(long fencingToken, long leaseUntil) throws Exception;
+
+    /**
+     * Give the lease up so another server can take over without waiting for it to expire
+     */
+    void release(long fencingToken) throws Exception;
+
+    /**
+     * Short description for logging
+     */
+    String describe();
+}
@@ -0,0 +1,101 @@
+package com.cdr.processor;
+
+import com.cdr.model.CDRType;
+import com.cdr.model.SystemConfig;
+import com.cdr.util.FileUtils;
+import com.cdr.util.MetricsRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Switches processing to a degraded profile while the input backlog is large, and back once it has drained.
+ * The backlog of a CDR type is measured after every scan: files waiting in the input folder or admitted and
+ * not finished, and how long the longest waiting file has been left waiting since a scan first found it, so input
+ * delivered with old modification times does not count as late. Degraded mode starts when one type
+ * reaches cdr.degraded.enter.files or cdr.degraded.enter.age, and ends when all types are back under the
+ * exit thresholds. Files started in degraded mode get an aggregate-only report, a compressed backup and
+ * larger blocks, and are listed in cdr.degraded.log.file so their detail reports can be regenerated.
+ * Off by default, since it changes report content and backup names while it is on.
+ */
+public class LoadShedder {
+
+    private static final Logger log = LoggerFactory.getLogger(LoadShedder.class);
+
+    private final SystemConfig systemConfig;
+    private final Map<CDRType, Backlog> backlogs = new EnumMap<>(CDRType.class);
+    private final File degradedLog;
+    private volatile boolean degraded;
+
+    public LoadShedder(SystemConfig systemConfig) {
+        this.systemConfig = systemConfig;
+        this.degradedLog = new File(systemConfig.getDegradedLogFile());
+        MetricsRegistry.gauge(this, "degraded.active", () -> degraded ? 1 : 0);
+    }
+
+    /**
+     * Record the backlog of a CDR type after a scan and switch profile when a threshold is crossed
+     *
+     * @param files files waiting in the input folder or admitted and not finished
+     * @param oldestAgeMillis how long the longest waiting file has been waiting, 0 when none was left waiting
+     */
+    public synchronized void update(CDRType type, long files, long oldestAgeMillis) {
+        backlogs.put(type, new Backlog(files, oldestAgeMillis));
+        if (!degraded) {
+            if (files >= systemConfig.getDegradedEnterFiles() || oldestAgeMillis >= systemConfig.getDegradedEnterAge()) {
+                degraded = true;
+                MetricsRegistry.counter("degraded.entered").incrementAndGet();
+                log.warn("Entering degraded mode: {} backlog of {} files, oldest {} s old; detail reports are skipped",
+                        type.getName(), files, oldestAgeMillis / 1000);
+            }
+            return;
+        }
+        for (Backlog backlog : backlogs.values()) {
+            if (backlog.files > systemConfig.getDegradedExitFiles() || backlog.oldestAgeMillis > systemConfig.getDegradedExitAge()) {
+                return;
+            }
+        }
+        degraded = false;
+        log.info("Backlog drained, leaving degraded mode");
+    }
+
+    public boolean isDegraded() {
+        return degraded;
+    }
+
+    /**
+     * Add a file processed in degraded mode to the list of files whose detail report was skipped
+     */
+    public synchronized void recordDegradedFile(String type, File inputFile, File reportFile, File backupFile) {
+        MetricsRegistry.counter("degraded.files").incrementAndGet();
+        File parent = degradedLog.getAbsoluteFile().getParentFile();
+        if (parent != null) {
+            FileUtils.createDirectoryIfNotExists(parent.getAbsolutePath());
+        }
+        try (PrintWriter writer = new PrintWriter(new FileWriter(degradedLog, true))) {
+            writer.println(new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(new Date()) + "|" + type + "|"
+                    + inputFile.getName() + "|" + reportFile.getAbsolutePath() + "|"
+                    + (backupFile != null ? backupFile.getAbsolutePath() : ""));
+        } catch (IOException e) {
+            log.error("Failed to record degraded file {}", inputFile.getName(), e);
+        }
+    }
+
+    private static class Backlog {
+        private final long files;
+        private final long oldestAgeMillis;
+
+        Backlog(long files, long oldestAgeMillis) {
+            this.files = files;
+            this.oldestAgeMillis = oldestAgeMillis;
+        }
+    }
+}
@@ -1,103 +1,659 @@
 package com.cdr.processor;
 
+import com.cdr.model.CDRType;
 import com.cdr.model.SystemConfig;
+import com.cdr.util.CommitJournal;
 import com.cdr.util.FileUtils;
+import com.cdr.util.IncrementalDirectoryScanner;
+import com.cdr.util.MetricsRegistry;
+import com.cdr.util.ProcessedFileLedger;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.FileWriter;
+import java.io.IOException;
 import java.io.PrintWriter;
 import java.nio.file.Files;
 import java.nio.file.StandardCopyOption;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.EnumMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Master Controller for CDR processing system
  */
 public class MasterController {
-    private ExecutorService voiceExecutor;
-    private ExecutorService dataExecutor;
-    private ExecutorService pcrfExecutor;
+    private FairShareScheduler scheduler;
+    private AdaptiveConcurrencyController adaptiveController;
+    private ExecutorService chunkExecutor;
+    private ExecutorService pipelineExecutor;
+    private ProcessingContext processingContext;
+    private volatile ShardCoordinator shardCoordinator;
+    private final FencingGuard fencingGuard;
     private SystemConfig systemConfig;
+    private ProcessedFileLedger ledger;
+    private CommitJournal journal;
+    private RetryScheduler retryScheduler;
+    private TaskWatchdog watchdog;
+    private DiskSpaceAdmission diskSpaceAdmission;
+    private OrderedCommitter orderedCommitter;
+    private LoadShedder loadShedder;
+    private final Map<CDRType, AdmissionQueue> admissionQueues = new EnumMap<>(CDRType.class);
+    private final Map<CDRType, AtomicBoolean> scanInProgress = new EnumMap<>(CDRType.class);
+    private final Map<CDRType, IncrementalDirectoryScanner> scanners = new EnumMap<>(CDRType.class);
+    // When a scan first left each file waiting for intake, by path
+    private final Map<CDRType, Map<String, Long>> waitingSince = new EnumMap<>(CDRType.class);
     private static final Logger log = LoggerFactory.getLogger(MasterController.class);
 
     public MasterController(SystemConfig config) {
+        this(config, null);
+    }
+
+    /**
+     * @param fencingGuard checked before output is written, null when this node does not compete for leadership
+     */
+    public MasterController(SystemConfig config, FencingGuard fencingGuard) {
         this.systemConfig = config;
+        this.fencingGuard = fencingGuard;
         initialize();
     }
 
     public void initialize() {
-        voiceExecutor = Executors.newFixedThreadPool(systemConfig.getVoiceSlaves());
-        dataExecutor = Executors.newFixedThreadPool(systemConfig.getDataSlaves());
-        pcrfExecutor = Executors.newFixedThreadPool(systemConfig.getPcrfSlaves());
+        scheduler = new FairShareScheduler(systemConfig);
+        if (systemConfig.isAdaptiveEnabled()) {
+            adaptiveController = new AdaptiveConcurrencyController(systemConfig, scheduler);
+            adaptiveController.start();
+        }
+
+        // Separate pool for chunks of large files, so file workers waiting on chunks cannot starve it
+        if (systemConfig.getParallelWorkers() > 0) {
+            AtomicInteger chunkThreadCount = new AtomicInteger();
+            chunkExecutor = Executors.newFixedThreadPool(systemConfig.getParallelWorkers(),
+                    r -> new Thread(r, "ChunkWorker-" + chunkThreadCount.incrementAndGet()));
+        }
+        if (systemConfig.isPipelineEnabled()) {
+            if ("virtual".equalsIgnoreCase(systemConfig.getExecutionMode())) {
+                pipelineExecutor = VirtualThreadSupport.newExecutor("PipelineStage-");
+            }
+            if (pipelineExecutor == null) {
+                // Stage threads live as long as their file, so the pool grows with the files in flight
+                AtomicInteger stageThreadCount = new AtomicInteger();
+                pipelineExecutor = Executors.newCachedThreadPool(
+                        r -> new Thread(r, "PipelineStage-" + stageThreadCount.incrementAndGet()));
+            }
+        }
+        if (systemConfig.isJournalEnabled()) {
+            journal = new CommitJournal(systemConfig.getJournalFile(), systemConfig.isJournalSyncEnabled());
+        }
+        if (systemConfig.isWatchdogEnabled()) {
+            watchdog = new TaskWatchdog(systemConfig);
+            watchdog.start();
+        }
+        if (systemConfig.getRetryMaxAttempts() > 0) {
+            retryScheduler = new RetryScheduler(systemConfig);
+        }
+        if (systemConfig.isCommitOrderEnabled()) {
+            orderedCommitter = new OrderedCommitter(systemConfig);
+        }
+        if (systemConfig.isDegradedEnabled()) {
+            loadShedder = new LoadShedder(systemConfig);
+        }
+        processingContext = ProcessingContext.builder(systemConfig)
+                .chunkExecutor(chunkExecutor)
+                .pipelineExecutor(pipelineExecutor)
+                .fencingGuard(fencingGuard)
+                .claimGuard(this::checkShardClaim)
+                .journal(journal)
+                .retryScheduler(retryScheduler)
+                .orderedCommitter(orderedCommitter)
+                .loadShedder(loadShedder)
+                .build();
+
+        if (systemConfig.isDiskAdmissionEnabled()) {
+            diskSpaceAdmission = new DiskSpaceAdmission(systemConfig);
+        }
+        for (CDRType type : CDRType.values()) {
+            admissionQueues.put(type, new AdmissionQueue(type.getName(),
+                    systemConfig.getAdmissionQueueCapacity(), systemConfig.getAdmissionWaitTimeout()));
+            scanInProgress.put(type, new AtomicBoolean(false));
+            waitingSince.put(type, new ConcurrentHashMap<>());
+            scanners.put(type, new IncrementalDirectoryScanner(type.getName(), type.getInputFolder(systemConfig),
+                    systemConfig.getScanFullInterval(), systemConfig.getScanTimestampGranularity()));
+        }
+
+        if (systemConfig.isLedgerEnabled()) {
+            ledger = new ProcessedFileLedger(systemConfig.getLedgerFile(), systemConfig.isLedgerHashEnabled(),
+                    systemConfig.isLedgerSyncEnabled(), systemConfig.getLedgerRetention());
+            try {
+                ledger.open();
+            } catch (IOException e) {
+                log.error("Failed to open processed file ledger", e);
+                throw new RuntimeException("Processed file ledger could not be opened", e);
+            }
+        }
+        if (journal != null) {
+            // Roll interrupted commits forward before claims are recovered, so committed files are not processed again
+            try {
+                journal.open(this::completeCommittedClaim);
+            } catch (IOException e) {
+                log.error("Failed to open commit journal", e);
+                throw new RuntimeException("Commit journal could not be opened", e);
+            }
+        }
+        if (fencingGuard != null) {
+            removeStaleStagingFiles();
+        }
+        if (ledger != null && "sharded".equalsIgnoreCase(systemConfig.getHaMode())) {
+            releaseClaimedFiles();
+        } else if (ledger != null) {
+            recoverClaimedFiles();
+        }
         log.info("Master Controller initialized");
     }
 
     public void processFiles() {
-        Runnable voiceTask = null, dataTask = null, pcrfTask = null;
-        Thread voiceThread = null, dataThread = null, pcrfThread = null;
-
         if (systemConfig.getVoiceSlaves() > 0) {
-            voiceTask = this::processVoiceFiles;
-            voiceThread = new Thread(voiceTask, "VoiceFilesProcessor");
-            voiceThread.start();
+            startScan(CDRType.VOICE, this::processVoiceFiles, "VoiceFilesProcessor");
         }
         if (systemConfig.getDataSlaves() > 0) {
-            dataTask = this::processDataFiles;
-            dataThread = new Thread(dataTask, "DataFilesProcessor");
-            dataThread.start();
+            startScan(CDRType.DATA, this::processDataFiles, "DataFilesProcessor");
         }
         if (systemConfig.getPcrfSlaves() > 0) {
-            pcrfTask = this::processPCRFFiles;
-            pcrfThread = new Thread(pcrfTask, "PCRFFilesProcessor");
-            pcrfThread.start();
+            startScan(CDRType.PCRF, this::processPCRFFiles, "PCRFFilesProcessor");
         }
     }
 
+    /**
+     * Start a scan thread for a CDR type unless the previous scan of that type is still running
+     */
+    private void startScan(CDRType type, Runnable scanTask, String threadName) {
+        AtomicBoolean scanning = scanInProgress.get(type);
+        if (!scanning.compareAndSet(false, true)) {
+            log.debug("Previous {} scan still running, skipping this cycle", type.getName());
+            return;
+        }
+        Thread scanThread = new Thread(() -> {
+            try {
+                scanTask.run();
+            } finally {
+                scanning.set(false);
+            }
+        }, threadName);
+        scanThread.start();
+    }
+
     private void processVoiceFiles() {
-        List<File> files = FileUtils.scanInputFolder(systemConfig.getVoiceInputFolder());
-        log.info("Found {} voice CDR files to process", files.size());
+        scanAndSubmit(CDRType.VOICE);
+    }
 
-        for (File file : files) {
-            try {
-                voiceExecutor.submit(new VoiceCDRProcessor(file, systemConfig));
-            } catch (Exception e) {
-                log.error("Error processing voice file: {}", file.getName(), e);
-                moveToErrorFolder(file, systemConfig.getVoiceErrorFolder(), "VOICE_PROCESSING_ERROR: " + e.getMessage());
+    private void processDataFiles() {
+        scanAndSubmit(CDRType.DATA);
+    }
+
+    private void processPCRFFiles() {
+        scanAndSubmit(CDRType.PCRF);
+    }
+
+    /**
+     * Submit files as the scanner finds them, stopping when the admission queue stays full.
+     * The files left waiting and the admitted ones not finished yet make up the backlog of the type; files in
+     * shards of other nodes, or rejected by their claim, are skipped and left out of it. With degraded mode on,
+     * the scan goes on past a full queue to count the files left waiting, and the backlog age is how long the
+     * longest waiting of them has been seen by scans without being submitted, whatever its modification time.
+     */
+    private void scanAndSubmit(CDRType type) {
+        AdmissionQueue queue = admissionQueues.get(type);
+        ShardCoordinator coordinator = shardCoordinator;
+        Map<String, Long> waiting = waitingSince.get(type);
+        Set<String> stillWaiting = new HashSet<>();
+        AtomicBoolean deferring = new AtomicBoolean();
+        AtomicInteger owned = new AtomicInteger();
+        AtomicInteger submitted = new AtomicInteger();
+        long now = System.currentTimeMillis();
+        AtomicLong oldest = new AtomicLong(now);
+        int found = scanners.get(type).scan(file -> {
+            if (coordinator != null && !coordinator.owns(type, file)) {
+                return true;
+            }
+            owned.incrementAndGet();
+            if (!deferring.get()) {
+                if (submitFile(type, file)) {
+                    submitted.incrementAndGet();
+                    return true;
+                } else if (queue.getDepth() >= queue.getCapacity()) {
+                    // Queue stayed full for the whole wait timeout, leave the rest for the next cycle
+                    log.info("{} admission queue is full, deferring remaining files to next cycle", type.getName());
+                } else if (diskSpaceAdmission != null && diskSpaceAdmission.isPaused(type)) {
+                    log.info("{} intake paused for disk space, deferring remaining files to next cycle", type.getName());
+                } else {
+                    // Already processed or could not be claimed, not waiting for intake
+                    return true;
+                }
+                deferring.set(true);
+                if (loadShedder == null) {
+                    return false;
+                }
             }
+            String key = file.getAbsolutePath();
+            stillWaiting.add(key);
+            long since = waiting.computeIfAbsent(key, k -> now);
+            if (since < oldest.get()) {
+                oldest.set(since);
+            }
+            return true;
+        });
+        // Files submitted or gone since the previous scan are no longer waiting
+        waiting.keySet().retainAll(stillWaiting);
+        if (coordinator != null) {
+            log.info("Found {} {} CDR files, {} in owned shards, submitted {} for processing", found, type.getName(),
+                    owned.get(), submitted.get());
+        } else {
+            log.info("Found {} {} CDR files, submitted {} for processing", found, type.getName(), submitted.get());
+        }
+        if (loadShedder != null) {
+            loadShedder.update(type, stillWaiting.size() + queue.getDepth(), now - oldest.get());
         }
     }
 
-    private void processDataFiles() {
-        List<File> files = FileUtils.scanInputFolder(systemConfig.getDataInputFolder());
-        log.info("Found {} data CDR files to process", files.size());
+    /**
+     * Admit, claim and submit a single file, used by both scanning and event-driven ingestion.
+     * Blocks while the admission queue of the CDR type is full or its intake is paused for disk space.
+     *
+     * @return true when the file was submitted for processing
+     */
+    public boolean submitFile(CDRType type, File file) {
+        ShardCoordinator coordinator = shardCoordinator;
+        if (coordinator != null && !coordinator.owns(type, file)) {
+            // Another node holds the shard of this file
+            return false;
+        }
+        AdmissionQueue queue = admissionQueues.get(type);
+        String key = file.getAbsolutePath();
+        try {
+            if (!queue.acquire(key)) {
+                return false;
+            }
+            if (diskSpaceAdmission != null && !diskSpaceAdmission.acquire(type, key, file.length())) {
+                queue.release(key);
+                return false;
+            }
+        } catch (InterruptedException e) {
+            queue.release(key);
+            Thread.currentThread().interrupt();
+            return false;
+        }
 
-        for (File file : files) {
+        File claimedFile = claimFile(type, file);
+        if (claimedFile == null) {
+            releaseAdmission(type, key);
+            return false;
+        }
+        if (orderedCommitter != null) {
+            orderedCommitter.register(type, claimedFile);
+        }
+        dispatchFile(type, claimedFile, key);
+        return true;
+    }
+
+    private void dispatchFile(CDRType type, File claimedFile, String admissionKey) {
+        try {
+            scheduler.submit(type, claimedFile, () -> {
+                Outcome outcome = Outcome.DONE;
+                TaskWatchdog.RunningTask watched = watchdog != null ? watchdog.begin(type, claimedFile) : null;
+                try {
+                    outcome = processFile(type, claimedFile);
+                } finally {
+                    if (watched != null) {
+                        watchdog.end(watched, outcome != Outcome.RETRY);
+                    }
+                    if (outcome == Outcome.RETRY) {
+                        // The file keeps its admission slot and disk space while it waits for the next attempt
+                        retryScheduler.schedule(claimedFile, () -> dispatchFile(type, claimedFile, admissionKey));
+                    } else if (outcome == Outcome.HELD) {
+                        // Held files keep their slot too, which bounds the output waiting in staging
+                        orderedCommitter.ready(claimedFile, () -> publishHeld(type, claimedFile, admissionKey));
+                    } else {
+                        releaseAdmission(type, admissionKey);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            log.warn("Scheduler rejected {} file {}, it will be recovered on next start", type.getName(), claimedFile.getName());
+            if (orderedCommitter != null) {
+                orderedCommitter.forget(claimedFile);
+            }
+            releaseAdmission(type, admissionKey);
+        }
+    }
+
+    /**
+     * Commit a file held for ordered publishing once its turn has come, on the committer thread
+     */
+    private void publishHeld(CDRType type, File claimedFile, String admissionKey) {
+        try {
+            File backupFile = processingContext.commitHeld(claimedFile);
+            completeClaim(claimedFile, true, backupFile);
+        } catch (FencedException e) {
+            processingContext.abortHeld(claimedFile);
+            log.warn("Stopped publishing {} {}: {}", type.getName(), claimedFile.getName(), e.getMessage());
+            completeClaim(claimedFile, false, null);
+        } catch (Exception e) {
+            processingContext.abortHeld(claimedFile);
+            if (processingContext.shouldRetry(claimedFile, e)) {
+                log.warn("Failed publishing {} file {}, will retry: {}", type.getName(), claimedFile.getName(), e.toString());
+                retryScheduler.schedule(claimedFile, () -> dispatchFile(type, claimedFile, admissionKey));
+                return;
+            }
+            log.error("Failed publishing {} file {}", type.getName(), claimedFile.getName(), e);
+            moveToErrorFolder(claimedFile, type.getErrorFolder(systemConfig), "COMMIT_ERROR: " + e.getMessage());
+            completeClaim(claimedFile, false, null);
+        }
+        releaseAdmission(type, admissionKey);
+    }
+
+    private void releaseAdmission(CDRType type, String admissionKey) {
+        admissionQueues.get(type).release(admissionKey);
+        if (diskSpaceAdmission != null) {
+            diskSpaceAdmission.release(admissionKey);
+        }
+    }
+
+    /**
+     * Create the processor only when a worker picks the file up, so queued files hold no config or reporter
+     */
+    private Outcome processFile(CDRType type, File file) {
+        ShardCoordinator coordinator = shardCoordinator;
+        if (coordinator != null && !coordinator.ownsClaim(file)) {
+            // The shard moved while the file waited, so it is not worth starting
+            completeClaim(file, false, null);
+            return Outcome.DONE;
+        }
+        switch (type) {
+            case VOICE:
+                return processVoiceFile(file);
+            case DATA:
+                return processDataFile(file);
+            case PCRF:
+                return processPCRFFile(file);
+            default:
+                return Outcome.DONE;
+        }
+    }
+
+    private Outcome processVoiceFile(File file) {
+        VoiceCDRProcessor processor;
+        try {
+            processor = new VoiceCDRProcessor(file, systemConfig, processingContext);
+        } catch (Exception e) {
+            log.error("Error processing voice file: {}", file.getName(), e);
+            if (processingContext.shouldRetry(file, e)) {
+                return Outcome.RETRY;
+            }
+            moveToErrorFolder(file, systemConfig.getVoiceErrorFolder(), "VOICE_PROCESSING_ERROR: " + e.getMessage());
+            completeClaim(file, false, null);
+            return Outcome.DONE;
+        }
+        long start = System.currentTimeMillis();
+        processor.run();
+        recordThroughput(CDRType.VOICE, processor.isSucceeded(), processor.getProcessedRecords(), start);
+        return finishProcessing(file, processor.isRetryPending(), processor.isSucceeded(), processor.getBackupFile());
+    }
+
+    private Outcome processDataFile(File file) {
+        DataCDRProcessor processor;
+        try {
+            processor = new DataCDRProcessor(file, systemConfig, processingContext);
+        } catch (Exception e) {
+            log.error("Error processing data file: {}", file.getName(), e);
+            if (processingContext.shouldRetry(file, e)) {
+                return Outcome.RETRY;
+            }
+            moveToErrorFolder(file, systemConfig.getDataErrorFolder(), "DATA_PROCESSING_ERROR: " + e.getMessage());
+            completeClaim(file, false, null);
+            return Outcome.DONE;
+        }
+        long start = System.currentTimeMillis();
+        processor.run();
+        recordThroughput(CDRType.DATA, processor.isSucceeded(), processor.getProcessedRecords(), start);
+        return finishProcessing(file, processor.isRetryPending(), processor.isSucceeded(), processor.getBackupFile());
+    }
+
+    private Outcome processPCRFFile(File file) {
+        PCRFCDRProcessor processor;
+        try {
+            processor = new PCRFCDRProcessor(file, systemConfig, processingContext);
+        } catch (Exception e) {
+            log.error("Error processing data file: {}", file.getName(), e);
+            if (processingContext.shouldRetry(file, e)) {
+                return Outcome.RETRY;
+            }
+            moveToErrorFolder(file, systemConfig.getDataErrorFolder(), "DATA_PROCESSING_ERROR: " + e.getMessage());
+            completeClaim(file, false, null);
+            return Outcome.DONE;
+        }
+        long start = System.currentTimeMillis();
+        processor.run();
+        recordThroughput(CDRType.PCRF, processor.isSucceeded(), processor.getProcessedRecords(), start);
+        return finishProcessing(file, processor.isRetryPending(), processor.isSucceeded(), processor.getBackupFile());
+    }
+
+    /**
+     * Result of processing a file, or HELD when its output waits in staging for its turn to be published
+     */
+    private Outcome finishProcessing(File file, boolean retryPending, boolean succeeded, File backupFile) {
+        if (retryPending) {
+            return Outcome.RETRY;
+        }
+        if (succeeded && processingContext.isCommitHeld(file)) {
+            return Outcome.HELD;
+        }
+        completeClaim(file, succeeded, backupFile);
+        return Outcome.DONE;
+    }
+
+    private void recordThroughput(CDRType type, boolean succeeded, long records, long startMillis) {
+        if (adaptiveController != null && succeeded) {
+            adaptiveController.recordFile(type, records, System.currentTimeMillis() - startMillis);
+        }
+    }
+
+    private File claimFile(CDRType type, File file) {
+        if (ledger == null) {
+            return file;
+        }
+        ShardCoordinator coordinator = shardCoordinator;
+        if (coordinator == null) {
+            return ledger.claim(type.getName(), file, type.getInputFolder(systemConfig));
+        }
+        // Shared before the move, so the next owner of the shard finds the file if this node goes away
+        File sharedClaim = coordinator.recordClaim(type, file);
+        if (sharedClaim == null) {
+            return null;
+        }
+        File claimedFile = ledger.claim(type.getName(), file, type.getInputFolder(systemConfig));
+        if (claimedFile == null) {
+            coordinator.finishClaim(sharedClaim);
+        }
+        return claimedFile;
+    }
+
+    /**
+     * Stop a file whose shard moved to another node since it was claimed, before its output is committed
+     */
+    private void checkShardClaim(File claimedFile) throws FencedException {
+        ShardCoordinator coordinator = shardCoordinator;
+        if (coordinator != null && !coordinator.ownsClaim(claimedFile)) {
+            throw new FencedException("Shard of " + claimedFile.getName() + " is no longer held by this node");
+        }
+    }
+
+    /**
+     * Record the outcome of a claimed file. Successfully processed files are removed
+     * from the in-progress area once their backup copy exists.
+     */
+    private void completeClaim(File claimedFile, boolean succeeded, File backupFile) {
+        if (orderedCommitter != null && !succeeded) {
+            orderedCommitter.forget(claimedFile);
+        }
+        if (retryScheduler != null) {
+            retryScheduler.finished(claimedFile, succeeded);
+        }
+        ShardCoordinator coordinator = shardCoordinator;
+        if (coordinator != null && !succeeded && !coordinator.ownsClaim(claimedFile)) {
+            // The shard moved: the claim stays in the in-progress area for its new owner to recover
+            log.warn("Leaving {} to the new owner of its shard", claimedFile.getAbsolutePath());
+            coordinator.releaseClaim(claimedFile);
+            if (ledger != null) {
+                ledger.markReleased(claimedFile);
+            }
+            return;
+        }
+        if (ledger == null) {
+            return;
+        }
+        if (!succeeded && processingContext.isFenced()) {
+            // Leadership was lost: the claim stays open so the new leader recovers the file
+            log.warn("Leaving claim of {} open for the new leader", claimedFile.getAbsolutePath());
+            return;
+        }
+        if (!succeeded) {
+            ledger.markFailed(claimedFile);
+            if (coordinator != null) {
+                coordinator.finishClaim(claimedFile);
+            }
+            return;
+        }
+
+        ledger.markDone(claimedFile);
+        if (coordinator != null) {
+            coordinator.finishClaim(claimedFile);
+        }
+        if (backupFile == null) {
+            log.warn("Backup of {} failed, keeping it in the in-progress area", claimedFile.getAbsolutePath());
+            return;
+        }
+        try {
+            Files.deleteIfExists(claimedFile.toPath());
+        } catch (IOException e) {
+            log.warn("Failed to remove processed file from in-progress area: {}", claimedFile.getAbsolutePath(), e);
+        }
+    }
+
+    /**
+     * Complete the claim of a file whose commit was found in the journal, if the crash came before its claim was completed
+     */
+    private void completeCommittedClaim(File claimedFile) {
+        if (ledger != null && ledger.hasOpenClaim(claimedFile)) {
+            log.info("Completing claim of {} committed by a previous run", claimedFile.getAbsolutePath());
+            ledger.markDone(claimedFile);
             try {
-                dataExecutor.submit(new DataCDRProcessor(file, systemConfig));
-            } catch (Exception e) {
-                log.error("Error processing data file: {}", file.getName(), e);
-                moveToErrorFolder(file, systemConfig.getDataErrorFolder(), "DATA_PROCESSING_ERROR: " + e.getMessage());
+                Files.deleteIfExists(claimedFile.toPath());
+            } catch (IOException e) {
+                log.warn("Failed to remove processed file from in-progress area: {}", claimedFile.getAbsolutePath(), e);
             }
         }
     }
 
-    private void processPCRFFiles() {
-        List<File> files = FileUtils.scanInputFolder(systemConfig.getPcrfInputFolder());
-        log.info("Found {} data CDR files to process", files.size());
+    /**
+     * Clear output staged by earlier leaders, whose files are processed again under this fencing token
+     */
+    private void removeStaleStagingFiles() {
+        for (CDRType type : CDRType.values()) {
+            try {
+                int removed = processingContext.removeStaleStagingFiles(type.getOutputFolder(systemConfig));
+                if (removed > 0) {
+                    log.info("Removed {} {} output files staged by a previous leader", removed, type.getName());
+                }
+            } catch (IOException e) {
+                log.warn("Failed to remove stale staging files from {} output folder", type.getName(), e);
+            }
+        }
+    }
+
+    /**
+     * In sharded mode, close the claims of a previous run in the ledger; the shard coordinator releases them
+     * in the database, and each is recovered by whichever node holds its shard
+     */
+    private void releaseClaimedFiles() {
+        List<ProcessedFileLedger.ClaimedFile> claims = ledger.getOpenClaims();
+        if (!claims.isEmpty()) {
+            log.info("Leaving {} files claimed by a previous run to the owners of their shards", claims.size());
+        }
+        for (ProcessedFileLedger.ClaimedFile claim : claims) {
+            ledger.markReleased(claim.getFile());
+        }
+    }
 
-        for (File file : files) {
+    /**
+     * Take over a file another node claimed in a shard this node gained, on the shard coordinator's listener thread
+     *
+     * @return false when it could not be admitted now
+     */
+    private boolean recoverShardClaim(CDRType type, File originalFile, File claimedFile) {
+        String key = claimedFile.getAbsolutePath();
+        try {
+            if (!admissionQueues.get(type).acquire(key)) {
+                return false;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        if (ledger != null && !ledger.adopt(type.getName(), originalFile, claimedFile)) {
+            admissionQueues.get(type).release(key);
+            return false;
+        }
+        if (diskSpaceAdmission != null) {
+            // Recovered files are already on disk, so they are processed whatever the free space
+            diskSpaceAdmission.reserve(type, key, claimedFile.length());
+        }
+        if (orderedCommitter != null) {
+            orderedCommitter.register(type, claimedFile);
+        }
+        dispatchFile(type, claimedFile, key);
+        return true;
+    }
+
+    /**
+     * Resubmit files claimed by a previous run that never completed
+     */
+    private void recoverClaimedFiles() {
+        List<ProcessedFileLedger.ClaimedFile> claims = ledger.getOpenClaims();
+        if (!claims.isEmpty()) {
+            log.info("Recovering {} files claimed by a previous run", claims.size());
+        }
+        if (orderedCommitter != null) {
+            // Register all before any is dispatched, so none is published ahead of an earlier one
+            for (ProcessedFileLedger.ClaimedFile claim : claims) {
+                orderedCommitter.register(CDRType.fromName(claim.getType()), claim.getFile());
+            }
+        }
+        for (ProcessedFileLedger.ClaimedFile claim : claims) {
+            CDRType type = CDRType.fromName(claim.getType());
+            String key = claim.getFile().getAbsolutePath();
             try {
-                dataExecutor.submit(new PCRFCDRProcessor(file, systemConfig));
-            } catch (Exception e) {
-                log.error("Error processing data file: {}", file.getName(), e);
-                moveToErrorFolder(file, systemConfig.getDataErrorFolder(), "DATA_PROCESSING_ERROR: " + e.getMessage());
+                if (admissionQueues.get(type).acquire(key)) {
+                    if (diskSpaceAdmission != null) {
+                        // Recovered files are already on disk, so they are processed whatever the free space
+                        diskSpaceAdmission.reserve(type, key, claim.getFile().length());
+                    }
+                    dispatchFile(type, claim.getFile(), key);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
             }
         }
     }
@@ -121,27 +677,68 @@ public class MasterController {
         }
     }
 
+    /**
+     * Restrict claiming to files of shards leased by this node (active/active mode)
+     */
+    public void setShardCoordinator(ShardCoordinator shardCoordinator) {
+        this.shardCoordinator = shardCoordinator;
+        shardCoordinator.setClaimListener(this::recoverShardClaim);
+    }
+
+    /**
+     * Fill level of the fullest admission queue, 0 when idle and 1 when a queue is full
+     */
+    public double getLoad() {
+        double load = 0;
+        for (AdmissionQueue queue : admissionQueues.values()) {
+            load = Math.max(load, (double) queue.getDepth() / Math.max(1, queue.getCapacity()));
+        }
+        return load;
+    }
+
     public void shutdown() {
         log.info("Shutting down Master Controller...");
-        voiceExecutor.shutdown();
-        dataExecutor.shutdown();
-        pcrfExecutor.shutdown();
-        try {
-            if (!voiceExecutor.awaitTermination(60, TimeUnit.SECONDS)) {
-                voiceExecutor.shutdownNow();
-            }
-            if (!dataExecutor.awaitTermination(60, TimeUnit.SECONDS)) {
-                dataExecutor.shutdownNow();
-            }
-            if (!pcrfExecutor.awaitTermination(60, TimeUnit.SECONDS)) {
-                pcrfExecutor.shutdownNow();
-            }
-        } catch (InterruptedException e) {
-            voiceExecutor.shutdownNow();
-            dataExecutor.shutdownNow();
-            pcrfExecutor.shutdownNow();
-            Thread.currentThread().interrupt();
+        if (adaptiveController != null) {
+            adaptiveController.shutdown();
+        }
+        if (retryScheduler != null) {
+            retryScheduler.shutdown();
+        }
+        if (watchdog != null) {
+            watchdog.shutdown();
+        }
+        scheduler.shutdown();
+        if (orderedCommitter != null) {
+            orderedCommitter.shutdown();
+        }
+        if (chunkExecutor != null) {
+            // File workers are done, so no chunk can still be waited on
+            chunkExecutor.shutdownNow();
+        }
+        if (pipelineExecutor != null) {
+            pipelineExecutor.shutdownNow();
+        }
+        if (ledger != null) {
+            ledger.close();
+        }
+        if (journal != null) {
+            journal.close();
+        }
+        // The gauges of components without a shutdown of their own; a controller built later registers its own
+        MetricsRegistry.unregister(loadShedder);
+        MetricsRegistry.unregister(diskSpaceAdmission);
+        for (AdmissionQueue queue : admissionQueues.values()) {
+            MetricsRegistry.unregister(queue);
+        }
+        for (IncrementalDirectoryScanner scanner : scanners.values()) {
+            MetricsRegistry.unregister(scanner);
         }
         log.info("Master Controller shutdown completed");
     }
+
+    private enum Outcome {
+        DONE,
+        RETRY,
+        HELD
+    }
 }
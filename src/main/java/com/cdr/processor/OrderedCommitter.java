@@ -0,0 +1,225 @@
+package com.cdr.processor;
+
+import com.cdr.model.CDRType;
+import com.cdr.model.SystemConfig;
+import com.cdr.util.MetricsRegistry;
+import com.cdr.util.TimingWheel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Publishes the output of files in the order of the sequence number in their names, while the files
+ * themselves are processed in parallel. cdr.commit.order.pattern splits a file name into a stream prefix
+ * (group 1) and a sequence number (group 2); files of one CDR type, folder and prefix form a stream.
+ * A file that finishes while a file of its stream with a lower sequence is still admitted and unpublished
+ * is held, with its output in staging, until that file is published or has failed. With
+ * cdr.commit.order.contiguous a file is also held while the sequence right before it has not been seen.
+ * A file held for cdr.commit.order.gap.timeout ms is published anyway, and the files it waited for lose
+ * their place in the order. Commits run one at a time, in publishing order, on the committer thread.
+ */
+public class OrderedCommitter {
+
+    private static final Logger log = LoggerFactory.getLogger(OrderedCommitter.class);
+    private static final int WHEEL_SIZE = 512;
+    private static final long WHEEL_TICK = 100;
+
+    private final Pattern sequencePattern;
+    private final boolean contiguous;
+    private final long gapTimeout;
+    private final Map<String, Stream> streams = new HashMap<>();
+    // Admitted files not yet published, by claimed file path
+    private final Map<String, Entry> entries = new HashMap<>();
+    private final ExecutorService committer;
+    private final TimingWheel gapTimer;
+    private int heldCount;
+
+    public OrderedCommitter(SystemConfig systemConfig) {
+        this.sequencePattern = Pattern.compile(systemConfig.getCommitOrderPattern());
+        this.contiguous = systemConfig.isCommitOrderContiguous();
+        this.gapTimeout = systemConfig.getCommitOrderGapTimeout();
+        this.committer = Executors.newSingleThreadExecutor(r -> new Thread(r, "OrderedCommitter"));
+        this.gapTimer = new TimingWheel("CommitGapTimer", WHEEL_TICK, WHEEL_SIZE);
+        MetricsRegistry.gauge(this, "commit.order.held", this::getHeldCount);
+    }
+
+    /**
+     * Start tracking an admitted file, so files after it in its stream wait for it
+     *
+     * @return false when the file name carries no sequence number and its output is committed right away
+     */
+    public synchronized boolean register(CDRType type, File file) {
+        String path = file.getAbsolutePath();
+        if (entries.containsKey(path)) {
+            return true;
+        }
+        Matcher matcher = sequencePattern.matcher(file.getName());
+        if (!matcher.matches() || matcher.groupCount() < 2) {
+            return false;
+        }
+        long sequence;
+        try {
+            sequence = Long.parseLong(matcher.group(2));
+        } catch (NumberFormatException e) {
+            log.debug("Sequence of {} is not a number, committing it unordered", file.getName());
+            return false;
+        }
+        String streamKey = type.getName() + ":" + file.getAbsoluteFile().getParent() + ":" + matcher.group(1);
+        Stream stream = streams.computeIfAbsent(streamKey, key -> new Stream());
+        if (stream.pending.containsKey(sequence)) {
+            log.warn("{} repeats sequence {} of a file still in flight, committing it unordered", file.getName(), sequence);
+            return false;
+        }
+        Entry entry = new Entry(stream, file, sequence);
+        entries.put(path, entry);
+        stream.pending.put(sequence, entry);
+        return true;
+    }
+
+    public synchronized boolean isRegistered(File file) {
+        return entries.containsKey(file.getAbsolutePath());
+    }
+
+    /**
+     * A file finished processing: run its publish task once the files before it are published
+     */
+    public synchronized void ready(File file, Runnable publish) {
+        Entry entry = entries.get(file.getAbsolutePath());
+        if (entry == null) {
+            committer.execute(publish);
+            return;
+        }
+        entry.publish = publish;
+        heldCount++;
+        if (entry.stream == null) {
+            // Its place in the order was already given up after a gap
+            release(entry);
+            return;
+        }
+        drain(entry.stream);
+        if (entries.containsKey(file.getAbsolutePath())) {
+            log.info("Holding output of {} until earlier files of its stream are published", file.getName());
+            gapTimer.schedule(() -> expire(entry), gapTimeout);
+        }
+    }
+
+    /**
+     * A file that will not be published, because it failed or went to the error folder, stops holding up its stream
+     */
+    public synchronized void forget(File file) {
+        Entry entry = entries.remove(file.getAbsolutePath());
+        if (entry == null || entry.stream == null) {
+            return;
+        }
+        entry.stream.pending.remove(entry.sequence);
+        if (entry.publish != null) {
+            heldCount--;
+        }
+        drain(entry.stream);
+    }
+
+    public synchronized long getHeldCount() {
+        return heldCount;
+    }
+
+    /**
+     * Publish the ready files at the head of a stream
+     */
+    private void drain(Stream stream) {
+        while (!stream.pending.isEmpty()) {
+            Entry head = stream.pending.firstEntry().getValue();
+            if (head.publish == null) {
+                return;
+            }
+            if (contiguous && stream.lastPublished != null && head.sequence > stream.lastPublished + 1) {
+                return;
+            }
+            stream.pending.remove(head.sequence);
+            stream.lastPublished = stream.lastPublished == null ? head.sequence : Math.max(stream.lastPublished, head.sequence);
+            release(head);
+        }
+    }
+
+    /**
+     * Gap timeout of a held file: publish it, and let the files before it publish whenever they are ready
+     */
+    private synchronized void expire(Entry entry) {
+        Stream stream = entry.stream;
+        if (stream == null || entries.get(entry.file.getAbsolutePath()) != entry) {
+            return;
+        }
+        List<String> skipped = new ArrayList<>();
+        Iterator<Entry> before = stream.pending.headMap(entry.sequence).values().iterator();
+        while (before.hasNext()) {
+            Entry waitedFor = before.next();
+            before.remove();
+            waitedFor.stream = null;
+            skipped.add(waitedFor.file.getName());
+        }
+        MetricsRegistry.counter("commit.order.gaps").incrementAndGet();
+        log.warn("Publishing {} after waiting {} ms for earlier files {}", entry.file.getName(), gapTimeout,
+                skipped.isEmpty() ? "(sequence gap)" : skipped);
+        // The gap is closed: the stream continues from this file
+        stream.lastPublished = entry.sequence - 1;
+        drain(stream);
+    }
+
+    private void release(Entry entry) {
+        entries.remove(entry.file.getAbsolutePath());
+        heldCount--;
+        MetricsRegistry.counter("commit.order.published").incrementAndGet();
+        committer.execute(entry.publish);
+    }
+
+    /**
+     * Finish the publishes already released; held files are dropped and recovered from their claims on the next start
+     */
+    public void shutdown() {
+        gapTimer.stop();
+        committer.shutdown();
+        try {
+            if (!committer.awaitTermination(30, TimeUnit.SECONDS)) {
+                log.warn("Ordered committer did not finish within 30 seconds");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            if (heldCount > 0) {
+                log.info("{} held files will be recovered on next start", heldCount);
+            }
+        }
+        MetricsRegistry.unregister(this);
+    }
+
+    private static class Stream {
+        // Admitted files not yet published, by sequence
+        private final TreeMap<Long, Entry> pending = new TreeMap<>();
+        private Long lastPublished;
+    }
+
+    private static class Entry {
+        private Stream stream;
+        private final File file;
+        private final long sequence;
+        private Runnable publish;
+
+        Entry(Stream stream, File file, long sequence) {
+            this.stream = stream;
+            this.file = file;
+            this.sequence = sequence;
+        }
+    }
+}
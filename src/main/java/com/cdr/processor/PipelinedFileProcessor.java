@@ -0,0 +1,337 @@
+package com.cdr.processor;
+
+import com.cdr.util.BandwidthGovernor;
+import com.cdr.util.InputLineReader;
+import com.cdr.util.MetricsRegistry;
+import com.cdr.util.SpscRingBuffer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * Processes one CDR file as a pipeline of stages, each on its own thread:
+ * read -> parse -> rules -> format -> write. Stages pass preallocated batches through bounded
+ * single-producer/single-consumer ring buffers, so reading overlaps with parsing and writing
+ * with rule evaluation, a slow stage applies backpressure to the ones before it, and batches
+ * reach the writer in input order. The caller's thread runs the write stage.
+ *
+ * @param <T> parsed CDR record type
+ * @param <R> report record type
+ */
+public class PipelinedFileProcessor<T, R> {
+
+    private static final Logger log = LoggerFactory.getLogger(PipelinedFileProcessor.class);
+    private static final String[] STAGE_NAMES = {"read", "parse", "rules", "format", "write"};
+    private static final AtomicLong[] OCCUPANCY = new AtomicLong[STAGE_NAMES.length];
+
+    static {
+        for (int i = 0; i < STAGE_NAMES.length; i++) {
+            AtomicLong occupancy = new AtomicLong();
+            OCCUPANCY[i] = occupancy;
+            MetricsRegistry.gauge("pipeline." + STAGE_NAMES[i] + ".occupancy.pct", occupancy::get);
+        }
+    }
+
+    private final RecordHandler<T, R> handler;
+    private final ExecutorService executor;
+    private final int batchSize;
+    private final int ringSize;
+    private final String readerType;
+    private final int windowSize;
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+    public PipelinedFileProcessor(RecordHandler<T, R> handler, ExecutorService executor, int batchSize, int ringSize) {
+        this(handler, executor, batchSize, ringSize, InputLineReader.STREAM, 0);
+    }
+
+    /**
+     * @param readerType input reader of the read stage, see InputLineReader.open
+     */
+    public PipelinedFileProcessor(RecordHandler<T, R> handler, ExecutorService executor, int batchSize, int ringSize,
+                                  String readerType, int windowSize) {
+        this.handler = handler;
+        this.executor = executor;
+        this.batchSize = Math.max(1, batchSize);
+        this.ringSize = Math.max(1, ringSize);
+        this.readerType = readerType;
+        this.windowSize = windowSize;
+    }
+
+    /**
+     * Process the input file into the output file
+     *
+     * @return number of records written
+     */
+    public long process(File inputFile, File outputFile) throws IOException {
+        long startNanos = System.nanoTime();
+        StageStats[] stats = new StageStats[STAGE_NAMES.length];
+        for (int i = 0; i < stats.length; i++) {
+            stats[i] = new StageStats();
+        }
+
+        // Every stage can hold one batch while each ring is full, so this many batches never run out
+        int poolSize = ringSize * 4 + STAGE_NAMES.length;
+        SpscRingBuffer<Batch> free = new SpscRingBuffer<>(poolSize, this::isAborted);
+        for (int i = 0; i < poolSize; i++) {
+            free.put(new Batch(batchSize));
+        }
+        SpscRingBuffer<Batch> toParse = new SpscRingBuffer<>(ringSize, this::isAborted);
+        SpscRingBuffer<Batch> toRules = new SpscRingBuffer<>(ringSize, this::isAborted);
+        SpscRingBuffer<Batch> toFormat = new SpscRingBuffer<>(ringSize, this::isAborted);
+        SpscRingBuffer<Batch> toWrite = new SpscRingBuffer<>(ringSize, this::isAborted);
+
+        List<Future<?>> stages = new ArrayList<>();
+        long totalRecords = 0;
+        try {
+            stages.add(executor.submit(() -> runStage(() -> readStage(inputFile, free, toParse, stats[0]))));
+            stages.add(executor.submit(() -> runStage(() -> transformStage(toParse, toRules, stats[1], this::parseBatch))));
+            stages.add(executor.submit(() -> runStage(() -> transformStage(toRules, toFormat, stats[2], this::applyRules))));
+            stages.add(executor.submit(() -> runStage(() -> transformStage(toFormat, toWrite, stats[3], this::formatBatch))));
+            totalRecords = writeStage(outputFile, toWrite, free, stats[4]);
+        } catch (SpscRingBuffer.AbortedException e) {
+            // A stage failed, its error is rethrown below
+        } catch (IOException | RuntimeException | Error e) {
+            abort(e);
+        } finally {
+            awaitStages(stages);
+        }
+
+        Throwable error = failure.get();
+        if (error instanceof IOException) {
+            throw (IOException) error;
+        }
+        if (error instanceof RuntimeException) {
+            throw (RuntimeException) error;
+        }
+        if (error instanceof Error) {
+            throw (Error) error;
+        }
+        if (error != null) {
+            throw new IOException("Pipeline stage failed", error);
+        }
+
+        publishStats(inputFile, stats, System.nanoTime() - startNanos);
+        log.info("Written {} processed records through pipeline to: {}", totalRecords, outputFile.getAbsolutePath());
+        return totalRecords;
+    }
+
+    private void readStage(File inputFile, SpscRingBuffer<Batch> free, SpscRingBuffer<Batch> out, StageStats stats) throws IOException {
+        try (InputLineReader reader = InputLineReader.open(inputFile, 0, readerType, windowSize)) {
+            boolean endOfFile = false;
+            while (!endOfFile) {
+                long t0 = System.nanoTime();
+                Batch batch = free.take();
+                long t1 = System.nanoTime();
+
+                String line = "";
+                while (batch.lineCount < batchSize && (line = reader.readLine()) != null) {
+                    batch.lines[batch.lineCount++] = line;
+                }
+                endOfFile = line == null;
+                batch.last = endOfFile;
+                long t2 = System.nanoTime();
+
+                out.put(batch);
+                stats.add(t1 - t0, t2 - t1, System.nanoTime() - t2);
+            }
+        }
+    }
+
+    private void transformStage(SpscRingBuffer<Batch> in, SpscRingBuffer<Batch> out, StageStats stats, Consumer<Batch> work) {
+        boolean last = false;
+        while (!last) {
+            long t0 = System.nanoTime();
+            Batch batch = in.take();
+            long t1 = System.nanoTime();
+
+            work.accept(batch);
+            last = batch.last;
+            long t2 = System.nanoTime();
+
+            out.put(batch);
+            stats.add(t1 - t0, t2 - t1, System.nanoTime() - t2);
+        }
+    }
+
+    private long writeStage(File outputFile, SpscRingBuffer<Batch> in, SpscRingBuffer<Batch> free, StageStats stats) throws IOException {
+        PrintWriter writer = null;
+        long totalRecords = 0;
+        try {
+            boolean last = false;
+            while (!last) {
+                long t0 = System.nanoTime();
+                Batch batch = in.take();
+                long t1 = System.nanoTime();
+
+                if (batch.recordCount > 0) {
+                    handler.beforeOutput();
+                    if (writer == null) {
+                        writer = new PrintWriter(BandwidthGovernor.newWriter(outputFile, false));
+                    }
+                    for (int i = 0; i < batch.recordCount; i++) {
+                        writer.println(batch.output[i]);
+                    }
+                    if (writer.checkError()) {
+                        throw new IOException("Failed to write output file: " + outputFile.getAbsolutePath());
+                    }
+                }
+                totalRecords += batch.recordCount;
+                last = batch.last;
+                batch.clear();
+                long t2 = System.nanoTime();
+
+                free.put(batch);
+                stats.add(t1 - t0, t2 - t1, System.nanoTime() - t2);
+            }
+        } finally {
+            if (writer != null) {
+                writer.close();
+            }
+        }
+        return totalRecords;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void parseBatch(Batch batch) {
+        for (int i = 0; i < batch.lineCount; i++) {
+            String line = batch.lines[i];
+            if (line.trim().isEmpty()) {
+                continue;
+            }
+            T record = handler.parse(line);
+            if (record != null) {
+                batch.records[batch.recordCount++] = record;
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void applyRules(Batch batch) {
+        try {
+            handler.beforeOutput();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        // Single thread in input order, so reporting stays ordered as well
+        for (int i = 0; i < batch.recordCount; i++) {
+            R reportRecord = handler.applyRules((T) batch.records[i]);
+            if (reportRecord != null) {
+                handler.report(reportRecord);
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void formatBatch(Batch batch) {
+        for (int i = 0; i < batch.recordCount; i++) {
+            batch.output[i] = handler.format((T) batch.records[i]);
+        }
+    }
+
+    private void runStage(StageTask task) {
+        try {
+            task.run();
+        } catch (SpscRingBuffer.AbortedException e) {
+            // Another stage failed first
+        } catch (UncheckedIOException e) {
+            abort(e.getCause());
+        } catch (Throwable t) {
+            abort(t);
+        }
+    }
+
+    private void abort(Throwable t) {
+        failure.compareAndSet(null, t);
+    }
+
+    private boolean isAborted() {
+        return failure.get() != null;
+    }
+
+    private void awaitStages(List<Future<?>> stages) {
+        for (Future<?> stage : stages) {
+            try {
+                stage.get();
+            } catch (InterruptedException e) {
+                abort(e);
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                abort(e.getCause());
+            }
+        }
+    }
+
+    private void publishStats(File inputFile, StageStats[] stats, long wallNanos) {
+        StringBuilder summary = new StringBuilder();
+        for (int i = 0; i < STAGE_NAMES.length; i++) {
+            String prefix = "pipeline." + STAGE_NAMES[i] + ".";
+            StageStats stage = stats[i];
+            MetricsRegistry.counter(prefix + "busy.ms").addAndGet(TimeUnit.NANOSECONDS.toMillis(stage.busy));
+            MetricsRegistry.counter(prefix + "blocked.in.ms").addAndGet(TimeUnit.NANOSECONDS.toMillis(stage.blockedIn));
+            MetricsRegistry.counter(prefix + "blocked.out.ms").addAndGet(TimeUnit.NANOSECONDS.toMillis(stage.blockedOut));
+
+            long occupancy = wallNanos > 0 ? stage.busy * 100 / wallNanos : 0;
+            OCCUPANCY[i].set(occupancy);
+            summary.append(i > 0 ? ", " : "").append(STAGE_NAMES[i]).append(' ').append(occupancy).append('%');
+        }
+        MetricsRegistry.counter("pipeline.files").incrementAndGet();
+        log.info("Pipeline stage occupancy for {}: {}", inputFile.getName(), summary);
+    }
+
+    private interface StageTask {
+        void run() throws Exception;
+    }
+
+    private static class StageStats {
+        private long blockedIn;
+        private long busy;
+        private long blockedOut;
+
+        void add(long blockedIn, long busy, long blockedOut) {
+            this.blockedIn += blockedIn;
+            this.busy += busy;
+            this.blockedOut += blockedOut;
+        }
+    }
+
+    /**
+     * Reusable batch of lines and the records and output lines made from them
+     */
+    private static class Batch {
+        private final String[] lines;
+        private final Object[] records;
+        private final String[] output;
+        private int lineCount;
+        private int recordCount;
+        private boolean last;
+
+        Batch(int size) {
+            lines = new String[size];
+            records = new Object[size];
+            output = new String[size];
+        }
+
+        void clear() {
+            Arrays.fill(lines, 0, lineCount, null);
+            Arrays.fill(records, 0, recordCount, null);
+            Arrays.fill(output, 0, recordCount, null);
+            lineCount = 0;
+            recordCount = 0;
+            last = false;
+        }
+    }
+}
@@ -0,0 +1,622 @@
+package com.cdr.processor;
+
+import com.cdr.model.SystemConfig;
+import com.cdr.util.BandwidthGovernor;
+import com.cdr.util.CommitJournal;
+import com.cdr.util.InputLineReader;
+import com.cdr.util.MetricsRegistry;
+import com.cdr.util.ProcessingCheckpoint;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Shared runtime services handed to the CDR processors by the master controller.
+ * A context without chunk or pipeline executors processes every file serially.
+ */
+public class ProcessingContext {
+
+    private static final Logger log = LoggerFactory.getLogger(ProcessingContext.class);
+    private static final Pattern STAGING_FILE = Pattern.compile("\\.(.+)\\.(\\d{1,18})\\.tmp");
+
+    private final SystemConfig systemConfig;
+    private final ExecutorService chunkExecutor;
+    private final ExecutorService pipelineExecutor;
+
+    private final FencingGuard fencingGuard;
+    private volatile boolean fenced;
+    private final ClaimGuard claimGuard;
+    private final CommitJournal journal;
+    private final RetryScheduler retryScheduler;
+    private final OrderedCommitter orderedCommitter;
+    private final LoadShedder loadShedder;
+    // Commits of files held for ordered publishing, by input file path
+    private final Map<String, HeldCommit> heldCommits = new ConcurrentHashMap<>();
+
+    private ProcessingContext(Builder builder) {
+        this.systemConfig = builder.systemConfig;
+        this.chunkExecutor = builder.chunkExecutor;
+        this.pipelineExecutor = builder.pipelineExecutor;
+        this.fencingGuard = builder.fencingGuard;
+        this.claimGuard = builder.claimGuard;
+        this.journal = builder.journal;
+        this.retryScheduler = builder.retryScheduler;
+        this.orderedCommitter = builder.orderedCommitter;
+        this.loadShedder = builder.loadShedder;
+    }
+
+    /**
+     * Context with the given collaborators; those left unset are disabled
+     */
+    public static Builder builder(SystemConfig systemConfig) {
+        return new Builder(systemConfig);
+    }
+
+    /**
+     * Context for standalone use (debug tools), processing every file serially
+     */
+    public static ProcessingContext serial(SystemConfig systemConfig) {
+        return builder(systemConfig).build();
+    }
+
+    /**
+     * Whether a file is large enough to be split into chunks processed in parallel
+     */
+    public boolean isChunked(File file) {
+        return chunkExecutor != null
+                && systemConfig.getParallelFileThreshold() > 0
+                && file.length() >= systemConfig.getParallelFileThreshold();
+    }
+
+    public <T, R> ChunkedFileProcessor<T, R> newChunkedProcessor(RecordHandler<T, R> handler) {
+        // Two chunks per worker keep the pool busy while the caller writes results in order
+        return new ChunkedFileProcessor<>(handler, chunkExecutor,
+                Math.max(1, systemConfig.getParallelChunkSize()),
+                Math.max(1, systemConfig.getParallelWorkers()) * 2);
+    }
+
+    /**
+     * Whether files below the chunking threshold run through the staged pipeline
+     */
+    public boolean isPipelined() {
+        return pipelineExecutor != null;
+    }
+
+    public <T, R> PipelinedFileProcessor<T, R> newPipelinedProcessor(RecordHandler<T, R> handler) {
+        return newPipelinedProcessor(handler, systemConfig.getBatchSize());
+    }
+
+    public <T, R> PipelinedFileProcessor<T, R> newPipelinedProcessor(RecordHandler<T, R> handler, int batchSize) {
+        return new PipelinedFileProcessor<>(handler, pipelineExecutor, batchSize, systemConfig.getPipelineRingSize(),
+                systemConfig.getInputReader(), systemConfig.getInputWindowSize());
+    }
+
+    /**
+     * Open an input file with the configured reader (cdr.input.reader), continuing at the given offset
+     */
+    public InputLineReader openReader(File file, long startOffset) throws IOException {
+        return InputLineReader.open(file, startOffset, systemConfig.getInputReader(), systemConfig.getInputWindowSize());
+    }
+
+    /**
+     * Whether files started now are processed in degraded mode: aggregate-only report, larger blocks and
+     * compressed backup, to work off a backlog
+     */
+    public boolean isDegraded() {
+        return loadShedder != null && loadShedder.isDegraded();
+    }
+
+    /**
+     * Records per block of a file
+     */
+    public int getBatchSize(boolean degraded) {
+        int batchSize = systemConfig.getBatchSize();
+        return degraded ? batchSize * Math.max(1, systemConfig.getDegradedBatchMultiplier()) : batchSize;
+    }
+
+    /**
+     * Backup of a file, gzipped when it is processed in degraded mode and backup compression is on
+     */
+    public File backupFile(File backupFile, boolean degraded) {
+        if (degraded && systemConfig.isDegradedBackupCompress()) {
+            return new File(backupFile.getPath() + ".gz");
+        }
+        return backupFile;
+    }
+
+    /**
+     * List a committed file whose report only holds the totals, so its detail report can be regenerated
+     */
+    public void recordDegradedFile(String type, File inputFile, File reportFile, File backupFile) {
+        if (loadShedder != null) {
+            loadShedder.recordDegradedFile(type, inputFile, reportFile, backupFile);
+        }
+    }
+
+    /**
+     * Verify this node may still write output; called before every output write and commit.
+     * Also where a task interrupted by the watchdog stops, with a transient error so its file is retried.
+     */
+    public void checkFencing() throws IOException {
+        if (Thread.interrupted()) {
+            throw new InterruptedIOException("Processing interrupted");
+        }
+        if (fencingGuard == null) {
+            return;
+        }
+        try {
+            fencingGuard.check();
+        } catch (FencedException e) {
+            fenced = true;
+            throw e;
+        }
+    }
+
+    /**
+     * Check fencing, then that this node may still commit the output of a claimed file
+     */
+    private void checkClaim(File inputFile) throws IOException {
+        checkFencing();
+        if (claimGuard != null) {
+            claimGuard.check(inputFile);
+        }
+    }
+
+    /**
+     * File an artifact (output, report, backup) is written to until it is committed: the file itself, or a
+     * staging file when commits are journaled or ordered, or output is fenced. Staging files carry the current
+     * fencing token (0 when not fenced), so a fenced-off writer never touches the real file or the new leader's
+     * staging.
+     */
+    public File stagingFile(File outputFile) {
+        if (fencingGuard == null && journal == null && orderedCommitter == null) {
+            return outputFile;
+        }
+        long token = fencingGuard != null ? fencingGuard.getToken() : 0;
+        return new File(outputFile.getParentFile(), "." + outputFile.getName() + "." + token + ".tmp");
+    }
+
+    /**
+     * Journal the staging files of an input file before writing them, so they are rolled back if it is never committed
+     */
+    public void beginFile(File inputFile, File outputFile, File reportFile, File backupFile) throws IOException {
+        if (journal == null) {
+            return;
+        }
+        List<File> stagingFiles = new ArrayList<>();
+        stagingFiles.add(stagingFile(outputFile));
+        stagingFiles.add(stagingFile(reportFile));
+        stagingFiles.add(stagingFile(backupFile));
+        journal.begin(inputFile, stagingFiles, isCheckpointEnabled() ? checkpointFile(outputFile) : null);
+    }
+
+    /**
+     * Copy the input file to the staging file of its backup, gzipped when the backup name ends in .gz
+     *
+     * @return whether the backup was staged; a file without backup is committed and kept in the in-progress area
+     */
+    public boolean stageBackup(File inputFile, File backupFile) {
+        try {
+            if (backupFile.getName().endsWith(".gz")) {
+                try (OutputStream out = new GZIPOutputStream(BandwidthGovernor.throttle(
+                        new FileOutputStream(stagingFile(backupFile)), BandwidthGovernor.Traffic.BACKUP))) {
+                    Files.copy(inputFile.toPath(), out);
+                }
+            } else {
+                BandwidthGovernor.copy(inputFile, stagingFile(backupFile));
+            }
+            return true;
+        } catch (IOException e) {
+            log.error("Failed to backup file {}", inputFile.getName(), e);
+            return false;
+        }
+    }
+
+    /**
+     * Verify fencing and put the staged report, backup and output of an input file in place together.
+     * The output is renamed last, so whoever picks it up also finds the report and backup.
+     * A file published in sequence order is only verified here, and committed later by commitHeld.
+     *
+     * @param backupFile backup to commit, or null when it was not staged
+     */
+    public void commitFile(File inputFile, File outputFile, File reportFile, File backupFile) throws IOException {
+        checkClaim(inputFile);
+        Map<File, File> moves = new LinkedHashMap<>();
+        addMove(moves, reportFile);
+        if (backupFile != null) {
+            addMove(moves, backupFile);
+        }
+        addMove(moves, outputFile);
+        File doneMarker = systemConfig.isCommitDoneMarker() ? new File(outputFile.getPath() + ".done") : null;
+
+        if (orderedCommitter != null && orderedCommitter.isRegistered(inputFile)) {
+            heldCommits.put(inputFile.getAbsolutePath(), new HeldCommit(moves, doneMarker, outputFile, backupFile));
+            return;
+        }
+        commitMoves(inputFile, moves, doneMarker);
+    }
+
+    /**
+     * Whether the commit of a processed file is held until its turn in the sequence order
+     */
+    public boolean isCommitHeld(File inputFile) {
+        return heldCommits.containsKey(inputFile.getAbsolutePath());
+    }
+
+    /**
+     * Commit a file held for ordered publishing
+     *
+     * @return the committed backup, or null when the file has no backup
+     */
+    public File commitHeld(File inputFile) throws IOException {
+        HeldCommit held = heldCommits.get(inputFile.getAbsolutePath());
+        if (held == null) {
+            throw new IOException("No held commit for " + inputFile.getAbsolutePath());
+        }
+        checkClaim(inputFile);
+        commitMoves(inputFile, held.moves, held.doneMarker);
+        heldCommits.remove(inputFile.getAbsolutePath());
+        return held.backupFile;
+    }
+
+    /**
+     * Discard the staged artifacts of a held file whose commit failed
+     */
+    public void abortHeld(File inputFile) {
+        HeldCommit held = heldCommits.remove(inputFile.getAbsolutePath());
+        if (held != null) {
+            abortFile(inputFile, held.outputFile);
+        }
+    }
+
+    private void commitMoves(File inputFile, Map<File, File> moves, File doneMarker) throws IOException {
+        if (journal != null) {
+            journal.commit(inputFile, moves, doneMarker);
+            MetricsRegistry.counter("journal.committed").incrementAndGet();
+            return;
+        }
+        for (Map.Entry<File, File> move : moves.entrySet()) {
+            Files.move(move.getKey().toPath(), move.getValue().toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        if (doneMarker != null && !doneMarker.exists() && !doneMarker.createNewFile()) {
+            throw new IOException("Failed to create done marker " + doneMarker.getAbsolutePath());
+        }
+    }
+
+    private void addMove(Map<File, File> moves, File file) {
+        File stagingFile = stagingFile(file);
+        if (!stagingFile.equals(file) && stagingFile.exists()) {
+            moves.put(stagingFile, file);
+        }
+    }
+
+    /**
+     * Discard the staged artifacts of an input file that will not be committed
+     */
+    public void abortFile(File inputFile, File outputFile) {
+        if (journal != null) {
+            journal.abort(inputFile);
+            MetricsRegistry.counter("journal.aborted").incrementAndGet();
+        } else if (!stagingFile(outputFile).equals(outputFile)) {
+            stagingFile(outputFile).delete();
+        }
+    }
+
+    /**
+     * Delete staging files left below an output folder by writers of earlier fencing tokens, which
+     * were fenced off or crashed before committing; their input files are reprocessed from their claims.
+     * A staging file that a checkpoint still refers to is kept, so its file continues after its last block.
+     *
+     * @return number of files deleted
+     */
+    public int removeStaleStagingFiles(String outputFolder) throws IOException {
+        if (fencingGuard == null || !new File(outputFolder).isDirectory()) {
+            return 0;
+        }
+        long token = fencingGuard.getToken();
+        int[] removed = new int[1];
+        Files.walkFileTree(new File(outputFolder).toPath(), new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) throws IOException {
+                Matcher matcher = STAGING_FILE.matcher(file.getFileName().toString());
+                if (matcher.matches() && Long.parseLong(matcher.group(2)) < token
+                        && !isCheckpointed(file.toFile(), new File(file.getParent().toFile(), matcher.group(1)))
+                        && Files.deleteIfExists(file)) {
+                    removed[0]++;
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) throws IOException {
+                if (e instanceof NoSuchFileException) {
+                    return FileVisitResult.CONTINUE;
+                }
+                throw e;
+            }
+        });
+        return removed[0];
+    }
+
+    private boolean isCheckpointed(File partialOutput, File outputFile) {
+        ProcessingCheckpoint checkpoint = isCheckpointEnabled() ? ProcessingCheckpoint.load(checkpointFile(outputFile)) : null;
+        return checkpoint != null && partialOutput.getAbsoluteFile().equals(new File(checkpoint.getOutputFile()).getAbsoluteFile());
+    }
+
+    public boolean isCheckpointEnabled() {
+        return systemConfig.isCheckpointEnabled();
+    }
+
+    /**
+     * Checkpoint of the block loop for an output file, kept next to it
+     */
+    public File checkpointFile(File outputFile) {
+        return new File(outputFile.getParentFile(), "." + outputFile.getName() + ".ckpt");
+    }
+
+    public boolean hasCheckpoint(File outputFile) {
+        return isCheckpointEnabled() && checkpointFile(outputFile).exists();
+    }
+
+    /**
+     * Prepare to continue a file after the last block of an earlier attempt: output and report are cut back
+     * to their length at that block. Partial output staged under an earlier fencing token is copied rather
+     * than renamed, so a fenced-off writer still holding it open can never append to our staging file.
+     *
+     * @return the checkpoint to continue from, or null when the file has to be processed from the start
+     */
+    public ProcessingCheckpoint resumeCheckpoint(File inputFile, File outputFile, File reportFile, String configVersion)
+            throws IOException {
+        if (!isCheckpointEnabled()) {
+            return null;
+        }
+        File checkpointFile = checkpointFile(outputFile);
+        ProcessingCheckpoint checkpoint = ProcessingCheckpoint.load(checkpointFile);
+        if (checkpoint == null) {
+            return null;
+        }
+
+        File partialOutput = new File(checkpoint.getOutputFile());
+        // Checkpoints written before reports were staged refer to the report itself
+        File partialReport = checkpoint.getReportFile() != null ? new File(checkpoint.getReportFile()) : reportFile;
+        String reason = null;
+        if (!configVersion.equals(checkpoint.getConfigVersion())) {
+            reason = "configuration changed";
+        } else if (inputFile.length() != checkpoint.getInputLength() || inputFile.lastModified() != checkpoint.getInputModified()) {
+            reason = "input file changed";
+        } else if (partialOutput.length() < checkpoint.getOutputBytes()) {
+            reason = "partial output missing";
+        } else if (partialReport.length() < checkpoint.getReportBytes()) {
+            reason = "partial report missing";
+        }
+        if (reason != null) {
+            log.info("Processing {} from the start, discarding its checkpoint: {}", inputFile.getName(), reason);
+            MetricsRegistry.counter("checkpoint.discarded").incrementAndGet();
+            Files.deleteIfExists(checkpointFile.toPath());
+            return null;
+        }
+
+        checkFencing();
+        adoptPartialFile(partialOutput, stagingFile(outputFile), checkpoint.getOutputBytes());
+        adoptPartialFile(partialReport, stagingFile(reportFile), checkpoint.getReportBytes());
+        MetricsRegistry.counter("checkpoint.resumed").incrementAndGet();
+        return checkpoint;
+    }
+
+    /**
+     * Record a committed block; the output and report lengths are taken from the files
+     */
+    public void saveCheckpoint(File inputFile, File outputFile, File reportFile, ProcessingCheckpoint checkpoint)
+            throws IOException {
+        if (!isCheckpointEnabled()) {
+            return;
+        }
+        checkFencing();
+        File stagingFile = stagingFile(outputFile);
+        File reportStagingFile = stagingFile(reportFile);
+        boolean sync = systemConfig.isCheckpointSyncEnabled();
+        if (sync) {
+            force(stagingFile);
+            force(reportStagingFile);
+        }
+        checkpoint.setInputLength(inputFile.length());
+        checkpoint.setInputModified(inputFile.lastModified());
+        checkpoint.setOutputFile(stagingFile.getAbsolutePath());
+        checkpoint.setOutputBytes(stagingFile.length());
+        checkpoint.setReportFile(reportStagingFile.getAbsolutePath());
+        checkpoint.setReportBytes(reportStagingFile.length());
+        checkpoint.save(checkpointFile(outputFile), sync);
+        MetricsRegistry.counter("checkpoint.saved").incrementAndGet();
+    }
+
+    public void removeCheckpoint(File outputFile) {
+        if (isCheckpointEnabled()) {
+            checkpointFile(outputFile).delete();
+        }
+    }
+
+    /**
+     * Make the staging file hold the first length bytes of the partial file written by an earlier attempt
+     */
+    private static void adoptPartialFile(File partialFile, File stagingFile, long length) throws IOException {
+        if (partialFile.getAbsoluteFile().equals(stagingFile.getAbsoluteFile())) {
+            truncate(stagingFile, length);
+        } else if (length == 0) {
+            Files.deleteIfExists(stagingFile.toPath());
+            Files.deleteIfExists(partialFile.toPath());
+        } else {
+            copyPrefix(partialFile, stagingFile, length);
+            Files.deleteIfExists(partialFile.toPath());
+        }
+    }
+
+    private static void truncate(File file, long length) throws IOException {
+        if (!file.exists()) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+            channel.truncate(length);
+        }
+    }
+
+    private static void copyPrefix(File source, File target, long length) throws IOException {
+        try (FileChannel in = FileChannel.open(source.toPath(), StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(target.toPath(), StandardOpenOption.CREATE,
+                     StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long position = 0;
+            while (position < length) {
+                long copied = in.transferTo(position, length - position, out);
+                if (copied <= 0) {
+                    throw new IOException("Partial output " + source + " ended before byte " + length);
+                }
+                position += copied;
+            }
+        }
+    }
+
+    private static void force(File file) throws IOException {
+        if (!file.exists()) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+    }
+
+    /**
+     * Whether a failed file gets another attempt instead of going to the error folder; the master controller
+     * schedules it once the processor has returned
+     */
+    public boolean shouldRetry(File inputFile, Exception failure) {
+        return retryScheduler != null && retryScheduler.shouldRetry(inputFile, failure);
+    }
+
+    /**
+     * Whether a fencing check failed, after which claims are left for the new leader
+     */
+    public boolean isFenced() {
+        return fenced;
+    }
+
+    public SystemConfig getSystemConfig() {
+        return systemConfig;
+    }
+
+    public ExecutorService getChunkExecutor() {
+        return chunkExecutor;
+    }
+
+    public ExecutorService getPipelineExecutor() {
+        return pipelineExecutor;
+    }
+
+    /**
+     * Renames of a processed file waiting for its turn to be published
+     */
+    private static class HeldCommit {
+        private final Map<File, File> moves;
+        private final File doneMarker;
+        private final File outputFile;
+        private final File backupFile;
+
+        HeldCommit(Map<File, File> moves, File doneMarker, File outputFile, File backupFile) {
+            this.moves = moves;
+            this.doneMarker = doneMarker;
+            this.outputFile = outputFile;
+            this.backupFile = backupFile;
+        }
+    }
+
+    public static class Builder {
+        private final SystemConfig systemConfig;
+        private ExecutorService chunkExecutor;
+        private ExecutorService pipelineExecutor;
+        private FencingGuard fencingGuard;
+        private ClaimGuard claimGuard;
+        private CommitJournal journal;
+        private RetryScheduler retryScheduler;
+        private OrderedCommitter orderedCommitter;
+        private LoadShedder loadShedder;
+
+        private Builder(SystemConfig systemConfig) {
+            this.systemConfig = systemConfig;
+        }
+
+        /**
+         * Executor for the chunks of large files; without one every file is processed whole
+         */
+        public Builder chunkExecutor(ExecutorService chunkExecutor) {
+            this.chunkExecutor = chunkExecutor;
+            return this;
+        }
+
+        /**
+         * Executor for the stages of the pipelined engine
+         */
+        public Builder pipelineExecutor(ExecutorService pipelineExecutor) {
+            this.pipelineExecutor = pipelineExecutor;
+            return this;
+        }
+
+        public Builder fencingGuard(FencingGuard fencingGuard) {
+            this.fencingGuard = fencingGuard;
+            return this;
+        }
+
+        /**
+         * Guard checked before the output of a file is committed, e.g. that its shard is still held
+         */
+        public Builder claimGuard(ClaimGuard claimGuard) {
+            this.claimGuard = claimGuard;
+            return this;
+        }
+
+        public Builder journal(CommitJournal journal) {
+            this.journal = journal;
+            return this;
+        }
+
+        public Builder retryScheduler(RetryScheduler retryScheduler) {
+            this.retryScheduler = retryScheduler;
+            return this;
+        }
+
+        public Builder orderedCommitter(OrderedCommitter orderedCommitter) {
+            this.orderedCommitter = orderedCommitter;
+            return this;
+        }
+
+        public Builder loadShedder(LoadShedder loadShedder) {
+            this.loadShedder = loadShedder;
+            return this;
+        }
+
+        public ProcessingContext build() {
+            return new ProcessingContext(this);
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package com.cdr.processor;
+
+import java.io.IOException;
+
+/**
+ * Per-record processing steps of a CDR processor, used by the processing engines
+ * that run those steps outside the processor's own block loop.
+ *
+ * @param <T> parsed CDR record type
+ * @param <R> report record type
+ */
+public interface RecordHandler<T, R> {
+
+    /**
+     * Parse one input line, returning null for lines that must be skipped
+     */
+    T parse(String line);
+
+    /**
+     * Apply the processing rules to a record, returning the report record or null when nothing is reported
+     */
+    R applyRules(T record);
+
+    /**
+     * Hand a report record to the reporter. Always called in input order from a single thread.
+     */
+    void report(R reportRecord);
+
+    /**
+     * Format a processed record as an output line
+     */
+    String format(T record);
+
+    /**
+     * Called before the results of each chunk or batch are reported or written.
+     * Throwing aborts the file, for example when this node lost its leadership lease.
+     */
+    default void beforeOutput() throws IOException {
+    }
+
+    /**
+     * Called once the results of a chunk are reported and written out, with the input offset they end at and the
+     * chunks and records of the file done so far, e.g. to save a checkpoint. Not called after the last chunk.
+     */
+    default void afterOutput(long inputOffset, int chunks, long records) throws IOException {
+    }
+}
@@ -0,0 +1,104 @@
+package com.cdr.processor;
+
+import com.cdr.model.SystemConfig;
+import com.cdr.util.MetricsRegistry;
+import com.cdr.util.TimingWheel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Retries files whose processing failed for a reason that may go away (I/O errors, configuration) after an
+ * exponential backoff with jitter, until cdr.retry.max.attempts is spent; other failures, and files out of
+ * attempts, go to the error folder. Waiting files keep their claim and admission slot, so they are not picked
+ * up again by scanning and are recovered from their claim after a restart. Delays run on a timing wheel.
+ */
+public class RetryScheduler {
+
+    private static final Logger log = LoggerFactory.getLogger(RetryScheduler.class);
+    private static final int WHEEL_SIZE = 512;
+
+    private final int maxAttempts;
+    private final long initialDelay;
+    private final long maxDelay;
+    private final double jitter;
+    private final TimingWheel wheel;
+    // Failed attempts so far, by file path
+    private final ConcurrentMap<String, Integer> attempts = new ConcurrentHashMap<>();
+
+    public RetryScheduler(SystemConfig systemConfig) {
+        this.maxAttempts = systemConfig.getRetryMaxAttempts();
+        this.initialDelay = Math.max(1, systemConfig.getRetryInitialDelay());
+        this.maxDelay = Math.max(initialDelay, systemConfig.getRetryMaxDelay());
+        this.jitter = Math.min(1, Math.max(0, systemConfig.getRetryJitter()));
+        this.wheel = new TimingWheel("RetryTimer", systemConfig.getRetryTick(), WHEEL_SIZE);
+        MetricsRegistry.gauge(this, "retry.pending", wheel::getPendingCount);
+    }
+
+    /**
+     * Classify a failure and decide whether the file gets another attempt, which then has to be scheduled
+     *
+     * @return false when the file should go to the error folder
+     */
+    public boolean shouldRetry(File file, Throwable failure) {
+        FailureType type = FailureType.classify(failure);
+        MetricsRegistry.counter("failure." + type.getName()).incrementAndGet();
+        if (!type.isRetryable() || maxAttempts <= 0) {
+            return false;
+        }
+        String key = file.getAbsolutePath();
+        int attempt = attempts.merge(key, 1, Integer::sum);
+        if (attempt > maxAttempts) {
+            attempts.remove(key);
+            MetricsRegistry.counter("retry.exhausted").incrementAndGet();
+            log.warn("Giving up on {} after {} retries of {} failures", file.getName(), maxAttempts, type.getName());
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Run the next attempt of a file after its backoff delay
+     */
+    public void schedule(File file, Runnable retry) {
+        int attempt = attempts.getOrDefault(file.getAbsolutePath(), 1);
+        long delay = backoff(attempt);
+        MetricsRegistry.counter("retry.scheduled").incrementAndGet();
+        log.info("Retrying {} in {} ms (retry {} of {})", file.getName(), delay, attempt, maxAttempts);
+        wheel.schedule(retry, delay);
+    }
+
+    /**
+     * Forget the attempts of a file that succeeded or went to the error folder
+     */
+    public void finished(File file, boolean succeeded) {
+        Integer failed = attempts.remove(file.getAbsolutePath());
+        if (failed != null && succeeded) {
+            MetricsRegistry.counter("retry.succeeded").incrementAndGet();
+        }
+    }
+
+    /**
+     * initialDelay doubled for every earlier retry, capped at maxDelay, and shortened by a random part of up
+     * to the jitter fraction, so files that failed together do not all retry at the same moment
+     */
+    long backoff(int attempt) {
+        long delay = initialDelay;
+        for (int i = 1; i < attempt && delay < maxDelay; i++) {
+            delay = Math.min(maxDelay, delay * 2);
+        }
+        return delay - (long) (delay * jitter * ThreadLocalRandom.current().nextDouble());
+    }
+
+    /**
+     * Drop waiting retries; their files are recovered from their claims on the next start
+     */
+    public void shutdown() {
+        wheel.stop();
+        MetricsRegistry.unregister(this);
+    }
+}
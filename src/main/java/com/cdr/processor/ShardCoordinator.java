@@ -0,0 +1,499 @@
+package com.cdr.processor;
+
+import com.cdr.model.CDRType;
+import com.cdr.model.SystemConfig;
+import com.cdr.util.FileUtils;
+import com.cdr.util.MetricsRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Active/active coordination: nodes sharing the input folders split the files between them.
+ * Every file hashes to one of a fixed number of shards, and shards are spread over the live nodes
+ * (cdr_node) with a consistent hash ring, so a node joining or leaving only moves its share of shards.
+ * Nodes above the high load mark get fewer points on the ring. A node only claims files of shards
+ * it holds an unexpired lease for in cdr_shard_lease, and records every claim in cdr_shard_claim, so
+ * the node that gains a shard recovers the in-progress files of a node that left or handed the shard over.
+ */
+public class ShardCoordinator {
+
+    private static final Logger log = LoggerFactory.getLogger(ShardCoordinator.class);
+
+    /**
+     * Takes over a file another node claimed in a shard this node now holds
+     */
+    public interface ClaimListener {
+        /**
+         * @param originalFile where the file was before it was claimed
+         * @return false when the file could not be taken over now; it is offered again on a later refresh
+         */
+        boolean onClaimRecovered(CDRType type, File originalFile, File claimedFile);
+    }
+
+    private final SystemConfig systemConfig;
+    private final String serverName;
+    private final DataSource dataSource;
+    private final DoubleSupplier loadSupplier;
+    private final int shardCount;
+    private final long leaseTtl;
+    private final long renewInterval;
+    private final int virtualNodes;
+    private final double highLoad;
+    private final ScheduledExecutorService scheduler;
+    private final ExecutorService listenerExecutor;
+    private volatile ClaimListener claimListener;
+
+    private volatile Set<Integer> ownedShards = Collections.emptySet();
+    private volatile long leaseExpiry;
+    // Shard of every claim this node holds, by claimed path
+    private final ConcurrentMap<String, Integer> claims = new ConcurrentHashMap<>();
+
+    private final AtomicLong acquired = MetricsRegistry.counter("shard.acquired");
+    private final AtomicLong released = MetricsRegistry.counter("shard.released");
+    private final AtomicLong refreshFailures = MetricsRegistry.counter("shard.refresh.failures");
+    private final AtomicLong claimsRecovered = MetricsRegistry.counter("shard.claims.recovered");
+
+    public ShardCoordinator(SystemConfig config, DataSource dataSource, DoubleSupplier loadSupplier) {
+        this.systemConfig = config;
+        this.serverName = config.getServerName();
+        this.dataSource = dataSource;
+        this.loadSupplier = loadSupplier;
+        this.shardCount = Math.max(1, config.getShardCount());
+        this.leaseTtl = config.getShardLeaseTtl();
+        this.renewInterval = config.getShardRenewInterval();
+        this.virtualNodes = Math.max(1, config.getShardVirtualNodes());
+        this.highLoad = config.getShardHighLoad();
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> new Thread(r, "ShardCoordinator"));
+        // Recovered claims are handed over on their own thread, so a full admission queue cannot delay renewals
+        this.listenerExecutor = Executors.newSingleThreadExecutor(r -> new Thread(r, "ShardClaimRecovery"));
+        MetricsRegistry.gauge(this, "shard.owned", () -> isLeaseValid() ? ownedShards.size() : 0);
+        MetricsRegistry.gauge(this, "shard.claims", claims::size);
+    }
+
+    public void setClaimListener(ClaimListener claimListener) {
+        this.claimListener = claimListener;
+    }
+
+    public void start() throws SQLException {
+        initializeShards();
+        try (Connection conn = dataSource.getConnection()) {
+            // Claims of a previous run of this server
+            int released = releaseClaims(conn);
+            if (released > 0) {
+                log.info("Released {} claims of a previous run of server {}", released, serverName);
+            }
+        }
+        scheduler.scheduleWithFixedDelay(this::refresh, 0, renewInterval, TimeUnit.MILLISECONDS);
+        log.info("Shard coordinator started for server {} with {} shards", serverName, shardCount);
+    }
+
+    /**
+     * Whether this node currently holds the lease for the shard of a file
+     */
+    public boolean owns(CDRType type, File file) {
+        return isLeaseValid() && ownedShards.contains(shardOf(type, file));
+    }
+
+    /**
+     * Whether this node may still commit the output of a file it claimed: the shard of the file is still held
+     * under an unexpired lease. Files not claimed through recordClaim() are always allowed.
+     */
+    public boolean ownsClaim(File claimedFile) {
+        Integer shard = claims.get(claimedFile.getAbsolutePath());
+        return shard == null || isLeaseValid() && ownedShards.contains(shard);
+    }
+
+    /**
+     * Record that this node is about to claim a file, before it is moved into the in-progress area
+     *
+     * @return the in-progress file the claim refers to, or null when the claim could not be recorded
+     */
+    public File recordClaim(CDRType type, File file) {
+        String inputFolder = type.getInputFolder(systemConfig);
+        File claimedFile = new File(FileUtils.getInProgressFolder(inputFolder),
+                FileUtils.getRelativePath(file, inputFolder));
+        int shard = shardOf(type, file);
+        try (Connection conn = dataSource.getConnection()) {
+            String updateSql = "UPDATE cdr_shard_claim SET shard_id = ?, cdr_type = ?, original_path = ?, owner = ? " +
+                               "WHERE claimed_path = ?";
+            boolean updated;
+            try (PreparedStatement stmt = conn.prepareStatement(updateSql)) {
+                stmt.setInt(1, shard);
+                stmt.setString(2, type.getName());
+                stmt.setString(3, file.getAbsolutePath());
+                stmt.setString(4, serverName);
+                stmt.setString(5, claimedFile.getAbsolutePath());
+                updated = stmt.executeUpdate() > 0;
+            }
+            if (!updated) {
+                String insertSql = "INSERT INTO cdr_shard_claim (claimed_path, shard_id, cdr_type, original_path, owner) " +
+                                   "VALUES (?, ?, ?, ?, ?)";
+                try (PreparedStatement stmt = conn.prepareStatement(insertSql)) {
+                    stmt.setString(1, claimedFile.getAbsolutePath());
+                    stmt.setInt(2, shard);
+                    stmt.setString(3, type.getName());
+                    stmt.setString(4, file.getAbsolutePath());
+                    stmt.setString(5, serverName);
+                    stmt.executeUpdate();
+                }
+            }
+        } catch (SQLException e) {
+            log.warn("Failed to record claim of {}: {}", file.getAbsolutePath(), e.getMessage());
+            return null;
+        }
+        claims.put(claimedFile.getAbsolutePath(), shard);
+        return claimedFile;
+    }
+
+    /**
+     * Forget a claim whose file was finished, or never moved into the in-progress area
+     */
+    public void finishClaim(File claimedFile) {
+        updateClaim(claimedFile, "DELETE FROM cdr_shard_claim WHERE claimed_path = ? AND owner = ?");
+    }
+
+    /**
+     * Leave a claimed file in the in-progress area for the node now holding its shard
+     */
+    public void releaseClaim(File claimedFile) {
+        updateClaim(claimedFile, "UPDATE cdr_shard_claim SET owner = NULL WHERE claimed_path = ? AND owner = ?");
+    }
+
+    private void updateClaim(File claimedFile, String sql) {
+        if (claims.remove(claimedFile.getAbsolutePath()) == null) {
+            return;
+        }
+        try (Connection conn = dataSource.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setString(1, claimedFile.getAbsolutePath());
+            stmt.setString(2, serverName);
+            stmt.executeUpdate();
+        } catch (SQLException e) {
+            // A claim left behind is recovered once its file is found gone, or retried by the shard's next owner
+            log.warn("Failed to update claim of {}: {}", claimedFile.getAbsolutePath(), e.getMessage());
+        }
+    }
+
+    /**
+     * Hand the claims of this server back, so whichever node holds their shards recovers them
+     */
+    private int releaseClaims(Connection conn) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement("UPDATE cdr_shard_claim SET owner = NULL WHERE owner = ?")) {
+            stmt.setString(1, serverName);
+            return stmt.executeUpdate();
+        }
+    }
+
+    public int shardOf(CDRType type, File file) {
+        String relativePath = FileUtils.getRelativePath(file, type.getInputFolder(systemConfig));
+        return Math.floorMod((int) hash(type.getName() + "/" + relativePath.replace(File.separatorChar, '/')), shardCount);
+    }
+
+    /**
+     * Shards this node holds under an unexpired lease
+     */
+    public Set<Integer> getOwnedShards() {
+        return isLeaseValid() ? ownedShards : Collections.<Integer>emptySet();
+    }
+
+    private boolean isLeaseValid() {
+        return System.currentTimeMillis() < leaseExpiry;
+    }
+
+    /**
+     * Insert the lease rows of all shards, tolerating rows inserted concurrently by another node
+     */
+    void initializeShards() throws SQLException {
+        try (Connection conn = dataSource.getConnection()) {
+            Set<Integer> existing = new HashSet<>();
+            try (PreparedStatement stmt = conn.prepareStatement("SELECT shard_id FROM cdr_shard_lease");
+                 ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    existing.add(rs.getInt(1));
+                }
+            }
+            String sql = "INSERT INTO cdr_shard_lease (shard_id, owner, lease_until) VALUES (?, NULL, 0)";
+            for (int shard = 0; shard < shardCount; shard++) {
+                if (existing.contains(shard)) {
+                    continue;
+                }
+                try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+                    stmt.setInt(1, shard);
+                    stmt.executeUpdate();
+                } catch (SQLException e) {
+                    log.debug("Shard {} lease row already created: {}", shard, e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Publish this node's heartbeat and load, then acquire, renew and release leases to match the ring
+     */
+    void refresh() {
+        long now = System.currentTimeMillis();
+        long leaseUntil = now + leaseTtl;
+        double load = loadSupplier.getAsDouble();
+        try (Connection conn = dataSource.getConnection()) {
+            publishNode(conn, now, load);
+            Map<String, Double> liveNodes = loadLiveNodes(conn, now - leaseTtl);
+            liveNodes.put(serverName, load);
+            TreeMap<Long, String> ring = buildRing(liveNodes);
+
+            Set<Integer> owned = new HashSet<>();
+            for (int shard = 0; shard < shardCount; shard++) {
+                boolean wasOwned = ownedShards.contains(shard);
+                if (serverName.equals(ownerOf(ring, shard))) {
+                    if (tryLease(conn, shard, now, leaseUntil)) {
+                        owned.add(shard);
+                        if (!wasOwned) {
+                            acquired.incrementAndGet();
+                        }
+                    }
+                } else if (wasOwned) {
+                    release(conn, shard);
+                    released.incrementAndGet();
+                }
+            }
+
+            if (!owned.equals(ownedShards)) {
+                log.info("Server {} now owns {} of {} shards ({} live nodes, load {})",
+                        serverName, owned.size(), shardCount, liveNodes.size(), String.format("%.2f", load));
+            }
+            ownedShards = Collections.unmodifiableSet(owned);
+            // Stop claiming one renew interval before other nodes may take the shards, leaving room for clock skew
+            leaseExpiry = leaseUntil - renewInterval;
+            recoverClaims(conn, liveNodes.keySet());
+        } catch (Exception e) {
+            // Leases already held stay usable until they expire locally
+            refreshFailures.incrementAndGet();
+            log.error("Failed to refresh shard leases", e);
+        }
+    }
+
+    /**
+     * Take over the claims in owned shards that were released, or whose node is no longer live. A claim whose file
+     * is gone was finished by its node, which failed to remove it.
+     */
+    private void recoverClaims(Connection conn, Set<String> liveNodes) throws SQLException {
+        ClaimListener listener = claimListener;
+        if (listener == null) {
+            return;
+        }
+        List<String[]> candidates = new ArrayList<>();
+        String sql = "SELECT claimed_path, shard_id, cdr_type, original_path, owner FROM cdr_shard_claim " +
+                     "WHERE owner IS NULL OR owner <> ?";
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setString(1, serverName);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    String owner = rs.getString(5);
+                    if (ownedShards.contains(rs.getInt(2)) && (owner == null || !liveNodes.contains(owner))) {
+                        candidates.add(new String[]{rs.getString(1), rs.getString(2), rs.getString(3),
+                                rs.getString(4), owner});
+                    }
+                }
+            }
+        }
+        for (String[] candidate : candidates) {
+            File claimedFile = new File(candidate[0]);
+            String owner = candidate[4];
+            if (!claimedFile.isFile()) {
+                String deleteSql = "DELETE FROM cdr_shard_claim WHERE claimed_path = ? AND "
+                        + (owner == null ? "owner IS NULL" : "owner = ?");
+                try (PreparedStatement stmt = conn.prepareStatement(deleteSql)) {
+                    stmt.setString(1, candidate[0]);
+                    if (owner != null) {
+                        stmt.setString(2, owner);
+                    }
+                    stmt.executeUpdate();
+                }
+                continue;
+            }
+            // Only one node wins a claim, even when two briefly believe they hold its shard
+            String adoptSql = "UPDATE cdr_shard_claim SET owner = ? WHERE claimed_path = ? AND "
+                    + (owner == null ? "owner IS NULL" : "owner = ?");
+            try (PreparedStatement stmt = conn.prepareStatement(adoptSql)) {
+                stmt.setString(1, serverName);
+                stmt.setString(2, candidate[0]);
+                if (owner != null) {
+                    stmt.setString(3, owner);
+                }
+                if (stmt.executeUpdate() == 0) {
+                    continue;
+                }
+            }
+            claims.put(claimedFile.getAbsolutePath(), Integer.parseInt(candidate[1]));
+            claimsRecovered.incrementAndGet();
+            log.info("Recovering {} claimed by {} in shard {}", claimedFile.getAbsolutePath(),
+                    owner != null ? owner : "a node that handed it over", candidate[1]);
+            CDRType type = CDRType.fromName(candidate[2]);
+            File originalFile = new File(candidate[3]);
+            listenerExecutor.execute(() -> {
+                if (!listener.onClaimRecovered(type, originalFile, claimedFile)) {
+                    releaseClaim(claimedFile);
+                }
+            });
+        }
+    }
+
+    private void publishNode(Connection conn, long now, double load) throws SQLException {
+        String updateSql = "UPDATE cdr_node SET last_seen = ?, load_factor = ? WHERE server_name = ?";
+        try (PreparedStatement stmt = conn.prepareStatement(updateSql)) {
+            stmt.setLong(1, now);
+            stmt.setDouble(2, load);
+            stmt.setString(3, serverName);
+            if (stmt.executeUpdate() > 0) {
+                return;
+            }
+        }
+        String insertSql = "INSERT INTO cdr_node (server_name, last_seen, load_factor) VALUES (?, ?, ?)";
+        try (PreparedStatement stmt = conn.prepareStatement(insertSql)) {
+            stmt.setString(1, serverName);
+            stmt.setLong(2, now);
+            stmt.setDouble(3, load);
+            stmt.executeUpdate();
+        }
+    }
+
+    private Map<String, Double> loadLiveNodes(Connection conn, long seenSince) throws SQLException {
+        Map<String, Double> nodes = new HashMap<>();
+        String sql = "SELECT server_name, load_factor FROM cdr_node WHERE last_seen >= ?";
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setLong(1, seenSince);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    nodes.put(rs.getString(1), rs.getDouble(2));
+                }
+            }
+        }
+        return nodes;
+    }
+
+    /**
+     * Take or renew a lease; a lease held by another node is only taken once it expired
+     */
+    private boolean tryLease(Connection conn, int shard, long now, long leaseUntil) throws SQLException {
+        String sql = "UPDATE cdr_shard_lease SET owner = ?, lease_until = ? " +
+                     "WHERE shard_id = ? AND (owner = ? OR owner IS NULL OR lease_until < ?)";
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setString(1, serverName);
+            stmt.setLong(2, leaseUntil);
+            stmt.setInt(3, shard);
+            stmt.setString(4, serverName);
+            stmt.setLong(5, now);
+            return stmt.executeUpdate() > 0;
+        }
+    }
+
+    private void release(Connection conn, int shard) throws SQLException {
+        String sql = "UPDATE cdr_shard_lease SET owner = NULL, lease_until = 0 WHERE shard_id = ? AND owner = ?";
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setInt(1, shard);
+            stmt.setString(2, serverName);
+            stmt.executeUpdate();
+        }
+    }
+
+    /**
+     * Ring with virtualNodes points per node, scaled down linearly from the high load mark to one point at full load
+     */
+    private TreeMap<Long, String> buildRing(Map<String, Double> nodes) {
+        TreeMap<Long, String> ring = new TreeMap<>();
+        List<String> names = new ArrayList<>(nodes.keySet());
+        Collections.sort(names);
+        for (String node : names) {
+            double load = nodes.get(node);
+            int points = virtualNodes;
+            if (load > highLoad && highLoad < 1.0) {
+                double share = Math.max(0.0, (1.0 - load) / (1.0 - highLoad));
+                points = Math.max(1, (int) Math.round(virtualNodes * share));
+            }
+            for (int i = 0; i < points; i++) {
+                ring.put(hash(node + "#" + i), node);
+            }
+        }
+        return ring;
+    }
+
+    private static String ownerOf(TreeMap<Long, String> ring, int shard) {
+        Map.Entry<Long, String> entry = ring.ceilingEntry(hash("shard-" + shard));
+        return entry != null ? entry.getValue() : ring.firstEntry().getValue();
+    }
+
+    /**
+     * FNV-1a with a murmur3 finalizer, stable across JVMs
+     */
+    static long hash(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b & 0xff;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * Stop renewing and hand all shards and open claims back, so other nodes take them over without waiting
+     * for expiry
+     */
+    public void shutdown() {
+        log.info("Shutting down shard coordinator...");
+        scheduler.shutdown();
+        try {
+            if (!scheduler.awaitTermination(30, TimeUnit.SECONDS)) {
+                scheduler.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        listenerExecutor.shutdownNow();
+        leaseExpiry = 0;
+        claims.clear();
+        MetricsRegistry.unregister(this);
+        try (Connection conn = dataSource.getConnection()) {
+            try (PreparedStatement stmt = conn.prepareStatement(
+                    "UPDATE cdr_shard_lease SET owner = NULL, lease_until = 0 WHERE owner = ?")) {
+                stmt.setString(1, serverName);
+                stmt.executeUpdate();
+            }
+            // Claims still open, e.g. waiting for a retry, are recovered by the nodes taking the shards over
+            releaseClaims(conn);
+            try (PreparedStatement stmt = conn.prepareStatement("DELETE FROM cdr_node WHERE server_name = ?")) {
+                stmt.setString(1, serverName);
+                stmt.executeUpdate();
+            }
+        } catch (Exception e) {
+            log.error("Failed to release shard leases", e);
+        }
+    }
+}
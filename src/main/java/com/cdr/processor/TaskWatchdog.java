@@ -0,0 +1,183 @@
+package com.cdr.processor;
+
+import com.cdr.model.CDRType;
+import com.cdr.model.SystemConfig;
+import com.cdr.util.MetricsRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Flags file tasks running far longer than expected, such as a worker stuck on a hung NFS read.
+ * The expected time of a file is its size divided by the bytes/sec recently observed for its CDR type;
+ * a task is stuck once it runs cdr.watchdog.multiplier times that, and at least cdr.watchdog.min.time ms.
+ * Stuck tasks are logged with their stack trace and counted in the watchdog.stuck.slots gauge. With
+ * cdr.watchdog.interrupt their thread is interrupted: the next output write then fails with a transient
+ * error and the file is retried.
+ */
+public class TaskWatchdog {
+
+    private static final Logger log = LoggerFactory.getLogger(TaskWatchdog.class);
+    private static final double RATE_WEIGHT = 0.3;
+
+    private final SystemConfig systemConfig;
+    private final Set<RunningTask> running = ConcurrentHashMap.newKeySet();
+    private final Map<CDRType, Double> bytesPerSecond = new EnumMap<>(CDRType.class);
+    private ScheduledExecutorService timer;
+
+    public TaskWatchdog(SystemConfig systemConfig) {
+        this.systemConfig = systemConfig;
+        for (CDRType type : CDRType.values()) {
+            bytesPerSecond.put(type, (double) Math.max(1, systemConfig.getWatchdogDefaultRate()));
+        }
+        MetricsRegistry.gauge(this, "watchdog.running", running::size);
+        MetricsRegistry.gauge(this, "watchdog.stuck.slots", this::getStuckCount);
+    }
+
+    public void start() {
+        long interval = systemConfig.getWatchdogInterval();
+        timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "TaskWatchdog");
+            thread.setDaemon(true);
+            return thread;
+        });
+        timer.scheduleWithFixedDelay(this::check, interval, interval, TimeUnit.MILLISECONDS);
+        log.info("Task watchdog started: multiplier {}, minimum {} ms, interrupt {}",
+                systemConfig.getWatchdogMultiplier(), systemConfig.getWatchdogMinTime(), systemConfig.isWatchdogInterrupt());
+    }
+
+    /**
+     * Start watching the calling thread while it processes a file
+     */
+    public RunningTask begin(CDRType type, File file) {
+        // Clear an interrupt aimed at the previous task of this pooled thread
+        Thread.interrupted();
+        long size = file.length();
+        double rate;
+        synchronized (bytesPerSecond) {
+            rate = bytesPerSecond.get(type);
+        }
+        long expected = (long) (size * 1000.0 / rate);
+        long deadline = Math.max(systemConfig.getWatchdogMinTime(), (long) (expected * systemConfig.getWatchdogMultiplier()));
+        RunningTask task = new RunningTask(type, file, size, Thread.currentThread(), deadline);
+        running.add(task);
+        return task;
+    }
+
+    /**
+     * Stop watching a task; a successful file updates the observed rate of its type
+     */
+    public void end(RunningTask task, boolean succeeded) {
+        synchronized (task) {
+            task.finished = true;
+        }
+        running.remove(task);
+        // The watchdog may have interrupted the task just as it finished
+        Thread.interrupted();
+
+        long elapsed = System.currentTimeMillis() - task.startMillis;
+        if (succeeded && elapsed > 0 && task.size > 0) {
+            double rate = task.size * 1000.0 / elapsed;
+            synchronized (bytesPerSecond) {
+                bytesPerSecond.put(task.type, bytesPerSecond.get(task.type) * (1 - RATE_WEIGHT) + rate * RATE_WEIGHT);
+            }
+        }
+        if (task.stuck) {
+            log.warn("Stuck {} file {} finished after {} ms", task.type.getName(), task.file.getName(), elapsed);
+        }
+    }
+
+    /**
+     * Tasks running past their deadline
+     */
+    public int getStuckCount() {
+        int stuck = 0;
+        for (RunningTask task : running) {
+            if (task.stuck) {
+                stuck++;
+            }
+        }
+        return stuck;
+    }
+
+    private void check() {
+        try {
+            long now = System.currentTimeMillis();
+            for (RunningTask task : running) {
+                long elapsed = now - task.startMillis;
+                if (task.stuck || elapsed <= task.deadlineMillis) {
+                    continue;
+                }
+                task.stuck = true;
+                MetricsRegistry.counter("watchdog.stuck").incrementAndGet();
+                log.warn("{} file {} ({} bytes) stuck: running {} ms, deadline {} ms, thread {}:{}",
+                        task.type.getName(), task.file.getName(), task.size, elapsed, task.deadlineMillis,
+                        task.thread.getName(), formatStack(task.thread.getStackTrace()));
+                if (systemConfig.isWatchdogInterrupt()) {
+                    interrupt(task);
+                }
+            }
+            int stuck = getStuckCount();
+            if (stuck > 0) {
+                log.warn("{} of {} running file tasks are stuck", stuck, running.size());
+            }
+        } catch (Exception e) {
+            log.error("Watchdog check failed", e);
+        }
+    }
+
+    private void interrupt(RunningTask task) {
+        synchronized (task) {
+            if (!task.finished) {
+                task.thread.interrupt();
+                MetricsRegistry.counter("watchdog.interrupted").incrementAndGet();
+                log.warn("Interrupted {} so {} is retried", task.thread.getName(), task.file.getName());
+            }
+        }
+    }
+
+    private static String formatStack(StackTraceElement[] stack) {
+        StringBuilder trace = new StringBuilder();
+        for (StackTraceElement element : stack) {
+            trace.append("\n\tat ").append(element);
+        }
+        return trace.toString();
+    }
+
+    public void shutdown() {
+        if (timer != null) {
+            timer.shutdownNow();
+        }
+        MetricsRegistry.unregister(this);
+    }
+
+    /**
+     * A file being processed by a worker thread
+     */
+    public static class RunningTask {
+        private final CDRType type;
+        private final File file;
+        private final long size;
+        private final Thread thread;
+        private final long startMillis = System.currentTimeMillis();
+        private final long deadlineMillis;
+        private volatile boolean stuck;
+        private boolean finished;
+
+        RunningTask(CDRType type, File file, long size, Thread thread, long deadlineMillis) {
+            this.type = type;
+            this.file = file;
+            this.size = size;
+            this.thread = thread;
+            this.deadlineMillis = deadlineMillis;
+        }
+    }
+}
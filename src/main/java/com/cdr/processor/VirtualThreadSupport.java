@@ -0,0 +1,38 @@
+package com.cdr.processor;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Access to virtual thread executors when the application was built with the java21 profile
+ * and runs on Java 21 or later.
+ */
+public final class VirtualThreadSupport {
+
+    private static final Logger log = LoggerFactory.getLogger(VirtualThreadSupport.class);
+    private static final String IMPLEMENTATION = "com.cdr.processor.VirtualThreadExecutors";
+
+    private VirtualThreadSupport() {
+    }
+
+    /**
+     * Create an executor running each task on a new virtual thread
+     *
+     * @return null when virtual threads are not available in this build or runtime
+     */
+    public static ExecutorService newExecutor(String namePrefix) {
+        try {
+            Class<?> implementation = Class.forName(IMPLEMENTATION);
+            Method factory = implementation.getMethod("newExecutor", String.class);
+            return (ExecutorService) factory.invoke(null, namePrefix);
+        } catch (ClassNotFoundException e) {
+            log.warn("Virtual threads are not available in this build (use the java21 profile)");
+        } catch (ReflectiveOperationException | LinkageError e) {
+            log.warn("Virtual threads are not supported by this Java runtime: {}", e.toString());
+        }
+        return null;
+    }
+}
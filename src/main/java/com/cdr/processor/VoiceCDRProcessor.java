@@ -1,12 +1,18 @@
 package com.cdr.processor;
 
+import com.cdr.model.RecordSchema;
 import com.cdr.model.SystemConfig;
 import com.cdr.model.VoiceCDR;
 import com.cdr.model.VoiceCDRRecord;
 import com.cdr.model.VoiceConfig;
 import com.cdr.reporter.VoiceCDRReporter;
+import com.cdr.util.BandwidthGovernor;
 import com.cdr.util.ConfigUtils;
 import com.cdr.util.FileUtils;
+import com.cdr.util.FixedPoint;
+import com.cdr.util.InputLineReader;
+import com.cdr.util.PipeTokenizer;
+import com.cdr.util.ProcessingCheckpoint;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -28,28 +34,87 @@ public class VoiceCDRProcessor implements Runnable {
     private File inputFile;
     private SystemConfig systemConfig;
     VoiceConfig voiceConfig;
+    private final RecordSchema schema;
     private VoiceCDRReporter reporter;
+    private volatile boolean succeeded;
+    private volatile boolean retryPending;
+    private File backupFile;
+    private long processedRecords;
+    private int batchSize;
+    private final ProcessingContext context;
     private static final Logger log = LoggerFactory.getLogger(VoiceCDRProcessor.class);
 
     public VoiceCDRProcessor(File inputFile, SystemConfig systemConfig) {
+        this(inputFile, systemConfig, ProcessingContext.serial(systemConfig));
+    }
+
+    public VoiceCDRProcessor(File inputFile, SystemConfig systemConfig, ProcessingContext context) {
         this.inputFile = inputFile;
         this.systemConfig = systemConfig;
+        this.context = context;
 
         voiceConfig = ConfigUtils.loadVoiceConfig(systemConfig);
+        this.schema = voiceConfig.getSchema();
         this.reporter = new VoiceCDRReporter(systemConfig.getReportFolder(), systemConfig.getVoiceInputFolder(), inputFile);
     }
 
     @Override
     public void run() {
+        File outputFile = resolveOutputFile();
         try {
-            log.info("Processing voice CDR file: {} with block size: {}", inputFile.getName(), systemConfig.getBatchSize());
-            processVoiceCDRInBlocks(inputFile);
-            backupOriginalFile();
+            // Degraded mode is decided once per file, when it starts
+            boolean degraded = context.isDegraded();
+            batchSize = context.getBatchSize(degraded);
+            reporter.setAggregateOnly(degraded);
+            File backupTarget = context.backupFile(resolveBackupFile(), degraded);
+            context.beginFile(inputFile, outputFile, reporter.getReportFile(), backupTarget);
+            reporter.setStagingFile(context.stagingFile(reporter.getReportFile()));
+
+            if (context.isChunked(inputFile)) {
+                log.info("Processing voice CDR file: {} in parallel chunks", inputFile.getName());
+                processVoiceCDRInChunks(inputFile);
+            } else if (context.isPipelined()) {
+                log.info("Processing voice CDR file: {} in pipeline", inputFile.getName());
+                processVoiceCDRInPipeline(inputFile);
+            } else {
+                log.info("Processing voice CDR file: {} with block size: {}", inputFile.getName(), batchSize);
+                processVoiceCDRInBlocks(inputFile);
+            }
+            reporter.writeAggregate();
+            // Output, report and backup are committed together, and still under our lease
+            boolean backedUp = context.stageBackup(inputFile, backupTarget);
+            context.commitFile(inputFile, outputFile, reporter.getReportFile(), backedUp ? backupTarget : null);
+            context.removeCheckpoint(outputFile);
+            if (backedUp) {
+                backupFile = backupTarget;
+                log.info("Backed up file {} to: {}", inputFile.getName(), backupFile.getAbsolutePath());
+            }
+            if (reporter.isAggregateOnly()) {
+                context.recordDegradedFile("voice", inputFile, reporter.getReportFile(), backupFile);
+            }
+            succeeded = true;
 
             log.info("Successfully processed voice CDR file: {}", inputFile.getName());
 
+        } catch (FencedException e) {
+            // Leave the claimed file, and the output of its checkpointed blocks, untouched for the new leader
+            if (!context.hasCheckpoint(outputFile)) {
+                context.abortFile(inputFile, outputFile);
+            }
+            log.warn("Stopped processing voice CDR file {}: {}", inputFile.getName(), e.getMessage());
         } catch (Exception e) {
+            if (context.shouldRetry(inputFile, e)) {
+                // Keep the claimed file, and the output of its checkpointed blocks, for the next attempt
+                if (!context.hasCheckpoint(outputFile)) {
+                    context.abortFile(inputFile, outputFile);
+                }
+                retryPending = true;
+                log.warn("Failed processing voice CDR file {}, will retry: {}", inputFile.getName(), e.toString());
+                return;
+            }
             log.error("Error processing voice CDR file: " + inputFile.getName(), e);
+            context.removeCheckpoint(outputFile);
+            context.abortFile(inputFile, outputFile);
             moveToErrorFolder(e);
         }
     }
@@ -73,21 +138,18 @@ public class VoiceCDRProcessor implements Runnable {
             String accountType = record.getAccountType(i);
             if (accountType != null && voiceConfig.getSpecialAccountTypes().contains(accountType)) {
                 String feeType = record.getFeeType(i);
-                double chargeAmount = record.getChargeAmount(i);
-                double currentAcctAmount = record.getCurrentAcctAmount(i);
-
-                // Get field position names for this account
-                String chargeAmountPos = "ChargeAmount" + i;
-                String currentAcctAmountPos = "CurrentAcctAmount" + i;
+                long chargeAmount = record.getChargeAmount(i);
+                long currentAcctAmount = record.getCurrentAcctAmount(i);
 
                 // Calculate duration reduction based on fee type
                 long durationReduction = 0;
                 if (feeType != null && !feeType.equals(voiceConfig.getFeeTypeMoneyValue())) {
                     // If fee type is not money value (e.g., 0 for data), use charge amount directly
-                    durationReduction = (long) chargeAmount;
+                    durationReduction = FixedPoint.units(chargeAmount);
                 } else {
                     // If fee type is money value, calculate using rate
-                    durationReduction = (long) (chargeAmount / voiceConfig.getAmountRate());
+                    long amountRate = FixedPoint.fromDouble(voiceConfig.getAmountRate());
+                    durationReduction = FixedPoint.quotient(chargeAmount, amountRate);
                 }
 
                 // Reduce call duration
@@ -95,36 +157,31 @@ public class VoiceCDRProcessor implements Runnable {
                 long newDuration = Math.max(0, currentDuration - durationReduction);
                 record.setCallDuration(newDuration);
                 // Update original field for call duration
-                record.setOriginalField(voiceConfig.getCallDurationPosition(), String.valueOf(newDuration));
+                record.setOriginalField(schema.getCallDuration(), String.valueOf(newDuration));
 
                 // Set charge amount to 0 for special accounts
-                record.setChargeAmount(i, 0.0);
-                // Update original field for charge amount
-                if (voiceConfig.getAccountTypePositions().containsKey(chargeAmountPos)) {
-                    int pos = voiceConfig.getAccountTypePositions().get(chargeAmountPos);
-                    record.setOriginalField(pos, "0");
-                }
+                record.setChargeAmount(i, 0);
 
                 // Add the old charge amount to current account amount
                 record.setCurrentAcctAmount(i, currentAcctAmount + chargeAmount);
-                // Update original field for current account amount
-                if (voiceConfig.getAccountTypePositions().containsKey(currentAcctAmountPos)) {
-                    int pos = voiceConfig.getAccountTypePositions().get(currentAcctAmountPos);
-                    record.setOriginalField(pos, String.format("%.0f", currentAcctAmount + chargeAmount));
-                }
+                // The output keeps the original charge and current account amounts: the field updates looked
+                // these positions up among the account type positions, where they never were
 
                 // Update report record
                 reportRecord.setNewDuration(newDuration);
                 reportRecord.setDurationReduction(durationReduction);
                 reportRecord.setAccountType(accountType);
                 reportRecord.setProcessingType("Special Account");
-                reportRecord.setNewChargeAmount(i, 0.0);
+                reportRecord.setNewChargeAmount(i, 0);
                 reportRecord.setNewCurrentAcctAmount(i, currentAcctAmount + chargeAmount);
 
-                log.debug("Applied special account processing for account {} in record: {} - " +
-                                "Duration: {} -> {}, ChargeAmount: {} -> 0, CurrentAcctAmount: {} -> {}",
-                        accountType, record.getCallingNumber(), currentDuration, newDuration,
-                        chargeAmount, currentAcctAmount, record.getCurrentAcctAmount(i));
+                if (log.isDebugEnabled()) {
+                    log.debug("Applied special account processing for account {} in record: {} - " +
+                                    "Duration: {} -> {}, ChargeAmount: {} -> 0, CurrentAcctAmount: {} -> {}",
+                            accountType, record.getCallingNumber(), currentDuration, newDuration,
+                            FixedPoint.toDouble(chargeAmount), FixedPoint.toDouble(currentAcctAmount),
+                            FixedPoint.toDouble(record.getCurrentAcctAmount(i)));
+                }
             }
         }
 
@@ -136,7 +193,22 @@ public class VoiceCDRProcessor implements Runnable {
         int totalProcessed = 0;
         boolean isFirstBlock = true;
 
-        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+        // Continue after the last checkpointed block of an interrupted attempt
+        File outputFile = resolveOutputFile();
+        long startOffset = 0;
+        ProcessingCheckpoint checkpoint = context.resumeCheckpoint(file, outputFile, reporter.getReportFile(),
+                voiceConfig.getConfigVersion());
+        if (checkpoint != null) {
+            reporter.resume(checkpoint.getReportTotals());
+            blockNumber = checkpoint.getBlocks();
+            totalProcessed = (int) checkpoint.getOutputLines();
+            startOffset = checkpoint.getInputOffset();
+            isFirstBlock = false;
+            log.info("Resuming voice CDR file {} after block {} at byte {} of {}", file.getName(), blockNumber,
+                    startOffset, file.length());
+        }
+
+        try (InputLineReader reader = context.openReader(file, startOffset)) {
             List<VoiceCDR> currentBlock = new ArrayList<>();
             String line;
 
@@ -147,7 +219,7 @@ public class VoiceCDRProcessor implements Runnable {
                         currentBlock.add(record);
 
                         // Process block when it reaches the configured size
-                        if (currentBlock.size() >= systemConfig.getBatchSize()) {
+                        if (currentBlock.size() >= batchSize) {
                             blockNumber++;
                             log.info("Processing block {} with {} records", blockNumber, currentBlock.size());
 
@@ -155,6 +227,7 @@ public class VoiceCDRProcessor implements Runnable {
                             writeProcessedBlock(processedBlock, isFirstBlock);
                             totalProcessed += processedBlock.size();
                             isFirstBlock = false;
+                            saveCheckpoint(outputFile, reader.getPosition(), blockNumber, totalProcessed);
 
                             // Clear current block to free memory
                             currentBlock.clear();
@@ -177,15 +250,53 @@ public class VoiceCDRProcessor implements Runnable {
             }
         }
 
+        processedRecords = totalProcessed;
         log.info("Completed processing {} blocks with {} total records", blockNumber, totalProcessed);
     }
 
-    private List<VoiceCDR> processBlock(List<VoiceCDR> block) {
+    private void saveCheckpoint(File outputFile, long inputOffset, int blocks, long outputLines) throws IOException {
+        if (!context.isCheckpointEnabled()) {
+            return;
+        }
+        ProcessingCheckpoint checkpoint = new ProcessingCheckpoint();
+        checkpoint.setInputOffset(inputOffset);
+        checkpoint.setConfigVersion(voiceConfig.getConfigVersion());
+        checkpoint.setBlocks(blocks);
+        checkpoint.setOutputLines(outputLines);
+        checkpoint.setReportTotals(reporter.getTotals());
+        context.saveCheckpoint(inputFile, outputFile, reporter.getReportFile(), checkpoint);
+    }
+
+    private void processVoiceCDRInChunks(File file) throws IOException {
+        // Continue after the last checkpointed chunk of an interrupted attempt
+        File outputFile = resolveOutputFile();
+        ProcessingCheckpoint checkpoint = context.resumeCheckpoint(file, outputFile, reporter.getReportFile(),
+                voiceConfig.getConfigVersion());
+        if (checkpoint != null) {
+            reporter.resume(checkpoint.getReportTotals());
+            log.info("Resuming voice CDR file {} after chunk {} at byte {} of {}", file.getName(),
+                    checkpoint.getBlocks(), checkpoint.getInputOffset(), file.length());
+        }
+        long totalProcessed = context.newChunkedProcessor(new VoiceRecordHandler())
+                .process(file, context.stagingFile(outputFile), checkpoint);
+        processedRecords = totalProcessed;
+        log.info("Completed chunked processing with {} total records", totalProcessed);
+    }
+
+    private void processVoiceCDRInPipeline(File file) throws IOException {
+        long totalProcessed = context.newPipelinedProcessor(new VoiceRecordHandler(), batchSize).process(file, context.stagingFile(resolveOutputFile()));
+        processedRecords = totalProcessed;
+        log.info("Completed pipelined processing with {} total records", totalProcessed);
+    }
+
+    private List<VoiceCDR> processBlock(List<VoiceCDR> block) throws IOException {
         List<VoiceCDR> processedBlock = new ArrayList<>();
 
         for (VoiceCDR record : block) {
             if (shouldProcessRecord(record)) {
                 VoiceCDRRecord reportRecord = applyVoiceProcessingRules(record);
+                // Reports are written record by record, so each write is fenced
+                context.checkFencing();
                 reporter.recordProcessedCall(reportRecord);
             }
             processedBlock.add(record);
@@ -196,66 +307,52 @@ public class VoiceCDRProcessor implements Runnable {
 
     private VoiceCDR parseVoiceRecord(String line) {
         try {
-            // Parse pipe-delimited format based on MobilePostpaid_CDR description
-            String[] fields = line.split("\\|");
+            // Parse pipe-delimited format based on MobilePostpaid_CDR description; only the fields used are decoded
+            PipeTokenizer fields = PipeTokenizer.local();
+            int fieldCount = fields.tokenize(line);
 
-            if (fields.length < 115) { // Need at least 115 fields for all account types
+            if (fieldCount < 115) { // Need at least 115 fields for all account types
                 log.warn("Invalid voice CDR record format - insufficient fields: {}", line);
                 return null;
             }
 
             VoiceCDR record = new VoiceCDR();
 
-            // Store all original fields to preserve complete structure
-            record.setOriginalFields(fields.clone());
+            // Keep the original line to preserve complete structure
+            record.setOriginalLine(line, fieldCount);
 
             // Basic fields
-            record.setStartTime(fields[voiceConfig.getStartTimePosition()]); // TimeStamp
-            record.setCallingNumber(fields[voiceConfig.getCallingPartyNumberPosition()]); // CallingPartyNumber
-            record.setCalledNumber(fields[voiceConfig.getCalledPartyNumberPosition()]); // CalledPartyNumber (assuming same as calling for voice)
-            record.setCallDuration(Long.parseLong(fields[voiceConfig.getCallDurationPosition()])); // CallDuration at position 22
-
-            // Parse account information for 10 accounts
-            for (int i = 1; i <= 10; i++) {
-                String accountTypePos = "AccountType" + i;
-                String feeTypePos = "FeeType" + i;
-                String chargeAmountPos = "ChargeAmount" + i;
-                String currentAcctAmountPos = "CurrentAcctAmount" + i;
-
-                if (voiceConfig.getAccountTypePositions().containsKey(accountTypePos)) {
-                    int pos = voiceConfig.getAccountTypePositions().get(accountTypePos);
-                    if (pos < fields.length) {
-                        record.setAccountType(i, fields[pos]);
-                    }
+            record.setStartTime(fields.field(schema.getStartTime())); // TimeStamp
+            record.setCallingNumber(fields.field(schema.getCallingNumber())); // CallingPartyNumber
+            record.setCalledNumber(fields.field(schema.getCalledNumber())); // CalledPartyNumber (assuming same as calling for voice)
+            long callDuration = fields.parseLong(schema.getCallDuration(), PipeTokenizer.INVALID_NUMBER);
+            if (callDuration == PipeTokenizer.INVALID_NUMBER) {
+                log.warn("Invalid call duration in voice CDR record: {}", line);
+                return null;
+            }
+            record.setCallDuration(callDuration); // CallDuration at position 22
+
+            // Parse account information for 10 accounts; slots without configured positions are skipped
+            for (int i = 1; i <= RecordSchema.ACCOUNT_SLOTS; i++) {
+                int pos = schema.getAccountType(i);
+                if (pos != RecordSchema.NONE && pos < fieldCount) {
+                    record.setAccountType(i, fields.field(pos));
                 }
 
-                if (voiceConfig.getFeeTypePositions().containsKey(feeTypePos)) {
-                    int pos = voiceConfig.getFeeTypePositions().get(feeTypePos);
-                    if (pos < fields.length) {
-                        record.setFeeType(i, fields[pos]);
-                    }
+                pos = schema.getFeeType(i);
+                if (pos != RecordSchema.NONE && pos < fieldCount) {
+                    record.setFeeType(i, fields.field(pos));
                 }
 
-                if (voiceConfig.getChargeAmountPositions().containsKey(chargeAmountPos)) {
-                    int pos = voiceConfig.getChargeAmountPositions().get(chargeAmountPos);
-                    if (pos < fields.length) {
-                        try {
-                            record.setChargeAmount(i, Double.parseDouble(fields[pos]));
-                        } catch (NumberFormatException e) {
-                            record.setChargeAmount(i, 0.0);
-                        }
-                    }
+                pos = schema.getChargeAmount(i);
+                if (pos != RecordSchema.NONE && pos < fieldCount) {
+                    // An amount that is not a number counts as 0
+                    record.setChargeAmount(i, fields.parseFixed(pos, 0));
                 }
 
-                if (voiceConfig.getCurrentAcctAmountPositions().containsKey(currentAcctAmountPos)) {
-                    int pos = voiceConfig.getCurrentAcctAmountPositions().get(currentAcctAmountPos);
-                    if (pos < fields.length) {
-                        try {
-                            record.setCurrentAcctAmount(i, Double.parseDouble(fields[pos]));
-                        } catch (NumberFormatException e) {
-                            record.setCurrentAcctAmount(i, 0.0);
-                        }
-                    }
+                pos = schema.getCurrentAcctAmount(i);
+                if (pos != RecordSchema.NONE && pos < fieldCount) {
+                    record.setCurrentAcctAmount(i, fields.parseFixed(pos, 0));
                 }
             }
 
@@ -278,6 +375,19 @@ public class VoiceCDRProcessor implements Runnable {
     }
 
     private void writeProcessedBlock(List<VoiceCDR> records, boolean isFirstBlock) throws IOException {
+        context.checkFencing();
+        File outputFile = context.stagingFile(resolveOutputFile());
+
+        try (PrintWriter writer = new PrintWriter(BandwidthGovernor.newWriter(outputFile, !isFirstBlock))) {
+            for (VoiceCDR record : records) {
+                writer.println(formatVoiceRecord(record));
+            }
+        }
+
+        log.info("Written {} processed voice CDR records to: {}", records.size(), outputFile.getAbsolutePath());
+    }
+
+    private File resolveOutputFile() {
         // Preserve subfolder structure
         String relativePath = FileUtils.getRelativePath(inputFile, systemConfig.getVoiceInputFolder());
         String subfolderPath = new File(relativePath).getParent();
@@ -290,25 +400,38 @@ public class VoiceCDRProcessor implements Runnable {
             FileUtils.createDirectoryIfNotExists(outputFolder);
         }
 
-        File outputFile = new File(outputFolder, inputFile.getName());
-
-        try (PrintWriter writer = new PrintWriter(new FileWriter(outputFile, !isFirstBlock))) {
-            for (VoiceCDR record : records) {
-                writer.println(formatVoiceRecord(record));
-            }
-        }
-
-        log.info("Written {} processed voice CDR records to: {}", records.size(), outputFile.getAbsolutePath());
+        return new File(outputFolder, inputFile.getName());
     }
 
     private String formatVoiceRecord(VoiceCDR record) {
         // Output the complete original structure with only modified values
-        String[] fields = record.getOriginalFields();
-        // Join all fields with pipe delimiter, preserving original structure
-        return String.join("|", fields);
+        return record.formatOriginalFields();
+    }
+
+    public File getInputFile() {
+        return inputFile;
+    }
+
+    public boolean isSucceeded() {
+        return succeeded;
+    }
+
+    /**
+     * Whether processing failed with an error worth retrying, leaving the file for the next attempt
+     */
+    public boolean isRetryPending() {
+        return retryPending;
     }
 
-    private void backupOriginalFile() {
+    public File getBackupFile() {
+        return backupFile;
+    }
+
+    public long getProcessedRecords() {
+        return processedRecords;
+    }
+
+    private File resolveBackupFile() {
         // Preserve subfolder structure for backup
         String relativePath = FileUtils.getRelativePath(inputFile, systemConfig.getVoiceInputFolder());
         String subfolderPath = new File(relativePath).getParent();
@@ -321,7 +444,7 @@ public class VoiceCDRProcessor implements Runnable {
             FileUtils.createDirectoryIfNotExists(backupFolder);
         }
 
-        FileUtils.backupFile(inputFile, backupFolder);
+        return FileUtils.getBackupFile(inputFile, backupFolder);
     }
 
     private void moveToErrorFolder(Exception e) {
@@ -376,4 +499,40 @@ public class VoiceCDRProcessor implements Runnable {
             log.error("Failed to log detailed error information", logException);
         }
     }
+
+    /**
+     * Voice processing steps for the chunked engine, matching processBlock record by record
+     */
+    private class VoiceRecordHandler implements RecordHandler<VoiceCDR, VoiceCDRRecord> {
+
+        @Override
+        public VoiceCDR parse(String line) {
+            return parseVoiceRecord(line);
+        }
+
+        @Override
+        public VoiceCDRRecord applyRules(VoiceCDR record) {
+            return shouldProcessRecord(record) ? applyVoiceProcessingRules(record) : null;
+        }
+
+        @Override
+        public void report(VoiceCDRRecord reportRecord) {
+            reporter.recordProcessedCall(reportRecord);
+        }
+
+        @Override
+        public String format(VoiceCDR record) {
+            return formatVoiceRecord(record);
+        }
+
+        @Override
+        public void beforeOutput() throws IOException {
+            context.checkFencing();
+        }
+
+        @Override
+        public void afterOutput(long inputOffset, int chunks, long records) throws IOException {
+            saveCheckpoint(resolveOutputFile(), inputOffset, chunks, records);
+        }
+    }
 }
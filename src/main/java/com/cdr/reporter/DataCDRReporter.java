@@ -2,13 +2,15 @@ package com.cdr.reporter;
 
 import com.cdr.model.SystemConfig;
 import com.cdr.model.DataCDRRecord;
+import com.cdr.util.BandwidthGovernor;
 import com.cdr.util.ConfigUtils;
 import com.cdr.util.FileUtils;
+import com.cdr.util.FixedPoint;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
-import java.io.FileWriter;
+import java.io.IOException;
 import java.io.PrintWriter;
 import java.text.SimpleDateFormat;
 import java.util.*;
@@ -24,10 +26,12 @@ public class DataCDRReporter {
     private final String baseReportFolder;
     private final String reportFolder;
     private final String inputFileName;
+    private volatile File stagingFile;
     private final List<DataCDRRecord> processedRecords = Collections.synchronizedList(new ArrayList<>());
     private final AtomicLong totalRecords = new AtomicLong(0);
     private final AtomicLong headerWritten = new AtomicLong(0);
     private final AtomicLong fileCleaned = new AtomicLong(0);
+    private volatile boolean aggregateOnly;
 
     public DataCDRReporter(String reportFolder, String inputFolder, File inputFile) {
         this.baseReportFolder = reportFolder;
@@ -53,8 +57,11 @@ public class DataCDRReporter {
     }
 
     public void recordProcessedSession(DataCDRRecord record) {
-        processedRecords.add(record);
         totalRecords.incrementAndGet();
+        if (aggregateOnly) {
+            return;
+        }
+        processedRecords.add(record);
 
         // Write header once
         if (headerWritten.compareAndSet(0, 1)) {
@@ -70,11 +77,75 @@ public class DataCDRReporter {
         }
     }
 
+    public File getReportFile() {
+        return new File(reportFolder, inputFileName);
+    }
+
+    /**
+     * Write records to a staging file rather than the report itself, until the processor commits it
+     */
+    public void setStagingFile(File stagingFile) {
+        this.stagingFile = stagingFile;
+    }
+
+    /**
+     * File the records are written to: the staging file when one is set, otherwise the report itself
+     */
+    public File getStagingFile() {
+        File file = stagingFile;
+        return file != null ? file : getReportFile();
+    }
+
+    /**
+     * Only keep the totals, written by writeAggregate, instead of a detail line per record (degraded mode)
+     */
+    public void setAggregateOnly(boolean aggregateOnly) {
+        this.aggregateOnly = aggregateOnly;
+    }
+
+    public boolean isAggregateOnly() {
+        return aggregateOnly;
+    }
+
+    /**
+     * Running totals, saved with processing checkpoints
+     */
+    public Map<String, Long> getTotals() {
+        Map<String, Long> totals = new LinkedHashMap<>();
+        totals.put("records", totalRecords.get());
+        totals.put("aggregateOnly", aggregateOnly ? 1L : 0L);
+        return totals;
+    }
+
+    /**
+     * Continue a report that was cut back to a checkpoint: keep the file and restore the totals
+     */
+    public void resume(Map<String, Long> totals) {
+        headerWritten.set(getStagingFile().length() > 0 ? 1 : 0);
+        totalRecords.set(totals.getOrDefault("records", 0L));
+        // The file continues in the mode it was started in
+        aggregateOnly = totals.getOrDefault("aggregateOnly", 0L) == 1L;
+    }
+
+    /**
+     * Write the totals as the whole report of a file processed aggregate-only
+     */
+    public void writeAggregate() throws IOException {
+        if (!aggregateOnly) {
+            return;
+        }
+        FileUtils.createDirectoryIfNotExists(reportFolder);
+        try (PrintWriter writer = new PrintWriter(BandwidthGovernor.newWriter(getStagingFile(), false))) {
+            writer.println("TotalRecords");
+            writer.println(totalRecords.get());
+        }
+    }
+
     private void writeReportHeader() {
         try {
-            File reportFile = new File(reportFolder, inputFileName);
+            File reportFile = getStagingFile();
 
-            try (PrintWriter writer = new PrintWriter(new FileWriter(reportFile, false))) {
+            try (PrintWriter writer = new PrintWriter(BandwidthGovernor.newWriter(reportFile, false))) {
                 writer.println("CallingNumber,StartTime,OldTotalFlux,NewTotalFlux,FluxReduction," +
                         "OldUpFlux,NewUpFlux,OldDownFlux,NewDownFlux,OldTotalChargeFlux,NewTotalChargeFlux," +
                         "dataAccountType1,dataFeeType1,dataChargeAmount1_New,dataChargeAmount1_Old,dataCurrentAcctAmount1_New,dataCurrentAcctAmount1_Old," +
@@ -98,35 +169,33 @@ public class DataCDRReporter {
 
     private void writeRecordToReport(DataCDRRecord record) {
         try {
-            File reportFile = new File(reportFolder, inputFileName);
-
-            try (PrintWriter writer = new PrintWriter(new FileWriter(reportFile, true))) {
-                writer.printf("%s,%s,%.0f,%.0f,%.0f,%.0f,%.0f,%.0f,%.0f,%.0f,%.0f,",
-                        record.getCallingNumber(),
-                        record.getStartTime(),
-                        record.getOldTotalFlux(),
-                        record.getNewTotalFlux(),
-                        record.getFluxReduction(),
-                        record.getOldUpFlux(),
-                        record.getNewUpFlux(),
-                        record.getOldDownFlux(),
-                        record.getNewDownFlux(),
-                        record.getOldTotalChargeFlux(),
-                        record.getNewTotalChargeFlux()
-                );
+            File reportFile = getStagingFile();
+
+            try (PrintWriter writer = new PrintWriter(BandwidthGovernor.newWriter(reportFile, true))) {
+                StringBuilder line = new StringBuilder(512);
+                line.append(record.getCallingNumber()).append(',');
+                line.append(record.getStartTime()).append(',');
+                line.append(FixedPoint.roundedUnits(record.getOldTotalFlux())).append(',');
+                line.append(FixedPoint.roundedUnits(record.getNewTotalFlux())).append(',');
+                line.append(FixedPoint.roundedUnits(record.getFluxReduction())).append(',');
+                line.append(FixedPoint.roundedUnits(record.getOldUpFlux())).append(',');
+                line.append(FixedPoint.roundedUnits(record.getNewUpFlux())).append(',');
+                line.append(FixedPoint.roundedUnits(record.getOldDownFlux())).append(',');
+                line.append(FixedPoint.roundedUnits(record.getNewDownFlux())).append(',');
+                line.append(FixedPoint.roundedUnits(record.getOldTotalChargeFlux())).append(',');
+                line.append(FixedPoint.roundedUnits(record.getNewTotalChargeFlux())).append(',');
 
                 // Group by index 1-10: AccountType, FeeType, ChargeAmount (New, Old), CurrentAcctAmount (New, Old)
                 for (int i = 1; i <= 10; i++) {
-                    writer.printf("%s,%s,%.0f,%.0f,%.0f,%.0f,",
-                            record.getAccountType(i) != null ? record.getAccountType(i) : "",
-                            record.getFeeType(i) != null ? record.getFeeType(i) : "",
-                            record.getNewChargeAmount(i),
-                            record.getOldChargeAmount(i),
-                            record.getNewCurrentAcctAmount(i),
-                            record.getOldCurrentAcctAmount(i));
+                    line.append(record.getAccountType(i) != null ? record.getAccountType(i) : "").append(',');
+                    line.append(record.getFeeType(i) != null ? record.getFeeType(i) : "").append(',');
+                    line.append(FixedPoint.roundedUnits(record.getNewChargeAmount(i))).append(',');
+                    line.append(FixedPoint.roundedUnits(record.getOldChargeAmount(i))).append(',');
+                    line.append(FixedPoint.roundedUnits(record.getNewCurrentAcctAmount(i))).append(',');
+                    line.append(FixedPoint.roundedUnits(record.getOldCurrentAcctAmount(i))).append(',');
                 }
 
-                writer.println();
+                writer.println(line);
             }
 
         } catch (Exception e) {
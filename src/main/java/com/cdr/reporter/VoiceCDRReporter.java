@@ -2,13 +2,15 @@ package com.cdr.reporter;
 
 import com.cdr.model.SystemConfig;
 import com.cdr.model.VoiceCDRRecord;
+import com.cdr.util.BandwidthGovernor;
 import com.cdr.util.ConfigUtils;
 import com.cdr.util.FileUtils;
+import com.cdr.util.FixedPoint;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
-import java.io.FileWriter;
+import java.io.IOException;
 import java.io.PrintWriter;
 import java.text.SimpleDateFormat;
 import java.util.*;
@@ -24,6 +26,7 @@ public class VoiceCDRReporter {
     private final String baseReportFolder;
     private final String reportFolder;
     private final String inputFileName;
+    private volatile File stagingFile;
     private final Map<String, Object> processingStats = new ConcurrentHashMap<>();
     private final List<VoiceCDRRecord> processedRecords = Collections.synchronizedList(new ArrayList<>());
     private final AtomicLong totalRecords = new AtomicLong(0);
@@ -32,6 +35,7 @@ public class VoiceCDRReporter {
     private final AtomicLong totalChargeReduced = new AtomicLong(0);
     private final AtomicLong headerWritten = new AtomicLong(0);
     private final AtomicLong fileCleaned = new AtomicLong(0);
+    private volatile boolean aggregateOnly;
 
     public VoiceCDRReporter(String baseReportFolder, String voiceInputFolder, File inputFile) {
         this.baseReportFolder = baseReportFolder;
@@ -76,7 +80,6 @@ public class VoiceCDRReporter {
     }
 
     public void recordProcessedCall(VoiceCDRRecord record) {
-        processedRecords.add(record);
         totalRecords.incrementAndGet();
 
         if ("Special Account".equals(record.getProcessingType())) {
@@ -86,11 +89,16 @@ public class VoiceCDRReporter {
         totalDurationReduced.addAndGet(record.getDurationReduction());
 
         // Calculate total charge reduced
-        double chargeReduced = 0.0;
+        long chargeReduced = 0;
         for (int i = 1; i <= 10; i++) {
             chargeReduced += record.getOldChargeAmount(i) - record.getNewChargeAmount(i);
         }
-        totalChargeReduced.addAndGet((long) chargeReduced);
+        totalChargeReduced.addAndGet(FixedPoint.units(chargeReduced));
+
+        if (aggregateOnly) {
+            return;
+        }
+        processedRecords.add(record);
 
         // Generate detailed report for each record
         generateDetailReportForRecord(record);
@@ -99,6 +107,78 @@ public class VoiceCDRReporter {
                 record.getCallingNumber(), record.getOldDuration(), record.getNewDuration(), record.getDurationReduction());
     }
 
+    public File getReportFile() {
+        return new File(reportFolder, inputFileName);
+    }
+
+    /**
+     * Write records to a staging file rather than the report itself, until the processor commits it
+     */
+    public void setStagingFile(File stagingFile) {
+        this.stagingFile = stagingFile;
+    }
+
+    /**
+     * File the records are written to: the staging file when one is set, otherwise the report itself
+     */
+    public File getStagingFile() {
+        File file = stagingFile;
+        return file != null ? file : getReportFile();
+    }
+
+    /**
+     * Only keep the totals, written by writeAggregate, instead of a detail line per record (degraded mode)
+     */
+    public void setAggregateOnly(boolean aggregateOnly) {
+        this.aggregateOnly = aggregateOnly;
+    }
+
+    public boolean isAggregateOnly() {
+        return aggregateOnly;
+    }
+
+    /**
+     * Running totals, saved with processing checkpoints
+     */
+    public Map<String, Long> getTotals() {
+        Map<String, Long> totals = new LinkedHashMap<>();
+        totals.put("records", totalRecords.get());
+        totals.put("specialAccountRecords", specialAccountRecords.get());
+        totals.put("durationReduced", totalDurationReduced.get());
+        totals.put("chargeReduced", totalChargeReduced.get());
+        totals.put("aggregateOnly", aggregateOnly ? 1L : 0L);
+        return totals;
+    }
+
+    /**
+     * Continue a report that was cut back to a checkpoint: keep the file and restore the totals
+     */
+    public void resume(Map<String, Long> totals) {
+        fileCleaned.set(1);
+        headerWritten.set(getStagingFile().length() > 0 ? 1 : 0);
+        totalRecords.set(totals.getOrDefault("records", 0L));
+        specialAccountRecords.set(totals.getOrDefault("specialAccountRecords", 0L));
+        totalDurationReduced.set(totals.getOrDefault("durationReduced", 0L));
+        totalChargeReduced.set(totals.getOrDefault("chargeReduced", 0L));
+        // The file continues in the mode it was started in
+        aggregateOnly = totals.getOrDefault("aggregateOnly", 0L) == 1L;
+    }
+
+    /**
+     * Write the totals as the whole report of a file processed aggregate-only
+     */
+    public void writeAggregate() throws IOException {
+        if (!aggregateOnly) {
+            return;
+        }
+        createReportFolder();
+        try (PrintWriter writer = new PrintWriter(BandwidthGovernor.newWriter(getStagingFile(), false))) {
+            writer.println("TotalRecords|SpecialAccountRecords|DurationReduced|ChargeReduced");
+            writer.println(totalRecords.get() + "|" + specialAccountRecords.get() + "|"
+                    + totalDurationReduced.get() + "|" + totalChargeReduced.get());
+        }
+    }
+
     private double calculateReductionPercentage(VoiceCDRRecord record) {
         if (record.getOldDuration() == 0) return 0.0;
         return (double) record.getDurationReduction() / record.getOldDuration() * 100.0;
@@ -114,7 +194,7 @@ public class VoiceCDRReporter {
             // Ensure report folder exists before writing
             createReportFolder();
 
-            File detailReportFile = new File(reportFolder, inputFileName);
+            File detailReportFile = getStagingFile();
 
             // Check if this is the first record to write - if so, remove previous file
             if (fileCleaned.compareAndSet(0, 1)) {
@@ -124,7 +204,7 @@ public class VoiceCDRReporter {
                 }
             }
 
-            try (PrintWriter writer = new PrintWriter(new FileWriter(detailReportFile, true))) {
+            try (PrintWriter writer = new PrintWriter(BandwidthGovernor.newWriter(detailReportFile, true))) {
                 writeRecordDetail(writer, record);
             }
         } catch (Exception e) {
@@ -162,10 +242,10 @@ public class VoiceCDRReporter {
         for (int i = 1; i <= 10; i++) {
             sb.append(record.getAccountType(i) != null ? record.getAccountType(i) : "").append("|");
             sb.append(record.getFeeType(i) != null ? record.getFeeType(i) : "").append("|");
-            sb.append(String.format("%.0f", record.getOldChargeAmount(i))).append("|");
-            sb.append(String.format("%.0f", record.getNewChargeAmount(i))).append("|");
-            sb.append(String.format("%.0f", record.getOldCurrentAcctAmount(i))).append("|");
-            sb.append(String.format("%.0f", record.getNewCurrentAcctAmount(i))).append("|");
+            sb.append(FixedPoint.roundedUnits(record.getOldChargeAmount(i))).append("|");
+            sb.append(FixedPoint.roundedUnits(record.getNewChargeAmount(i))).append("|");
+            sb.append(FixedPoint.roundedUnits(record.getOldCurrentAcctAmount(i))).append("|");
+            sb.append(FixedPoint.roundedUnits(record.getNewCurrentAcctAmount(i))).append("|");
         }
 
         sb.append(record.getProcessingType());
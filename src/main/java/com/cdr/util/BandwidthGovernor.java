@@ -0,0 +1,331 @@
+package com.cdr.util;
+
+import com.cdr.model.SystemConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process-wide token buckets limiting the file I/O of CDR processing, so a large backlog does not saturate
+ * the shared filer. Input reads, output and report writes, and backup copies each have a budget in
+ * bytes/sec (0 = unlimited), applied inside the time-of-day windows of cdr.bandwidth.schedule. A stream
+ * that overdraws its bucket sleeps until the budget has paid for its bytes. Bytes moved, bytes/sec over the
+ * last second and time spent throttled are published per traffic class as io.&lt;class&gt;.*.
+ * Until configure() is called, streams are passed through unthrottled and uncounted.
+ */
+public final class BandwidthGovernor {
+
+    private static final Logger log = LoggerFactory.getLogger(BandwidthGovernor.class);
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    public enum Traffic {
+        READ("read"),
+        WRITE("write"),
+        BACKUP("backup");
+
+        private final String name;
+
+        Traffic(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+    }
+
+    private static volatile Map<Traffic, TokenBucket> buckets;
+
+    private BandwidthGovernor() {
+    }
+
+    /**
+     * Create the buckets from the cdr.bandwidth.* settings
+     */
+    public static synchronized void configure(SystemConfig config) {
+        List<int[]> windows = parseSchedule(config.getBandwidthSchedule());
+        Map<Traffic, TokenBucket> configured = new EnumMap<>(Traffic.class);
+        configured.put(Traffic.READ, new TokenBucket(Traffic.READ, config.getBandwidthReadRate(), windows));
+        configured.put(Traffic.WRITE, new TokenBucket(Traffic.WRITE, config.getBandwidthWriteRate(), windows));
+        configured.put(Traffic.BACKUP, new TokenBucket(Traffic.BACKUP, config.getBandwidthBackupRate(), windows));
+        buckets = configured;
+        log.info("Bandwidth limits: read {} B/s, write {} B/s, backup {} B/s (0 = unlimited), schedule: {}",
+                config.getBandwidthReadRate(), config.getBandwidthWriteRate(), config.getBandwidthBackupRate(),
+                windows.isEmpty() ? "always" : config.getBandwidthSchedule());
+    }
+
+    public static InputStream throttle(InputStream in, Traffic traffic) {
+        Map<Traffic, TokenBucket> current = buckets;
+        return current == null ? in : new ThrottledInputStream(in, current.get(traffic));
+    }
+
+    public static OutputStream throttle(OutputStream out, Traffic traffic) {
+        Map<Traffic, TokenBucket> current = buckets;
+        return current == null ? out : new ThrottledOutputStream(out, current.get(traffic));
+    }
+
+    /**
+     * Charge bytes moved without a stream, e.g. lines consumed from a memory-mapped input
+     */
+    public static void acquire(Traffic traffic, long count) throws IOException {
+        Map<Traffic, TokenBucket> current = buckets;
+        if (current != null && count > 0) {
+            current.get(traffic).acquire(count);
+        }
+    }
+
+    /**
+     * Throttled replacement for FileReader: input file read with the platform charset
+     */
+    public static Reader newReader(File file) throws IOException {
+        return new InputStreamReader(throttle(new FileInputStream(file), Traffic.READ));
+    }
+
+    /**
+     * Throttled replacement for FileWriter: output or report file written with the platform charset
+     */
+    public static Writer newWriter(File file, boolean append) throws IOException {
+        return new OutputStreamWriter(throttle(new FileOutputStream(file, append), Traffic.WRITE));
+    }
+
+    /**
+     * Copy a file as backup traffic, replacing the target. Outside throttled hours the copy is left to the
+     * file system and only counted.
+     */
+    public static void copy(File source, File target) throws IOException {
+        Map<Traffic, TokenBucket> current = buckets;
+        TokenBucket bucket = current != null ? current.get(Traffic.BACKUP) : null;
+        if (bucket == null || !bucket.isLimited()) {
+            Files.copy(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            if (bucket != null) {
+                bucket.count(source.length());
+            }
+            return;
+        }
+        byte[] buffer = new byte[COPY_BUFFER_SIZE];
+        try (InputStream in = new FileInputStream(source);
+             OutputStream out = new ThrottledOutputStream(new FileOutputStream(target), bucket)) {
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                out.write(buffer, 0, read);
+            }
+        }
+    }
+
+    /**
+     * Parse "HH:mm-HH:mm" windows separated by commas into minute-of-day ranges; a window may wrap midnight
+     */
+    static List<int[]> parseSchedule(String schedule) {
+        List<int[]> windows = new ArrayList<>();
+        if (schedule == null || schedule.trim().isEmpty()) {
+            return windows;
+        }
+        for (String window : schedule.split(",")) {
+            String[] bounds = window.trim().split("-");
+            if (bounds.length != 2) {
+                throw new IllegalArgumentException("Invalid bandwidth schedule window: " + window);
+            }
+            windows.add(new int[]{minuteOfDay(bounds[0]), minuteOfDay(bounds[1])});
+        }
+        return windows;
+    }
+
+    private static int minuteOfDay(String time) {
+        LocalTime parsed = LocalTime.parse(time.trim());
+        return parsed.getHour() * 60 + parsed.getMinute();
+    }
+
+    /**
+     * Budget of one traffic class. Holds at most one second of tokens; callers overdrawing it take on the
+     * debt and sleep it off, so concurrent streams queue up behind each other at the budget rate.
+     */
+    private static class TokenBucket {
+        private static final long SCHEDULE_CHECK_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+        private final long rate;
+        private final List<int[]> windows;
+        private final AtomicLong bytes;
+        private final AtomicLong throttledMillis;
+        private double tokens;
+        private long lastRefill = System.nanoTime();
+        private long lastScheduleCheck;
+        private boolean inWindow;
+        private long rateWindowStart = System.nanoTime();
+        private long rateWindowBytes;
+        private volatile long observedRate;
+
+        TokenBucket(Traffic traffic, long rate, List<int[]> windows) {
+            this.rate = Math.max(0, rate);
+            this.windows = windows;
+            this.tokens = this.rate;
+            String prefix = "io." + traffic.getName() + ".";
+            this.bytes = MetricsRegistry.counter(prefix + "bytes");
+            this.throttledMillis = MetricsRegistry.counter(prefix + "throttled.ms");
+            MetricsRegistry.gauge(prefix + "bytes.per.sec", this::getObservedRate);
+            MetricsRegistry.gauge(prefix + "limit", () -> isLimited() ? this.rate : 0);
+        }
+
+        /**
+         * Account for bytes about to be moved, sleeping when the budget is used up
+         */
+        void acquire(long count) throws IOException {
+            long sleepNanos;
+            synchronized (this) {
+                long now = System.nanoTime();
+                record(now, count);
+                if (!isLimited(now)) {
+                    return;
+                }
+                tokens = Math.min(rate, tokens + (now - lastRefill) * (double) rate / TimeUnit.SECONDS.toNanos(1));
+                lastRefill = now;
+                tokens -= count;
+                if (tokens >= 0) {
+                    return;
+                }
+                sleepNanos = (long) (-tokens * TimeUnit.SECONDS.toNanos(1) / rate);
+            }
+            throttledMillis.addAndGet(TimeUnit.NANOSECONDS.toMillis(sleepNanos));
+            try {
+                TimeUnit.NANOSECONDS.sleep(sleepNanos);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while throttled");
+            }
+        }
+
+        /**
+         * Account for bytes moved without throttling
+         */
+        synchronized void count(long count) {
+            record(System.nanoTime(), count);
+        }
+
+        synchronized boolean isLimited() {
+            return isLimited(System.nanoTime());
+        }
+
+        private boolean isLimited(long now) {
+            if (rate == 0) {
+                return false;
+            }
+            if (windows.isEmpty()) {
+                return true;
+            }
+            if (now - lastScheduleCheck >= SCHEDULE_CHECK_NANOS || lastScheduleCheck == 0) {
+                lastScheduleCheck = now;
+                boolean wasInWindow = inWindow;
+                inWindow = isInWindow(LocalTime.now());
+                if (inWindow != wasInWindow) {
+                    // Start the new period with a full bucket rather than debt or savings from the old one
+                    tokens = rate;
+                    lastRefill = now;
+                }
+            }
+            return inWindow;
+        }
+
+        private boolean isInWindow(LocalTime time) {
+            int minute = time.getHour() * 60 + time.getMinute();
+            for (int[] window : windows) {
+                boolean inside = window[0] <= window[1]
+                        ? minute >= window[0] && minute < window[1]
+                        : minute >= window[0] || minute < window[1];
+                if (inside) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private void record(long now, long count) {
+            bytes.addAndGet(count);
+            rateWindowBytes += count;
+            long elapsed = now - rateWindowStart;
+            if (elapsed >= TimeUnit.SECONDS.toNanos(1)) {
+                observedRate = rateWindowBytes * TimeUnit.SECONDS.toNanos(1) / elapsed;
+                rateWindowStart = now;
+                rateWindowBytes = 0;
+            }
+        }
+
+        private long getObservedRate() {
+            synchronized (this) {
+                // No traffic for a while: the last rate is stale
+                if (System.nanoTime() - rateWindowStart > 2 * TimeUnit.SECONDS.toNanos(1)) {
+                    return 0;
+                }
+            }
+            return observedRate;
+        }
+    }
+
+    private static class ThrottledInputStream extends FilterInputStream {
+        private final TokenBucket bucket;
+
+        ThrottledInputStream(InputStream in, TokenBucket bucket) {
+            super(in);
+            this.bucket = bucket;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                bucket.acquire(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read > 0) {
+                bucket.acquire(read);
+            }
+            return read;
+        }
+    }
+
+    private static class ThrottledOutputStream extends FilterOutputStream {
+        private final TokenBucket bucket;
+
+        ThrottledOutputStream(OutputStream out, TokenBucket bucket) {
+            super(out);
+            this.bucket = bucket;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            bucket.acquire(1);
+            out.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            bucket.acquire(len);
+            out.write(b, off, len);
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package com.cdr.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Line reader over a window of the input file: a region mapped with FileChannel.map, or, where memory-mapping
+ * is unsafe (files that may be truncated while mapped, file systems without mmap), a heap buffer filled by
+ * FileChannel reads. Lines are located directly in the window and handed out as byte ranges of buffer(), so
+ * a caller that only tokenizes them decodes and copies nothing; readLine() decodes the line for callers that
+ * need it as a String. The window moves on to the first unfinished line when the scan reaches its end, so
+ * files larger than 2 GB are mapped piece by piece, and a window grows when a single line does not fit.
+ * Reads are charged to the READ bandwidth bucket as lines are consumed.
+ */
+public class ChannelLineReader implements InputLineReader {
+
+    private static final int CHARGE_BYTES = 64 * 1024;
+    private static final int READ_BUFFER_SIZE = 1024 * 1024;
+    private static final int MAX_WINDOW_SIZE = Integer.MAX_VALUE - 8;
+
+    private final FileChannel channel;
+    private final boolean mapped;
+    private final long size;
+    private final Charset charset = Charset.defaultCharset();
+    private final DelimiterScanner scanner = DelimiterScanners.current();
+    private int windowSize;
+    private ByteBuffer window;
+    // Duplicate of a mapped window, to copy lines out without moving the window's position
+    private ByteBuffer view;
+    private long windowOffset;
+    private int position;
+    private int lineStart;
+    private int lineEnd;
+    private long offset;
+    private boolean skipLineFeed;
+    private long uncharged;
+    private byte[] line = new byte[1024];
+
+    /**
+     * @param mapped memory-map the file, otherwise read it through the channel
+     * @param windowSize bytes mapped at a time; reads go through a buffer of at most 1 MB
+     */
+    public ChannelLineReader(File file, long startOffset, boolean mapped, int windowSize) throws IOException {
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        this.mapped = mapped;
+        this.windowSize = Math.max(1024, mapped ? windowSize : Math.min(windowSize, READ_BUFFER_SIZE));
+        try {
+            this.size = channel.size();
+            this.offset = startOffset;
+            load(Math.min(startOffset, size));
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Locate the next line; its bytes are buffer() from lineStart() to lineEnd(), without the terminator,
+     * until the next call
+     *
+     * @return false at end of file
+     */
+    public boolean nextLine() throws IOException {
+        try {
+            while (true) {
+                int limit = window.limit();
+                if (skipLineFeed && position < limit) {
+                    // Second half of a \r\n terminator split between two windows
+                    skipLineFeed = false;
+                    if (window.get(position) == '\n') {
+                        position++;
+                        consumed(1);
+                    }
+                }
+                int i = scanner.indexOfLineBreak(window, position, limit);
+                if (i < limit) {
+                    int next = i + 1;
+                    if (window.get(i) == '\r') {
+                        if (next < limit) {
+                            if (window.get(next) == '\n') {
+                                next++;
+                            }
+                        } else {
+                            skipLineFeed = true;
+                        }
+                    }
+                    return line(i, next);
+                }
+                if (windowOffset + limit >= size) {
+                    if (position < limit) {
+                        // Last line without a terminator
+                        return line(limit, limit);
+                    }
+                    charge();
+                    return false;
+                }
+                if (position == 0 && limit == windowSize) {
+                    // A single line fills the whole window
+                    if (windowSize == MAX_WINDOW_SIZE) {
+                        throw new IOException("Line longer than " + MAX_WINDOW_SIZE + " bytes at offset " + windowOffset);
+                    }
+                    windowSize = (int) Math.min((long) windowSize * 2, MAX_WINDOW_SIZE);
+                }
+                load(windowOffset + position);
+            }
+        } catch (InternalError e) {
+            // Raised by an access to a mapped page that is no longer backed by the file
+            throw new IOException("Input file changed while it was mapped", e);
+        }
+    }
+
+    @Override
+    public String readLine() throws IOException {
+        if (!nextLine()) {
+            return null;
+        }
+        int length = lineEnd - lineStart;
+        if (window.hasArray()) {
+            return new String(window.array(), window.arrayOffset() + lineStart, length, charset);
+        }
+        if (length > line.length) {
+            line = new byte[Math.max(line.length * 2, length)];
+        }
+        view.position(lineStart);
+        view.get(line, 0, length);
+        return new String(line, 0, length, charset);
+    }
+
+    /**
+     * Window holding the current line; valid until the next call to nextLine
+     */
+    public ByteBuffer buffer() {
+        return window;
+    }
+
+    public int lineStart() {
+        return lineStart;
+    }
+
+    public int lineEnd() {
+        return lineEnd;
+    }
+
+    @Override
+    public long getPosition() {
+        return offset;
+    }
+
+    private boolean line(int end, int next) throws IOException {
+        lineStart = position;
+        lineEnd = end;
+        consumed(next - position);
+        position = next;
+        return true;
+    }
+
+    private void consumed(int bytes) throws IOException {
+        offset += bytes;
+        uncharged += bytes;
+        if (uncharged >= CHARGE_BYTES) {
+            charge();
+        }
+    }
+
+    private void charge() throws IOException {
+        if (uncharged > 0) {
+            BandwidthGovernor.acquire(BandwidthGovernor.Traffic.READ, uncharged);
+            uncharged = 0;
+        }
+    }
+
+    /**
+     * Move the window to start at the given file offset
+     */
+    private void load(long from) throws IOException {
+        int length = (int) Math.min(windowSize, size - from);
+        if (mapped) {
+            // Little-endian words spare the scan kernel a byte swap per word
+            window = channel.map(FileChannel.MapMode.READ_ONLY, from, length).order(ByteOrder.LITTLE_ENDIAN);
+            view = window.duplicate();
+        } else {
+            if (window == null || window.capacity() < length) {
+                window = ByteBuffer.allocate(windowSize).order(ByteOrder.LITTLE_ENDIAN);
+            }
+            window.clear();
+            window.limit(length);
+            while (window.hasRemaining()) {
+                if (channel.read(window, from + window.position()) < 0) {
+                    throw new IOException("Input file shorter than its size when opened (" + size + " bytes)");
+                }
+            }
+            window.flip();
+        }
+        windowOffset = from;
+        position = 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        charge();
+        // A mapped window is released by the garbage collector
+        window = null;
+        view = null;
+        channel.close();
+    }
+}
@@ -0,0 +1,426 @@
+package com.cdr.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Write-ahead journal that makes the artifacts of a file (output, report, backup) appear together.
+ * Artifacts are written under staging names. BEGIN lists them when work on a file starts, COMMIT lists
+ * the renames that put them in place, with the length and CRC of every staged file, and is synced before the
+ * first rename; the journal sync is the only one a commit pays. DONE follows the last rename; ABORT records
+ * that the staging files were discarded. On open, committed entries are rolled forward by redoing their
+ * renames once their files check out against the COMMIT, so one that survives a power loss never rolls
+ * forward a torn or missing artifact; a COMMIT whose files do not check out is rolled back and its input
+ * processed again. Uncommitted entries are rolled back by deleting their staging files, unless a checkpoint
+ * still refers to them. Entries are keyed by input file.
+ */
+public class CommitJournal {
+
+    private static final Logger log = LoggerFactory.getLogger(CommitJournal.class);
+    private static final String SEPARATOR = "|";
+    private static final String SEPARATOR_REGEX = "\\|";
+    // Marks the length:CRC field following a rename of a COMMIT, which a path never starts with
+    private static final String CHECKSUM_PREFIX = "#";
+    private static final long COMPACT_THRESHOLD = 4 * 1024 * 1024;
+
+    public static final String STATE_BEGIN = "BEGIN";
+    public static final String STATE_COMMIT = "COMMIT";
+    public static final String STATE_DONE = "DONE";
+    public static final String STATE_ABORT = "ABORT";
+
+    private final File journalFile;
+    private final boolean syncEnabled;
+
+    // Latest BEGIN or COMMIT of each input file whose work is not finished
+    private final Map<String, JournalEntry> openEntries = new LinkedHashMap<>();
+    private FileOutputStream journalStream;
+    private PrintWriter journalWriter;
+    private long journalBytes;
+
+    public CommitJournal(String journalFile, boolean syncEnabled) {
+        this.journalFile = new File(journalFile);
+        this.syncEnabled = syncEnabled;
+    }
+
+    /**
+     * Recover entries left by a previous run, then start an empty journal.
+     *
+     * @param committed called with the input file of every entry found committed, after its renames are redone
+     */
+    public synchronized void open(Consumer<File> committed) throws IOException {
+        File parent = journalFile.getAbsoluteFile().getParentFile();
+        if (parent != null) {
+            FileUtils.createDirectoryIfNotExists(parent.getAbsolutePath());
+        }
+
+        Map<String, JournalEntry> latest = new LinkedHashMap<>();
+        if (journalFile.exists()) {
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    new FileInputStream(journalFile), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    JournalEntry entry = JournalEntry.parse(line);
+                    if (entry == null) {
+                        // Torn last line: a torn COMMIT was never synced, so none of its renames happened
+                        log.warn("Ignoring malformed journal line: {}", line);
+                        continue;
+                    }
+                    JournalEntry previous = latest.get(entry.inputPath);
+                    if (STATE_DONE.equals(entry.state) && previous != null && STATE_COMMIT.equals(previous.state)) {
+                        // Keep the commit, so its claim can still be completed
+                        previous.state = STATE_DONE;
+                    } else {
+                        latest.put(entry.inputPath, entry);
+                    }
+                }
+            }
+        }
+
+        int rolledForward = 0;
+        int rolledBack = 0;
+        for (JournalEntry entry : latest.values()) {
+            if (STATE_COMMIT.equals(entry.state) && intact(entry)) {
+                redo(entry);
+                rolledForward++;
+            } else if (STATE_COMMIT.equals(entry.state)) {
+                // Staged data did not reach the disk before the power loss: the input file is processed again
+                discardStaging(entry);
+                entry.state = STATE_ABORT;
+                rolledBack++;
+            } else if (STATE_BEGIN.equals(entry.state)) {
+                if (entry.checkpointPath.isEmpty() || !new File(entry.checkpointPath).exists()) {
+                    discard(entry);
+                    rolledBack++;
+                }
+            }
+            if (STATE_COMMIT.equals(entry.state) || STATE_DONE.equals(entry.state)) {
+                committed.accept(new File(entry.inputPath));
+            }
+        }
+
+        // Everything is resolved now, start over. The empty journal replaces the old one by a rename, so a
+        // fenced-off server still holding the old journal open cannot write into ours.
+        openEntries.clear();
+        compact();
+
+        log.info("Commit journal {} opened: {} commits rolled forward, {} uncommitted files rolled back",
+                journalFile.getAbsolutePath(), rolledForward, rolledBack);
+    }
+
+    /**
+     * Record the staging files of an input file, deleted on recovery unless the checkpoint exists.
+     * Staging files of an earlier attempt at the same file that this attempt does not reuse are deleted.
+     */
+    public synchronized void begin(File inputFile, List<File> stagingFiles, File checkpointFile) throws IOException {
+        JournalEntry entry = new JournalEntry(STATE_BEGIN, inputFile.getAbsolutePath());
+        entry.checkpointPath = checkpointFile != null ? checkpointFile.getAbsolutePath() : "";
+        for (File stagingFile : stagingFiles) {
+            entry.paths.add(stagingFile.getAbsolutePath());
+        }
+        append(entry);
+        JournalEntry previous = openEntries.put(entry.inputPath, entry);
+        if (previous != null && STATE_BEGIN.equals(previous.state)) {
+            for (String path : previous.paths) {
+                if (!entry.paths.contains(path)) {
+                    new File(path).delete();
+                }
+            }
+        }
+    }
+
+    /**
+     * Put the staged artifacts of an input file in place: the renames are journaled and synced, performed in order,
+     * and followed by the done marker when one is given
+     *
+     * @param moves staging file to final file
+     */
+    public void commit(File inputFile, Map<File, File> moves, File doneMarker) throws IOException {
+        JournalEntry entry = new JournalEntry(STATE_COMMIT, inputFile.getAbsolutePath());
+        entry.markerPath = doneMarker != null ? doneMarker.getAbsolutePath() : "";
+        for (Map.Entry<File, File> move : moves.entrySet()) {
+            entry.paths.add(move.getKey().getAbsolutePath());
+            entry.paths.add(move.getValue().getAbsolutePath());
+            // Read back from the page cache instead of syncing every staged file; checked on roll-forward
+            entry.checksums.add(syncEnabled ? checksum(move.getKey()) : "");
+        }
+        FileOutputStream stream;
+        synchronized (this) {
+            append(entry);
+            openEntries.put(entry.inputPath, entry);
+            stream = journalStream;
+        }
+        if (syncEnabled) {
+            // Outside the lock, so workers committing at the same time share the disk flush
+            try {
+                stream.getFD().sync();
+            } catch (IOException e) {
+                synchronized (this) {
+                    // A compaction in between closed the stream, after syncing a journal holding this commit
+                    if (stream == journalStream) {
+                        throw e;
+                    }
+                }
+            }
+        }
+
+        redo(entry);
+        synchronized (this) {
+            append(new JournalEntry(STATE_DONE, entry.inputPath));
+            openEntries.remove(entry.inputPath);
+        }
+    }
+
+    /**
+     * Delete the staging files recorded for an input file whose processing failed. A file whose COMMIT was
+     * already written may have artifacts in place that downstream picked up, so its commit is rolled forward
+     * instead, or left for recovery on the next open when its renames still fail.
+     */
+    public synchronized void abort(File inputFile) {
+        JournalEntry entry = openEntries.get(inputFile.getAbsolutePath());
+        if (entry == null) {
+            return;
+        }
+        if (STATE_COMMIT.equals(entry.state)) {
+            try {
+                redo(entry);
+                append(new JournalEntry(STATE_DONE, entry.inputPath));
+                openEntries.remove(entry.inputPath);
+                log.warn("Rolled forward commit of {} instead of aborting it", entry.inputPath);
+            } catch (IOException e) {
+                log.error("Failed to roll forward commit of {}, left for recovery on next start", entry.inputPath, e);
+            }
+            return;
+        }
+        openEntries.remove(entry.inputPath);
+        discard(entry);
+        try {
+            append(new JournalEntry(STATE_ABORT, entry.inputPath));
+        } catch (IOException e) {
+            log.error("Failed to write journal entry for file: {}", entry.inputPath, e);
+        }
+    }
+
+    /**
+     * Length and CRC of a staged file, as recorded in its COMMIT
+     */
+    private static String checksum(File file) throws IOException {
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[64 * 1024];
+        long length = 0;
+        try (InputStream in = new FileInputStream(file)) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                crc.update(buffer, 0, read);
+                length += read;
+            }
+        }
+        return length + ":" + Long.toHexString(crc.getValue());
+    }
+
+    /**
+     * Whether every file of a commit, still staged or already renamed, holds what was staged when it was written.
+     * Renames journaled without sync, or by an earlier version, have no checksum and are not checked.
+     */
+    private static boolean intact(JournalEntry entry) {
+        for (int i = 0; i + 1 < entry.paths.size(); i += 2) {
+            String expected = entry.checksums.get(i / 2);
+            if (expected.isEmpty()) {
+                continue;
+            }
+            File source = new File(entry.paths.get(i));
+            File file = source.exists() ? source : new File(entry.paths.get(i + 1));
+            String actual;
+            try {
+                actual = file.exists() ? checksum(file) : "missing";
+            } catch (IOException e) {
+                actual = e.toString();
+            }
+            if (!expected.equals(actual)) {
+                log.warn("Not rolling forward commit of {}: {} is {}, committed as {}", entry.inputPath,
+                        file.getAbsolutePath(), actual, expected);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Redo the renames of a commit; renames already done are skipped
+     */
+    private static void redo(JournalEntry entry) throws IOException {
+        for (int i = 0; i + 1 < entry.paths.size(); i += 2) {
+            File source = new File(entry.paths.get(i));
+            File target = new File(entry.paths.get(i + 1));
+            if (source.exists()) {
+                moveAtomically(source, target);
+            }
+        }
+        if (!entry.markerPath.isEmpty()) {
+            File marker = new File(entry.markerPath);
+            if (!marker.exists() && !marker.createNewFile()) {
+                throw new IOException("Failed to create done marker " + marker.getAbsolutePath());
+            }
+        }
+    }
+
+    private static void discard(JournalEntry entry) {
+        for (String path : entry.paths) {
+            new File(path).delete();
+        }
+    }
+
+    /**
+     * Delete the staging files of a commit that is not rolled forward; files renamed into place are replaced
+     * when the input file is processed again
+     */
+    private static void discardStaging(JournalEntry entry) {
+        for (int i = 0; i < entry.paths.size(); i += 2) {
+            new File(entry.paths.get(i)).delete();
+        }
+    }
+
+    private void append(JournalEntry entry) throws IOException {
+        if (journalWriter == null) {
+            throw new IOException("Commit journal is not open: " + journalFile.getAbsolutePath());
+        }
+        String line = entry.format();
+        journalWriter.println(line);
+        journalWriter.flush();
+        if (journalWriter.checkError()) {
+            throw new IOException("Failed to append to commit journal: " + journalFile.getAbsolutePath());
+        }
+        journalBytes += line.length() + 1;
+        if (journalBytes > COMPACT_THRESHOLD) {
+            compact();
+        }
+    }
+
+    /**
+     * Rewrite the journal with only the entries of files still being worked on
+     */
+    private void compact() throws IOException {
+        File tempFile = new File(journalFile.getAbsolutePath() + ".compact");
+        long bytes = 0;
+        try (FileOutputStream out = new FileOutputStream(tempFile);
+             PrintWriter writer = new PrintWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8))) {
+            for (JournalEntry entry : openEntries.values()) {
+                String line = entry.format();
+                writer.println(line);
+                bytes += line.length() + 1;
+            }
+            writer.flush();
+            out.getFD().sync();
+        }
+        if (journalWriter != null) {
+            journalWriter.close();
+        }
+        moveAtomically(tempFile, journalFile);
+        journalStream = new FileOutputStream(journalFile, true);
+        journalWriter = new PrintWriter(new OutputStreamWriter(journalStream, StandardCharsets.UTF_8));
+        journalBytes = bytes;
+        log.debug("Compacted commit journal to {} open entries", openEntries.size());
+    }
+
+    private static void moveAtomically(File source, File target) throws IOException {
+        try {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    public synchronized void close() {
+        if (journalWriter != null) {
+            journalWriter.close();
+            journalWriter = null;
+        }
+    }
+
+    /**
+     * One journal line: state, input file, checkpoint (BEGIN) or done marker (COMMIT), the staging
+     * files (BEGIN) or staging and final file pairs each followed by #length:CRC of the staged file when
+     * synced (COMMIT), and a CRC of the line to detect tearing
+     */
+    private static class JournalEntry {
+        private String state;
+        private final String inputPath;
+        private String checkpointPath = "";
+        private String markerPath = "";
+        private final List<String> paths = new ArrayList<>();
+        // Per rename of a COMMIT, empty when not recorded
+        private final List<String> checksums = new ArrayList<>();
+
+        JournalEntry(String state, String inputPath) {
+            this.state = state;
+            this.inputPath = inputPath;
+        }
+
+        private String format() {
+            StringBuilder line = new StringBuilder();
+            line.append(state).append(SEPARATOR).append(inputPath).append(SEPARATOR)
+                    .append(STATE_COMMIT.equals(state) ? markerPath : checkpointPath);
+            for (int i = 0; i < paths.size(); i++) {
+                line.append(SEPARATOR).append(paths.get(i));
+                if (i % 2 == 1 && i / 2 < checksums.size() && !checksums.get(i / 2).isEmpty()) {
+                    line.append(SEPARATOR).append(CHECKSUM_PREFIX).append(checksums.get(i / 2));
+                }
+            }
+            String crc = crc(line);
+            return line.append(SEPARATOR).append(crc).toString();
+        }
+
+        private static JournalEntry parse(String line) {
+            int last = line.lastIndexOf(SEPARATOR);
+            if (last < 0 || !line.substring(last + 1).equals(crc(line.substring(0, last)))) {
+                return null;
+            }
+            String[] fields = line.substring(0, last).split(SEPARATOR_REGEX, -1);
+            if (fields.length < 3) {
+                return null;
+            }
+            JournalEntry entry = new JournalEntry(fields[0], fields[1]);
+            if (STATE_COMMIT.equals(entry.state)) {
+                entry.markerPath = fields[2];
+            } else {
+                entry.checkpointPath = fields[2];
+            }
+            for (int i = 3; i < fields.length; i++) {
+                if (fields[i].startsWith(CHECKSUM_PREFIX) && !entry.checksums.isEmpty()) {
+                    entry.checksums.set(entry.checksums.size() - 1, fields[i].substring(CHECKSUM_PREFIX.length()));
+                    continue;
+                }
+                entry.paths.add(fields[i]);
+                if (STATE_COMMIT.equals(entry.state) && entry.paths.size() % 2 == 0) {
+                    entry.checksums.add("");
+                }
+            }
+            return entry;
+        }
+
+        private static String crc(CharSequence content) {
+            CRC32 crc = new CRC32();
+            crc.update(content.toString().getBytes(StandardCharsets.UTF_8));
+            return Long.toHexString(crc.getValue());
+        }
+    }
+}
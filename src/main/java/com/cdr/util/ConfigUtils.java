@@ -3,6 +3,7 @@ package com.cdr.util;
 import com.cdr.model.SystemConfig;
 import com.cdr.model.VoiceConfig;
 import com.cdr.model.DataConfig;
+import com.cdr.model.RecordSchema;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -10,12 +11,15 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.zip.CRC32;
 
 /**
  * Configuration utility class for loading system configuration
@@ -60,10 +64,135 @@ public class ConfigUtils {
         config.setPcrfSlaves(Integer.parseInt(props.getProperty("cdr.pcrf.slaves", "2")));
         config.setBatchSize(Integer.parseInt(props.getProperty("cdr.batch.size", "1000")));
         config.setServerName(props.getProperty("cdr.server.name", "cdr-server-01"));
-        config.setHeartbeatInterval(Long.parseLong(props.getProperty("cdr.heartbeat.interval", "30000")));
-        config.setHeartbeatTimeout(Long.parseLong(props.getProperty("cdr.heartbeat.timeout", "300000")));
+        config.setHeartbeatInterval(Long.parseLong(props.getProperty("cdr.heartbeat.interval", "500")));
+        config.setHeartbeatTimeout(Long.parseLong(props.getProperty("cdr.heartbeat.timeout", "2000")));
+        config.setHeartbeatCheckInterval(Long.parseLong(props.getProperty("cdr.heartbeat.check.interval", "200")));
+        config.setHaMode(props.getProperty("cdr.ha.mode", "none"));
+        config.setHaBackend(props.getProperty("cdr.ha.backend", "jdbc"));
+        config.setHaLeaseFile(props.getProperty("cdr.ha.lease.file", "../data/ha/leader.lease"));
+        config.setShardCount(Integer.parseInt(props.getProperty("cdr.shard.count", "64")));
+        config.setShardLeaseTtl(Long.parseLong(props.getProperty("cdr.shard.lease.ttl", "30000")));
+        config.setShardRenewInterval(Long.parseLong(props.getProperty("cdr.shard.renew.interval", "10000")));
+        config.setShardVirtualNodes(Integer.parseInt(props.getProperty("cdr.shard.virtual.nodes", "32")));
+        config.setShardHighLoad(Double.parseDouble(props.getProperty("cdr.shard.high.load", "0.8")));
         config.setProcessingInterval(Long.parseLong(props.getProperty("cdr.processing.interval", "60000")));
 
+        // Ingestion configuration
+        config.setIngestionMode(props.getProperty("cdr.ingestion.mode", "poll"));
+        config.setWatchSettleTime(Long.parseLong(props.getProperty("cdr.watch.settle.time", "2000")));
+        config.setWatchRescanInterval(Long.parseLong(props.getProperty("cdr.watch.rescan.interval", "300000")));
+        config.setScanFullInterval(Integer.parseInt(props.getProperty("cdr.scan.full.interval", "10")));
+        config.setScanTimestampGranularity(Long.parseLong(props.getProperty("cdr.scan.timestamp.granularity", "2000")));
+
+        // Admission queue and metrics configuration
+        config.setAdmissionQueueCapacity(Integer.parseInt(props.getProperty("cdr.admission.queue.capacity", "100")));
+        config.setAdmissionWaitTimeout(Long.parseLong(props.getProperty("cdr.admission.wait.timeout", "30000")));
+        config.setMetricsLogInterval(Long.parseLong(props.getProperty("cdr.metrics.log.interval", "60000")));
+
+        // Disk space admission configuration
+        config.setDiskAdmissionEnabled(Boolean.parseBoolean(props.getProperty("cdr.disk.admission.enabled", "true")));
+        config.setDiskLowWater(Long.parseLong(props.getProperty("cdr.disk.low.water", "1073741824")));
+        config.setDiskHighWater(Long.parseLong(props.getProperty("cdr.disk.high.water", "2147483648")));
+        config.setDiskFootprintFactor(Double.parseDouble(props.getProperty("cdr.disk.footprint.factor", "1.0")));
+        config.setDiskCheckInterval(Long.parseLong(props.getProperty("cdr.disk.check.interval", "1000")));
+
+        // Bandwidth configuration
+        config.setBandwidthReadRate(Long.parseLong(props.getProperty("cdr.bandwidth.read.rate", "0")));
+        config.setBandwidthWriteRate(Long.parseLong(props.getProperty("cdr.bandwidth.write.rate", "0")));
+        config.setBandwidthBackupRate(Long.parseLong(props.getProperty("cdr.bandwidth.backup.rate", "0")));
+        config.setBandwidthSchedule(props.getProperty("cdr.bandwidth.schedule", ""));
+
+        // Degraded mode configuration
+        config.setDegradedEnabled(Boolean.parseBoolean(props.getProperty("cdr.degraded.enabled", "false")));
+        config.setDegradedEnterFiles(Long.parseLong(props.getProperty("cdr.degraded.enter.files", "1000")));
+        config.setDegradedEnterAge(Long.parseLong(props.getProperty("cdr.degraded.enter.age", "7200000")));
+        config.setDegradedExitFiles(Long.parseLong(props.getProperty("cdr.degraded.exit.files", "100")));
+        config.setDegradedExitAge(Long.parseLong(props.getProperty("cdr.degraded.exit.age", "1800000")));
+        config.setDegradedBatchMultiplier(Integer.parseInt(props.getProperty("cdr.degraded.batch.multiplier", "4")));
+        config.setDegradedBackupCompress(Boolean.parseBoolean(props.getProperty("cdr.degraded.backup.compress", "true")));
+        config.setDegradedLogFile(props.getProperty("cdr.degraded.log.file", "data/ledger/degraded-files.log"));
+
+        // Processed file ledger configuration
+        config.setLedgerEnabled(Boolean.parseBoolean(props.getProperty("cdr.ledger.enabled", "true")));
+        config.setLedgerFile(props.getProperty("cdr.ledger.file", "data/ledger/processed-files.ledger"));
+        config.setLedgerHashEnabled(Boolean.parseBoolean(props.getProperty("cdr.ledger.hash.enabled", "false")));
+        config.setLedgerSyncEnabled(Boolean.parseBoolean(props.getProperty("cdr.ledger.sync.enabled", "true")));
+        config.setLedgerRetention(Long.parseLong(props.getProperty("cdr.ledger.retention", "604800000")));
+
+        // Mid-file checkpoint configuration
+        config.setCheckpointEnabled(Boolean.parseBoolean(props.getProperty("cdr.checkpoint.enabled", "true")));
+        config.setCheckpointSyncEnabled(Boolean.parseBoolean(props.getProperty("cdr.checkpoint.sync.enabled", "false")));
+
+        // Commit journal configuration
+        config.setJournalEnabled(Boolean.parseBoolean(props.getProperty("cdr.journal.enabled", "true")));
+        config.setJournalFile(props.getProperty("cdr.journal.file", "data/ledger/commit.journal"));
+        config.setJournalSyncEnabled(Boolean.parseBoolean(props.getProperty("cdr.journal.sync.enabled", "true")));
+        config.setCommitDoneMarker(Boolean.parseBoolean(props.getProperty("cdr.commit.done.marker", "false")));
+
+        // Ordered commit configuration
+        config.setCommitOrderEnabled(Boolean.parseBoolean(props.getProperty("cdr.commit.order.enabled", "true")));
+        config.setCommitOrderPattern(props.getProperty("cdr.commit.order.pattern", "(.*?)(\\d+)\\.[^.]+"));
+        config.setCommitOrderContiguous(Boolean.parseBoolean(props.getProperty("cdr.commit.order.contiguous", "false")));
+        config.setCommitOrderGapTimeout(Long.parseLong(props.getProperty("cdr.commit.order.gap.timeout", "300000")));
+
+        // Retry configuration
+        config.setRetryMaxAttempts(Integer.parseInt(props.getProperty("cdr.retry.max.attempts", "5")));
+        config.setRetryInitialDelay(Long.parseLong(props.getProperty("cdr.retry.initial.delay", "1000")));
+        config.setRetryMaxDelay(Long.parseLong(props.getProperty("cdr.retry.max.delay", "60000")));
+        config.setRetryJitter(Double.parseDouble(props.getProperty("cdr.retry.jitter", "0.5")));
+        config.setRetryTick(Long.parseLong(props.getProperty("cdr.retry.tick", "100")));
+
+        // Watchdog configuration
+        config.setWatchdogEnabled(Boolean.parseBoolean(props.getProperty("cdr.watchdog.enabled", "true")));
+        config.setWatchdogInterval(Long.parseLong(props.getProperty("cdr.watchdog.interval", "5000")));
+        config.setWatchdogMultiplier(Double.parseDouble(props.getProperty("cdr.watchdog.multiplier", "5.0")));
+        config.setWatchdogMinTime(Long.parseLong(props.getProperty("cdr.watchdog.min.time", "60000")));
+        config.setWatchdogDefaultRate(Long.parseLong(props.getProperty("cdr.watchdog.default.rate", "1048576")));
+        config.setWatchdogInterrupt(Boolean.parseBoolean(props.getProperty("cdr.watchdog.interrupt", "false")));
+
+        // Intra-file parallel processing configuration
+        config.setParallelFileThreshold(Long.parseLong(props.getProperty("cdr.parallel.file.threshold", "67108864")));
+        config.setParallelChunkSize(Long.parseLong(props.getProperty("cdr.parallel.chunk.size", "8388608")));
+        config.setParallelWorkers(Integer.parseInt(props.getProperty("cdr.parallel.workers",
+                String.valueOf(Runtime.getRuntime().availableProcessors()))));
+
+        // Pipelined processing configuration
+        config.setPipelineEnabled(Boolean.parseBoolean(props.getProperty("cdr.pipeline.enabled", "false")));
+        config.setPipelineRingSize(Integer.parseInt(props.getProperty("cdr.pipeline.ring.size", "4")));
+
+        // Input reader configuration
+        config.setInputReader(props.getProperty("cdr.input.reader", "mmap"));
+        config.setInputWindowSize(Integer.parseInt(props.getProperty("cdr.input.window.size", "268435456")));
+        config.setScanKernel(props.getProperty("cdr.scan.kernel", "auto"));
+
+        // Scheduler configuration
+        config.setSchedulerParallelism(Integer.parseInt(props.getProperty("cdr.scheduler.parallelism", "0")));
+        config.setVoiceWeight(Integer.parseInt(props.getProperty("cdr.scheduler.weight.voice", "1")));
+        config.setDataWeight(Integer.parseInt(props.getProperty("cdr.scheduler.weight.data", "1")));
+        config.setPcrfWeight(Integer.parseInt(props.getProperty("cdr.scheduler.weight.pcrf", "1")));
+        config.setExecutionMode(props.getProperty("cdr.execution.mode", "platform"));
+        config.setVirtualMaxOpenFiles(Integer.parseInt(props.getProperty("cdr.virtual.max.open.files", "1000")));
+        String subfolderWeights = props.getProperty("cdr.scheduler.subfolder.weights", "");
+        if (!subfolderWeights.isEmpty()) {
+            for (String entry : subfolderWeights.split(",")) {
+                String[] parts = entry.trim().split(":");
+                if (parts.length == 2) {
+                    config.getSchedulerSubfolderWeights().put(parts[0].trim(), Integer.parseInt(parts[1].trim()));
+                } else if (!entry.trim().isEmpty()) {
+                    log.warn("Ignoring invalid subfolder weight: {}", entry);
+                }
+            }
+        }
+
+        // Adaptive concurrency configuration
+        config.setAdaptiveEnabled(Boolean.parseBoolean(props.getProperty("cdr.adaptive.enabled", "false")));
+        config.setAdaptiveInterval(Long.parseLong(props.getProperty("cdr.adaptive.interval", "10000")));
+        config.setAdaptiveMinWorkers(Integer.parseInt(props.getProperty("cdr.adaptive.min.workers", "1")));
+        config.setAdaptiveMaxWorkers(Integer.parseInt(props.getProperty("cdr.adaptive.max.workers", "8")));
+        config.setAdaptiveDecreaseFactor(Double.parseDouble(props.getProperty("cdr.adaptive.decrease.factor", "0.75")));
+        config.setAdaptiveTolerance(Double.parseDouble(props.getProperty("cdr.adaptive.tolerance", "0.1")));
+        config.setAdaptiveIoWaitThreshold(Double.parseDouble(props.getProperty("cdr.adaptive.iowait.threshold", "0.3")));
+
         // Database configuration
         config.setDatabaseUrl(props.getProperty("cdr.database.url"));
         config.setDatabaseUsername(props.getProperty("cdr.database.username"));
@@ -131,6 +260,8 @@ public class ConfigUtils {
                 config.getCurrentAcctAmountPositions().put("CurrentAcctAmount" + i, Integer.parseInt(currentAcctAmountPos));
         }
 
+        config.setConfigVersion(versionOf(props));
+        config.setSchema(compileVoiceSchema(config, systemConfig.getVoiceConfigPath()));
         return config;
     }
 
@@ -182,6 +313,8 @@ public class ConfigUtils {
                 config.getCurrentAcctAmountPositions().put("dataCurrentAcctAmount" + i, Integer.parseInt(currentAcctAmountPos));
         }
 
+        config.setConfigVersion(versionOf(props));
+        config.setSchema(compileDataSchema(config, "data", systemConfig.getDataConfigPath()));
         return config;
     }
 
@@ -230,21 +363,99 @@ public class ConfigUtils {
                 config.getCurrentAcctAmountPositions().put("pcrfCurrentAcctAmount" + i, Integer.parseInt(currentAcctAmountPos));
         }
 
+        config.setConfigVersion(versionOf(props));
+        config.setSchema(compileDataSchema(config, "pcrf", systemConfig.getPcrfConfigPath()));
         return config;
     }
 
+    /**
+     * Compile the voice field positions. Account slots without positions are skipped when parsing.
+     */
+    private static RecordSchema compileVoiceSchema(VoiceConfig config, String file) {
+        int none = RecordSchema.NONE;
+        return new RecordSchema(
+                position(config.getStartTimePosition(), "startTimePosition", file),
+                position(config.getCallingPartyNumberPosition(), "callingPartyNumberPosition", file),
+                position(config.getCalledPartyNumberPosition(), "calledPartyNumberPosition", file),
+                position(config.getCallDurationPosition(), "callDurationPosition", file),
+                none, none, none, none,
+                slotPositions(config.getAccountTypePositions(), "AccountType", false, file),
+                slotPositions(config.getFeeTypePositions(), "FeeType", false, file),
+                slotPositions(config.getChargeAmountPositions(), "ChargeAmount", false, file),
+                slotPositions(config.getCurrentAcctAmountPositions(), "CurrentAcctAmount", false, file));
+    }
+
+    /**
+     * Compile the data or pcrf field positions; every account slot needs all of its positions
+     *
+     * @param prefix property prefix, data or pcrf
+     */
+    private static RecordSchema compileDataSchema(DataConfig config, String prefix, String file) {
+        return new RecordSchema(
+                position(config.getStartTimePosition(), prefix + "StartTimePosition", file),
+                position(config.getCallingPartyNumberPosition(), prefix + "CallingPartyNumberPosition", file),
+                RecordSchema.NONE,
+                RecordSchema.NONE,
+                position(config.getTotalFluxPosition(), prefix + "TotalFluxPosition", file),
+                position(config.getUpFluxPosition(), prefix + "UpFluxPosition", file),
+                position(config.getDownFluxPosition(), prefix + "DownFluxPosition", file),
+                position(config.getTotalChargeFluxPosition(), prefix + "TotalChargeFluxPosition", file),
+                slotPositions(config.getAccountTypePositions(), prefix + "AccountType", true, file),
+                slotPositions(config.getFeeTypePositions(), prefix + "FeeType", true, file),
+                slotPositions(config.getChargeAmountPositions(), prefix + "ChargeAmount", true, file),
+                slotPositions(config.getCurrentAcctAmountPositions(), prefix + "CurrentAcctAmount", true, file));
+    }
+
+    /**
+     * Positions of one account field per slot, keyed name + slot in the configuration
+     */
+    private static int[] slotPositions(Map<String, Integer> positions, String name, boolean required, String file) {
+        int[] slots = new int[RecordSchema.ACCOUNT_SLOTS + 1];
+        slots[0] = RecordSchema.NONE;
+        for (int slot = 1; slot <= RecordSchema.ACCOUNT_SLOTS; slot++) {
+            Integer value = positions.get(name + slot);
+            if (value == null) {
+                if (required) {
+                    throw new ConfigurationException(name + slot + " is not configured in " + file);
+                }
+                slots[slot] = RecordSchema.NONE;
+            } else {
+                slots[slot] = position(value, name + slot, file);
+            }
+        }
+        return slots;
+    }
+
+    private static int position(int value, String name, String file) {
+        if (value < 0) {
+            throw new ConfigurationException("Invalid field position " + value + " for " + name + " in " + file);
+        }
+        return value;
+    }
+
+    /**
+     * Checksum over the sorted entries of a configuration, to detect that processing rules changed
+     */
+    private static String versionOf(Properties props) {
+        CRC32 crc = new CRC32();
+        for (String name : new TreeSet<>(props.stringPropertyNames())) {
+            crc.update((name + "=" + props.getProperty(name) + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+        return Long.toHexString(crc.getValue());
+    }
+
     private static Properties loadProperties(String fileConfig) {
         Properties props = new Properties();
         File file = new File(fileConfig);
         if (!file.exists()) {
             log.error("Configuration file not found: {}", fileConfig);
-            throw new RuntimeException("Configuration file not found: " + fileConfig);
+            throw new ConfigurationException("Configuration file not found: " + fileConfig);
         }
         try (InputStream is = new FileInputStream(file)) {
             props.load(is);
         } catch (IOException e) {
             log.error("Failed to load {}", fileConfig, e);
-            throw new RuntimeException("Failed to load configuration file: " + fileConfig, e);
+            throw new ConfigurationException("Failed to load configuration file: " + fileConfig, e);
         }
         return props;
     }
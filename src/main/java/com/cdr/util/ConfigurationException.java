@@ -0,0 +1,17 @@
+package com.cdr.util;
+
+/**
+ * Thrown when a configuration file is missing or cannot be read
+ */
+public class ConfigurationException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public ConfigurationException(String message) {
+        super(message);
+    }
+
+    public ConfigurationException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,34 @@
+package com.cdr.util;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Kernel finding field delimiters and line breaks in raw record bytes, the innermost loop of parsing.
+ * Implementations differ only in how many bytes they test at a time and must report identical positions;
+ * DelimiterScanners picks one at startup (cdr.scan.kernel). Ranges are absolute indexes; the position and
+ * limit of a ByteBuffer are neither used nor changed.
+ */
+public interface DelimiterScanner {
+
+    /**
+     * Kernel name as used in cdr.scan.kernel
+     */
+    String name();
+
+    /**
+     * Record the position of every byte equal to value in buffer[from, to)
+     *
+     * @param positions receives the positions in ascending order; must hold to - from entries
+     * @return number of positions found
+     */
+    int findAll(byte[] buffer, int from, int to, byte value, int[] positions);
+
+    int findAll(ByteBuffer buffer, int from, int to, byte value, int[] positions);
+
+    /**
+     * @return position of the first \n or \r in buffer[from, to), or to when there is none
+     */
+    int indexOfLineBreak(byte[] buffer, int from, int to);
+
+    int indexOfLineBreak(ByteBuffer buffer, int from, int to);
+}
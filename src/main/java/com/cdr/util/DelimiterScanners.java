@@ -0,0 +1,154 @@
+package com.cdr.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Selection of the delimiter scanning kernel at startup (cdr.scan.kernel): vector when the application was
+ * built with the vector profile and the runtime has jdk.incubator.vector, otherwise swar, or a kernel named
+ * explicitly. A selected kernel is checked against the scalar kernel on generated records before it is used.
+ * Until configure() is called the swar kernel is used.
+ */
+public final class DelimiterScanners {
+
+    private static final Logger log = LoggerFactory.getLogger(DelimiterScanners.class);
+    private static final String AUTO = "auto";
+    private static final String VECTOR_IMPLEMENTATION = "com.cdr.util.VectorDelimiterScanner";
+    private static final String VECTOR = "vector";
+
+    private static volatile DelimiterScanner current = new SwarDelimiterScanner();
+
+    private DelimiterScanners() {
+    }
+
+    /**
+     * Kernel used by tokenizers and line readers created from now on
+     */
+    public static DelimiterScanner current() {
+        return current;
+    }
+
+    /**
+     * Select the kernel of cdr.scan.kernel: auto, vector, swar or scalar
+     */
+    public static synchronized void configure(String kernel) {
+        DelimiterScanner selected = null;
+        if (AUTO.equalsIgnoreCase(kernel) || VECTOR.equalsIgnoreCase(kernel)) {
+            selected = loadVector(VECTOR.equalsIgnoreCase(kernel));
+        } else if (kernel != null && !kernel.isEmpty()) {
+            selected = create(kernel);
+            if (selected == null) {
+                log.warn("Unknown scan kernel '{}', using {}", kernel, SwarDelimiterScanner.NAME);
+            }
+        }
+        if (selected == null) {
+            selected = new SwarDelimiterScanner();
+        }
+        if (!matchesScalar(selected)) {
+            log.error("Scan kernel {} finds different delimiters than the scalar kernel, using {}",
+                    selected.name(), ScalarDelimiterScanner.NAME);
+            selected = new ScalarDelimiterScanner();
+        }
+        current = selected;
+        log.info("Delimiter scan kernel: {}", selected.name());
+    }
+
+    /**
+     * Create a kernel by name
+     *
+     * @return null when the name is unknown or the kernel is not available in this build or runtime
+     */
+    public static DelimiterScanner create(String name) {
+        if (SwarDelimiterScanner.NAME.equalsIgnoreCase(name)) {
+            return new SwarDelimiterScanner();
+        }
+        if (ScalarDelimiterScanner.NAME.equalsIgnoreCase(name)) {
+            return new ScalarDelimiterScanner();
+        }
+        if (VECTOR.equalsIgnoreCase(name)) {
+            return loadVector(false);
+        }
+        return null;
+    }
+
+    /**
+     * Every kernel available in this build and runtime, scalar first
+     */
+    public static List<DelimiterScanner> available() {
+        List<DelimiterScanner> kernels = new ArrayList<>();
+        kernels.add(new ScalarDelimiterScanner());
+        kernels.add(new SwarDelimiterScanner());
+        DelimiterScanner vector = loadVector(false);
+        if (vector != null) {
+            kernels.add(vector);
+        }
+        return kernels;
+    }
+
+    private static DelimiterScanner loadVector(boolean requested) {
+        try {
+            return (DelimiterScanner) Class.forName(VECTOR_IMPLEMENTATION).getDeclaredConstructor().newInstance();
+        } catch (ClassNotFoundException e) {
+            if (requested) {
+                log.warn("The vector scan kernel is not available in this build (use the vector profile)");
+            }
+        } catch (ReflectiveOperationException | LinkageError e) {
+            // Built with the vector profile, so worth mentioning even when not asked for explicitly
+            String message = "The vector scan kernel needs a Java 17+ runtime started with "
+                    + "--add-modules jdk.incubator.vector: {}";
+            if (requested) {
+                log.warn(message, e.toString());
+            } else {
+                log.info(message, e.toString());
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Whether a kernel reports the same delimiter and line break positions as the scalar kernel, on arrays and
+     * on direct buffers, for records of every length up to a few vectors with delimiters in every lane
+     */
+    public static boolean matchesScalar(DelimiterScanner kernel) {
+        DelimiterScanner scalar = new ScalarDelimiterScanner();
+        byte[] alphabet = {'|', '|', '\n', '\r', '0', '9', 'a', ' ', (byte) 0xfc, (byte) 0x80, (byte) 0xff, 0};
+        Random random = new Random(1);
+        int[] expected = new int[300];
+        int[] actual = new int[300];
+        for (int length = 0; length < 300; length++) {
+            byte[] record = new byte[length];
+            for (int i = 0; i < length; i++) {
+                record[i] = alphabet[random.nextInt(alphabet.length)];
+            }
+            ByteBuffer direct = ByteBuffer.allocateDirect(length);
+            direct.put(record);
+            for (int from = 0; from <= Math.min(length, 9); from++) {
+                int count = scalar.findAll(record, from, length, (byte) '|', expected);
+                int lineBreak = scalar.indexOfLineBreak(record, from, length);
+                if (kernel.findAll(record, from, length, (byte) '|', actual) != count
+                        || !samePositions(expected, actual, count)
+                        || kernel.findAll(direct, from, length, (byte) '|', actual) != count
+                        || !samePositions(expected, actual, count)
+                        || kernel.indexOfLineBreak(record, from, length) != lineBreak
+                        || kernel.indexOfLineBreak(direct, from, length) != lineBreak) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static boolean samePositions(int[] expected, int[] actual, int count) {
+        for (int i = 0; i < count; i++) {
+            if (expected[i] != actual[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -20,6 +20,11 @@ public class FileUtils {
     
     private static final Logger log = LoggerFactory.getLogger(FileUtils.class);
     
+    /**
+     * Name of the in-progress area inside each input folder holding claimed files
+     */
+    public static final String IN_PROGRESS_FOLDER = ".inprogress";
+    
     /**
      * Get file name without extension
      */
@@ -90,13 +95,7 @@ public class FileUtils {
         try {
             createDirectoryIfNotExists(backupFolder);
             
-            String timestamp = new SimpleDateFormat("yyyyMMdd_HHmmss").format(new Date());
-            String backupFileName = String.format("%s_%s%s", 
-                getNameWithoutExtension(originalFile.getName()), 
-                timestamp,
-                getExtension(originalFile.getName()));
-            
-            File backupFile = new File(backupFolder, backupFileName);
+            File backupFile = getBackupFile(originalFile, backupFolder);
             Files.copy(originalFile.toPath(), backupFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
             
             log.info("Backed up file {} to: {}", originalFile.getName(), backupFile.getAbsolutePath());
@@ -108,6 +107,18 @@ public class FileUtils {
         }
     }
     
+    /**
+     * Backup location of a file: its name with the current timestamp appended, in the backup folder
+     */
+    public static File getBackupFile(File originalFile, String backupFolder) {
+        String timestamp = new SimpleDateFormat("yyyyMMdd_HHmmss").format(new Date());
+        String backupFileName = String.format("%s_%s%s", 
+            getNameWithoutExtension(originalFile.getName()), 
+            timestamp,
+            getExtension(originalFile.getName()));
+        return new File(backupFolder, backupFileName);
+    }
+    
     /**
      * Scan input folder for files (including subfolders)
      */
@@ -133,7 +144,7 @@ public class FileUtils {
             for (File file : fileArray) {
                 if (file.isFile()) {
                     files.add(file);
-                } else if (file.isDirectory()) {
+                } else if (file.isDirectory() && !IN_PROGRESS_FOLDER.equals(file.getName())) {
                     scanDirectoryRecursively(file, files);
                 }
             }
@@ -152,11 +163,22 @@ public class FileUtils {
             if (relativePath.startsWith(File.separator)) {
                 relativePath = relativePath.substring(1);
             }
+            // Claimed files keep their original relative path inside the in-progress area
+            if (relativePath.startsWith(IN_PROGRESS_FOLDER + File.separator)) {
+                relativePath = relativePath.substring(IN_PROGRESS_FOLDER.length() + 1);
+            }
             return relativePath;
         }
         return file.getName();
     }
     
+    /**
+     * Get the in-progress area of an input folder
+     */
+    public static File getInProgressFolder(String inputFolder) {
+        return new File(inputFolder, IN_PROGRESS_FOLDER);
+    }
+    
     /**
      * Create directory structure preserving subfolder hierarchy
      */
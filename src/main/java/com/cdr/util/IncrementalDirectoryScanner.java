@@ -0,0 +1,223 @@
+package com.cdr.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+/**
+ * Input folder scanner that keeps the listing of every directory between scans.
+ * A directory is only read again when its modification time changed (or was too recent to
+ * trust, given the file system's timestamp granularity); otherwise the cached listing is used
+ * and the only metadata call is one stat of the directory. Entries already known from the
+ * previous listing are not stat'ed again. Files are handed to the consumer as they are found.
+ * Every fullScanInterval scans, all directories are re-read from scratch as a safety net.
+ */
+public class IncrementalDirectoryScanner {
+
+    private static final Logger log = LoggerFactory.getLogger(IncrementalDirectoryScanner.class);
+
+    private final String name;
+    private final Path root;
+    private final int fullScanInterval;
+    private final long timestampGranularity;
+    private final Map<Path, DirectoryState> cache = new HashMap<>();
+    private long scanCount;
+
+    private final AtomicLong scans;
+    private final AtomicLong directoriesListed;
+    private final AtomicLong directoriesCached;
+    private final AtomicLong statCalls;
+    private final AtomicLong filesFound;
+    private final AtomicLong scanMillis;
+    private final AtomicLong lastScanMillis = new AtomicLong();
+
+    public IncrementalDirectoryScanner(String name, String rootFolder, int fullScanInterval, long timestampGranularity) {
+        this.name = name;
+        this.root = Paths.get(rootFolder).toAbsolutePath();
+        this.fullScanInterval = fullScanInterval;
+        this.timestampGranularity = timestampGranularity;
+
+        String prefix = "scan." + name + ".";
+        this.scans = MetricsRegistry.counter(prefix + "runs");
+        this.directoriesListed = MetricsRegistry.counter(prefix + "dirs.listed");
+        this.directoriesCached = MetricsRegistry.counter(prefix + "dirs.cached");
+        this.statCalls = MetricsRegistry.counter(prefix + "stat.calls");
+        this.filesFound = MetricsRegistry.counter(prefix + "files");
+        this.scanMillis = MetricsRegistry.counter(prefix + "ms");
+        MetricsRegistry.gauge(this, prefix + "last.ms", lastScanMillis::get);
+        MetricsRegistry.gauge(this, prefix + "cached.dirs", this::getCachedDirectoryCount);
+    }
+
+    /**
+     * Scan the tree, passing each regular file to the consumer. Scanning stops early when the consumer returns false.
+     *
+     * @return number of files passed to the consumer
+     */
+    public synchronized int scan(Predicate<File> consumer) {
+        long start = System.currentTimeMillis();
+        boolean fullScan = fullScanInterval <= 1 || scanCount++ % fullScanInterval == 0;
+        ScanStats stats = new ScanStats();
+        Set<Path> visited = new HashSet<>();
+        boolean completed = true;
+
+        Deque<Path> pending = new ArrayDeque<>();
+        pending.push(root);
+        scan:
+        while (!pending.isEmpty()) {
+            Path directory = pending.pop();
+            DirectoryState state = getState(directory, fullScan, stats);
+            if (state == null) {
+                continue;
+            }
+            visited.add(directory);
+
+            for (String fileName : state.files) {
+                stats.files++;
+                if (!consumer.test(directory.resolve(fileName).toFile())) {
+                    completed = false;
+                    break scan;
+                }
+            }
+            // Push in reverse so subdirectories are visited in name order
+            for (int i = state.directories.size() - 1; i >= 0; i--) {
+                pending.push(directory.resolve(state.directories.get(i)));
+            }
+        }
+
+        if (completed) {
+            // Forget directories that no longer exist
+            cache.keySet().retainAll(visited);
+        }
+
+        long elapsed = System.currentTimeMillis() - start;
+        scans.incrementAndGet();
+        directoriesListed.addAndGet(stats.listed);
+        directoriesCached.addAndGet(stats.cached);
+        statCalls.addAndGet(stats.statCalls);
+        filesFound.addAndGet(stats.files);
+        scanMillis.addAndGet(elapsed);
+        lastScanMillis.set(elapsed);
+        log.debug("{} scan{}: {} files, {} directories read, {} from cache, {} stat calls in {} ms",
+                name, fullScan ? " (full)" : "", stats.files, stats.listed, stats.cached, stats.statCalls, elapsed);
+        return stats.files;
+    }
+
+    /**
+     * Current listing of a directory, read again only when it may have changed
+     *
+     * @return null when the directory does not exist (any more)
+     */
+    private DirectoryState getState(Path directory, boolean fullScan, ScanStats stats) {
+        long modified;
+        try {
+            stats.statCalls++;
+            modified = Files.getLastModifiedTime(directory).toMillis();
+        } catch (IOException e) {
+            if (!(e instanceof NoSuchFileException)) {
+                log.warn("Failed to read directory attributes: {}", directory, e);
+            }
+            cache.remove(directory);
+            return null;
+        }
+
+        DirectoryState cached = cache.get(directory);
+        if (!fullScan && cached != null && cached.modified == modified && !cached.uncertain) {
+            stats.cached++;
+            return cached;
+        }
+
+        try {
+            DirectoryState state = list(directory, modified, fullScan ? null : cached, stats);
+            cache.put(directory, state);
+            stats.listed++;
+            return state;
+        } catch (IOException e) {
+            log.warn("Failed to list directory: {}", directory, e);
+            cache.remove(directory);
+            return null;
+        }
+    }
+
+    private DirectoryState list(Path directory, long modified, DirectoryState previous, ScanStats stats) throws IOException {
+        long listedAt = System.currentTimeMillis();
+        List<String> files = new ArrayList<>();
+        List<String> directories = new ArrayList<>();
+
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+            for (Path entry : entries) {
+                String entryName = entry.getFileName().toString();
+                if (previous != null && previous.files.contains(entryName)) {
+                    files.add(entryName);
+                    continue;
+                }
+                if (previous != null && previous.directories.contains(entryName)) {
+                    directories.add(entryName);
+                    continue;
+                }
+
+                BasicFileAttributes attributes;
+                try {
+                    stats.statCalls++;
+                    attributes = Files.readAttributes(entry, BasicFileAttributes.class);
+                } catch (NoSuchFileException e) {
+                    continue;
+                }
+                if (attributes.isRegularFile()) {
+                    files.add(entryName);
+                } else if (attributes.isDirectory() && !FileUtils.IN_PROGRESS_FOLDER.equals(entryName)) {
+                    directories.add(entryName);
+                }
+            }
+        }
+
+        Collections.sort(files);
+        Collections.sort(directories);
+        // A change within the timestamp granularity of the listing would not move the mtime, so list again next time
+        boolean uncertain = listedAt - modified < timestampGranularity;
+        return new DirectoryState(modified, uncertain, files, directories);
+    }
+
+    public synchronized int getCachedDirectoryCount() {
+        return cache.size();
+    }
+
+    private static class DirectoryState {
+        private final long modified;
+        private final boolean uncertain;
+        private final List<String> files;
+        private final List<String> directories;
+
+        DirectoryState(long modified, boolean uncertain, List<String> files, List<String> directories) {
+            this.modified = modified;
+            this.uncertain = uncertain;
+            this.files = files;
+            this.directories = directories;
+        }
+    }
+
+    private static class ScanStats {
+        private int listed;
+        private int cached;
+        private int statCalls;
+        private int files;
+    }
+}
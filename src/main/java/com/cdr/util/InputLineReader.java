@@ -0,0 +1,55 @@
+package com.cdr.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Line reader over a CDR input file that knows the file offset right after the last line it returned, so
+ * reading can stop after any line and later continue from that offset. Lines end at \n, \r or \r\n as with
+ * BufferedReader.readLine and are decoded with the platform charset as with FileReader.
+ */
+public interface InputLineReader extends Closeable {
+
+    /** Input read through a FileInputStream, as before */
+    String STREAM = "stream";
+    /** Input read in windows through FileChannel reads into a heap buffer */
+    String CHANNEL = "channel";
+    /** Input memory-mapped in windows through FileChannel.map */
+    String MMAP = "mmap";
+
+    /**
+     * @return the next line without its terminator, or null at end of file
+     */
+    String readLine() throws IOException;
+
+    /**
+     * File offset right after the last line returned; a reader opened at this offset continues with the next line
+     */
+    long getPosition();
+
+    /**
+     * Open a reader of the given type (cdr.input.reader). A file that cannot be memory-mapped is read through
+     * FileChannel reads instead.
+     *
+     * @param windowSize bytes mapped or buffered at a time by the mmap and channel readers
+     */
+    static InputLineReader open(File file, long startOffset, String type, int windowSize) throws IOException {
+        if (MMAP.equalsIgnoreCase(type)) {
+            try {
+                return new ChannelLineReader(file, startOffset, true, windowSize);
+            } catch (IOException e) {
+                Logger log = LoggerFactory.getLogger(InputLineReader.class);
+                log.warn("Cannot memory-map {}, reading it through the file channel: {}", file.getName(), e.getMessage());
+            }
+            return new ChannelLineReader(file, startOffset, false, windowSize);
+        }
+        if (CHANNEL.equalsIgnoreCase(type)) {
+            return new ChannelLineReader(file, startOffset, false, windowSize);
+        }
+        return new PositionedLineReader(file, startOffset);
+    }
+}
@@ -0,0 +1,118 @@
+package com.cdr.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Process-wide registry of named counters and gauges.
+ * Values are available through snapshot() and are periodically written to the log. Gauges of a component that
+ * does not live as long as the process, e.g. one built by a MasterController, are registered with that component
+ * as owner and unregistered with it, so a shut-down component's gauges are not left reading its stale state.
+ */
+public class MetricsRegistry {
+
+    private static final Logger log = LoggerFactory.getLogger(MetricsRegistry.class);
+    private static final ConcurrentMap<String, AtomicLong> counters = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, Gauge> gauges = new ConcurrentHashMap<>();
+    private static ScheduledExecutorService reporter;
+
+    private MetricsRegistry() {
+    }
+
+    /**
+     * Get or create a counter
+     */
+    public static AtomicLong counter(String name) {
+        return counters.computeIfAbsent(name, key -> new AtomicLong());
+    }
+
+    /**
+     * Register a process-wide gauge whose value is read on every snapshot
+     */
+    public static void gauge(String name, LongSupplier supplier) {
+        gauge(null, name, supplier);
+    }
+
+    /**
+     * Register a gauge of the given owner whose value is read on every snapshot, replacing any gauge of that name
+     */
+    public static void gauge(Object owner, String name, LongSupplier supplier) {
+        gauges.put(name, new Gauge(owner, supplier));
+    }
+
+    /**
+     * Remove the gauges of an owner, if any; a gauge another owner has registered under the same name since is kept
+     */
+    public static void unregister(Object owner) {
+        if (owner == null) {
+            return;
+        }
+        for (Map.Entry<String, Gauge> entry : gauges.entrySet()) {
+            if (entry.getValue().owner == owner) {
+                gauges.remove(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Current value of every counter and gauge, sorted by name
+     */
+    public static Map<String, Long> snapshot() {
+        Map<String, Long> values = new TreeMap<>();
+        for (Map.Entry<String, AtomicLong> entry : counters.entrySet()) {
+            values.put(entry.getKey(), entry.getValue().get());
+        }
+        for (Map.Entry<String, Gauge> entry : gauges.entrySet()) {
+            try {
+                values.put(entry.getKey(), entry.getValue().supplier.getAsLong());
+            } catch (Exception e) {
+                log.debug("Failed to read gauge {}", entry.getKey(), e);
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Start writing the metrics snapshot to the log at a fixed interval
+     */
+    public static synchronized void startReporting(long intervalMillis) {
+        if (reporter != null || intervalMillis <= 0) {
+            return;
+        }
+        reporter = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "MetricsReporter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reporter.scheduleWithFixedDelay(() -> log.info("Metrics: {}", snapshot()),
+                intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public static synchronized void stopReporting() {
+        if (reporter != null) {
+            reporter.shutdownNow();
+            reporter = null;
+        }
+    }
+
+    private static class Gauge {
+
+        private final Object owner;
+        private final LongSupplier supplier;
+
+        Gauge(Object owner, LongSupplier supplier) {
+            this.owner = owner;
+            this.supplier = supplier;
+        }
+    }
+}
@@ -0,0 +1,334 @@
+package com.cdr.util;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Splits a pipe-delimited .unl record into fields without creating them: the start and end offset of every
+ * field are recorded in a reusable array, and only the fields asked for are decoded, straight from the line,
+ * from its raw bytes or from the buffer of a ChannelLineReader. Field counting matches line.split("\\|"), which drops trailing empty fields, so
+ * records re-joined from their fields come out exactly as before. Delimiters are found by the scan kernel
+ * selected at startup (DelimiterScanners). Numeric fields are parsed in place, and dirty ones reported
+ * through an invalid value instead of an exception. A tokenizer is reused line after line and is not thread-safe;
+ * local() gives one per thread.
+ */
+public final class PipeTokenizer {
+
+    public static final char DELIMITER = '|';
+
+    /** Whole digits of the largest value parseFixed accepts, so every value fits a long at FixedPoint.SCALE */
+    public static final int MAX_FIXED_UNIT_DIGITS = 18 - FixedPoint.DIGITS;
+    /** Invalid value no valid field parses to with parseFixed; with parseLong only -9223372036854775808 does */
+    public static final long INVALID_NUMBER = Long.MIN_VALUE;
+
+    private static final ThreadLocal<PipeTokenizer> LOCAL = ThreadLocal.withInitial(PipeTokenizer::new);
+
+    private final Charset charset;
+    private final DelimiterScanner scanner;
+    // Start and end offset of field i at 2i and 2i + 1
+    private int[] bounds = new int[2 * 256];
+    private int count;
+    private String text;
+    private byte[] bytes;
+    private ByteBuffer buffer;
+    private byte[] decoded = new byte[256];
+    // Delimiter positions found by the kernel, and the low bytes of a String line for the kernel to scan
+    private int[] delimiters = new int[4096];
+    private byte[] lowBytes = new byte[4096];
+    private ByteBuffer lowBytesBuffer = wrap(lowBytes);
+
+    public PipeTokenizer() {
+        this(Charset.defaultCharset());
+    }
+
+    /**
+     * @param charset decoding of fields tokenized from bytes
+     */
+    public PipeTokenizer(Charset charset) {
+        this(charset, DelimiterScanners.current());
+    }
+
+    /**
+     * @param scanner kernel finding the delimiters
+     */
+    public PipeTokenizer(Charset charset, DelimiterScanner scanner) {
+        this.charset = charset;
+        this.scanner = scanner;
+    }
+
+    /**
+     * Tokenizer of the current thread
+     */
+    public static PipeTokenizer local() {
+        return LOCAL.get();
+    }
+
+    /**
+     * Record the fields of a line
+     *
+     * @return number of fields
+     */
+    @SuppressWarnings("deprecation")
+    public int tokenize(String line) {
+        text = line;
+        bytes = null;
+        buffer = null;
+        int length = line.length();
+        ensureCapacity(length);
+        // The kernel scans the low byte of every char; a char whose low byte is '|' is only a delimiter if it is '|'
+        line.getBytes(0, length, lowBytes, 0);
+        int found = scanner.findAll(lowBytesBuffer, 0, length, (byte) DELIMITER, delimiters);
+        int fields = 0;
+        int start = 0;
+        for (int k = 0; k < found; k++) {
+            int i = delimiters[k];
+            if (line.charAt(i) == DELIMITER) {
+                fields = add(fields, start, i);
+                start = i + 1;
+            }
+        }
+        return finish(fields, start, length);
+    }
+
+    /**
+     * Record the fields of a line held in buffer[from, to), without its line terminator
+     *
+     * @return number of fields
+     */
+    public int tokenize(byte[] buffer, int from, int to) {
+        text = null;
+        bytes = buffer;
+        this.buffer = null;
+        ensureCapacity(to - from);
+        return delimited(scanner.findAll(buffer, from, to, (byte) DELIMITER, delimiters), from, to);
+    }
+
+    /**
+     * Record the fields of a line held in buffer[from, to), without its line terminator, e.g. the current line
+     * of a ChannelLineReader. The buffer's position and limit are not used or changed.
+     *
+     * @return number of fields
+     */
+    public int tokenize(ByteBuffer buffer, int from, int to) {
+        text = null;
+        bytes = null;
+        this.buffer = buffer;
+        ensureCapacity(to - from);
+        return delimited(scanner.findAll(buffer, from, to, (byte) DELIMITER, delimiters), from, to);
+    }
+
+    /**
+     * Record the fields between the first found delimiters
+     */
+    private int delimited(int found, int from, int to) {
+        int fields = 0;
+        int start = from;
+        for (int k = 0; k < found; k++) {
+            int i = delimiters[k];
+            fields = add(fields, start, i);
+            start = i + 1;
+        }
+        return finish(fields, start, to);
+    }
+
+    private void ensureCapacity(int length) {
+        if (length > delimiters.length) {
+            int capacity = Math.max(delimiters.length * 2, length);
+            delimiters = new int[capacity];
+            lowBytes = new byte[capacity];
+            lowBytesBuffer = wrap(lowBytes);
+        }
+    }
+
+    private static ByteBuffer wrap(byte[] array) {
+        return ByteBuffer.wrap(array).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private int add(int fields, int start, int end) {
+        if (2 * fields + 2 > bounds.length) {
+            bounds = Arrays.copyOf(bounds, bounds.length * 2);
+        }
+        bounds[2 * fields] = start;
+        bounds[2 * fields + 1] = end;
+        return fields + 1;
+    }
+
+    private int finish(int fields, int start, int end) {
+        boolean delimited = fields > 0;
+        fields = add(fields, start, end);
+        if (delimited) {
+            // As String.split: trailing empty fields are dropped
+            while (fields > 0 && bounds[2 * fields - 1] == bounds[2 * fields - 2]) {
+                fields--;
+            }
+        }
+        count = fields;
+        return fields;
+    }
+
+    public int count() {
+        return count;
+    }
+
+    public int start(int field) {
+        check(field);
+        return bounds[2 * field];
+    }
+
+    public int end(int field) {
+        check(field);
+        return bounds[2 * field + 1];
+    }
+
+    public int length(int field) {
+        return end(field) - start(field);
+    }
+
+    public String field(int field) {
+        int start = start(field);
+        int end = bounds[2 * field + 1];
+        if (text != null) {
+            return text.substring(start, end);
+        }
+        if (bytes != null) {
+            return new String(bytes, start, end - start, charset);
+        }
+        int length = end - start;
+        if (length > decoded.length) {
+            decoded = new byte[Math.max(decoded.length * 2, length)];
+        }
+        for (int i = 0; i < length; i++) {
+            decoded[i] = buffer.get(start + i);
+        }
+        return new String(decoded, 0, length, charset);
+    }
+
+    /**
+     * Whether a field holds exactly the given ASCII value, compared without decoding it
+     */
+    public boolean fieldEquals(int field, String value) {
+        int start = start(field);
+        int length = bounds[2 * field + 1] - start;
+        if (length != value.length()) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (charAt(start + i) != value.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Field as a long, or the given invalid value when it is not an optionally signed decimal integer in the long
+     * range. Accepts what Long.parseLong accepts, without throwing.
+     */
+    public long parseLong(int field, long invalid) {
+        int start = start(field);
+        int end = bounds[2 * field + 1];
+        boolean negative = false;
+        int i = start;
+        if (i < end && (charAt(i) == '-' || charAt(i) == '+')) {
+            negative = charAt(i) == '-';
+            i++;
+        }
+        if (i == end) {
+            return invalid;
+        }
+        // Accumulated negatively, as Long.parseLong does, so Long.MIN_VALUE parses too
+        long limit = negative ? Long.MIN_VALUE : -Long.MAX_VALUE;
+        long value = 0;
+        for (; i < end; i++) {
+            int digit = charAt(i) - '0';
+            if (digit < 0 || digit > 9 || value < limit / 10) {
+                return invalid;
+            }
+            value *= 10;
+            if (value < limit + digit) {
+                return invalid;
+            }
+            value -= digit;
+        }
+        return negative ? value : -value;
+    }
+
+    /**
+     * Field as a FixedPoint value, or the given invalid value when it is not a plain decimal number such as
+     * 12, -0.5 or 3.25, optionally surrounded by whitespace as Double.parseDouble allows. Digits beyond
+     * FixedPoint.DIGITS are rounded half away from zero; exponents, NaN, Infinity and more than
+     * MAX_FIXED_UNIT_DIGITS whole digits are invalid. Never returns INVALID_NUMBER for a valid field.
+     */
+    public long parseFixed(int field, long invalid) {
+        int start = start(field);
+        int end = bounds[2 * field + 1];
+        while (start < end && charAt(start) <= ' ') {
+            start++;
+        }
+        while (end > start && charAt(end - 1) <= ' ') {
+            end--;
+        }
+        boolean negative = false;
+        int i = start;
+        if (i < end && (charAt(i) == '-' || charAt(i) == '+')) {
+            negative = charAt(i) == '-';
+            i++;
+        }
+        long units = 0;
+        int unitDigits = 0;
+        int digits = 0;
+        for (; i < end; i++) {
+            int digit = charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                break;
+            }
+            if (units != 0 || digit != 0) {
+                unitDigits++;
+            }
+            units = units * 10 + digit;
+            digits++;
+        }
+        long fraction = 0;
+        int fractionDigits = 0;
+        boolean roundUp = false;
+        if (i < end && charAt(i) == '.') {
+            for (i++; i < end; i++) {
+                int digit = charAt(i) - '0';
+                if (digit < 0 || digit > 9) {
+                    break;
+                }
+                if (fractionDigits < FixedPoint.DIGITS) {
+                    fraction = fraction * 10 + digit;
+                    fractionDigits++;
+                } else if (fractionDigits == FixedPoint.DIGITS) {
+                    roundUp = digit >= 5;
+                    fractionDigits++;
+                }
+                digits++;
+            }
+        }
+        if (i != end || digits == 0 || unitDigits > MAX_FIXED_UNIT_DIGITS) {
+            return invalid;
+        }
+        for (int k = Math.min(fractionDigits, FixedPoint.DIGITS); k < FixedPoint.DIGITS; k++) {
+            fraction *= 10;
+        }
+        long value = units * FixedPoint.SCALE + fraction + (roundUp ? 1 : 0);
+        return negative ? -value : value;
+    }
+
+    private char charAt(int index) {
+        if (text != null) {
+            return text.charAt(index);
+        }
+        return (char) ((bytes != null ? bytes[index] : buffer.get(index)) & 0xff);
+    }
+
+    private void check(int field) {
+        if (field < 0 || field >= count) {
+            throw new IndexOutOfBoundsException("Field " + field + " of a record with " + count + " fields");
+        }
+    }
+}
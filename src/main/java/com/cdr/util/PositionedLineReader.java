@@ -0,0 +1,109 @@
+package com.cdr.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+/**
+ * Line reader over a FileInputStream that knows the file offset right after the last line it returned, so
+ * reading can stop after any line and later continue from that offset. Lines end at \n, \r or \r\n as with
+ * BufferedReader.readLine and are decoded with the platform charset as with FileReader.
+ */
+public class PositionedLineReader implements InputLineReader {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final InputStream in;
+    private final Charset charset = Charset.defaultCharset();
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int position;
+    private int limit;
+    private long offset;
+    private byte[] line = new byte[1024];
+    private int lineLength;
+    private boolean skipLineFeed;
+
+    public PositionedLineReader(File file) throws IOException {
+        this(file, 0);
+    }
+
+    public PositionedLineReader(File file, long startOffset) throws IOException {
+        FileInputStream stream = new FileInputStream(file);
+        try {
+            stream.getChannel().position(startOffset);
+        } catch (IOException e) {
+            stream.close();
+            throw e;
+        }
+        this.in = BandwidthGovernor.throttle(stream, BandwidthGovernor.Traffic.READ);
+        this.offset = startOffset;
+    }
+
+    @Override
+    public String readLine() throws IOException {
+        lineLength = 0;
+        while (true) {
+            if (position >= limit && !fill()) {
+                return lineLength > 0 ? new String(line, 0, lineLength, charset) : null;
+            }
+            if (skipLineFeed) {
+                // Second half of a \r\n terminator
+                skipLineFeed = false;
+                if (buffer[position] == '\n') {
+                    position++;
+                    offset++;
+                    continue;
+                }
+            }
+
+            int start = position;
+            while (position < limit) {
+                byte b = buffer[position];
+                if (b == '\n' || b == '\r') {
+                    int length = position - start;
+                    position++;
+                    offset += length + 1;
+                    skipLineFeed = b == '\r';
+                    if (lineLength == 0) {
+                        return new String(buffer, start, length, charset);
+                    }
+                    append(start, length);
+                    return new String(line, 0, lineLength, charset);
+                }
+                position++;
+            }
+            // Line continues in the next buffer
+            append(start, position - start);
+            offset += position - start;
+        }
+    }
+
+    @Override
+    public long getPosition() {
+        return offset;
+    }
+
+    private boolean fill() throws IOException {
+        int read = in.read(buffer, 0, buffer.length);
+        position = 0;
+        limit = Math.max(0, read);
+        return read > 0;
+    }
+
+    private void append(int start, int length) {
+        if (lineLength + length > line.length) {
+            byte[] grown = new byte[Math.max(line.length * 2, lineLength + length)];
+            System.arraycopy(line, 0, grown, 0, lineLength);
+            line = grown;
+        }
+        System.arraycopy(buffer, start, line, lineLength, length);
+        lineLength += length;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
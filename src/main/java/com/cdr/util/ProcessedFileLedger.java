@@ -0,0 +1,563 @@
+package com.cdr.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Durable ledger of processed input files.
+ * A file is claimed by an atomic rename into the in-progress area of its input folder and
+ * every state change is appended to a local ledger file, so a file is processed exactly once
+ * and later scans skip it. On startup the in-memory index is rebuilt from the ledger.
+ * A claim handed over to another node, which finishes the file from its own ledger, is closed as released.
+ * Finished (done, failed or released) files are forgotten after the retention time, and the ledger file is
+ * compacted once it holds twice as many lines as there are files left, so neither grows without bound.
+ * Paths are percent-encoded where they hold the field separator, a line break or '%'. A last line torn by a
+ * crash is cut off, and a ledger with lines that cannot be replayed is compacted, before anything is appended.
+ */
+public class ProcessedFileLedger {
+
+    private static final Logger log = LoggerFactory.getLogger(ProcessedFileLedger.class);
+    private static final String SEPARATOR = "|";
+    private static final String SEPARATOR_REGEX = "\\|";
+
+    public static final String STATE_CLAIMED = "CLAIMED";
+    public static final String STATE_DONE = "DONE";
+    public static final String STATE_FAILED = "FAILED";
+    public static final String STATE_RELEASED = "RELEASED";
+
+    // Lines a ledger may hold beyond twice its live entries before it is compacted
+    private static final int COMPACT_SLACK = 1000;
+
+    private final File ledgerFile;
+    private final boolean hashEnabled;
+    private final boolean syncEnabled;
+    private final long retentionMillis;
+
+    // Latest entry per original file path
+    private final Map<String, LedgerEntry> entriesByPath = new HashMap<>();
+    // Active claims by claimed (in-progress) file path
+    private final Map<String, LedgerEntry> claimsByClaimedPath = new HashMap<>();
+    // Done and failed entries in the order they finished, for eviction after the retention time
+    private final Deque<LedgerEntry> finishedEntries = new ArrayDeque<>();
+    // Lines in the ledger file
+    private long ledgerLines;
+    private boolean replaying;
+    private FileOutputStream ledgerStream;
+    private PrintWriter ledgerWriter;
+
+    /**
+     * @param retentionMillis how long finished files are remembered, 0 for ever
+     */
+    public ProcessedFileLedger(String ledgerFile, boolean hashEnabled, boolean syncEnabled, long retentionMillis) {
+        this.ledgerFile = new File(ledgerFile);
+        this.hashEnabled = hashEnabled;
+        this.syncEnabled = syncEnabled;
+        this.retentionMillis = retentionMillis;
+    }
+
+    /**
+     * Rebuild the in-memory index from the ledger file, compact it and open it for appending
+     */
+    public synchronized void open() throws IOException {
+        File parent = ledgerFile.getAbsoluteFile().getParentFile();
+        if (parent != null) {
+            FileUtils.createDirectoryIfNotExists(parent.getAbsolutePath());
+        }
+
+        long start = System.currentTimeMillis();
+        int lines = 0;
+        // A line that cannot be replayed is dropped by compacting before anything is appended after it
+        boolean damaged = false;
+        replaying = true;
+        if (ledgerFile.exists()) {
+            damaged = truncateTornTail();
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    new FileInputStream(ledgerFile), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    LedgerEntry entry = LedgerEntry.parse(line);
+                    if (entry == null) {
+                        log.warn("Ignoring malformed ledger line: {}", line);
+                        damaged = true;
+                        continue;
+                    }
+                    lines++;
+                    apply(entry);
+                }
+            }
+        }
+
+        replaying = false;
+        ledgerLines = lines;
+        // Replayed in file order, which compaction does not keep chronological
+        List<LedgerEntry> finished = new ArrayList<>();
+        for (LedgerEntry entry : entriesByPath.values()) {
+            if (!STATE_CLAIMED.equals(entry.state)) {
+                finished.add(entry);
+            }
+        }
+        finished.sort(Comparator.comparingLong(entry -> entry.timestamp));
+        finishedEntries.addAll(finished);
+        int evicted = evictExpired(System.currentTimeMillis());
+
+        if (damaged || lines > entriesByPath.size()) {
+            compact();
+        }
+        openWriter();
+
+        log.info("Ledger {} loaded: {} files indexed, {} open claims, {} expired, in {} ms",
+                ledgerFile.getAbsolutePath(), entriesByPath.size(), claimsByClaimedPath.size(), evicted,
+                System.currentTimeMillis() - start);
+    }
+
+    /**
+     * Cut off a last line left unterminated by a crash, which the next append would otherwise run into
+     *
+     * @return whether the ledger had a torn last line
+     */
+    private boolean truncateTornTail() throws IOException {
+        try (FileChannel channel = FileChannel.open(ledgerFile.toPath(), StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            long end = channel.size();
+            ByteBuffer buffer = ByteBuffer.allocate(8192);
+            long position = end;
+            while (position > 0) {
+                int length = (int) Math.min(buffer.capacity(), position);
+                position -= length;
+                buffer.clear().limit(length);
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer, position + buffer.position()) < 0) {
+                        break;
+                    }
+                }
+                for (int i = length - 1; i >= 0; i--) {
+                    if (buffer.get(i) == '\n') {
+                        return truncate(channel, position + i + 1, end);
+                    }
+                }
+            }
+            return truncate(channel, 0, end);
+        }
+    }
+
+    private boolean truncate(FileChannel channel, long size, long end) throws IOException {
+        if (size == end) {
+            return false;
+        }
+        log.warn("Dropping torn last ledger line of {} bytes", end - size);
+        channel.truncate(size);
+        channel.force(true);
+        return true;
+    }
+
+    private void openWriter() throws IOException {
+        ledgerStream = new FileOutputStream(ledgerFile, true);
+        ledgerWriter = new PrintWriter(new OutputStreamWriter(ledgerStream, StandardCharsets.UTF_8));
+    }
+
+    private void apply(LedgerEntry entry) {
+        LedgerEntry previous = entriesByPath.put(entry.originalPath, entry);
+        if (previous != null && previous.claimedPath != null) {
+            claimsByClaimedPath.remove(previous.claimedPath);
+        }
+        if (STATE_CLAIMED.equals(entry.state)) {
+            claimsByClaimedPath.put(entry.claimedPath, entry);
+        } else if (!replaying) {
+            // Entries replayed by open() are queued there in finishing order
+            finishedEntries.addLast(entry);
+        }
+    }
+
+    /**
+     * Forget finished files older than the retention time
+     *
+     * @return number of files forgotten
+     */
+    private int evictExpired(long now) {
+        if (retentionMillis <= 0) {
+            return 0;
+        }
+        int evicted = 0;
+        LedgerEntry oldest;
+        while ((oldest = finishedEntries.peekFirst()) != null && oldest.timestamp < now - retentionMillis) {
+            finishedEntries.removeFirst();
+            // Unless the file was claimed again since
+            if (entriesByPath.get(oldest.originalPath) == oldest) {
+                entriesByPath.remove(oldest.originalPath);
+                evicted++;
+            }
+        }
+        return evicted;
+    }
+
+    /**
+     * Evict expired files and compact the ledger once it has grown to twice its live entries
+     */
+    private void maintain() {
+        evictExpired(System.currentTimeMillis());
+        if (ledgerLines <= 2L * entriesByPath.size() + COMPACT_SLACK) {
+            return;
+        }
+        try {
+            ledgerWriter.close();
+            compact();
+        } catch (IOException e) {
+            log.error("Failed to compact ledger {}", ledgerFile.getAbsolutePath(), e);
+        }
+        try {
+            openWriter();
+        } catch (IOException e) {
+            // Appends fail and are reported until the ledger can be opened again
+            log.error("Failed to reopen ledger {}", ledgerFile.getAbsolutePath(), e);
+        }
+    }
+
+    /**
+     * Rewrite the ledger with only the latest entry per file
+     */
+    private void compact() throws IOException {
+        File tempFile = new File(ledgerFile.getAbsolutePath() + ".compact");
+        try (FileOutputStream out = new FileOutputStream(tempFile);
+             PrintWriter writer = new PrintWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8))) {
+            for (LedgerEntry entry : entriesByPath.values()) {
+                writer.println(entry.format());
+            }
+            writer.flush();
+            out.getFD().sync();
+        }
+        moveAtomically(tempFile, ledgerFile);
+        ledgerLines = entriesByPath.size();
+        log.info("Compacted ledger to {} entries", entriesByPath.size());
+    }
+
+    /**
+     * Check whether a file with the same identity has already been processed successfully
+     */
+    public boolean isProcessed(File file) {
+        LedgerEntry entry;
+        synchronized (this) {
+            entry = entriesByPath.get(file.getAbsolutePath());
+        }
+        // Hashed outside the lock, so a large file does not hold up every other claim
+        return isProcessed(entry, file, needsHash(entry, file) ? computeHash(file) : 0);
+    }
+
+    private boolean needsHash(LedgerEntry entry, File file) {
+        return hashEnabled && entry != null && STATE_DONE.equals(entry.state) && entry.size == file.length()
+                && entry.lastModified != file.lastModified();
+    }
+
+    private boolean isProcessed(LedgerEntry entry, File file, long hash) {
+        if (entry == null || !STATE_DONE.equals(entry.state) || entry.size != file.length()) {
+            return false;
+        }
+        if (entry.lastModified == file.lastModified()) {
+            return true;
+        }
+        // Same path and size but touched: compare content when hashing is enabled
+        return hashEnabled && entry.hash != 0 && entry.hash == hash;
+    }
+
+    /**
+     * Claim a file by atomically moving it into the in-progress area of its input folder.
+     * The content hash is computed before taking the ledger lock.
+     *
+     * @return the claimed file, or null when the file was already processed or could not be claimed
+     */
+    public File claim(String type, File file, String inputFolder) {
+        long hash = hashEnabled ? computeHash(file) : 0;
+        synchronized (this) {
+            if (isProcessed(entriesByPath.get(file.getAbsolutePath()), file, hash)) {
+                log.debug("Skipping already processed file: {}", file.getAbsolutePath());
+                return null;
+            }
+
+            String relativePath = FileUtils.getRelativePath(file, inputFolder);
+            File claimedFile = new File(FileUtils.getInProgressFolder(inputFolder), relativePath);
+            FileUtils.createDirectoryIfNotExists(claimedFile.getParentFile().getAbsolutePath());
+
+            LedgerEntry entry = new LedgerEntry();
+            entry.state = STATE_CLAIMED;
+            entry.timestamp = System.currentTimeMillis();
+            entry.type = type;
+            entry.originalPath = file.getAbsolutePath();
+            entry.claimedPath = claimedFile.getAbsolutePath();
+            entry.size = file.length();
+            entry.lastModified = file.lastModified();
+            entry.hash = hash;
+
+            try {
+                // Record the claim before the rename so a crash in between leaves the file in the input folder
+                append(entry);
+                moveAtomically(file, claimedFile);
+            } catch (IOException e) {
+                log.warn("Failed to claim file {}: {}", file.getAbsolutePath(), e.getMessage());
+                return null;
+            }
+
+            apply(entry);
+            return claimedFile;
+        }
+    }
+
+    /**
+     * Take over the claim of a file another node moved into the in-progress area and left unfinished
+     *
+     * @param originalFile where the file was before it was claimed
+     * @return false when the claim could not be recorded
+     */
+    public boolean adopt(String type, File originalFile, File claimedFile) {
+        long hash = hashEnabled ? computeHash(claimedFile) : 0;
+        synchronized (this) {
+            LedgerEntry entry = new LedgerEntry();
+            entry.state = STATE_CLAIMED;
+            entry.timestamp = System.currentTimeMillis();
+            entry.type = type;
+            entry.originalPath = originalFile.getAbsolutePath();
+            entry.claimedPath = claimedFile.getAbsolutePath();
+            entry.size = claimedFile.length();
+            entry.lastModified = claimedFile.lastModified();
+            entry.hash = hash;
+            try {
+                append(entry);
+            } catch (IOException e) {
+                log.warn("Failed to adopt claim of {}: {}", claimedFile.getAbsolutePath(), e.getMessage());
+                return false;
+            }
+            apply(entry);
+            return true;
+        }
+    }
+
+    public synchronized void markDone(File claimedFile) {
+        updateClaim(claimedFile, STATE_DONE);
+    }
+
+    public synchronized void markFailed(File claimedFile) {
+        updateClaim(claimedFile, STATE_FAILED);
+    }
+
+    /**
+     * Close the claim of a file left in the in-progress area for another node to finish
+     */
+    public synchronized void markReleased(File claimedFile) {
+        updateClaim(claimedFile, STATE_RELEASED);
+    }
+
+    private void updateClaim(File claimedFile, String state) {
+        LedgerEntry claim = claimsByClaimedPath.get(claimedFile.getAbsolutePath());
+        if (claim == null) {
+            log.warn("No open claim found for file: {}", claimedFile.getAbsolutePath());
+            return;
+        }
+
+        LedgerEntry entry = claim.copy();
+        entry.state = state;
+        entry.timestamp = System.currentTimeMillis();
+        try {
+            append(entry);
+        } catch (IOException e) {
+            log.error("Failed to write ledger entry for file: {}", claimedFile.getAbsolutePath(), e);
+        }
+        apply(entry);
+        maintain();
+    }
+
+    public synchronized boolean hasOpenClaim(File claimedFile) {
+        return claimsByClaimedPath.containsKey(claimedFile.getAbsolutePath());
+    }
+
+    /**
+     * Claims left open by a previous run whose in-progress file still exists
+     */
+    public synchronized List<ClaimedFile> getOpenClaims() {
+        List<ClaimedFile> claims = new ArrayList<>();
+        for (LedgerEntry entry : claimsByClaimedPath.values()) {
+            File claimedFile = new File(entry.claimedPath);
+            if (claimedFile.isFile()) {
+                claims.add(new ClaimedFile(entry.type, claimedFile));
+            }
+        }
+        return claims;
+    }
+
+    private void append(LedgerEntry entry) throws IOException {
+        ledgerWriter.println(entry.format());
+        ledgerWriter.flush();
+        ledgerLines++;
+        if (ledgerWriter.checkError()) {
+            throw new IOException("Failed to append to ledger: " + ledgerFile.getAbsolutePath());
+        }
+        if (syncEnabled) {
+            ledgerStream.getFD().sync();
+        }
+    }
+
+    private long computeHash(File file) {
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream in = new FileInputStream(file)) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                crc.update(buffer, 0, read);
+            }
+        } catch (IOException e) {
+            log.warn("Failed to compute content hash for file: {}", file.getAbsolutePath(), e);
+            return 0;
+        }
+        return crc.getValue();
+    }
+
+    private static void moveAtomically(File source, File target) throws IOException {
+        try {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    public synchronized void close() {
+        if (ledgerWriter != null) {
+            ledgerWriter.close();
+            ledgerWriter = null;
+        }
+    }
+
+    /**
+     * File claimed by a previous run, together with its CDR type name
+     */
+    public static class ClaimedFile {
+        private final String type;
+        private final File file;
+
+        public ClaimedFile(String type, File file) {
+            this.type = type;
+            this.file = file;
+        }
+
+        public String getType() {
+            return type;
+        }
+
+        public File getFile() {
+            return file;
+        }
+    }
+
+    private static class LedgerEntry {
+        private String state;
+        private long timestamp;
+        private String type;
+        private String originalPath;
+        private String claimedPath;
+        private long size;
+        private long lastModified;
+        private long hash;
+
+        private LedgerEntry copy() {
+            LedgerEntry entry = new LedgerEntry();
+            entry.state = state;
+            entry.timestamp = timestamp;
+            entry.type = type;
+            entry.originalPath = originalPath;
+            entry.claimedPath = claimedPath;
+            entry.size = size;
+            entry.lastModified = lastModified;
+            entry.hash = hash;
+            return entry;
+        }
+
+        private String format() {
+            return state + SEPARATOR + timestamp + SEPARATOR + type + SEPARATOR + escape(originalPath) + SEPARATOR
+                    + escape(claimedPath) + SEPARATOR + size + SEPARATOR + lastModified + SEPARATOR + hash;
+        }
+
+        /**
+         * Percent-encode the characters a path may hold that would split its field or line
+         */
+        private static String escape(String path) {
+            StringBuilder escaped = null;
+            for (int i = 0; i < path.length(); i++) {
+                char c = path.charAt(i);
+                String code = c == '%' ? "%25" : c == '|' ? "%7C" : c == '\n' ? "%0A" : c == '\r' ? "%0D" : null;
+                if (code != null && escaped == null) {
+                    escaped = new StringBuilder(path.length() + 8).append(path, 0, i);
+                }
+                if (escaped != null) {
+                    if (code != null) {
+                        escaped.append(code);
+                    } else {
+                        escaped.append(c);
+                    }
+                }
+            }
+            return escaped != null ? escaped.toString() : path;
+        }
+
+        private static String unescape(String field) {
+            if (field.indexOf('%') < 0) {
+                return field;
+            }
+            StringBuilder path = new StringBuilder(field.length());
+            for (int i = 0; i < field.length(); i++) {
+                char c = field.charAt(i);
+                String code = c == '%' && i + 3 <= field.length() ? field.substring(i, i + 3) : "";
+                char decoded = "%25".equals(code) ? '%' : "%7C".equals(code) ? '|'
+                        : "%0A".equals(code) ? '\n' : "%0D".equals(code) ? '\r' : 0;
+                if (decoded != 0) {
+                    path.append(decoded);
+                    i += 2;
+                } else {
+                    path.append(c);
+                }
+            }
+            return path.toString();
+        }
+
+        private static LedgerEntry parse(String line) {
+            String[] fields = line.split(SEPARATOR_REGEX);
+            if (fields.length != 8) {
+                return null;
+            }
+            try {
+                LedgerEntry entry = new LedgerEntry();
+                entry.state = fields[0];
+                entry.timestamp = Long.parseLong(fields[1]);
+                entry.type = fields[2];
+                entry.originalPath = unescape(fields[3]);
+                entry.claimedPath = unescape(fields[4]);
+                entry.size = Long.parseLong(fields[5]);
+                entry.lastModified = Long.parseLong(fields[6]);
+                entry.hash = Long.parseLong(fields[7]);
+                return entry;
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+    }
+}
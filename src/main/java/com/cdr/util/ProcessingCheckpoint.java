@@ -0,0 +1,214 @@
+package com.cdr.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Progress of a CDR file after its last committed block: how far the input was read, how much
+ * output and report had been written by then, and the reporter's running totals at that point.
+ * Saved as a small properties file replaced by an atomic rename, so it is never torn.
+ */
+public class ProcessingCheckpoint {
+
+    private static final String REPORT_TOTAL_PREFIX = "report.total.";
+
+    private long inputOffset;
+    private long inputLength;
+    private long inputModified;
+    private String configVersion;
+    private int blocks;
+    private long outputLines;
+    private long outputBytes;
+    private String outputFile;
+    private String reportFile;
+    private long reportBytes;
+    private Map<String, Long> reportTotals = new LinkedHashMap<>();
+
+    /**
+     * @return the checkpoint stored in the file, or null when there is none or it is unreadable
+     */
+    public static ProcessingCheckpoint load(File file) {
+        if (!file.exists()) {
+            return null;
+        }
+        Properties props = new Properties();
+        try (InputStream in = new FileInputStream(file)) {
+            props.load(in);
+            ProcessingCheckpoint checkpoint = new ProcessingCheckpoint();
+            checkpoint.inputOffset = Long.parseLong(props.getProperty("input.offset"));
+            checkpoint.inputLength = Long.parseLong(props.getProperty("input.length"));
+            checkpoint.inputModified = Long.parseLong(props.getProperty("input.modified"));
+            checkpoint.configVersion = props.getProperty("config.version", "");
+            checkpoint.blocks = Integer.parseInt(props.getProperty("blocks"));
+            checkpoint.outputLines = Long.parseLong(props.getProperty("output.lines"));
+            checkpoint.outputBytes = Long.parseLong(props.getProperty("output.bytes"));
+            checkpoint.outputFile = props.getProperty("output.file");
+            checkpoint.reportFile = props.getProperty("report.file");
+            checkpoint.reportBytes = Long.parseLong(props.getProperty("report.bytes"));
+            for (String name : props.stringPropertyNames()) {
+                if (name.startsWith(REPORT_TOTAL_PREFIX)) {
+                    checkpoint.reportTotals.put(name.substring(REPORT_TOTAL_PREFIX.length()),
+                            Long.parseLong(props.getProperty(name)));
+                }
+            }
+            return checkpoint.outputFile != null ? checkpoint : null;
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Write the checkpoint next to its final location and rename it in place
+     */
+    public void save(File file, boolean sync) throws IOException {
+        StringBuilder content = new StringBuilder();
+        content.append("input.offset=").append(inputOffset).append('\n');
+        content.append("input.length=").append(inputLength).append('\n');
+        content.append("input.modified=").append(inputModified).append('\n');
+        content.append("config.version=").append(configVersion).append('\n');
+        content.append("blocks=").append(blocks).append('\n');
+        content.append("output.lines=").append(outputLines).append('\n');
+        content.append("output.bytes=").append(outputBytes).append('\n');
+        content.append("output.file=").append(escape(outputFile)).append('\n');
+        if (reportFile != null) {
+            content.append("report.file=").append(escape(reportFile)).append('\n');
+        }
+        content.append("report.bytes=").append(reportBytes).append('\n');
+        for (Map.Entry<String, Long> total : reportTotals.entrySet()) {
+            content.append(REPORT_TOTAL_PREFIX).append(total.getKey()).append('=').append(total.getValue()).append('\n');
+        }
+
+        File tempFile = new File(file.getAbsolutePath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tempFile);
+             Writer writer = new OutputStreamWriter(out, StandardCharsets.ISO_8859_1)) {
+            writer.write(content.toString());
+            writer.flush();
+            if (sync) {
+                out.getFD().sync();
+            }
+        }
+        Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Properties escaping for a path: backslashes and characters outside ISO-8859-1
+     */
+    private static String escape(String value) {
+        StringBuilder escaped = new StringBuilder();
+        for (char c : value.toCharArray()) {
+            if (c == '\\') {
+                escaped.append("\\\\");
+            } else if (c > 0xff) {
+                escaped.append(String.format("\\u%04x", (int) c));
+            } else {
+                escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+
+    public long getInputOffset() {
+        return inputOffset;
+    }
+
+    public void setInputOffset(long inputOffset) {
+        this.inputOffset = inputOffset;
+    }
+
+    public long getInputLength() {
+        return inputLength;
+    }
+
+    public void setInputLength(long inputLength) {
+        this.inputLength = inputLength;
+    }
+
+    public long getInputModified() {
+        return inputModified;
+    }
+
+    public void setInputModified(long inputModified) {
+        this.inputModified = inputModified;
+    }
+
+    public String getConfigVersion() {
+        return configVersion;
+    }
+
+    public void setConfigVersion(String configVersion) {
+        this.configVersion = configVersion;
+    }
+
+    public int getBlocks() {
+        return blocks;
+    }
+
+    public void setBlocks(int blocks) {
+        this.blocks = blocks;
+    }
+
+    public long getOutputLines() {
+        return outputLines;
+    }
+
+    public void setOutputLines(long outputLines) {
+        this.outputLines = outputLines;
+    }
+
+    public long getOutputBytes() {
+        return outputBytes;
+    }
+
+    public void setOutputBytes(long outputBytes) {
+        this.outputBytes = outputBytes;
+    }
+
+    /**
+     * Output file the lines were written to, a staging file of the fencing token in use when fenced
+     */
+    public String getOutputFile() {
+        return outputFile;
+    }
+
+    public void setOutputFile(String outputFile) {
+        this.outputFile = outputFile;
+    }
+
+    /**
+     * Report file the records were written to, a staging file when commits are journaled or fenced
+     */
+    public String getReportFile() {
+        return reportFile;
+    }
+
+    public void setReportFile(String reportFile) {
+        this.reportFile = reportFile;
+    }
+
+    public long getReportBytes() {
+        return reportBytes;
+    }
+
+    public void setReportBytes(long reportBytes) {
+        this.reportBytes = reportBytes;
+    }
+
+    public Map<String, Long> getReportTotals() {
+        return reportTotals;
+    }
+
+    public void setReportTotals(Map<String, Long> reportTotals) {
+        this.reportTotals = new LinkedHashMap<>(reportTotals);
+    }
+}
@@ -0,0 +1,60 @@
+package com.cdr.util;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Reference kernel testing one byte at a time
+ */
+public final class ScalarDelimiterScanner implements DelimiterScanner {
+
+    public static final String NAME = "scalar";
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public int findAll(byte[] buffer, int from, int to, byte value, int[] positions) {
+        int found = 0;
+        for (int i = from; i < to; i++) {
+            if (buffer[i] == value) {
+                positions[found++] = i;
+            }
+        }
+        return found;
+    }
+
+    @Override
+    public int findAll(ByteBuffer buffer, int from, int to, byte value, int[] positions) {
+        int found = 0;
+        for (int i = from; i < to; i++) {
+            if (buffer.get(i) == value) {
+                positions[found++] = i;
+            }
+        }
+        return found;
+    }
+
+    @Override
+    public int indexOfLineBreak(byte[] buffer, int from, int to) {
+        for (int i = from; i < to; i++) {
+            byte b = buffer[i];
+            if (b == '\n' || b == '\r') {
+                return i;
+            }
+        }
+        return to;
+    }
+
+    @Override
+    public int indexOfLineBreak(ByteBuffer buffer, int from, int to) {
+        for (int i = from; i < to; i++) {
+            byte b = buffer.get(i);
+            if (b == '\n' || b == '\r') {
+                return i;
+            }
+        }
+        return to;
+    }
+}
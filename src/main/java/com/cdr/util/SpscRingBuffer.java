@@ -0,0 +1,95 @@
+package com.cdr.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Bounded single-producer/single-consumer ring buffer.
+ * put() blocks while the buffer is full and take() while it is empty, spinning briefly
+ * before parking. Both give up with a {@link AbortedException} once the abort condition is set.
+ *
+ * @param <E> element type
+ */
+public class SpscRingBuffer<E> {
+
+    private static final int SPIN_TRIES = 50;
+    private static final long PARK_NANOS = 50_000;
+
+    private final Object[] buffer;
+    private final int mask;
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+    private final BooleanSupplier aborted;
+
+    public SpscRingBuffer(int capacity, BooleanSupplier aborted) {
+        int size = 1;
+        while (size < capacity) {
+            size <<= 1;
+        }
+        this.buffer = new Object[size];
+        this.mask = size - 1;
+        this.aborted = aborted;
+    }
+
+    /**
+     * Add an element, waiting for free space. Called by the producer thread only.
+     */
+    public void put(E element) {
+        long position = tail.get();
+        int tries = 0;
+        while (position - head.get() >= buffer.length) {
+            backOff(tries++);
+        }
+        buffer[(int) position & mask] = element;
+        tail.lazySet(position + 1);
+    }
+
+    /**
+     * Remove the oldest element, waiting until one is available. Called by the consumer thread only.
+     */
+    @SuppressWarnings("unchecked")
+    public E take() {
+        long position = head.get();
+        int tries = 0;
+        while (position >= tail.get()) {
+            backOff(tries++);
+        }
+        int index = (int) position & mask;
+        E element = (E) buffer[index];
+        buffer[index] = null;
+        head.lazySet(position + 1);
+        return element;
+    }
+
+    public int size() {
+        return (int) (tail.get() - head.get());
+    }
+
+    public int capacity() {
+        return buffer.length;
+    }
+
+    private void backOff(int tries) {
+        if (aborted.getAsBoolean()) {
+            throw new AbortedException();
+        }
+        if (tries < SPIN_TRIES) {
+            Thread.yield();
+        } else {
+            LockSupport.parkNanos(PARK_NANOS);
+        }
+    }
+
+    /**
+     * Thrown to a waiting producer or consumer when the buffer's user aborted
+     */
+    public static class AbortedException extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        public AbortedException() {
+            super("Ring buffer aborted", null, false, false);
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.cdr.util;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Portable kernel testing 8 bytes at a time in a long (SIMD within a register). A word XORed with the
+ * searched byte repeated in every lane has a zero lane wherever the byte occurs; zeroLanes marks exactly those
+ * lanes in their high bit, without the false positives of the borrow-based test, so every match of a word is
+ * read off its mask. Words are assembled little-endian, lane i being byte i; the tail shorter than a word is
+ * tested byte by byte.
+ */
+public final class SwarDelimiterScanner implements DelimiterScanner {
+
+    public static final String NAME = "swar";
+
+    private static final long LOW_SEVEN_BITS = 0x7F7F7F7F7F7F7F7FL;
+    private static final long ONES = 0x0101010101010101L;
+    private static final long LINE_FEEDS = ONES * '\n';
+    private static final long CARRIAGE_RETURNS = ONES * '\r';
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public int findAll(byte[] buffer, int from, int to, byte value, int[] positions) {
+        ByteBuffer words = ByteBuffer.wrap(buffer).order(ByteOrder.LITTLE_ENDIAN);
+        long pattern = ONES * (value & 0xff);
+        int found = 0;
+        int i = from;
+        for (; i + 8 <= to; i += 8) {
+            long mask = zeroLanes(words.getLong(i) ^ pattern);
+            while (mask != 0) {
+                positions[found++] = i + (Long.numberOfTrailingZeros(mask) >>> 3);
+                mask &= mask - 1;
+            }
+        }
+        for (; i < to; i++) {
+            if (buffer[i] == value) {
+                positions[found++] = i;
+            }
+        }
+        return found;
+    }
+
+    @Override
+    public int findAll(ByteBuffer buffer, int from, int to, byte value, int[] positions) {
+        boolean swap = buffer.order() != ByteOrder.LITTLE_ENDIAN;
+        long pattern = ONES * (value & 0xff);
+        int found = 0;
+        int i = from;
+        for (; i + 8 <= to; i += 8) {
+            long word = buffer.getLong(i);
+            long mask = zeroLanes((swap ? Long.reverseBytes(word) : word) ^ pattern);
+            while (mask != 0) {
+                positions[found++] = i + (Long.numberOfTrailingZeros(mask) >>> 3);
+                mask &= mask - 1;
+            }
+        }
+        for (; i < to; i++) {
+            if (buffer.get(i) == value) {
+                positions[found++] = i;
+            }
+        }
+        return found;
+    }
+
+    @Override
+    public int indexOfLineBreak(byte[] buffer, int from, int to) {
+        ByteBuffer words = ByteBuffer.wrap(buffer).order(ByteOrder.LITTLE_ENDIAN);
+        int i = from;
+        for (; i + 8 <= to; i += 8) {
+            long word = words.getLong(i);
+            long mask = zeroLanes(word ^ LINE_FEEDS) | zeroLanes(word ^ CARRIAGE_RETURNS);
+            if (mask != 0) {
+                return i + (Long.numberOfTrailingZeros(mask) >>> 3);
+            }
+        }
+        for (; i < to; i++) {
+            byte b = buffer[i];
+            if (b == '\n' || b == '\r') {
+                return i;
+            }
+        }
+        return to;
+    }
+
+    @Override
+    public int indexOfLineBreak(ByteBuffer buffer, int from, int to) {
+        boolean swap = buffer.order() != ByteOrder.LITTLE_ENDIAN;
+        int i = from;
+        for (; i + 8 <= to; i += 8) {
+            long word = buffer.getLong(i);
+            if (swap) {
+                word = Long.reverseBytes(word);
+            }
+            long mask = zeroLanes(word ^ LINE_FEEDS) | zeroLanes(word ^ CARRIAGE_RETURNS);
+            if (mask != 0) {
+                return i + (Long.numberOfTrailingZeros(mask) >>> 3);
+            }
+        }
+        for (; i < to; i++) {
+            byte b = buffer.get(i);
+            if (b == '\n' || b == '\r') {
+                return i;
+            }
+        }
+        return to;
+    }
+
+    /**
+     * High bit set in exactly the zero bytes of a word
+     */
+    static long zeroLanes(long word) {
+        return ~(((word & LOW_SEVEN_BITS) + LOW_SEVEN_BITS) | word | LOW_SEVEN_BITS);
+    }
+}
@@ -0,0 +1,129 @@
+package com.cdr.util;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Kernel comparing a whole SIMD register of bytes at a time through the Vector API, only compiled by the
+ * vector build profile. Loaded reflectively through {@link DelimiterScanners} so the Java 8 build does not
+ * depend on it; needs a Java 17+ runtime started with --add-modules jdk.incubator.vector.
+ */
+public final class VectorDelimiterScanner implements DelimiterScanner {
+
+    public static final String NAME = "vector";
+
+    // At most 512 bits, i.e. 64 byte lanes, so a comparison mask fits in a long
+    private static final VectorSpecies<Byte> SPECIES = ByteVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Long> WORDS = LongVector.SPECIES_PREFERRED;
+    private static final int LANES = SPECIES.length();
+    private static final ByteVector ZEROS = ByteVector.zero(SPECIES);
+    // Multiplying a word of 0/1 bytes by this gathers byte i into bit 56 + i
+    private static final long GATHER = 0x0102040810204080L;
+    private static final LongVector WORD_SHIFTS = LongVector.fromArray(WORDS, wordShifts(), 0);
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public int findAll(byte[] buffer, int from, int to, byte value, int[] positions) {
+        int found = 0;
+        int i = from;
+        for (; i + LANES <= to; i += LANES) {
+            long mask = toLong(ByteVector.fromArray(SPECIES, buffer, i).eq(value));
+            while (mask != 0) {
+                positions[found++] = i + Long.numberOfTrailingZeros(mask);
+                mask &= mask - 1;
+            }
+        }
+        for (; i < to; i++) {
+            if (buffer[i] == value) {
+                positions[found++] = i;
+            }
+        }
+        return found;
+    }
+
+    @Override
+    public int findAll(ByteBuffer buffer, int from, int to, byte value, int[] positions) {
+        int found = 0;
+        int i = from;
+        for (; i + LANES <= to; i += LANES) {
+            long mask = toLong(ByteVector.fromByteBuffer(SPECIES, buffer, i, ByteOrder.LITTLE_ENDIAN).eq(value));
+            while (mask != 0) {
+                positions[found++] = i + Long.numberOfTrailingZeros(mask);
+                mask &= mask - 1;
+            }
+        }
+        for (; i < to; i++) {
+            if (buffer.get(i) == value) {
+                positions[found++] = i;
+            }
+        }
+        return found;
+    }
+
+    @Override
+    public int indexOfLineBreak(byte[] buffer, int from, int to) {
+        int i = from;
+        for (; i + LANES <= to; i += LANES) {
+            ByteVector bytes = ByteVector.fromArray(SPECIES, buffer, i);
+            VectorMask<Byte> lineBreaks = bytes.eq((byte) '\n').or(bytes.eq((byte) '\r'));
+            if (lineBreaks.anyTrue()) {
+                return i + lineBreaks.firstTrue();
+            }
+        }
+        for (; i < to; i++) {
+            byte b = buffer[i];
+            if (b == '\n' || b == '\r') {
+                return i;
+            }
+        }
+        return to;
+    }
+
+    @Override
+    public int indexOfLineBreak(ByteBuffer buffer, int from, int to) {
+        int i = from;
+        for (; i + LANES <= to; i += LANES) {
+            ByteVector bytes = ByteVector.fromByteBuffer(SPECIES, buffer, i, ByteOrder.LITTLE_ENDIAN);
+            VectorMask<Byte> lineBreaks = bytes.eq((byte) '\n').or(bytes.eq((byte) '\r'));
+            if (lineBreaks.anyTrue()) {
+                return i + lineBreaks.firstTrue();
+            }
+        }
+        for (; i < to; i++) {
+            byte b = buffer.get(i);
+            if (b == '\n' || b == '\r') {
+                return i;
+            }
+        }
+        return to;
+    }
+
+    /**
+     * Lane bits of a mask, bit i for lane i. Java 17 runs VectorMask.toLong lane by lane, so instead each
+     * 8-lane word of 0/1 bytes is gathered into 8 bits with a multiply, shifted into its place and the words
+     * ORed together, all in vector registers.
+     */
+    private static long toLong(VectorMask<Byte> mask) {
+        LongVector words = ZEROS.blend((byte) 1, mask).reinterpretAsLongs();
+        return words.mul(GATHER).lanewise(VectorOperators.LSHR, 56).lanewise(VectorOperators.LSHL, WORD_SHIFTS)
+                .reduceLanes(VectorOperators.OR);
+    }
+
+    private static long[] wordShifts() {
+        long[] shifts = new long[WORDS.length()];
+        for (int i = 0; i < shifts.length; i++) {
+            shifts[i] = 8L * i;
+        }
+        return shifts;
+    }
+}
@@ -0,0 +1,23 @@
+package com.cdr.processor;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Virtual thread executors, only compiled by the java21 build profile.
+ * Loaded reflectively through {@link VirtualThreadSupport} so the Java 8 build does not depend on it.
+ */
+public final class VirtualThreadExecutors {
+
+    private VirtualThreadExecutors() {
+    }
+
+    /**
+     * Executor starting a new virtual thread for every task
+     */
+    public static ExecutorService newExecutor(String namePrefix) {
+        ThreadFactory factory = Thread.ofVirtual().name(namePrefix, 1).factory();
+        return Executors.newThreadPerTaskExecutor(factory);
+    }
+}
@@ -0,0 +1,336 @@
+package com.cdr.processor;
+
+import com.cdr.model.CDRType;
+import com.cdr.model.SystemConfig;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Shard leases and shared claims of two nodes against an in-memory H2 database in MySQL mode, with refreshes
+ * driven by the test instead of the coordinator's timer
+ */
+public class ShardCoordinatorTest {
+
+    private static final int SHARDS = 16;
+    private static final long LEASE_TTL = 400;
+    private static final long RENEW_INTERVAL = 100;
+    private static final AtomicInteger DATABASES = new AtomicInteger();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private JdbcDataSource dataSource;
+    private File inputFolder;
+    private final List<ShardCoordinator> coordinators = new ArrayList<>();
+
+    @Before
+    public void setUp() throws Exception {
+        dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:shards" + DATABASES.incrementAndGet() + ";MODE=MySQL;DB_CLOSE_DELAY=-1");
+        try (Connection conn = dataSource.getConnection(); Statement stmt = conn.createStatement()) {
+            stmt.execute("CREATE TABLE cdr_node (server_name VARCHAR(50) PRIMARY KEY, last_seen BIGINT NOT NULL, "
+                    + "load_factor DOUBLE NOT NULL DEFAULT 0)");
+            stmt.execute("CREATE TABLE cdr_shard_lease (shard_id INT PRIMARY KEY, owner VARCHAR(50) NULL, "
+                    + "lease_until BIGINT NOT NULL DEFAULT 0)");
+            stmt.execute("CREATE TABLE cdr_shard_claim (claimed_path VARCHAR(512) PRIMARY KEY, shard_id INT NOT NULL, "
+                    + "cdr_type VARCHAR(10) NOT NULL, original_path VARCHAR(512) NOT NULL, owner VARCHAR(50) NULL)");
+        }
+        inputFolder = folder.newFolder("voice");
+    }
+
+    @After
+    public void tearDown() {
+        for (ShardCoordinator coordinator : coordinators) {
+            coordinator.shutdown();
+        }
+    }
+
+    @Test
+    public void singleNodeLeasesAllShards() throws Exception {
+        ShardCoordinator node1 = coordinator("node1");
+        node1.refresh();
+
+        assertEquals(SHARDS, node1.getOwnedShards().size());
+        assertEquals(SHARDS, leasesOf("node1"));
+        assertTrue(node1.owns(CDRType.VOICE, new File(inputFolder, "a.unl")));
+    }
+
+    @Test
+    public void refreshRenewsLease() throws Exception {
+        ShardCoordinator node1 = coordinator("node1");
+        node1.refresh();
+        long firstLease = leaseUntil(0);
+
+        Thread.sleep(LEASE_TTL - RENEW_INTERVAL / 2);
+        node1.refresh();
+
+        assertTrue(leaseUntil(0) > firstLease);
+        assertEquals(SHARDS, node1.getOwnedShards().size());
+    }
+
+    @Test
+    public void leaseExpiresWithoutRenewal() throws Exception {
+        ShardCoordinator node1 = coordinator("node1");
+        node1.refresh();
+
+        // Expires locally one renew interval before the database lease
+        Thread.sleep(LEASE_TTL - RENEW_INTERVAL + 50);
+
+        assertTrue(node1.getOwnedShards().isEmpty());
+        assertFalse(node1.owns(CDRType.VOICE, new File(inputFolder, "a.unl")));
+    }
+
+    @Test
+    public void shardsAreTakenOverOnlyAfterLeaseExpired() throws Exception {
+        ShardCoordinator node1 = coordinator("node1");
+        ShardCoordinator node2 = coordinator("node2");
+        node1.refresh();
+        node2.refresh();
+        assertTrue(node2.getOwnedShards().isEmpty());
+
+        // node1 stops renewing, as after a crash
+        Thread.sleep(LEASE_TTL + 50);
+        node2.refresh();
+
+        assertEquals(SHARDS, node2.getOwnedShards().size());
+        assertEquals(SHARDS, leasesOf("node2"));
+    }
+
+    @Test
+    public void shardsAreRebalancedWhenNodeJoins() throws Exception {
+        ShardCoordinator node1 = coordinator("node1");
+        ShardCoordinator node2 = coordinator("node2");
+        node1.refresh();
+        node2.refresh();
+
+        // node1 sees node2 on the ring and hands its share back, node2 leases it
+        node1.refresh();
+        node2.refresh();
+
+        Set<Integer> shards1 = node1.getOwnedShards();
+        Set<Integer> shards2 = node2.getOwnedShards();
+        assertFalse(shards1.isEmpty());
+        assertFalse(shards2.isEmpty());
+        Set<Integer> all = new HashSet<>(shards1);
+        all.addAll(shards2);
+        assertEquals(SHARDS, all.size());
+        assertEquals(SHARDS, shards1.size() + shards2.size());
+    }
+
+    @Test
+    public void shardsAreRebalancedWhenNodeLeaves() throws Exception {
+        ShardCoordinator node1 = coordinator("node1");
+        ShardCoordinator node2 = coordinator("node2");
+        node1.refresh();
+        node2.refresh();
+        node1.refresh();
+        node2.refresh();
+        assertTrue(node1.getOwnedShards().size() < SHARDS);
+
+        node2.shutdown();
+        node1.refresh();
+
+        assertEquals(SHARDS, node1.getOwnedShards().size());
+        assertEquals(0, leasesOf("node2"));
+    }
+
+    @Test
+    public void finishedClaimIsForgotten() throws Exception {
+        ShardCoordinator node1 = coordinator("node1");
+        node1.refresh();
+        File file = inputFile("a.unl");
+
+        File claimedFile = node1.recordClaim(CDRType.VOICE, file);
+        assertNotNull(claimedFile);
+        assertEquals("node1", claimOwner(claimedFile));
+        assertTrue(node1.ownsClaim(claimedFile));
+
+        node1.finishClaim(claimedFile);
+        assertNull(claimOwner(claimedFile));
+    }
+
+    @Test
+    public void claimsOfDepartedNodeAreRecovered() throws Exception {
+        ShardCoordinator node1 = coordinator("node1");
+        ShardCoordinator node2 = coordinator("node2");
+        BlockingQueue<File[]> recovered = recoveredClaims(node2);
+        node1.refresh();
+        File file = inputFile("a.unl");
+        File claimedFile = claim(node1, file);
+
+        // node1 goes away without finishing the file
+        Thread.sleep(LEASE_TTL + 50);
+        node2.refresh();
+
+        File[] claim = recovered.poll(5, TimeUnit.SECONDS);
+        assertNotNull(claim);
+        assertEquals(file.getAbsoluteFile(), claim[0].getAbsoluteFile());
+        assertEquals(claimedFile.getAbsoluteFile(), claim[1].getAbsoluteFile());
+        assertEquals("node2", claimOwner(claimedFile));
+        assertTrue(node2.ownsClaim(claimedFile));
+    }
+
+    @Test
+    public void claimIsHandedOverWhenShardMoves() throws Exception {
+        ShardCoordinator node1 = coordinator("node1");
+        ShardCoordinator node2 = coordinator("node2");
+        BlockingQueue<File[]> recovered = recoveredClaims(node2);
+        node1.refresh();
+        List<File> claimedFiles = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            claimedFiles.add(claim(node1, inputFile("f" + i + ".unl")));
+        }
+
+        node2.refresh();
+        node1.refresh();
+        node2.refresh();
+        List<File> moved = new ArrayList<>();
+        for (File claimedFile : claimedFiles) {
+            if (!node1.ownsClaim(claimedFile)) {
+                moved.add(claimedFile);
+            }
+        }
+        assertFalse(moved.isEmpty());
+        // Still claimed by a live node, which may be finishing them
+        assertNull(recovered.poll(200, TimeUnit.MILLISECONDS));
+
+        for (File claimedFile : moved) {
+            node1.releaseClaim(claimedFile);
+        }
+        node2.refresh();
+
+        Set<File> handedOver = new HashSet<>();
+        for (int i = 0; i < moved.size(); i++) {
+            File[] claim = recovered.poll(5, TimeUnit.SECONDS);
+            assertNotNull(claim);
+            handedOver.add(claim[1].getAbsoluteFile());
+        }
+        assertEquals(new HashSet<>(absolute(moved)), handedOver);
+        for (File claimedFile : claimedFiles) {
+            assertEquals(moved.contains(claimedFile) ? "node2" : "node1", claimOwner(claimedFile));
+        }
+    }
+
+    @Test
+    public void claimWhoseFileIsGoneIsDropped() throws Exception {
+        ShardCoordinator node1 = coordinator("node1");
+        ShardCoordinator node2 = coordinator("node2");
+        BlockingQueue<File[]> recovered = recoveredClaims(node2);
+        node1.refresh();
+        File claimedFile = claim(node1, inputFile("a.unl"));
+        Files.delete(claimedFile.toPath());
+
+        Thread.sleep(LEASE_TTL + 50);
+        node2.refresh();
+
+        assertNull(recovered.poll(200, TimeUnit.MILLISECONDS));
+        assertNull(claimOwner(claimedFile));
+    }
+
+    private ShardCoordinator coordinator(String serverName) throws SQLException {
+        SystemConfig config = new SystemConfig();
+        config.setServerName(serverName);
+        config.setVoiceInputFolder(inputFolder.getAbsolutePath());
+        config.setShardCount(SHARDS);
+        config.setShardLeaseTtl(LEASE_TTL);
+        config.setShardRenewInterval(RENEW_INTERVAL);
+        config.setShardVirtualNodes(32);
+        config.setShardHighLoad(0.8);
+        ShardCoordinator coordinator = new ShardCoordinator(config, dataSource, () -> 0.0);
+        coordinator.initializeShards();
+        coordinators.add(coordinator);
+        return coordinator;
+    }
+
+    private static BlockingQueue<File[]> recoveredClaims(ShardCoordinator coordinator) {
+        BlockingQueue<File[]> recovered = new LinkedBlockingQueue<>();
+        coordinator.setClaimListener((type, originalFile, claimedFile) -> recovered.add(new File[]{originalFile, claimedFile}));
+        return recovered;
+    }
+
+    /**
+     * Record a claim and move the file into the in-progress area, as the master controller and ledger do
+     */
+    private static File claim(ShardCoordinator coordinator, File file) throws Exception {
+        File claimedFile = coordinator.recordClaim(CDRType.VOICE, file);
+        assertNotNull(claimedFile);
+        Files.createDirectories(claimedFile.getParentFile().toPath());
+        Files.move(file.toPath(), claimedFile.toPath());
+        return claimedFile;
+    }
+
+    private File inputFile(String name) throws Exception {
+        File file = new File(inputFolder, name);
+        Files.write(file.toPath(), "1|2|3\n".getBytes());
+        return file;
+    }
+
+    private static List<File> absolute(List<File> files) {
+        List<File> absolute = new ArrayList<>();
+        for (File file : files) {
+            absolute.add(file.getAbsoluteFile());
+        }
+        return absolute;
+    }
+
+    private int leasesOf(String owner) throws SQLException {
+        try (Connection conn = dataSource.getConnection();
+             PreparedStatement stmt = conn.prepareStatement("SELECT COUNT(*) FROM cdr_shard_lease WHERE owner = ?")) {
+            stmt.setString(1, owner);
+            try (ResultSet rs = stmt.executeQuery()) {
+                rs.next();
+                return rs.getInt(1);
+            }
+        }
+    }
+
+    private long leaseUntil(int shard) throws SQLException {
+        try (Connection conn = dataSource.getConnection();
+             PreparedStatement stmt = conn.prepareStatement("SELECT lease_until FROM cdr_shard_lease WHERE shard_id = ?")) {
+            stmt.setInt(1, shard);
+            try (ResultSet rs = stmt.executeQuery()) {
+                rs.next();
+                return rs.getLong(1);
+            }
+        }
+    }
+
+    /**
+     * Owner of a shared claim, or null when there is no claim or it is not held by any node
+     */
+    private String claimOwner(File claimedFile) throws SQLException {
+        try (Connection conn = dataSource.getConnection();
+             PreparedStatement stmt = conn.prepareStatement("SELECT owner FROM cdr_shard_claim WHERE claimed_path = ?")) {
+            stmt.setString(1, claimedFile.getAbsolutePath());
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() ? rs.getString(1) : null;
+            }
+        }
+    }
+}
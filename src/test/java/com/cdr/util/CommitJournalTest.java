@@ -0,0 +1,203 @@
+package com.cdr.util;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Commits that fail part way and recovery of interrupted commits
+ */
+public class CommitJournalTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File journalFile;
+    private File inputFile;
+    private CommitJournal journal;
+
+    @Before
+    public void setUp() throws Exception {
+        journalFile = new File(folder.getRoot(), "ledger/commit.journal");
+        inputFile = folder.newFile("input.unl");
+    }
+
+    @After
+    public void tearDown() {
+        if (journal != null) {
+            journal.close();
+        }
+    }
+
+    @Test
+    public void abortRollsForwardPartlyDoneCommit() throws Exception {
+        reopen();
+        File report = new File(folder.newFolder("reports"), "input.rpt");
+        File output = new File(new File(folder.getRoot(), "output"), "input.out");
+        Map<File, File> moves = stage(report, output);
+        try {
+            journal.commit(inputFile, moves, null);
+            fail("Output folder is missing");
+        } catch (IOException expected) {
+            // The report is in place, the output is not
+        }
+        assertTrue(report.exists());
+
+        journal.abort(inputFile);
+        assertTrue("Report already in place is kept", report.exists());
+        assertTrue(staging(output).exists());
+
+        assertTrue(output.getParentFile().mkdirs());
+        journal.abort(inputFile);
+        assertTrue(report.exists());
+        assertTrue(output.exists());
+        assertEquals("output", read(output));
+    }
+
+    @Test
+    public void abortDiscardsUncommittedFile() throws Exception {
+        reopen();
+        File report = new File(folder.newFolder("reports"), "input.rpt");
+        File output = new File(folder.newFolder("output"), "input.out");
+        stage(report, output);
+
+        journal.abort(inputFile);
+
+        assertFalse(staging(report).exists());
+        assertFalse(staging(output).exists());
+        assertFalse(report.exists());
+        assertFalse(output.exists());
+    }
+
+    @Test
+    public void commitLeftByAbortIsRolledForwardOnOpen() throws Exception {
+        reopen();
+        File report = new File(folder.newFolder("reports"), "input.rpt");
+        File output = new File(new File(folder.getRoot(), "output"), "input.out");
+        Map<File, File> moves = stage(report, output);
+        try {
+            journal.commit(inputFile, moves, null);
+            fail("Output folder is missing");
+        } catch (IOException expected) {
+            // Left for recovery
+        }
+        journal.abort(inputFile);
+        journal.close();
+        assertTrue(output.getParentFile().mkdirs());
+
+        List<File> committed = new ArrayList<>();
+        journal = new CommitJournal(journalFile.getAbsolutePath(), false);
+        journal.open(committed::add);
+
+        assertEquals(Arrays.asList(inputFile.getAbsoluteFile()), committed);
+        assertEquals("output", read(output));
+    }
+
+    @Test
+    public void syncedCommitIsRolledForwardWhenItsFilesCheckOut() throws Exception {
+        File output = interruptedSyncedCommit();
+
+        List<File> committed = new ArrayList<>();
+        journal = new CommitJournal(journalFile.getAbsolutePath(), true);
+        journal.open(committed::add);
+
+        assertEquals(Arrays.asList(inputFile.getAbsoluteFile()), committed);
+        assertEquals("output", read(output));
+    }
+
+    @Test
+    public void syncedCommitWithTornFileIsRolledBack() throws Exception {
+        File output = interruptedSyncedCommit();
+        // Staged data lost to a power loss after the COMMIT was synced
+        Files.write(staging(output).toPath(), "out".getBytes(StandardCharsets.UTF_8));
+
+        List<File> committed = new ArrayList<>();
+        journal = new CommitJournal(journalFile.getAbsolutePath(), true);
+        journal.open(committed::add);
+
+        assertTrue("Input file is processed again", committed.isEmpty());
+        assertFalse(staging(output).exists());
+        assertFalse(output.exists());
+    }
+
+    @Test
+    public void syncedCommitWithMissingFileIsRolledBack() throws Exception {
+        File output = interruptedSyncedCommit();
+        Files.delete(staging(output).toPath());
+
+        List<File> committed = new ArrayList<>();
+        journal = new CommitJournal(journalFile.getAbsolutePath(), true);
+        journal.open(committed::add);
+
+        assertTrue(committed.isEmpty());
+        assertFalse(output.exists());
+    }
+
+    /**
+     * A synced commit whose report was renamed into place and whose output was not, as after a crash
+     *
+     * @return final output file
+     */
+    private File interruptedSyncedCommit() throws IOException {
+        journal = new CommitJournal(journalFile.getAbsolutePath(), true);
+        journal.open(file -> { });
+        File report = new File(folder.newFolder("reports"), "input.rpt");
+        File output = new File(new File(folder.getRoot(), "output"), "input.out");
+        Map<File, File> moves = stage(report, output);
+        try {
+            journal.commit(inputFile, moves, null);
+            fail("Output folder is missing");
+        } catch (IOException expected) {
+            // The COMMIT is synced, the output rename failed
+        }
+        journal.close();
+        assertTrue(output.getParentFile().mkdirs());
+        return output;
+    }
+
+    private void reopen() throws IOException {
+        if (journal != null) {
+            journal.close();
+        }
+        journal = new CommitJournal(journalFile.getAbsolutePath(), false);
+        journal.open(file -> { });
+    }
+
+    /**
+     * Journal and write the staging files of a report and an output, as a processor does
+     */
+    private Map<File, File> stage(File report, File output) throws IOException {
+        journal.begin(inputFile, Arrays.asList(staging(report), staging(output)), null);
+        Map<File, File> moves = new LinkedHashMap<>();
+        for (File file : Arrays.asList(report, output)) {
+            Files.write(staging(file).toPath(), file.getParentFile().getName().getBytes(StandardCharsets.UTF_8));
+            moves.put(staging(file), file);
+        }
+        return moves;
+    }
+
+    private File staging(File file) {
+        return new File(folder.getRoot(), "." + file.getName() + ".0.tmp");
+    }
+
+    private static String read(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,256 @@
+package com.cdr.util;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Every scan kernel available in this build and runtime must report the positions a plain byte loop finds, on
+ * arrays, heap buffers and direct buffers. Run with the vector profile to cover the vector kernel as well.
+ */
+public class DelimiterScannerTest {
+
+    private static final byte DELIMITER = '|';
+    // Lengths around the 8 bytes of a SWAR word and the 16, 32 and 64 lanes of byte vectors
+    private static final int[] EDGE_LENGTHS = {1, 2, 7, 8, 9, 15, 16, 17, 23, 24, 25, 31, 32, 33, 63, 64, 65,
+            127, 128, 129, 255, 256, 257};
+    // 0xfc is '|' with the high bit set, 0x8a and 0x8d are the line breaks with it
+    private static final byte[] ALPHABET = {'|', '|', '\n', '\r', '0', '9', 'a', ' ', (byte) 0xfc, (byte) 0x80,
+            (byte) 0xff, (byte) 0x8a, (byte) 0x8d, 0};
+
+    private final List<DelimiterScanner> kernels = DelimiterScanners.available();
+
+    @Test
+    public void scalarAndSwarKernelsAreAvailable() {
+        assertEquals(ScalarDelimiterScanner.NAME, kernels.get(0).name());
+        assertTrue(kernels.size() >= 2);
+    }
+
+    @Test
+    public void emptyRangeFindsNothing() {
+        byte[] record = "a|b\n".getBytes(StandardCharsets.US_ASCII);
+        for (DelimiterScanner kernel : kernels) {
+            for (int from = 0; from <= record.length; from++) {
+                assertEquals(kernel.name(), 0, kernel.findAll(record, from, from, DELIMITER, new int[0]));
+                assertEquals(kernel.name(), from, kernel.indexOfLineBreak(record, from, from));
+                assertEquals(kernel.name(), 0, kernel.findAll(direct(record), from, from, DELIMITER, new int[0]));
+                assertEquals(kernel.name(), from, kernel.indexOfLineBreak(direct(record), from, from));
+            }
+            assertEquals(kernel.name(), 0, kernel.findAll(new byte[0], 0, 0, DELIMITER, new int[0]));
+            assertEquals(kernel.name(), 0, kernel.indexOfLineBreak(new byte[0], 0, 0));
+        }
+    }
+
+    @Test
+    public void delimitersAtFirstAndLastByte() {
+        for (int length : EDGE_LENGTHS) {
+            byte[] record = filled(length, (byte) 'a');
+            record[0] = DELIMITER;
+            record[length - 1] = DELIMITER;
+            for (DelimiterScanner kernel : kernels) {
+                assertPositions(kernel, record, 0, length);
+            }
+        }
+    }
+
+    @Test
+    public void lineBreakAtFirstAndLastByte() {
+        for (int length : EDGE_LENGTHS) {
+            for (byte lineBreak : new byte[]{'\n', '\r'}) {
+                byte[] record = filled(length, (byte) 'a');
+                record[length - 1] = lineBreak;
+                for (DelimiterScanner kernel : kernels) {
+                    assertLineBreak(kernel, record, 0, length);
+                    assertLineBreak(kernel, record, 0, length - 1);
+                }
+                record[0] = lineBreak;
+                for (DelimiterScanner kernel : kernels) {
+                    assertLineBreak(kernel, record, 0, length);
+                    assertLineBreak(kernel, record, 1, length);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void everyByteADelimiter() {
+        for (int length : EDGE_LENGTHS) {
+            byte[] record = filled(length, DELIMITER);
+            for (DelimiterScanner kernel : kernels) {
+                for (int from = 0; from <= Math.min(length, 9); from++) {
+                    assertPositions(kernel, record, from, length);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void highBitBytesAreNotDelimitersOrLineBreaks() {
+        for (int length : EDGE_LENGTHS) {
+            byte[] record = new byte[length];
+            for (int i = 0; i < length; i++) {
+                record[i] = (byte) (0x80 | (i & 0x7f));
+            }
+            record[length / 2] = (byte) 0xfc;
+            for (DelimiterScanner kernel : kernels) {
+                assertPositions(kernel, record, 0, length);
+                assertLineBreak(kernel, record, 0, length);
+            }
+        }
+    }
+
+    @Test
+    public void randomRecordsMatchByteLoop() {
+        Random random = new Random(42);
+        for (int length = 0; length <= 300; length++) {
+            for (int round = 0; round < 4; round++) {
+                byte[] record = random(random, length);
+                int from = length == 0 ? 0 : random.nextInt(Math.min(length, 10) + 1);
+                int to = length - (length - from == 0 ? 0 : random.nextInt(Math.min(length - from, 10) + 1));
+                for (DelimiterScanner kernel : kernels) {
+                    assertPositions(kernel, record, from, to);
+                    assertLineBreak(kernel, record, from, to);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void bufferPositionAndLimitAreLeftAlone() {
+        byte[] record = random(new Random(7), 100);
+        for (DelimiterScanner kernel : kernels) {
+            ByteBuffer buffer = direct(record);
+            buffer.position(37);
+            kernel.findAll(buffer, 0, record.length, DELIMITER, new int[record.length]);
+            kernel.indexOfLineBreak(buffer, 0, record.length);
+            assertEquals(kernel.name(), 37, buffer.position());
+            assertEquals(kernel.name(), record.length, buffer.limit());
+        }
+    }
+
+    @Test
+    public void tokenizerFindsSameFieldsWithEveryKernel() {
+        Random random = new Random(3);
+        byte[] fieldBytes = {'|', '|', '|', '0', '9', 'a', ' ', '-', '.'};
+        for (int length = 0; length <= 200; length++) {
+            byte[] raw = new byte[length];
+            for (int i = 0; i < length; i++) {
+                raw[i] = fieldBytes[random.nextInt(fieldBytes.length)];
+            }
+            String line = new String(raw, StandardCharsets.US_ASCII);
+            int[] expected = splitBoundaries(line);
+            for (DelimiterScanner kernel : kernels) {
+                PipeTokenizer tokenizer = new PipeTokenizer(Charset.defaultCharset(), kernel);
+                tokenizer.tokenize(line);
+                assertArrayEquals(kernel.name() + " on \"" + line + "\"", expected, boundaries(tokenizer));
+                tokenizer.tokenize(raw, 0, length);
+                assertArrayEquals(kernel.name() + " on \"" + line + "\"", expected, boundaries(tokenizer));
+                tokenizer.tokenize(direct(raw), 0, length);
+                assertArrayEquals(kernel.name() + " on \"" + line + "\"", expected, boundaries(tokenizer));
+            }
+        }
+    }
+
+    @Test
+    public void tokenizerIgnoresCharsWhoseLowByteIsADelimiter() {
+        // U+017C has '|' as its low byte
+        String line = "ażb|c";
+        for (DelimiterScanner kernel : kernels) {
+            PipeTokenizer tokenizer = new PipeTokenizer(Charset.defaultCharset(), kernel);
+            assertEquals(kernel.name(), 2, tokenizer.tokenize(line));
+            assertEquals(kernel.name(), "ażb", tokenizer.field(0));
+            assertEquals(kernel.name(), "c", tokenizer.field(1));
+        }
+    }
+
+    private static void assertPositions(DelimiterScanner kernel, byte[] record, int from, int to) {
+        int[] expected = expectedPositions(record, from, to);
+        String message = kernel.name() + " in [" + from + ", " + to + ") of " + Arrays.toString(record);
+        int[] positions = new int[Math.max(0, to - from)];
+        int count = kernel.findAll(record, from, to, DELIMITER, positions);
+        assertArrayEquals(message, expected, Arrays.copyOf(positions, count));
+        count = kernel.findAll(ByteBuffer.wrap(record), from, to, DELIMITER, positions);
+        assertArrayEquals(message + " (heap buffer)", expected, Arrays.copyOf(positions, count));
+        count = kernel.findAll(direct(record), from, to, DELIMITER, positions);
+        assertArrayEquals(message + " (direct buffer)", expected, Arrays.copyOf(positions, count));
+    }
+
+    private static void assertLineBreak(DelimiterScanner kernel, byte[] record, int from, int to) {
+        int expected = to;
+        for (int i = from; i < to; i++) {
+            if (record[i] == '\n' || record[i] == '\r') {
+                expected = i;
+                break;
+            }
+        }
+        String message = kernel.name() + " in [" + from + ", " + to + ") of " + Arrays.toString(record);
+        assertEquals(message, expected, kernel.indexOfLineBreak(record, from, to));
+        assertEquals(message + " (heap buffer)", expected, kernel.indexOfLineBreak(ByteBuffer.wrap(record), from, to));
+        assertEquals(message + " (direct buffer)", expected, kernel.indexOfLineBreak(direct(record), from, to));
+    }
+
+    private static int[] expectedPositions(byte[] record, int from, int to) {
+        int[] positions = new int[Math.max(0, to - from)];
+        int count = 0;
+        for (int i = from; i < to; i++) {
+            if (record[i] == DELIMITER) {
+                positions[count++] = i;
+            }
+        }
+        return Arrays.copyOf(positions, count);
+    }
+
+    /**
+     * Field offsets as line.split("\\|") finds the fields
+     */
+    private static int[] splitBoundaries(String line) {
+        String[] fields = line.split("\\|");
+        int[] boundaries = new int[2 * fields.length];
+        int start = 0;
+        for (int i = 0; i < fields.length; i++) {
+            boundaries[2 * i] = start;
+            boundaries[2 * i + 1] = start + fields[i].length();
+            start += fields[i].length() + 1;
+        }
+        return boundaries;
+    }
+
+    private static int[] boundaries(PipeTokenizer tokenizer) {
+        int[] boundaries = new int[2 * tokenizer.count()];
+        for (int i = 0; i < tokenizer.count(); i++) {
+            boundaries[2 * i] = tokenizer.start(i);
+            boundaries[2 * i + 1] = tokenizer.end(i);
+        }
+        return boundaries;
+    }
+
+    private static byte[] random(Random random, int length) {
+        byte[] record = new byte[length];
+        for (int i = 0; i < length; i++) {
+            record[i] = ALPHABET[random.nextInt(ALPHABET.length)];
+        }
+        return record;
+    }
+
+    private static byte[] filled(int length, byte value) {
+        byte[] record = new byte[length];
+        Arrays.fill(record, value);
+        return record;
+    }
+
+    private static ByteBuffer direct(byte[] record) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(record.length);
+        buffer.put(record);
+        buffer.clear();
+        return buffer;
+    }
+}
@@ -0,0 +1,161 @@
+package com.cdr.util;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Fixed-point amounts against the double arithmetic they replace: truncation as the (long) cast, rounding as
+ * %.0f, and reductions without the drift of (100 - p) / 100.0
+ */
+public class FixedPointTest {
+
+    private static final long INVALID = PipeTokenizer.INVALID_NUMBER;
+
+    @Test
+    public void unitsTruncateTowardZeroAsTheLongCast() {
+        double[] amounts = {0, 0.9999, 1.5, 12.3456, -0.9999, -1.5, -12.3456, 99999999999999.9999};
+        for (double amount : amounts) {
+            assertEquals(String.valueOf(amount), (long) amount, FixedPoint.units(FixedPoint.fromDouble(amount)));
+        }
+    }
+
+    @Test
+    public void roundedUnitsRoundHalfAwayFromZeroAsPercentZeroF() {
+        double[] amounts = {0.4999, 0.5, 1.5, 2.5, 2.4999, -0.4999, -0.5, -1.5, -2.5, -2.5001};
+        for (double amount : amounts) {
+            long expected = Long.parseLong(String.format(Locale.ROOT, "%.0f", amount));
+            assertEquals(String.valueOf(amount), expected, FixedPoint.roundedUnits(FixedPoint.fromDouble(amount)));
+        }
+    }
+
+    @Test
+    public void reductionHasNoDriftOfDoubleMultiplier() {
+        // 100 * (100 - 71) / 100.0 is 28.999999999999996, which the (long) cast truncated to 28
+        double multiplier = (100 - 71) / 100.0;
+        assertEquals(28, (long) (100 * multiplier));
+
+        long remainingPercent = FixedPoint.HUNDRED_PERCENT - FixedPoint.fromDouble(71);
+        assertEquals(29, FixedPoint.units(FixedPoint.percentOf(FixedPoint.of(100), remainingPercent)));
+
+        // Every whole percentage of every whole amount up to 1000 comes out exact
+        for (int percent = 0; percent <= 100; percent++) {
+            long remaining = FixedPoint.HUNDRED_PERCENT - FixedPoint.fromDouble(percent);
+            for (long amount = 0; amount <= 1000; amount++) {
+                long exact = amount * (100 - percent);
+                assertEquals(amount + " less " + percent + " %", exact / 100,
+                        FixedPoint.units(FixedPoint.percentOf(FixedPoint.of(amount), remaining)));
+            }
+        }
+    }
+
+    @Test
+    public void percentOfNegativeAmountTruncatesTowardZero() {
+        long half = FixedPoint.HUNDRED_PERCENT / 2;
+        assertEquals(-7, FixedPoint.percentOf(-15, half));
+        assertEquals(7, FixedPoint.percentOf(15, half));
+        assertEquals(FixedPoint.of(-29), FixedPoint.percentOf(FixedPoint.of(-100), FixedPoint.fromDouble(29)));
+        assertEquals(-14, FixedPoint.units(FixedPoint.percentOf(FixedPoint.of(-29), half)));
+    }
+
+    @Test
+    public void percentOfDoesNotOverflowNearLongRange() {
+        long half = FixedPoint.HUNDRED_PERCENT / 2;
+        assertEquals(Long.MAX_VALUE, FixedPoint.percentOf(Long.MAX_VALUE, FixedPoint.HUNDRED_PERCENT));
+        assertEquals(Long.MIN_VALUE, FixedPoint.percentOf(Long.MIN_VALUE, FixedPoint.HUNDRED_PERCENT));
+        assertEquals(Long.MAX_VALUE / 2, FixedPoint.percentOf(Long.MAX_VALUE, half));
+        assertEquals(Long.MIN_VALUE / 2, FixedPoint.percentOf(Long.MIN_VALUE, half));
+        assertEquals(0, FixedPoint.percentOf(Long.MAX_VALUE, 0));
+
+        long largest = FixedPoint.of(Long.MAX_VALUE / FixedPoint.SCALE);
+        assertEquals(Long.MAX_VALUE / FixedPoint.SCALE, FixedPoint.units(largest));
+        assertEquals(Long.MAX_VALUE / FixedPoint.SCALE, FixedPoint.roundedUnits(largest));
+        assertEquals(-(Long.MAX_VALUE / FixedPoint.SCALE), FixedPoint.roundedUnits(-largest));
+    }
+
+    @Test
+    public void quotientOfZeroDivisorMatchesDoubleDivision() {
+        assertEquals((long) (5.0 / 0), FixedPoint.quotient(5, 0));
+        assertEquals((long) (-5.0 / 0), FixedPoint.quotient(-5, 0));
+        assertEquals((long) (0.0 / 0), FixedPoint.quotient(0, 0));
+        assertEquals((long) (-7.0 / 2), FixedPoint.quotient(-7, 2));
+    }
+
+    @Test
+    public void parsedAmountsKeepFourDecimals() {
+        assertEquals(-125000, parseFixed("-12.5"));
+        assertEquals(12346, parseFixed("1.23456"));
+        assertEquals(12345, parseFixed("1.234549"));
+        assertEquals(-12346, parseFixed("-1.23455"));
+        assertEquals(1, parseFixed("0.00005"));
+        assertEquals(-1, parseFixed("-0.00005"));
+        assertEquals(0, parseFixed("0.00004999"));
+        assertEquals(5000, parseFixed(".5"));
+        assertEquals(50000, parseFixed("5."));
+        assertEquals(30000, parseFixed("+3"));
+        assertEquals(120000, parseFixed(" 12 "));
+    }
+
+    @Test
+    public void parsedAmountsNearLongRange() {
+        assertEquals(999999999999999999L, parseFixed("99999999999999.9999"));
+        assertEquals(-999999999999999999L, parseFixed("-99999999999999.9999"));
+        assertEquals(FixedPoint.of(99999999999999L), parseFixed("00099999999999999"));
+        // Whole digits beyond MAX_FIXED_UNIT_DIGITS are invalid, even below Long.MAX_VALUE / SCALE
+        assertEquals(INVALID, parseFixed("100000000000000"));
+        assertEquals(INVALID, parseFixed(String.valueOf(Long.MAX_VALUE / FixedPoint.SCALE)));
+        assertEquals(INVALID, parseFixed(String.valueOf(Long.MAX_VALUE)));
+    }
+
+    @Test
+    public void inputsDoubleParserAcceptedAreInvalid() {
+        String[] fields = {"1e3", "1E3", "1.5e-2", "NaN", "Infinity", "-Infinity", "0x1p3", "1d", "2f", "1,5", "",
+                " ", "-", "+", ".", "1.2.3", "--1"};
+        for (String field : fields) {
+            assertEquals("'" + field + "'", INVALID, parseFixed(field));
+        }
+        // Accepted by Double.parseDouble, so these changed from a number to invalid
+        assertEquals(1000.0, Double.parseDouble("1e3"), 0);
+        assertEquals(Double.NaN, Double.parseDouble("NaN"), 0);
+    }
+
+    @Test
+    public void parsedLongsMatchLongParseLong() {
+        String[] valid = {"0", "-0", "+7", "42", "-42", "007", String.valueOf(Long.MAX_VALUE), String.valueOf(Long.MIN_VALUE)};
+        for (String field : valid) {
+            assertEquals(field, Long.parseLong(field), parseLong(field, -1));
+        }
+        String[] invalid = {"", "-", "+", "1.0", "1e3", " 1", "9223372036854775808", "-9223372036854775809", "12a"};
+        for (String field : invalid) {
+            assertEquals("'" + field + "'", -1, parseLong(field, -1));
+        }
+    }
+
+    /**
+     * Field parsed from a line, checked to parse the same from the line's bytes
+     */
+    private static long parseFixed(String field) {
+        PipeTokenizer tokenizer = new PipeTokenizer(StandardCharsets.US_ASCII);
+        String line = "x|" + field + "|y";
+        tokenizer.tokenize(line);
+        long value = tokenizer.parseFixed(1, INVALID);
+        byte[] bytes = line.getBytes(StandardCharsets.US_ASCII);
+        tokenizer.tokenize(bytes, 0, bytes.length);
+        assertEquals("bytes of '" + field + "'", value, tokenizer.parseFixed(1, INVALID));
+        return value;
+    }
+
+    private static long parseLong(String field, long invalid) {
+        PipeTokenizer tokenizer = new PipeTokenizer(StandardCharsets.US_ASCII);
+        String line = "x|" + field + "|y";
+        tokenizer.tokenize(line);
+        long value = tokenizer.parseLong(1, invalid);
+        byte[] bytes = line.getBytes(StandardCharsets.US_ASCII);
+        tokenizer.tokenize(bytes, 0, bytes.length);
+        assertEquals("bytes of '" + field + "'", value, tokenizer.parseLong(1, invalid));
+        return value;
+    }
+}
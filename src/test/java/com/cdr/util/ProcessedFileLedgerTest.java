@@ -0,0 +1,127 @@
+package com.cdr.util;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Replay of the ledger file after crashes and with paths holding the field separator
+ */
+public class ProcessedFileLedgerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File inputFolder;
+    private File ledgerFile;
+    private ProcessedFileLedger ledger;
+
+    @Before
+    public void setUp() throws Exception {
+        inputFolder = folder.newFolder("voice");
+        ledgerFile = new File(folder.getRoot(), "ledger/processed-files.ledger");
+    }
+
+    @After
+    public void tearDown() {
+        if (ledger != null) {
+            ledger.close();
+        }
+    }
+
+    @Test
+    public void claimAfterTornTailOfCompactedLedgerSurvivesRestart() throws Exception {
+        reopen();
+        File a = ledger.claim("VOICE", inputFile("a.unl"), inputFolder.getAbsolutePath());
+        ledger.markDone(a);
+        ledger.markDone(ledger.claim("VOICE", inputFile("b.unl"), inputFolder.getAbsolutePath()));
+        // Compacted on restart to one line per file
+        reopen();
+        ledger.close();
+        ledger = null;
+        String tail = "CLAIMED|" + System.currentTimeMillis() + "|VOICE|" + inputFolder.getAbsolutePath();
+        Files.write(ledgerFile.toPath(), tail.getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        reopen();
+        File c = ledger.claim("VOICE", inputFile("c.unl"), inputFolder.getAbsolutePath());
+        assertNotNull(c);
+        reopen();
+
+        List<ProcessedFileLedger.ClaimedFile> claims = ledger.getOpenClaims();
+        assertEquals(1, claims.size());
+        assertEquals(c.getAbsoluteFile(), claims.get(0).getFile().getAbsoluteFile());
+        assertTrue(ledger.isProcessed(restore(a)));
+    }
+
+    @Test
+    public void malformedLineIsDroppedBeforeAppending() throws Exception {
+        reopen();
+        ledger.markDone(ledger.claim("VOICE", inputFile("a.unl"), inputFolder.getAbsolutePath()));
+        reopen();
+        ledger.close();
+        ledger = null;
+        Files.write(ledgerFile.toPath(), "garbage\n".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        reopen();
+        File b = ledger.claim("VOICE", inputFile("b.unl"), inputFolder.getAbsolutePath());
+        reopen();
+
+        for (String line : Files.readAllLines(ledgerFile.toPath(), StandardCharsets.UTF_8)) {
+            assertFalse(line.contains("garbage"));
+        }
+        assertTrue(ledger.hasOpenClaim(b));
+    }
+
+    @Test
+    public void pathsWithSeparatorAndEscapesSurviveRestart() throws Exception {
+        reopen();
+        File done = ledger.claim("VOICE", inputFile("x|y.unl"), inputFolder.getAbsolutePath());
+        ledger.markDone(done);
+        File claimed = ledger.claim("VOICE", inputFile("50%7C|%.unl"), inputFolder.getAbsolutePath());
+        assertNotNull(claimed);
+
+        reopen();
+
+        assertTrue(ledger.hasOpenClaim(claimed));
+        List<ProcessedFileLedger.ClaimedFile> claims = ledger.getOpenClaims();
+        assertEquals(1, claims.size());
+        assertEquals(claimed.getAbsoluteFile(), claims.get(0).getFile().getAbsoluteFile());
+        assertTrue(ledger.isProcessed(restore(done)));
+    }
+
+    private void reopen() throws Exception {
+        if (ledger != null) {
+            ledger.close();
+        }
+        ledger = new ProcessedFileLedger(ledgerFile.getAbsolutePath(), false, false, 0);
+        ledger.open();
+    }
+
+    private File inputFile(String name) throws Exception {
+        File file = new File(inputFolder, name);
+        Files.write(file.toPath(), ("1|2|" + name + "\n").getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    /**
+     * Put a claimed file back where it was found, as a resend of the same file would
+     */
+    private File restore(File claimedFile) throws Exception {
+        File file = new File(inputFolder, claimedFile.getName());
+        Files.move(claimedFile.toPath(), file.toPath());
+        return file;
+    }
+}